@@ -15,6 +15,7 @@ import org.json.simple.parser.ParseException;
 import utils.Utils;
 import utils.OutputStats;
 import database.SQLDatabase;
+import database.GatewayRouter;
 import bandits.BanditOptimizer;
 
 
@@ -47,13 +48,15 @@ public class ExperimentExecutor {
             System.out.printf("======= Starting experiment %d =======\n", index);
 
             // Connect to training database
-            trainDb = new SQLDatabase("localhost", 26257, config.get("train_db"), "root");
+            trainDb = getDatabase(config.get("train_db"), config.get("endpoints"));
             trainDb.open();
             trainDb.refreshStats(false);
+            setExecutionOptions(trainDb, config);
 
             // Read training queries and profiling
             trainQueries = getQueries(config.get("training_queries"));
             trainQueryRuntimes = getQueryRuntimes(config.get("training_queries"), config.get("training_profile"));
+            trainDb.setBaselineRuntimes(getBaselineRuntimes(config.get("training_queries"), config.get("training_baseline_profile")));
 
             // Get number of arms and types
             numArms = trainQueries.get(0).size();
@@ -62,6 +65,9 @@ public class ExperimentExecutor {
  
             // Get optimizers
             List<BanditOptimizer> optimizers = Utils.getOptimizers(config.get("optimizer_config"), numArms, numTypes);
+            for (int i = 0; i < optimizers.size(); i++) {
+                optimizers.set(i, trainDb.recoverOptimizer(optimizers.get(i)));
+            }
 
             int[] queryTypes = Utils.generateRandomSequence(numTypes, trainTrials);
 
@@ -89,9 +95,10 @@ public class ExperimentExecutor {
 
             // Create test database
             if (!config.get("test_db").equals(config.get("train_db"))) {
-                testDb = new SQLDatabase("localhost", 26257, config.get("test_db"), "root");
+                testDb = getDatabase(config.get("test_db"), config.get("endpoints"));
                 testDb.open();
                 testDb.refreshStats(false);
+                setExecutionOptions(testDb, config);
             } else {
                 testDb = trainDb;
             }
@@ -100,6 +107,7 @@ public class ExperimentExecutor {
             testTrials = Integer.parseInt(config.get("test_trials"));
             testQueries = getQueries(config.get("testing_queries"));
             testQueryRuntimes = getQueryRuntimes(config.get("testing_queries"), config.get("testing_profile"));
+            testDb.setBaselineRuntimes(getBaselineRuntimes(config.get("testing_queries"), config.get("testing_baseline_profile")));
 
             int numTestTypes = testQueries.size();
             boolean shouldUpdate = Boolean.parseBoolean(config.get("update_during_testing"));
@@ -129,6 +137,90 @@ public class ExperimentExecutor {
 
     }
 
+    private static void setExecutionOptions(SQLDatabase db, HashMap<String, String> config) {
+        // The latency budget is optional; without it, arm queries always run to completion
+        String timeoutFactor = config.get("timeout_factor");
+        if (timeoutFactor != null) {
+            db.setTimeoutFactor(Double.parseDouble(timeoutFactor));
+        }
+
+        String fetchSize = config.get("fetch_size");
+        if (fetchSize != null) {
+            db.setFetchSize(Integer.parseInt(fetchSize));
+        }
+
+        String rewardMetric = config.get("reward_metric");
+        if (rewardMetric != null) {
+            db.setRewardMetric(rewardMetric);
+        }
+
+        // Rewards only include the database latency unless the optimizer overhead is requested as well
+        db.setEndToEndReward(Boolean.parseBoolean(config.get("end_to_end_reward")));
+        db.setExplainFeatures(Boolean.parseBoolean(config.get("explain_features")));
+        db.setIndexFeatures(Boolean.parseBoolean(config.get("index_features")));
+
+        String feedbackRate = config.get("feedback_rate");
+        if (feedbackRate != null) {
+            db.setFeedbackRate(Double.parseDouble(feedbackRate));
+        }
+
+        String selectivityMode = config.get("selectivity_mode");
+        if (selectivityMode != null) {
+            db.setSelectivityMode(selectivityMode);
+        }
+
+        String contextFeatures = config.get("context_features");
+        if (contextFeatures != null) {
+            db.setContextFeatures(contextFeatures);
+        }
+
+        String warmStart = config.get("warm_start");
+        if (warmStart != null) {
+            db.setWarmStart(Integer.parseInt(warmStart));
+        }
+
+        // Decisions of training and testing are appended to the same log
+        String decisionLog = config.get("decision_log");
+        if (decisionLog != null) {
+            db.setDecisionLog(decisionLog);
+        }
+
+        // Updates of training and testing are logged to the same checkpoints
+        String checkpointFolder = config.get("checkpoint_folder");
+        if (checkpointFolder != null) {
+            db.setCheckpointFolder(checkpointFolder);
+        }
+
+        String checkpointInterval = config.get("checkpoint_interval");
+        if (checkpointInterval != null) {
+            db.setCheckpointInterval(Integer.parseInt(checkpointInterval));
+        }
+
+        String aggregatorPort = config.get("aggregator_port");
+        if (aggregatorPort != null) {
+            db.setAggregator(Integer.parseInt(aggregatorPort));
+        }
+
+        String aggregatorInterval = config.get("aggregator_interval");
+        if (aggregatorInterval != null) {
+            db.setAggregatorInterval(Integer.parseInt(aggregatorInterval));
+        }
+
+        // Arms run as prepared statements unless disabled
+        String prepareArms = config.get("prepare_arms");
+        if (prepareArms != null) {
+            db.setPrepareArms(Boolean.parseBoolean(prepareArms));
+        }
+    }
+
+    private static SQLDatabase getDatabase(String dbName, String endpoints) {
+        // The local Cockroach instance, unless gateways are given (host:port,host:port,...)
+        if (endpoints == null) {
+            return new SQLDatabase("localhost", 26257, dbName, "root");
+        }
+        return new SQLDatabase(GatewayRouter.parseEndpoints(endpoints), dbName, "root");
+    }
+
     private static List<List<String>> getQueries(String queryFolder) {
         List<String> filePaths = Utils.getFiles(queryFolder, ".sql");
         List<List<String>> queries = new ArrayList<List<String>>();
@@ -155,6 +247,14 @@ public class ExperimentExecutor {
         return queryRuntimes;
     }
 
+    private static List<HashMap<String, List<Double>>> getBaselineRuntimes(String queryFolder, String baselineFolder) {
+        // Profiles of the unhinted queries are optional
+        if (baselineFolder == null) {
+            return null;
+        }
+        return getQueryRuntimes(queryFolder, baselineFolder);
+    }
+
 
     private static ArrayList<HashMap<String, String>> parseExperimentFile(String path) {
         /**
@@ -178,6 +278,8 @@ public class ExperimentExecutor {
                 config.put("training_profile", (String) configObj.get("training_profile"));
                 config.put("testing_queries", (String) configObj.get("testing_queries"));
                 config.put("testing_profile", (String) configObj.get("testing_profile"));
+                config.put("training_baseline_profile", (String) configObj.get("training_baseline_profile"));
+                config.put("testing_baseline_profile", (String) configObj.get("testing_baseline_profile"));
                 config.put("output_folder", (String) configObj.get("output_folder"));
                 config.put("optimizer_config", (String) configObj.get("optimizer_config"));
                 config.put("train_db", (String) configObj.get("train_db"));
@@ -186,6 +288,23 @@ public class ExperimentExecutor {
                 config.put("test_trials", (String) configObj.get("test_trials"));
                 config.put("update_during_testing", (String) configObj.get("update_during_testing"));
                 config.put("reset_before_testing", (String) configObj.get("reset_before_testing"));
+                config.put("timeout_factor", (String) configObj.get("timeout_factor"));
+                config.put("fetch_size", (String) configObj.get("fetch_size"));
+                config.put("reward_metric", (String) configObj.get("reward_metric"));
+                config.put("end_to_end_reward", (String) configObj.get("end_to_end_reward"));
+                config.put("explain_features", (String) configObj.get("explain_features"));
+                config.put("feedback_rate", (String) configObj.get("feedback_rate"));
+                config.put("selectivity_mode", (String) configObj.get("selectivity_mode"));
+                config.put("prepare_arms", (String) configObj.get("prepare_arms"));
+                config.put("index_features", (String) configObj.get("index_features"));
+                config.put("context_features", (String) configObj.get("context_features"));
+                config.put("decision_log", (String) configObj.get("decision_log"));
+                config.put("warm_start", (String) configObj.get("warm_start"));
+                config.put("checkpoint_folder", (String) configObj.get("checkpoint_folder"));
+                config.put("checkpoint_interval", (String) configObj.get("checkpoint_interval"));
+                config.put("aggregator_port", (String) configObj.get("aggregator_port"));
+                config.put("aggregator_interval", (String) configObj.get("aggregator_interval"));
+                config.put("endpoints", (String) configObj.get("endpoints"));
 
                 configs.add(config);
             }
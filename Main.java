@@ -4,12 +4,19 @@ import java.util.Scanner;
 import java.util.Random;
 import java.util.HashMap;
 import java.io.File;
+import java.io.IOException;
 
 import utils.Utils;
 import utils.OutputStats;
 import database.SQLDatabase;
+import database.GatewayRouter;
+import database.WorkloadDriver;
+import engine.LocalDatabase;
 import bandits.OptimizerFactory;
 import bandits.BanditOptimizer;
+import bandits.OffPolicyEvaluator;
+import bandits.StatisticsAggregator;
+import utils.DecisionLog;
 import parsing.SQLParser;
 
 
@@ -21,6 +28,7 @@ public class Main {
         Scanner inputReader = new Scanner(System.in);
 
         SQLDatabase db = null;
+        LocalDatabase localDb = null;  // Set when connected to the in-process engine
         boolean run = true;
         while (run) {
             System.out.print("> ");
@@ -47,21 +55,76 @@ public class Main {
                         shouldCreateStats = Boolean.parseBoolean(tokens[3]);
                     }
 
-                    // Hard-coded to use local Cockroach Instance
-                    db = new SQLDatabase("localhost", 26257, dbName, userName);
+                    // Uses the local Cockroach instance, unless gateways are given (host:port,host:port,...)
+                    if (tokens.length > 4) {
+                        db = new SQLDatabase(GatewayRouter.parseEndpoints(Utils.strip(tokens[4])), dbName, userName);
+                    } else {
+                        db = new SQLDatabase("localhost", 26257, dbName, userName);
+                    }
                     db.open();
                     db.refreshStats(shouldCreateStats);
                     System.out.println("Connected to database");
                 }
+            } else if (cmd.equals("CONNECT-LOCAL")) {
+                if (tokens.length < 3) {
+                    System.out.println("Must provide a schema text file and a folder of CSV files.");
+                } else {
+                    String tablesPath = tokens[1].trim();
+                    String csvPath = Utils.strip(tokens[2]);
+
+                    boolean useHeaders = false;
+                    if (tokens.length > 3) {
+                        useHeaders = Boolean.parseBoolean(Utils.strip(tokens[3]));
+                    }
+
+                    // Load the CSVs into the in-process engine and run all queries against it
+                    localDb = new LocalDatabase();
+                    int numCreated = localDb.createTables(tablesPath);
+                    System.out.printf("Created %d tables.\n", numCreated);
+
+                    for (String filePath : Utils.getFiles(csvPath, ".csv")) {
+                        String tableName = Utils.getFileName(filePath).split("\\.")[0];
+                        int wereInserted = localDb.importCsv(tableName, filePath, useHeaders, null);
+                        System.out.printf("Loaded %d records into %s\n", wereInserted, tableName);
+                    }
+
+                    localDb.refreshStats();
+                    db = new SQLDatabase(localDb);
+                    System.out.println("Connected to local engine");
+                }
             } else if (cmd.equals("SELECT")) {
                 if (db == null) {
                     System.out.println("Not connected to a database.");
                 } else {
-                    db.select(line, true);
+                    db.selectOnline(line, true);
+                }
+            } else if (cmd.equals("ONLINE")) {
+                if (db == null) {
+                    System.out.println("Not connected to a database.");
+                } else if (tokens.length == 1) {
+                    System.out.println(db.getTemplates() != null ? db.getTemplates() : "Online optimization is disabled.");
+                } else if (Utils.strip(tokens[1]).equalsIgnoreCase("off")) {
+                    db.setOnlineOptimizer(null, 0);
+                    System.out.println("Disabled online optimization");
+                } else if (tokens.length < 3) {
+                    System.out.println("Must provide an optimizer file and the number of join orders per query template.");
+                } else {
+                    // Route SELECTs through the first optimizer of the file, which learns each template from scratch
+                    String optPath = tokens[1].trim();
+                    int numArms = Integer.parseInt(Utils.strip(tokens[2]));
+
+                    List<BanditOptimizer> optimizers = Utils.getOptimizers(optPath, numArms, 0);
+                    if (optimizers.isEmpty()) {
+                        System.out.printf("No optimizers in %s\n", optPath);
+                    } else {
+                        db.setOnlineOptimizer(optimizers.get(0), Utils.getNumFeatures(optPath));
+                        System.out.printf("Routing SELECTs through %s\n", optimizers.get(0).getName());
+                    }
                 }
             } else if (cmd.equals("DISCONNECT")) {
                 db.close();
                 db = null;
+                localDb = null;
                 System.out.println("Disconnected from database");
             } else if (cmd.equals("CREATE-TABLES")) {
                 if (db == null) {
@@ -70,7 +133,7 @@ public class Main {
                     System.out.println("Must provide a schema text file.");
                 } else {
                     String tablesPath = Utils.strip(tokens[1]);  // Path to file containing CREATE TABLE commands.
-                    int numCreated = db.createTables(tablesPath);
+                    int numCreated = (localDb != null) ? localDb.createTables(tablesPath) : db.createTables(tablesPath);
                     System.out.printf("Created %d tables.\n", numCreated);
                 }
             } else if (cmd.equals("IMPORT")) {
@@ -96,7 +159,13 @@ public class Main {
                         }
                     }
 
-                    int wereInserted = db.importCsv(tableName, csvPath, useHeaders, dataTypes);
+                    int wereInserted;
+                    if (localDb != null) {
+                        wereInserted = localDb.importCsv(tableName, csvPath, useHeaders, dataTypes);
+                        localDb.refreshStats();
+                    } else {
+                        wereInserted = db.importCsv(tableName, csvPath, useHeaders, dataTypes);
+                    }
                     System.out.printf("Inserted %d records into %s\n", wereInserted, tableName);
                 }
             } else if (cmd.equals("IMPORT-MANY")) {
@@ -117,9 +186,13 @@ public class Main {
                         String fileName = Utils.getFileName(filePath);
                         String tableName = fileName.split("\\.")[0];
 
-                        int wereInserted = db.importCsv(tableName, filePath, useHeaders, null);
+                        int wereInserted = (localDb != null) ? localDb.importCsv(tableName, filePath, useHeaders, null) : db.importCsv(tableName, filePath, useHeaders, null);
                         System.out.printf("Inserted %d records into %s\n", wereInserted, tableName);
                     }
+
+                    if (localDb != null) {
+                        localDb.refreshStats();
+                    }
                 }
             } else if (cmd.equals("RUN")) {
                 if (db == null) {
@@ -152,7 +225,30 @@ public class Main {
 
                     int numArms = queries.get(0).size();
                     int numTypes = queries.size();
+
+                    // Simulate using profiles unless told to execute the queries (e.g. on the local engine)
                     boolean shouldSimulate = true;
+                    if (tokens.length > 6) {
+                        shouldSimulate = Boolean.parseBoolean(Utils.strip(tokens[6]));
+                    }
+
+                    // Cancel arm queries slower than this multiple of the best known latency
+                    if (tokens.length > 7) {
+                        db.setTimeoutFactor(Double.parseDouble(Utils.strip(tokens[7])));
+                    }
+
+                    // Profiles of the unhinted queries (PROFILE with fixOrderings=false), the baseline of conservative optimizers
+                    List<HashMap<String, List<Double>>> baselineRuntimes = null;
+                    if (tokens.length > 8) {
+                        String baselineFolder = Utils.strip(tokens[8]);
+                        baselineRuntimes = new ArrayList<HashMap<String, List<Double>>>();
+                        for (String path : filePaths) {
+                            String baselinePath = String.format("%s/%s", baselineFolder, Utils.getFileName(path).replace(".sql", ".json"));
+                            baselineRuntimes.add(Utils.readProfilingFromJson(baselinePath));
+                        }
+                    }
+                    db.setBaselineRuntimes(baselineRuntimes);
+
                     boolean shouldUpdate = true;
 
                     // Load bandits
@@ -163,6 +259,11 @@ public class Main {
                         shouldUpdate = false;
                     } else {
                         optimizers = Utils.getOptimizers(optPath, numArms, numTypes);
+
+                        // Continue from the snapshots and logged updates of a previous run, if any
+                        for (int i = 0; i < optimizers.size(); i++) {
+                            optimizers.set(i, db.recoverOptimizer(optimizers.get(i)));
+                        }
                     }
 
                     int[] queryTypes = Utils.generateRandomSequence(numTypes, numTrials);
@@ -188,6 +289,71 @@ public class Main {
                         Utils.saveOptimizer(optimizer, outputFolderPath);
                     }
                 }
+            } else if (cmd.equals("SET")) {
+                if (db == null) {
+                    System.out.println("Not connected to a database.");
+                } else if (tokens.length < 3) {
+                    System.out.println("Must provide an option (fetch_size, reward_metric, timeout_factor, end_to_end_reward, explain_features, feedback_rate, result_cache_bytes, prepare_arms, selectivity_mode, index_features, lookup_arms, context_features, decision_log, warm_start, checkpoint_folder, checkpoint_interval, aggregator_port, aggregator_interval) and a value.");
+                } else {
+                    String option = tokens[1].trim().toLowerCase();
+                    String value = Utils.strip(tokens[2]);
+
+                    if (option.equals("fetch_size")) {
+                        db.setFetchSize(Integer.parseInt(value));
+                    } else if (option.equals("reward_metric")) {
+                        db.setRewardMetric(value);
+                    } else if (option.equals("timeout_factor")) {
+                        db.setTimeoutFactor(Double.parseDouble(value));
+                    } else if (option.equals("end_to_end_reward")) {
+                        db.setEndToEndReward(Boolean.parseBoolean(value));
+                    } else if (option.equals("explain_features")) {
+                        db.setExplainFeatures(Boolean.parseBoolean(value));
+                    } else if (option.equals("feedback_rate")) {
+                        db.setFeedbackRate(Double.parseDouble(value));
+                    } else if (option.equals("result_cache_bytes")) {
+                        db.setResultCacheBytes(Long.parseLong(value));
+                    } else if (option.equals("prepare_arms")) {
+                        db.setPrepareArms(Boolean.parseBoolean(value));
+                    } else if (option.equals("selectivity_mode")) {
+                        db.setSelectivityMode(value.toLowerCase());
+                    } else if (option.equals("index_features")) {
+                        db.setIndexFeatures(Boolean.parseBoolean(value));
+                    } else if (option.equals("lookup_arms")) {
+                        db.setLookupArms(Boolean.parseBoolean(value));
+                    } else if (option.equals("context_features")) {
+                        db.setContextFeatures(value.toLowerCase());
+                    } else if (option.equals("decision_log")) {
+                        db.setDecisionLog(value.equalsIgnoreCase("off") ? null : value);
+                    } else if (option.equals("warm_start")) {
+                        db.setWarmStart(Integer.parseInt(value));
+                    } else if (option.equals("checkpoint_folder")) {
+                        db.setCheckpointFolder(value.equalsIgnoreCase("off") ? null : value);
+                    } else if (option.equals("checkpoint_interval")) {
+                        db.setCheckpointInterval(Integer.parseInt(value));
+                    } else if (option.equals("aggregator_port")) {
+                        db.setAggregator(value.equalsIgnoreCase("off") ? -1 : Integer.parseInt(value));
+                    } else if (option.equals("aggregator_interval")) {
+                        db.setAggregatorInterval(Integer.parseInt(value));
+                    } else {
+                        System.out.printf("Unknown option %s\n", option);
+                    }
+                }
+            } else if (cmd.equals("GATEWAYS")) {
+                if (db == null) {
+                    System.out.println("Not connected to a database.");
+                } else if (db.getRouter() == null) {
+                    System.out.println("Connected to a single gateway.");
+                } else {
+                    System.out.println(db.getRouter());
+                }
+            } else if (cmd.equals("CACHE-STATS")) {
+                if (db == null) {
+                    System.out.println("Not connected to a database.");
+                } else if (db.getResultCache() == null) {
+                    System.out.println("Result cache is disabled.");
+                } else {
+                    System.out.println(db.getResultCache());
+                }
             } else if (cmd.equals("PARSE")) {
                 if (tokens.length < 2) {
                     System.out.println("Must provide a file to parse");
@@ -220,6 +386,129 @@ public class Main {
                         db.profileQueries(queries, numTrials, outputPath, fixOrderings);
                     }
                 }
+            } else if (cmd.equals("EVALUATE")) {
+                if (tokens.length < 3) {
+                    System.out.println("Must provide an optimizer file / folder and a decision log.");
+                } else {
+                    // Score the optimizers on logged decisions without running any queries
+                    String optPath = tokens[1].trim();
+                    String logPath = Utils.strip(tokens[2]);
+
+                    List<DecisionLog.Decision> decisions = DecisionLog.read(logPath);
+
+                    // Optionally keep only the decisions of one logging optimizer
+                    if (tokens.length > 3) {
+                        String policy = Utils.strip(tokens[3]);
+                        List<DecisionLog.Decision> policyDecisions = new ArrayList<DecisionLog.Decision>();
+                        for (DecisionLog.Decision decision : decisions) {
+                            if (decision.getPolicy().equals(policy)) {
+                                policyDecisions.add(decision);
+                            }
+                        }
+                        decisions = policyDecisions;
+                    }
+
+                    OffPolicyEvaluator evaluator = new OffPolicyEvaluator(decisions);
+                    System.out.printf("Read %d decisions from %s\n", decisions.size(), logPath);
+
+                    // Serialized optimizers are scored as fixed policies, new ones learn from the log as they go
+                    List<BanditOptimizer> optimizers;
+                    boolean shouldUpdate = true;
+                    if (new File(optPath).isDirectory()) {
+                        optimizers = Utils.loadOptimizers(optPath);
+                        shouldUpdate = false;
+                    } else {
+                        optimizers = Utils.getOptimizers(optPath, evaluator.getNumArms(), evaluator.getNumTypes());
+                    }
+
+                    for (BanditOptimizer optimizer : optimizers) {
+                        System.out.println(evaluator.evaluate(optimizer, shouldUpdate));
+                    }
+                }
+            } else if (cmd.equals("DRIVE")) {
+                if (db == null) {
+                    System.out.println("Not connected to a database.");
+                } else if (tokens.length < 6) {
+                    System.out.println("Must provide an optimizer file / folder, query folder, profile folder, number of clients, and duration (s).");
+                } else {
+                    String optPath = tokens[1].trim();
+                    String queryPath = tokens[2].trim();
+                    String profileFolder = tokens[3].trim();
+                    int numClients = Integer.parseInt(tokens[4].trim());
+                    double durationSeconds = Double.parseDouble(Utils.strip(tokens[5]));
+
+                    List<String> filePaths = Utils.getFiles(queryPath, ".sql");
+                    List<List<String>> queries = new ArrayList<List<String>>();
+                    List<HashMap<String, List<Double>>> queryRuntimes = new ArrayList<HashMap<String, List<Double>>>();
+                    for (String path : filePaths) {
+                        queries.add(Utils.readQueries(path));
+
+                        String profilePath = String.format("%s/%s", profileFolder, Utils.getFileName(path).replace(".sql", ".json"));
+                        queryRuntimes.add(Utils.readProfilingFromJson(profilePath));
+                    }
+
+                    boolean shouldSimulate = true;
+                    if (tokens.length > 6) {
+                        shouldSimulate = Boolean.parseBoolean(Utils.strip(tokens[6]));
+                    }
+
+                    WorkloadDriver driver = new WorkloadDriver(db, queries, queryRuntimes, shouldSimulate);
+                    driver.setClients(numClients);
+                    driver.setDuration((long) (durationSeconds * 1000));
+
+                    // Mean think time (ms) of each client between queries
+                    if (tokens.length > 7) {
+                        driver.setThinkTime(Double.parseDouble(Utils.strip(tokens[7])));
+                    }
+
+                    // Open-loop arrivals per second instead of closed-loop clients (0 keeps the clients)
+                    if (tokens.length > 8) {
+                        driver.setArrivalRate(Double.parseDouble(Utils.strip(tokens[8])));
+                    }
+
+                    if (tokens.length > 9) {
+                        driver.setPoolSize(Integer.parseInt(Utils.strip(tokens[9])));
+                    }
+
+                    // Relative frequency of each query type, e.g. 3,1,1
+                    if (tokens.length > 10) {
+                        String[] weightTokens = Utils.strip(tokens[10]).split(",");
+                        double[] weights = new double[weightTokens.length];
+                        for (int i = 0; i < weights.length; i++) {
+                            weights[i] = Double.parseDouble(weightTokens[i].trim());
+                        }
+                        driver.setMix(weights);
+                    }
+
+                    // Serialized optimizers run as fixed policies, new ones learn while the workload runs
+                    List<BanditOptimizer> optimizers;
+                    boolean shouldUpdate = true;
+                    if (new File(optPath).isDirectory()) {
+                        optimizers = Utils.loadOptimizers(optPath);
+                        shouldUpdate = false;
+                    } else {
+                        optimizers = Utils.getOptimizers(optPath, queries.get(0).size(), queries.size());
+                    }
+
+                    for (BanditOptimizer optimizer : optimizers) {
+                        WorkloadDriver.Report report = driver.run(optimizer, shouldUpdate);
+                        if (report != null) {
+                            report.print();
+                        }
+                    }
+                }
+            } else if (cmd.equals("AGGREGATE")) {
+                if (tokens.length < 2) {
+                    System.out.println("Must provide a port.");
+                } else {
+                    // Merges the statistics of optimizers in other processes until this process is stopped
+                    try {
+                        StatisticsAggregator aggregator = new StatisticsAggregator(Integer.parseInt(Utils.strip(tokens[1])));
+                        aggregator.run();
+                    } catch (IOException ex) {
+                        System.out.printf("Could not start the aggregator: %s\n", ex.getMessage());
+                    }
+                }
             } else if (cmd.equals("PRINT-OPTIMIZERS")) {
                 if (tokens.length < 2) {
                     System.out.println("Must provide a folder of serialized optimizers.");
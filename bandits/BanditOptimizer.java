@@ -1,18 +1,29 @@
 package bandits;
 
-import java.io.Serializable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Random;
 import org.la4j.Vector;
 
 
-public abstract class BanditOptimizer implements Serializable {
+public abstract class BanditOptimizer {
 
     private static final double EPSILON = 0.5;
     private static final double ANNEAL = 0.75;
-
-    private double[] rewards;
-    private int[] counts;
+    private static final double DEFAULT_PRIOR_STRENGTH = 1.0;
+    private static final double MAX_PRIOR_STRENGTH = 10.0;
+
+    private double[][] rewards;  // Sum of the normalized rewards of each arm within each type
+    private double[][] squaredRewards;
+    private int[][] counts;
+    private double pooledReward;  // Sum of all normalized rewards, across types and arms
+    private int pooledCount;
+    private double priorStrength;  // Pseudo-count of the pooled mean in each per-type estimate, -1 if outdated
     private int numArms;
     private double[] typeMax;
     private int numTypes;
@@ -26,8 +37,12 @@ public abstract class BanditOptimizer implements Serializable {
     private double[] epsilons;
 
     public BanditOptimizer(int numArms, int numTypes, double rewardEpsilon, double rewardAnneal, int updateThreshold, String name) {
-        this.rewards = new double[numArms];
-        this.counts = new int[numArms];
+        this.rewards = new double[numTypes][numArms];
+        this.squaredRewards = new double[numTypes][numArms];
+        this.counts = new int[numTypes][numArms];
+        this.pooledReward = 0.0;
+        this.pooledCount = 0;
+        this.priorStrength = -1;
         this.numArms = numArms;
         this.numTypes = numTypes;
         this.typeMax = new double[numTypes];
@@ -60,19 +75,31 @@ public abstract class BanditOptimizer implements Serializable {
         int newNumTypes = this.getNumTypes() + numToAdd;
         RewardDistribution[] newDistributions = new RewardDistribution[newNumTypes];
         double[] newEpsilons = new double[newNumTypes];
+        double[][] newRewards = new double[newNumTypes][];
+        double[][] newSquaredRewards = new double[newNumTypes][];
+        int[][] newCounts = new int[newNumTypes][];
 
         for (int a = 0; a < newNumTypes; a++) {
             if (a < this.getNumTypes()) {
                 newDistributions[a] = this.rewardDistributions[a];
                 newEpsilons[a] = this.epsilons[a];
+                newRewards[a] = this.rewards[a];
+                newSquaredRewards[a] = this.squaredRewards[a];
+                newCounts[a] = this.counts[a];
             } else {
                 newDistributions[a] = new RewardDistribution(this.getNumArms(), this.updateThreshold);
                 newEpsilons[a] = EPSILON;
+                newRewards[a] = new double[this.getNumArms()];
+                newSquaredRewards[a] = new double[this.getNumArms()];
+                newCounts[a] = new int[this.getNumArms()];
             }
         }
 
         this.epsilons = newEpsilons;
         this.rewardDistributions = newDistributions;
+        this.rewards = newRewards;
+        this.squaredRewards = newSquaredRewards;
+        this.counts = newCounts;
         this.numTypes = newNumTypes;
         
         this.rewardEpsilon = this.originalEpsilon;
@@ -84,11 +111,16 @@ public abstract class BanditOptimizer implements Serializable {
          */
 
         // Reset rewards and counts
-        this.rewards = new double[this.getNumArms()];
-        this.counts = new int[this.getNumArms()];
+        this.rewards = new double[numTypes][this.getNumArms()];
+        this.squaredRewards = new double[numTypes][this.getNumArms()];
+        this.counts = new int[numTypes][this.getNumArms()];
+        this.pooledReward = 0.0;
+        this.pooledCount = 0;
+        this.priorStrength = -1;
 
         // Initialize new reward distributions
         this.rewardDistributions = new RewardDistribution[numTypes];
+        this.epsilons = new double[numTypes];
         for (int i = 0; i < numTypes; i++) {
             this.rewardDistributions[i] = new RewardDistribution(this.getNumArms(), updateThreshold);
             this.epsilons[i] = EPSILON;
@@ -101,6 +133,120 @@ public abstract class BanditOptimizer implements Serializable {
         return this.name;
     }
 
+    public double getInitialRewardEpsilon() {
+        return this.originalEpsilon;
+    }
+
+    public double getRewardAnneal() {
+        return this.rewardAnneal;
+    }
+
+    public int getUpdateThreshold() {
+        return this.updateThreshold;
+    }
+
+    public void writeState(DataOutputStream out) throws IOException {
+        /**
+         * Writes the learned state shared by all optimizers (see OptimizerSnapshot). Optimizers with state of
+         * their own write it after calling this.
+         */
+        out.writeUTF(this.name);
+        out.writeInt(this.numTypes);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.rewards);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.squaredRewards);
+        OptimizerSnapshot.writeIntMatrix(out, this.counts);
+        out.writeDouble(this.pooledReward);
+        out.writeInt(this.pooledCount);
+        out.writeDouble(this.rewardEpsilon);
+        OptimizerSnapshot.writeDoubles(out, this.epsilons);
+        for (RewardDistribution distribution : this.rewardDistributions) {
+            distribution.writeState(out);
+        }
+    }
+
+    public void readState(DataInputStream in, int version) throws IOException {
+        /**
+         * Restores the state written by writeState with the given snapshot version.
+         */
+        this.name = in.readUTF();
+        this.numTypes = in.readInt();
+        this.rewards = OptimizerSnapshot.readDoubleMatrix(in);
+        this.squaredRewards = OptimizerSnapshot.readDoubleMatrix(in);
+        this.counts = OptimizerSnapshot.readIntMatrix(in);
+        this.pooledReward = in.readDouble();
+        this.pooledCount = in.readInt();
+        this.priorStrength = -1;
+        this.rewardEpsilon = in.readDouble();
+        this.epsilons = OptimizerSnapshot.readDoubles(in);
+        this.rewardDistributions = new RewardDistribution[this.numTypes];
+        for (int i = 0; i < this.numTypes; i++) {
+            this.rewardDistributions[i] = RewardDistribution.readState(in);
+        }
+    }
+
+    public int getNumStatistics() {
+        /**
+         * Returns the length of the vector written by writeStatistics.
+         */
+        return 3 * this.numTypes * this.numArms + 2 + this.numTypes * RewardDistribution.getNumStatistics(this.numArms);
+    }
+
+    public void writeStatistics(DoubleBuffer out) {
+        /**
+         * Writes the additive sufficient statistics of the optimizer (sums and counts of rewards, and of the
+         * models of optimizers which add their own after calling this) relative to a fresh optimizer. The
+         * statistics of several optimizers with the same name and number of statistics, learning the same
+         * workload, are merged by adding them element-wise (see StatisticsAggregator).
+         *
+         * State which is not additive (e.g. exploration rates or EXP4's expert weights) stays local.
+         */
+        for (int t = 0; t < this.numTypes; t++) {
+            out.put(this.rewards[t]);
+            out.put(this.squaredRewards[t]);
+            for (int a = 0; a < this.numArms; a++) {
+                out.put(this.counts[t][a]);
+            }
+        }
+        out.put(this.pooledReward);
+        out.put(this.pooledCount);
+        for (RewardDistribution distribution : this.rewardDistributions) {
+            distribution.writeStatistics(out);
+        }
+    }
+
+    public void mergeStatistics(DoubleBuffer delta) {
+        /**
+         * Adds a difference of statistics in the layout of writeStatistics, e.g. what other optimizers learned.
+         */
+        for (int t = 0; t < this.numTypes; t++) {
+            for (int a = 0; a < this.numArms; a++) {
+                this.rewards[t][a] += delta.get();
+            }
+            for (int a = 0; a < this.numArms; a++) {
+                this.squaredRewards[t][a] += delta.get();
+            }
+            for (int a = 0; a < this.numArms; a++) {
+                this.counts[t][a] += (int) Math.round(delta.get());
+            }
+        }
+        this.pooledReward += delta.get();
+        this.pooledCount += (int) Math.round(delta.get());
+        this.priorStrength = -1;
+        for (RewardDistribution distribution : this.rewardDistributions) {
+            distribution.mergeStatistics(delta);
+        }
+    }
+
+    public double[] getStatistics() {
+        DoubleBuffer statistics = DoubleBuffer.allocate(this.getNumStatistics());
+        this.writeStatistics(statistics);
+        return statistics.array();
+    }
+
+    public void mergeStatistics(double[] delta) {
+        this.mergeStatistics(DoubleBuffer.wrap(delta));
+    }
+
     public boolean shouldUpdate(int arm, int type) {
         return this.rewardDistributions[type].shouldUpdate(arm);
     }
@@ -109,6 +255,10 @@ public abstract class BanditOptimizer implements Serializable {
         this.rewardDistributions[type].addSample(reward, arm);
     }
 
+    public boolean hasSamples(int type) {
+        return this.rewardDistributions[type].countSeen() > 0;
+    }
+
     public boolean shouldActGreedy()  {
         double sample = this.rand.nextDouble();
         
@@ -133,6 +283,20 @@ public abstract class BanditOptimizer implements Serializable {
         return result;
     }
 
+    public double getGreedyProbability() {
+        /**
+         * Returns the probability that the next call to shouldActGreedy returns true.
+         */
+        return 1.0 - this.rewardEpsilon;
+    }
+
+    public double getRandomProbability(int type) {
+        /**
+         * Returns the probability that the next call to shouldActRandom for the given type returns true.
+         */
+        return this.epsilons[type];
+    }
+
     public double normalizeReward(double reward, int type) {
         return this.rewardDistributions[type].getReward(reward);
     }
@@ -145,23 +309,178 @@ public abstract class BanditOptimizer implements Serializable {
         return this.numTypes;
     }
 
-    public void addReward(int arm, double reward) {
-        this.rewards[arm] += reward;
+    public void addReward(int arm, int type, double reward) {
+        this.rewards[type][arm] += reward;
+        this.squaredRewards[type][arm] += reward * reward;
+        this.pooledReward += reward;
+        this.priorStrength = -1;
     }
 
-    public void incrementCount(int arm) {
-        this.counts[arm] += 1;
+    public void incrementCount(int arm, int type) {
+        this.counts[type][arm] += 1;
+        this.pooledCount += 1;
+        this.priorStrength = -1;
     }
 
-    public double getReward(int arm) {
-        return this.rewards[arm];
+    public double getReward(int arm, int type) {
+        return this.rewards[type][arm];
     }
 
-    public int getCount(int arm) {
-        return this.counts[arm];   
+    public int getCount(int arm, int type) {
+        return this.counts[type][arm];
+    }
+
+    public double getPooledMean() {
+        return this.pooledCount > 0 ? this.pooledReward / this.pooledCount : 0.0;
+    }
+
+    public double getMeanReward(int arm, int type) {
+        /**
+         * Returns the mean normalized reward of the given arm within the given type, shrunk toward the mean of
+         * all types and arms (an empirical-Bayes estimate). Rarely played arms and new types start from the
+         * pooled mean, while the estimates of frequently played arms are dominated by their own samples.
+         */
+        double strength = this.getPriorStrength();
+        return (this.rewards[type][arm] + strength * this.getPooledMean()) / (this.counts[type][arm] + strength);
+    }
+
+    private double getPriorStrength() {
+        /**
+         * Estimates how many samples the pooled mean is worth as the ratio of the variance of the rewards within
+         * each (type, arm) to the variance of the (type, arm) means around the pooled mean (method of moments).
+         */
+        if (this.priorStrength >= 0) {
+            return this.priorStrength;
+        }
+
+        double pooledMean = this.getPooledMean();
+        double withinSum = 0.0;
+        int withinDof = 0;
+        for (int t = 0; t < this.rewards.length; t++) {
+            for (int a = 0; a < this.numArms; a++) {
+                int n = this.counts[t][a];
+                if (n >= 2) {
+                    withinSum += this.squaredRewards[t][a] - (this.rewards[t][a] * this.rewards[t][a]) / n;
+                    withinDof += n - 1;
+                }
+            }
+        }
+
+        if (withinDof == 0) {
+            this.priorStrength = DEFAULT_PRIOR_STRENGTH;
+            return this.priorStrength;
+        }
+        double withinVariance = Math.max(withinSum / withinDof, 0.0);
+
+        double betweenSum = 0.0;
+        int numCells = 0;
+        for (int t = 0; t < this.rewards.length; t++) {
+            for (int a = 0; a < this.numArms; a++) {
+                int n = this.counts[t][a];
+                if (n >= 1) {
+                    double diff = this.rewards[t][a] / n - pooledMean;
+                    betweenSum += diff * diff - withinVariance / n;
+                    numCells += 1;
+                }
+            }
+        }
+        double betweenVariance = betweenSum / numCells;
+
+        // Means which barely differ beyond their noise are pooled as much as allowed
+        if (betweenVariance <= withinVariance / MAX_PRIOR_STRENGTH) {
+            this.priorStrength = MAX_PRIOR_STRENGTH;
+        } else {
+            this.priorStrength = withinVariance / betweenVariance;
+        }
+        return this.priorStrength;
     }
     
     public void update(int arm, int type, double reward, List<Vector> contexts) { }
 
+    public void warmStart(int type, List<List<Double>> armRewards, List<Vector> contexts, int pseudoCount) {
+        /**
+         * Fits the optimizer to profiled rewards of each arm of the given type before any live feedback. Each arm
+         * contributes at most pseudoCount rewards, evenly spaced quantiles of its profile, so that live feedback
+         * soon outweighs stale profiles. All rewards are recorded before any is fit, so every reward is
+         * normalized against the same distribution.
+         *
+         * @param type: Query type
+         * @param armRewards: Profiled rewards (negative latencies) of each arm
+         * @param contexts: Current context of each arm
+         * @param pseudoCount: Maximum number of rewards per arm
+         */
+        List<List<Double>> representatives = new ArrayList<List<Double>>();
+        for (int a = 0; a < armRewards.size() && a < this.getNumArms(); a++) {
+            List<Double> rewards = getQuantiles(armRewards.get(a), pseudoCount);
+            for (double reward : rewards) {
+                this.recordSample(reward, a, type);
+            }
+            representatives.add(rewards);
+        }
+
+        for (int a = 0; a < representatives.size(); a++) {
+            for (double reward : representatives.get(a)) {
+                this.fit(a, type, this.normalizeReward(reward, type), contexts);
+            }
+        }
+    }
+
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
+        /**
+         * Updates the parameters with an already recorded and normalized reward (see warmStart). Optimizers
+         * without parameters (e.g. random) ignore it.
+         */
+    }
+
+    public void updateCensored(int arm, int type, double rewardBound, List<Vector> contexts) {
+        /**
+         * Records an arm which was cancelled at its latency budget, so its true reward is only known to be below
+         * rewardBound. The bound is not a sample of the arm's latency, so it stays out of the reward distribution
+         * which normalizes every other reward. Instead the arm is fit with the expected normalized reward beyond
+         * the bound (see getCensoredReward), which is always worse than the bound itself.
+         */
+        this.fit(arm, type, this.getCensoredReward(rewardBound, type), contexts);
+    }
+
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        /**
+         * Returns the probability of each arm being chosen by getArm with the same arguments, which is logged as
+         * the propensity of each decision for off-policy evaluation. Call it before getArm, since choosing an arm
+         * may change these probabilities (e.g. by annealing the exploration rate). By default the optimizer is
+         * assumed to be deterministic, which holds for those without random exploration.
+         */
+        double[] probabilities = new double[this.getNumArms()];
+        probabilities[this.getArm(time, type, contexts, shouldExploit)] = 1.0;
+        return probabilities;
+    }
+
     public abstract int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit);
+
+    private double getCensoredReward(double rewardBound, int type) {
+        /**
+         * A reward normalizes to its quantile in the reward distribution minus one, so a reward known to lie
+         * below the bound has a quantile uniform between 0 and that of the bound. Its expected normalized reward
+         * is therefore halfway between -1 and the normalized bound. Without any finished query of the type, the
+         * bound cannot be normalized and the worst reward is used.
+         */
+        if (!this.hasSamples(type)) {
+            return -1.0;
+        }
+        return (this.normalizeReward(rewardBound, type) - 1.0) / 2.0;
+    }
+
+    private static List<Double> getQuantiles(List<Double> samples, int count) {
+        if (samples == null || samples.size() <= count) {
+            return samples != null ? samples : new ArrayList<Double>();
+        }
+
+        List<Double> sorted = new ArrayList<Double>(samples);
+        Collections.sort(sorted);
+
+        List<Double> quantiles = new ArrayList<Double>();
+        for (int i = 0; i < count; i++) {
+            quantiles.add(sorted.get((int) (((i + 0.5) * sorted.size()) / count)));
+        }
+        return quantiles;
+    }
 }
@@ -0,0 +1,304 @@
+package bandits;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.List;
+import org.la4j.Vector;
+
+
+public class ConservativeOptimizer extends BanditOptimizer {
+
+    private static final double CONFIDENCE = 2.0;  // Width of the pessimistic latency estimates in standard errors
+    private static final double UNSEEN_LATENCY_FACTOR = 3.0;  // Pessimistic latency of an untried arm relative to the baseline
+
+    private BanditOptimizer optimizer;
+    private double alpha;
+
+    private int[][] counts;  // Latency statistics of each arm of the wrapped optimizer within each type
+    private double[][] latencySums;
+    private double[][] squaredSums;
+    private int[] baselineCounts;  // Latency statistics of the baseline within each type
+    private double[] baselineSums;
+    private double[] baselinePriors;  // Profiled baseline latency of each type, NaN if unknown
+
+    private double totalLatency;  // Latency of all played arms
+    private double totalBaselineLatency;  // Estimated latency had the baseline been played instead
+
+    public ConservativeOptimizer(BanditOptimizer optimizer, double alpha) {
+        /**
+         * Wraps the given optimizer with an additional baseline arm (the plan of the database's own optimizer)
+         * and only follows the wrapped optimizer while the cumulative latency, counting the chosen arm at its
+         * pessimistic latency, stays within (1 + alpha) times the estimated cumulative latency of always
+         * playing the baseline. Otherwise the baseline is played, which builds up budget for exploration.
+         *
+         * @param optimizer: Optimizer which chooses among the join orders
+         * @param alpha: Allowed relative regression against the baseline (e.g. 0.1)
+         */
+        super(optimizer.getNumArms() + 1, optimizer.getNumTypes(), 0.0, 1.0, 1, String.format("Conservative-%.2f-%s", alpha, optimizer.getName()));
+        this.optimizer = optimizer;
+        this.alpha = alpha;
+        this.resetStatistics(optimizer.getNumTypes());
+    }
+
+    public BanditOptimizer getOptimizer() {
+        return this.optimizer;
+    }
+
+    public double getAlpha() {
+        return this.alpha;
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        // The wrapped optimizer is written separately (see OptimizerSnapshot)
+        super.writeState(out);
+        OptimizerSnapshot.writeIntMatrix(out, this.counts);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.latencySums);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.squaredSums);
+        OptimizerSnapshot.writeInts(out, this.baselineCounts);
+        OptimizerSnapshot.writeDoubles(out, this.baselineSums);
+        OptimizerSnapshot.writeDoubles(out, this.baselinePriors);
+        out.writeDouble(this.totalLatency);
+        out.writeDouble(this.totalBaselineLatency);
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        super.readState(in, version);
+        this.counts = OptimizerSnapshot.readIntMatrix(in);
+        this.latencySums = OptimizerSnapshot.readDoubleMatrix(in);
+        this.squaredSums = OptimizerSnapshot.readDoubleMatrix(in);
+        this.baselineCounts = OptimizerSnapshot.readInts(in);
+        this.baselineSums = OptimizerSnapshot.readDoubles(in);
+        this.baselinePriors = OptimizerSnapshot.readDoubles(in);
+        this.totalLatency = in.readDouble();
+        this.totalBaselineLatency = in.readDouble();
+    }
+
+    @Override
+    public int getNumStatistics() {
+        int numTypes = this.counts.length;
+        return this.optimizer.getNumStatistics() + 3 * numTypes * this.optimizer.getNumArms() + 2 * numTypes;
+    }
+
+    @Override
+    public void writeStatistics(DoubleBuffer out) {
+        // Latency estimates are shared, while the budget of cumulative latencies belongs to each optimizer
+        this.optimizer.writeStatistics(out);
+        for (int t = 0; t < this.counts.length; t++) {
+            for (int a = 0; a < this.optimizer.getNumArms(); a++) {
+                out.put(this.counts[t][a]);
+            }
+            out.put(this.latencySums[t]);
+            out.put(this.squaredSums[t]);
+            out.put(this.baselineCounts[t]);
+            out.put(this.baselineSums[t]);
+        }
+    }
+
+    @Override
+    public void mergeStatistics(DoubleBuffer delta) {
+        this.optimizer.mergeStatistics(delta);
+        for (int t = 0; t < this.counts.length; t++) {
+            for (int a = 0; a < this.optimizer.getNumArms(); a++) {
+                this.counts[t][a] += (int) Math.round(delta.get());
+            }
+            for (int a = 0; a < this.optimizer.getNumArms(); a++) {
+                this.latencySums[t][a] += delta.get();
+            }
+            for (int a = 0; a < this.optimizer.getNumArms(); a++) {
+                this.squaredSums[t][a] += delta.get();
+            }
+            this.baselineCounts[t] += (int) Math.round(delta.get());
+            this.baselineSums[t] += delta.get();
+        }
+    }
+
+    public int getBaselineArm() {
+        return this.optimizer.getNumArms();
+    }
+
+    public void setBaselineLatency(int type, double latency) {
+        /**
+         * Sets the profiled latency of the baseline for the given type, which is used until the baseline is played.
+         */
+        this.baselinePriors[type] = latency;
+    }
+
+    public double getBaselineLatency(int type) {
+        if (this.baselineCounts[type] > 0) {
+            return this.baselineSums[type] / this.baselineCounts[type];
+        }
+        return this.baselinePriors[type];
+    }
+
+    @Override
+    public void addQueryTypes(int numToAdd) {
+        if (numToAdd <= 0) {
+            return;
+        }
+
+        this.optimizer.addQueryTypes(numToAdd);
+        super.addQueryTypes(numToAdd);
+
+        int numTypes = this.counts.length + numToAdd;
+        int[][] newCounts = new int[numTypes][];
+        double[][] newSums = new double[numTypes][];
+        double[][] newSquaredSums = new double[numTypes][];
+        int[] newBaselineCounts = new int[numTypes];
+        double[] newBaselineSums = new double[numTypes];
+        double[] newPriors = new double[numTypes];
+        for (int t = 0; t < numTypes; t++) {
+            if (t < this.counts.length) {
+                newCounts[t] = this.counts[t];
+                newSums[t] = this.latencySums[t];
+                newSquaredSums[t] = this.squaredSums[t];
+                newBaselineCounts[t] = this.baselineCounts[t];
+                newBaselineSums[t] = this.baselineSums[t];
+                newPriors[t] = this.baselinePriors[t];
+            } else {
+                newCounts[t] = new int[this.optimizer.getNumArms()];
+                newSums[t] = new double[this.optimizer.getNumArms()];
+                newSquaredSums[t] = new double[this.optimizer.getNumArms()];
+                newPriors[t] = Double.NaN;
+            }
+        }
+
+        this.counts = newCounts;
+        this.latencySums = newSums;
+        this.squaredSums = newSquaredSums;
+        this.baselineCounts = newBaselineCounts;
+        this.baselineSums = newBaselineSums;
+        this.baselinePriors = newPriors;
+    }
+
+    @Override
+    public void reset(int numTypes) {
+        this.optimizer.reset(numTypes);
+        super.reset(numTypes);
+        this.resetStatistics(numTypes);
+    }
+
+    @Override
+    public double normalizeReward(double reward, int type) {
+        return this.optimizer.normalizeReward(reward, type);
+    }
+
+    @Override
+    public boolean hasSamples(int type) {
+        return this.optimizer.hasSamples(type);
+    }
+
+    @Override
+    public void warmStart(int type, List<List<Double>> armRewards, List<Vector> contexts, int pseudoCount) {
+        // The latency budget only trusts live feedback, so only the wrapped optimizer is warm-started
+        this.optimizer.warmStart(type, armRewards, contexts, pseudoCount);
+    }
+
+    @Override
+    public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        double baselineLatency = this.getBaselineLatency(type);
+        if (Double.isNaN(baselineLatency)) {
+            return this.getBaselineArm();  // Nothing to compare against yet
+        }
+
+        int arm = this.optimizer.getArm(time, type, contexts, shouldExploit);
+        if (!this.isSafe(arm, type, baselineLatency)) {
+            return this.getBaselineArm();
+        }
+        return arm;
+    }
+
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        // Arms which would exceed the latency budget pass their probability on to the baseline
+        double[] probabilities = new double[this.getNumArms()];
+        double baselineLatency = this.getBaselineLatency(type);
+        if (Double.isNaN(baselineLatency)) {
+            probabilities[this.getBaselineArm()] = 1.0;
+            return probabilities;
+        }
+
+        double[] innerProbabilities = this.optimizer.getArmProbabilities(time, type, contexts, shouldExploit);
+        for (int a = 0; a < innerProbabilities.length; a++) {
+            if (innerProbabilities[a] > 0) {
+                probabilities[this.isSafe(a, type, baselineLatency) ? a : this.getBaselineArm()] += innerProbabilities[a];
+            }
+        }
+        return probabilities;
+    }
+
+    @Override
+    public void update(int arm, int type, double reward, List<Vector> contexts) {
+        if (arm != this.getBaselineArm()) {
+            this.optimizer.update(arm, type, reward, contexts);
+        }
+        this.record(arm, type, -1 * reward);
+    }
+
+    @Override
+    public void updateCensored(int arm, int type, double rewardBound, List<Vector> contexts) {
+        if (arm != this.getBaselineArm()) {
+            this.optimizer.updateCensored(arm, type, rewardBound, contexts);
+        }
+        this.record(arm, type, -1 * rewardBound);
+    }
+
+    public String toString() {
+        return String.format("%s: latency %.3f, baseline latency %.3f (ratio %.3f, allowed %.3f)", this.getName(), this.totalLatency, this.totalBaselineLatency, this.totalLatency / Math.max(this.totalBaselineLatency, 1e-7), 1.0 + this.alpha);
+    }
+
+    private void record(int arm, int type, double latency) {
+        if (arm == this.getBaselineArm()) {
+            this.baselineCounts[type] += 1;
+            this.baselineSums[type] += latency;
+        } else {
+            this.counts[type][arm] += 1;
+            this.latencySums[type][arm] += latency;
+            this.squaredSums[type][arm] += latency * latency;
+        }
+
+        double baselineLatency = this.getBaselineLatency(type);
+        this.totalLatency += latency;
+        this.totalBaselineLatency += Double.isNaN(baselineLatency) ? latency : baselineLatency;
+    }
+
+    private boolean isSafe(int arm, int type, double baselineLatency) {
+        double budget = (1.0 + this.alpha) * (this.totalBaselineLatency + baselineLatency) - this.totalLatency;
+        return this.getPessimisticLatency(arm, type, baselineLatency) <= budget;
+    }
+
+    private double getPessimisticLatency(int arm, int type, double baselineLatency) {
+        /**
+         * Returns an upper confidence bound on the latency of the given arm. Arms with a single sample are
+         * assumed to vary as much as their mean.
+         */
+        int n = this.counts[type][arm];
+        if (n == 0) {
+            return UNSEEN_LATENCY_FACTOR * baselineLatency;
+        }
+
+        double mean = this.latencySums[type][arm] / n;
+        double std = mean;
+        if (n >= 2) {
+            std = Math.sqrt(Math.max((this.squaredSums[type][arm] - n * mean * mean) / (n - 1), 0.0));
+        }
+        return mean + CONFIDENCE * std / Math.sqrt(n);
+    }
+
+    private void resetStatistics(int numTypes) {
+        this.counts = new int[numTypes][this.optimizer.getNumArms()];
+        this.latencySums = new double[numTypes][this.optimizer.getNumArms()];
+        this.squaredSums = new double[numTypes][this.optimizer.getNumArms()];
+        this.baselineCounts = new int[numTypes];
+        this.baselineSums = new double[numTypes];
+        this.baselinePriors = new double[numTypes];
+        for (int t = 0; t < numTypes; t++) {
+            this.baselinePriors[t] = Double.NaN;
+        }
+        this.totalLatency = 0.0;
+        this.totalBaselineLatency = 0.0;
+    }
+}
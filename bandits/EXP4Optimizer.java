@@ -1,5 +1,8 @@
 package bandits;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Random;
 import java.util.ArrayList;
 import java.util.List;
@@ -36,6 +39,30 @@ public class EXP4Optimizer extends BanditOptimizer {
         }
     }
 
+    public int getNumExperts() {
+        return this.numExperts;
+    }
+
+    public double getNu() {
+        return this.nu;
+    }
+
+    public double getGamma() {
+        return this.gamma;
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        OptimizerSnapshot.writeDoubles(out, this.weights);
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        super.readState(in, version);
+        this.weights = OptimizerSnapshot.readDoubles(in);
+    }
+
     @Override
     public void update(int arm, int type, double reward, List<Vector> contexts) {
 
@@ -45,8 +72,13 @@ public class EXP4Optimizer extends BanditOptimizer {
             return;
         }
 
-        // Normalize reward based on the type (add 1 to bring into range [0.0, 1.0])
-        double normalizedReward = super.normalizeReward(reward, type) + 1.0;
+        this.fit(arm, type, super.normalizeReward(reward, type), contexts);
+    }
+
+    @Override
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
+        // Add 1 to bring the normalized reward into range [0.0, 1.0]
+        normalizedReward += 1.0;
 
         // Stack contexts into a matrix (K x M)
         Matrix contextMatrix = Utils.stackContexts(contexts);
@@ -87,13 +119,7 @@ public class EXP4Optimizer extends BanditOptimizer {
 
     @Override
     public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
-        // Stack contexts into a matrix (K x M)
-        Matrix contextMatrix = Utils.stackContexts(contexts);
-        Utils.normalizeColumns(contextMatrix);
-
-        // Form distribution (K x 1)
-        Vector weightVector = Vector.fromArray(this.weights);
-        Vector distribution = contextMatrix.multiply(weightVector);
+        Vector distribution = this.getDistribution(contexts);
 
         int arm = 0;
         if (shouldExploit || super.shouldActGreedy()) {
@@ -108,6 +134,40 @@ public class EXP4Optimizer extends BanditOptimizer {
         return arm;
     }
 
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        /**
+         * Mixes the three ways getArm chooses an arm: the most likely arm of the expert distribution, a uniformly
+         * random arm, and a sample of the expert distribution.
+         */
+        Vector distribution = this.getDistribution(contexts);
+        double[] probabilities = new double[this.getNumArms()];
+        double greedyProbability = shouldExploit ? 1.0 : super.getGreedyProbability();
+        probabilities[Utils.argMax(distribution)] += greedyProbability;
+        if (greedyProbability >= 1.0) {
+            return probabilities;
+        }
+
+        double randomProbability = (1.0 - greedyProbability) * super.getRandomProbability(type);
+        double sampleProbability = (1.0 - greedyProbability) - randomProbability;
+        double total = distribution.sum();
+        for (int a = 0; a < this.getNumArms(); a++) {
+            probabilities[a] += randomProbability / this.getNumArms();
+            probabilities[a] += total > 0 ? sampleProbability * distribution.get(a) / total : sampleProbability / this.getNumArms();
+        }
+        return probabilities;
+    }
+
+    private Vector getDistribution(List<Vector> contexts) {
+        // Stack contexts into a matrix (K x M)
+        Matrix contextMatrix = Utils.stackContexts(contexts);
+        Utils.normalizeColumns(contextMatrix);
+
+        // Form distribution (K x 1)
+        Vector weightVector = Vector.fromArray(this.weights);
+        return contextMatrix.multiply(weightVector);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
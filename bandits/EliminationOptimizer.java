@@ -0,0 +1,357 @@
+package bandits;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.List;
+import org.la4j.Vector;
+
+
+public class EliminationOptimizer extends BanditOptimizer {
+
+    private static final int MIN_SAMPLES = 3;  // Samples of an arm before its confidence interval is trusted
+    private static final double CHANGE_POINT_Z = 4.0;  // Distance (in standard deviations) of a surprising sample
+    private static final int CHANGE_POINT_RUN = 3;  // Consecutive surprising samples which signal a change-point
+    private static final double MIN_RELATIVE_STD = 0.05;  // Floor of the standard deviation relative to the mean, for near-constant arms
+
+    private BanditOptimizer optimizer;
+    private double confidence;  // Width of the confidence intervals in standard errors
+
+    private int[][] counts;  // Raw reward statistics of each arm within each type
+    private double[][] sums;
+    private double[][] squaredSums;
+    private boolean[][] isEliminated;
+    private int[] surpriseRuns;
+    private long statsEpoch;
+
+    public EliminationOptimizer(BanditOptimizer optimizer, double confidence) {
+        /**
+         * Wraps the given optimizer and permanently drops an arm of a query type once the upper confidence bound
+         * of its reward falls below the lower confidence bound of another arm of that type. Whenever the wrapped
+         * optimizer chooses a dropped arm, the remaining arm with the highest upper bound is played instead.
+         *
+         * Since an elimination is permanent, the intervals are widened to hold for all arms and sample counts
+         * at once (a union bound), and standard deviations are floored relative to the mean so that nearly
+         * constant arms are not dropped on noise.
+         *
+         * @param optimizer: Optimizer which chooses among the remaining arms
+         * @param confidence: Width of a single confidence interval in standard errors (e.g. 2.0)
+         */
+        super(optimizer.getNumArms(), optimizer.getNumTypes(), 0.0, 1.0, 1, String.format("Elim-%s", optimizer.getName()));
+        this.optimizer = optimizer;
+        this.confidence = confidence;
+        this.statsEpoch = -1;
+        this.resetStatistics(optimizer.getNumTypes());
+    }
+
+    public BanditOptimizer getOptimizer() {
+        return this.optimizer;
+    }
+
+    public double getConfidence() {
+        return this.confidence;
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        // The wrapped optimizer is written separately (see OptimizerSnapshot)
+        super.writeState(out);
+        OptimizerSnapshot.writeIntMatrix(out, this.counts);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.sums);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.squaredSums);
+        out.writeInt(this.isEliminated.length);
+        for (boolean[] eliminated : this.isEliminated) {
+            out.writeInt(eliminated.length);
+            for (boolean isEliminated : eliminated) {
+                out.writeBoolean(isEliminated);
+            }
+        }
+        OptimizerSnapshot.writeInts(out, this.surpriseRuns);
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        // Statistics epochs belong to the process which wrote the snapshot
+        super.readState(in, version);
+        this.counts = OptimizerSnapshot.readIntMatrix(in);
+        this.sums = OptimizerSnapshot.readDoubleMatrix(in);
+        this.squaredSums = OptimizerSnapshot.readDoubleMatrix(in);
+        this.isEliminated = new boolean[in.readInt()][];
+        for (int t = 0; t < this.isEliminated.length; t++) {
+            this.isEliminated[t] = new boolean[in.readInt()];
+            for (int a = 0; a < this.isEliminated[t].length; a++) {
+                this.isEliminated[t][a] = in.readBoolean();
+            }
+        }
+        this.surpriseRuns = OptimizerSnapshot.readInts(in);
+        this.statsEpoch = -1;
+    }
+
+    @Override
+    public int getNumStatistics() {
+        return this.optimizer.getNumStatistics() + 3 * this.counts.length * this.getNumArms();
+    }
+
+    @Override
+    public void writeStatistics(DoubleBuffer out) {
+        // The wrapped optimizer learns the rewards, so only its statistics and the confidence intervals are shared
+        this.optimizer.writeStatistics(out);
+        for (int t = 0; t < this.counts.length; t++) {
+            for (int a = 0; a < this.getNumArms(); a++) {
+                out.put(this.counts[t][a]);
+            }
+            out.put(this.sums[t]);
+            out.put(this.squaredSums[t]);
+        }
+    }
+
+    @Override
+    public void mergeStatistics(DoubleBuffer delta) {
+        // Each optimizer eliminates arms itself, but on the merged confidence intervals
+        this.optimizer.mergeStatistics(delta);
+        for (int t = 0; t < this.counts.length; t++) {
+            for (int a = 0; a < this.getNumArms(); a++) {
+                this.counts[t][a] += (int) Math.round(delta.get());
+            }
+            for (int a = 0; a < this.getNumArms(); a++) {
+                this.sums[t][a] += delta.get();
+            }
+            for (int a = 0; a < this.getNumArms(); a++) {
+                this.squaredSums[t][a] += delta.get();
+            }
+            this.eliminate(t);
+        }
+    }
+
+    @Override
+    public void addQueryTypes(int numToAdd) {
+        if (numToAdd <= 0) {
+            return;
+        }
+
+        this.optimizer.addQueryTypes(numToAdd);
+        super.addQueryTypes(numToAdd);
+
+        int numTypes = this.counts.length + numToAdd;
+        int[][] newCounts = new int[numTypes][];
+        double[][] newSums = new double[numTypes][];
+        double[][] newSquaredSums = new double[numTypes][];
+        boolean[][] newEliminated = new boolean[numTypes][];
+        int[] newRuns = new int[numTypes];
+        for (int t = 0; t < numTypes; t++) {
+            if (t < this.counts.length) {
+                newCounts[t] = this.counts[t];
+                newSums[t] = this.sums[t];
+                newSquaredSums[t] = this.squaredSums[t];
+                newEliminated[t] = this.isEliminated[t];
+                newRuns[t] = this.surpriseRuns[t];
+            } else {
+                newCounts[t] = new int[this.getNumArms()];
+                newSums[t] = new double[this.getNumArms()];
+                newSquaredSums[t] = new double[this.getNumArms()];
+                newEliminated[t] = new boolean[this.getNumArms()];
+            }
+        }
+
+        this.counts = newCounts;
+        this.sums = newSums;
+        this.squaredSums = newSquaredSums;
+        this.isEliminated = newEliminated;
+        this.surpriseRuns = newRuns;
+    }
+
+    @Override
+    public void reset(int numTypes) {
+        this.optimizer.reset(numTypes);
+        super.reset(numTypes);
+        this.resetStatistics(numTypes);
+    }
+
+    @Override
+    public double normalizeReward(double reward, int type) {
+        return this.optimizer.normalizeReward(reward, type);
+    }
+
+    @Override
+    public boolean hasSamples(int type) {
+        return this.optimizer.hasSamples(type);
+    }
+
+    @Override
+    public void warmStart(int type, List<List<Double>> armRewards, List<Vector> contexts, int pseudoCount) {
+        // Arms are only eliminated on live feedback, so stale profiles cannot drop an arm for good
+        this.optimizer.warmStart(type, armRewards, contexts, pseudoCount);
+    }
+
+    public boolean isEliminated(int arm, int type) {
+        return this.isEliminated[type][arm];
+    }
+
+    public void observeStatsEpoch(long epoch) {
+        /**
+         * Restores all arms when the database statistics were refreshed since the last call, since the arms
+         * may perform differently on the new data.
+         */
+        if (this.statsEpoch >= 0 && epoch != this.statsEpoch) {
+            this.restoreArms("statistics refresh");
+        }
+        this.statsEpoch = epoch;
+    }
+
+    public void restoreArms(String reason) {
+        for (int t = 0; t < this.counts.length; t++) {
+            this.restoreArms(t, reason);
+        }
+    }
+
+    public void restoreArms(int type, String reason) {
+        /**
+         * Restores the eliminated arms of the given type and forgets the samples they were eliminated on.
+         */
+        int numRestored = 0;
+        for (int a = 0; a < this.getNumArms(); a++) {
+            numRestored += this.isEliminated[type][a] ? 1 : 0;
+        }
+        if (numRestored > 0) {
+            System.out.printf("%s: restored %d arms of type %d after %s\n", this.getName(), numRestored, type, reason);
+        }
+
+        this.counts[type] = new int[this.getNumArms()];
+        this.sums[type] = new double[this.getNumArms()];
+        this.squaredSums[type] = new double[this.getNumArms()];
+        this.isEliminated[type] = new boolean[this.getNumArms()];
+        this.surpriseRuns[type] = 0;
+    }
+
+    @Override
+    public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        int arm = this.optimizer.getArm(time, type, contexts, shouldExploit);
+        if (!this.isEliminated[type][arm]) {
+            return arm;
+        }
+        return this.getSubstituteArm(type, arm);
+    }
+
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        // Eliminated arms pass their probability on to the arm played in their place
+        double[] probabilities = this.optimizer.getArmProbabilities(time, type, contexts, shouldExploit);
+        for (int a = 0; a < this.getNumArms(); a++) {
+            if (this.isEliminated[type][a] && probabilities[a] > 0) {
+                probabilities[this.getSubstituteArm(type, a)] += probabilities[a];
+                probabilities[a] = 0.0;
+            }
+        }
+        return probabilities;
+    }
+
+    @Override
+    public void update(int arm, int type, double reward, List<Vector> contexts) {
+        this.optimizer.update(arm, type, reward, contexts);
+        this.record(arm, type, reward);
+    }
+
+    @Override
+    public void updateCensored(int arm, int type, double rewardBound, List<Vector> contexts) {
+        // The bound overestimates the reward, which only makes the arm harder to eliminate
+        this.optimizer.updateCensored(arm, type, rewardBound, contexts);
+        this.record(arm, type, rewardBound);
+    }
+
+    private int getSubstituteArm(int type, int arm) {
+        // The remaining arm with the highest upper bound
+        int bestArm = arm;
+        double bestBound = -Double.MAX_VALUE;
+        for (int a = 0; a < this.getNumArms(); a++) {
+            if (!this.isEliminated[type][a] && this.getUpperBound(a, type) > bestBound) {
+                bestArm = a;
+                bestBound = this.getUpperBound(a, type);
+            }
+        }
+        return bestArm;
+    }
+
+    private void record(int arm, int type, double reward) {
+        // A run of samples far from the arm's history suggests the workload or data changed
+        int n = this.counts[type][arm];
+        if (n >= MIN_SAMPLES) {
+            double mean = this.sums[type][arm] / n;
+            double std = this.getStd(arm, type);
+            this.surpriseRuns[type] = Math.abs(reward - mean) > CHANGE_POINT_Z * std ? this.surpriseRuns[type] + 1 : 0;
+            if (this.surpriseRuns[type] >= CHANGE_POINT_RUN) {
+                this.restoreArms(type, "a change-point");
+            }
+        }
+
+        this.counts[type][arm] += 1;
+        this.sums[type][arm] += reward;
+        this.squaredSums[type][arm] += reward * reward;
+        this.eliminate(type);
+    }
+
+    private void eliminate(int type) {
+        int leader = -1;
+        double maxLowerBound = -Double.MAX_VALUE;
+        for (int a = 0; a < this.getNumArms(); a++) {
+            if (!this.isEliminated[type][a] && this.counts[type][a] >= MIN_SAMPLES && this.getLowerBound(a, type) > maxLowerBound) {
+                leader = a;
+                maxLowerBound = this.getLowerBound(a, type);
+            }
+        }
+        if (leader < 0) {
+            return;
+        }
+
+        for (int a = 0; a < this.getNumArms(); a++) {
+            if (a != leader && !this.isEliminated[type][a] && this.counts[type][a] >= MIN_SAMPLES && this.getUpperBound(a, type) < maxLowerBound) {
+                this.isEliminated[type][a] = true;
+                System.out.printf("%s: eliminated arm %d of type %d (upper bound %.3f < lower bound %.3f of arm %d)\n", this.getName(), a, type, this.getUpperBound(a, type), maxLowerBound, leader);
+            }
+        }
+    }
+
+    private double getVariance(int arm, int type) {
+        int n = this.counts[type][arm];
+        if (n < 2) {
+            return 0.0;
+        }
+        double mean = this.sums[type][arm] / n;
+        return Math.max((this.squaredSums[type][arm] - n * mean * mean) / (n - 1), 0.0);
+    }
+
+    private double getStd(int arm, int type) {
+        double mean = this.sums[type][arm] / this.counts[type][arm];
+        return Math.max(Math.sqrt(this.getVariance(arm, type)), MIN_RELATIVE_STD * Math.abs(mean));
+    }
+
+    private double getRadius(int arm, int type) {
+        int n = this.counts[type][arm];
+        if (n <= 0) {
+            return Double.MAX_VALUE;
+        }
+
+        // A single interval of confidence standard errors fails with probability about exp(-confidence^2 / 2),
+        // so a union bound over the arms and the n^2 growth in tests adds log(2 * numArms * n^2)
+        double width = this.confidence * this.confidence + 2.0 * Math.log(2.0 * this.getNumArms() * n * n);
+        return this.getStd(arm, type) * Math.sqrt(width / n);
+    }
+
+    private double getUpperBound(int arm, int type) {
+        int n = this.counts[type][arm];
+        return n > 0 ? this.sums[type][arm] / n + this.getRadius(arm, type) : Double.MAX_VALUE;
+    }
+
+    private double getLowerBound(int arm, int type) {
+        int n = this.counts[type][arm];
+        return n > 0 ? this.sums[type][arm] / n - this.getRadius(arm, type) : -Double.MAX_VALUE;
+    }
+
+    private void resetStatistics(int numTypes) {
+        this.counts = new int[numTypes][this.getNumArms()];
+        this.sums = new double[numTypes][this.getNumArms()];
+        this.squaredSums = new double[numTypes][this.getNumArms()];
+        this.isEliminated = new boolean[numTypes][this.getNumArms()];
+        this.surpriseRuns = new int[numTypes];
+    }
+}
@@ -1,5 +1,8 @@
 package bandits;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Random;
 import java.util.List;
 import org.la4j.Vector;
@@ -24,6 +27,18 @@ public class EpsilonGreedyOptimizer extends BanditOptimizer {
         }
     }
 
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeDouble(this.epsilon);
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        super.readState(in, version);
+        this.epsilon = in.readDouble();
+    }
+
     @Override
     public void update(int arm, int type, double reward, List<Vector> contexts) {
         this.epsilon = this.epsilon * ANNEAL_RATE;
@@ -31,23 +46,42 @@ public class EpsilonGreedyOptimizer extends BanditOptimizer {
         super.recordSample(reward, arm, type);
 
         if (super.shouldUpdate(arm, type)) {
-            double normalizedReward = super.normalizeReward(reward, type);
-            super.addReward(arm, normalizedReward);
-            super.incrementCount(arm);
+            this.fit(arm, type, super.normalizeReward(reward, type), contexts);
         }
     }
 
+    @Override
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
+        super.addReward(arm, type, normalizedReward);
+        super.incrementCount(arm, type);
+    }
+
     @Override
     public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
         if (!shouldExploit && (Math.random() < this.epsilon)) {
             return this.rand.nextInt(super.getNumArms());
         }
-     
+        return this.getGreedyArm(type);
+    }
+
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        // Each arm is explored uniformly with probability epsilon, otherwise the greedy arm is chosen
+        double epsilon = shouldExploit ? 0.0 : this.epsilon;
+        double[] probabilities = new double[this.getNumArms()];
+        for (int a = 0; a < this.getNumArms(); a++) {
+            probabilities[a] = epsilon / this.getNumArms();
+        }
+        probabilities[this.getGreedyArm(type)] += 1.0 - epsilon;
+        return probabilities;
+    }
+
+    private int getGreedyArm(int type) {
         // Get arm with the highest average reward
         int maxArm = 0;
-        double maxAvg = super.getReward(0) / (((double) super.getCount(0)) + 1e-7);
+        double maxAvg = super.getMeanReward(0, type);
         for (int a = 1; a < this.getNumArms(); a++) {
-            double avg = super.getReward(a) / (((double) super.getCount(a)) + 1e-7);
+            double avg = super.getMeanReward(a, type);
             if (avg > maxAvg) {
                 maxArm = a;
                 maxAvg = avg;
@@ -0,0 +1,241 @@
+package bandits;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.la4j.Vector;
+
+
+public class FactoredOptimizer extends BanditOptimizer {
+
+    private static final String ARM_DECISION = "arm";
+
+    private HashMap<String, double[]> choiceStats;  // (type, decision, option) -> { count, sum of normalized rewards }
+    private HashMap<Integer, Integer> typePlays;  // Query type -> number of updates
+    private HashMap<Integer, RewardDistribution> planRewards;  // Query type -> rewards of planned queries, which belong to no single arm
+
+    public FactoredOptimizer(int numArms, int numTypes, double rewardEpsilon, double rewardAnneal, int updateThreshold) {
+        /**
+         * Optimizer over plans which are combinations of separate decisions (e.g. the table at each position
+         * of the join order and the algorithm of each join). Each option of each decision keeps its own
+         * statistics, shared by all plans which make that choice, so the number of plays needed to explore
+         * grows with the total number of options rather than with the number of plans.
+         */
+        super(numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold, "FactoredUCB");
+        this.choiceStats = new HashMap<String, double[]>();
+        this.typePlays = new HashMap<Integer, Integer>();
+        this.planRewards = new HashMap<Integer, RewardDistribution>();
+    }
+
+    @Override
+    public void reset(int numTypes) {
+        super.reset(numTypes);
+        this.choiceStats.clear();
+        this.typePlays.clear();
+        this.planRewards.clear();
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        out.writeInt(this.choiceStats.size());
+        for (String key : this.choiceStats.keySet()) {
+            out.writeUTF(key);
+            OptimizerSnapshot.writeDoubles(out, this.choiceStats.get(key));
+        }
+        out.writeInt(this.typePlays.size());
+        for (int type : this.typePlays.keySet()) {
+            out.writeInt(type);
+            out.writeInt(this.typePlays.get(type));
+        }
+        out.writeInt(this.planRewards.size());
+        for (int type : this.planRewards.keySet()) {
+            out.writeInt(type);
+            this.planRewards.get(type).writeState(out);
+        }
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        super.readState(in, version);
+        this.choiceStats.clear();
+        int numChoices = in.readInt();
+        for (int i = 0; i < numChoices; i++) {
+            this.choiceStats.put(in.readUTF(), OptimizerSnapshot.readDoubles(in));
+        }
+        this.typePlays.clear();
+        int numTypes = in.readInt();
+        for (int i = 0; i < numTypes; i++) {
+            this.typePlays.put(in.readInt(), in.readInt());
+        }
+        this.planRewards.clear();
+        if (version >= 3) {
+            int numPlanned = in.readInt();
+            for (int i = 0; i < numPlanned; i++) {
+                this.planRewards.put(in.readInt(), RewardDistribution.readState(in));
+            }
+        }
+    }
+
+    @Override
+    public int getNumStatistics() {
+        return super.getNumStatistics() + this.getNumTypes() * (2 * this.getNumArms() + 1);
+    }
+
+    @Override
+    public void writeStatistics(DoubleBuffer out) {
+        // Only the arm decision has a fixed set of options, so the choices of plan decisions (see JoinPlanner) stay local
+        super.writeStatistics(out);
+        for (int t = 0; t < this.getNumTypes(); t++) {
+            for (int a = 0; a < this.getNumArms(); a++) {
+                double[] stats = this.choiceStats.get(getKey(t, toChoice(ARM_DECISION, String.valueOf(a))));
+                out.put(stats != null ? stats[0] : 0.0);
+                out.put(stats != null ? stats[1] : 0.0);
+            }
+            Integer plays = this.typePlays.get(t);
+            out.put(plays != null ? plays : 0);
+        }
+    }
+
+    @Override
+    public void mergeStatistics(DoubleBuffer delta) {
+        super.mergeStatistics(delta);
+        for (int t = 0; t < this.getNumTypes(); t++) {
+            for (int a = 0; a < this.getNumArms(); a++) {
+                double countDelta = delta.get();
+                double sumDelta = delta.get();
+                if (countDelta == 0 && sumDelta == 0) {
+                    continue;
+                }
+
+                String key = getKey(t, toChoice(ARM_DECISION, String.valueOf(a)));
+                double[] stats = this.choiceStats.get(key);
+                if (stats == null) {
+                    stats = new double[2];
+                    this.choiceStats.put(key, stats);
+                }
+                stats[0] += countDelta;
+                stats[1] += sumDelta;
+            }
+
+            int playsDelta = (int) Math.round(delta.get());
+            if (playsDelta != 0) {
+                Integer plays = this.typePlays.get(t);
+                this.typePlays.put(t, (plays != null ? plays : 0) + playsDelta);
+            }
+        }
+    }
+
+    public static String toChoice(String decision, String option) {
+        return String.format("%s=%s", decision, option);
+    }
+
+    public int choose(int type, String decision, List<String> options, boolean shouldExploit) {
+        /**
+         * Chooses an option of a single decision by its upper confidence bound. Options which were never
+         * chosen for this query type are tried first.
+         *
+         * @param type: Query type
+         * @param decision: Name of the decision (e.g. "position 2")
+         * @param options: Available options, which may differ between calls for the same decision
+         * @param shouldExploit: Whether to choose by the average reward alone
+         * @return The index of the chosen option
+         */
+        Integer plays = this.typePlays.get(type);
+        double logPlays = Math.log((plays != null ? plays : 0) + 1.0);
+
+        int maxOption = 0;
+        double maxScore = -Double.MAX_VALUE;
+        for (int i = 0; i < options.size(); i++) {
+            double[] stats = this.choiceStats.get(getKey(type, toChoice(decision, options.get(i))));
+
+            double score;
+            if (stats == null || stats[0] <= 0) {
+                score = shouldExploit ? -1.0 : Double.MAX_VALUE;  // Normalized rewards lie in [-1, 0]
+            } else {
+                score = stats[1] / stats[0];
+                if (!shouldExploit) {
+                    score += Math.sqrt(2.0 * logPlays / stats[0]);
+                }
+            }
+
+            if (score > maxScore) {
+                maxOption = i;
+                maxScore = score;
+            }
+        }
+        return maxOption;
+    }
+
+    public void updateChoices(int type, List<String> choices, double reward) {
+        /**
+         * Credits the reward of a plan to every choice (see toChoice) it was made of. Plans are not arms, so their
+         * rewards are normalized by the rewards of all plans of the query type.
+         */
+        RewardDistribution distribution = this.planRewards.get(type);
+        if (distribution == null) {
+            distribution = new RewardDistribution(1, this.getUpdateThreshold());
+            this.planRewards.put(type, distribution);
+        }
+
+        distribution.addSample(reward, 0);
+        if (distribution.shouldUpdate(0)) {
+            this.addChoices(type, choices, distribution.getReward(reward));
+        }
+    }
+
+    @Override
+    public void update(int arm, int type, double reward, List<Vector> contexts) {
+        super.recordSample(reward, arm, type);
+        if (!super.shouldUpdate(arm, type)) {
+            return;
+        }
+
+        List<String> choices = new ArrayList<String>();
+        choices.add(toChoice(ARM_DECISION, String.valueOf(arm)));
+        this.addChoices(type, choices, super.normalizeReward(reward, type));
+    }
+
+    @Override
+    public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        /**
+         * Flat arm lists (e.g. the join orders of the query files) are a single decision.
+         */
+        List<String> options = new ArrayList<String>();
+        for (int a = 0; a < this.getNumArms(); a++) {
+            options.add(String.valueOf(a));
+        }
+        return this.choose(type, ARM_DECISION, options, shouldExploit);
+    }
+
+    @Override
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
+        List<String> choices = new ArrayList<String>();
+        choices.add(toChoice(ARM_DECISION, String.valueOf(arm)));
+        this.addChoices(type, choices, normalizedReward);
+    }
+
+    private void addChoices(int type, List<String> choices, double normalizedReward) {
+        for (String choice : choices) {
+            String key = getKey(type, choice);
+            double[] stats = this.choiceStats.get(key);
+            if (stats == null) {
+                stats = new double[2];
+                this.choiceStats.put(key, stats);
+            }
+            stats[0] += 1;
+            stats[1] += normalizedReward;
+        }
+
+        Integer plays = this.typePlays.get(type);
+        this.typePlays.put(type, (plays != null ? plays : 0) + 1);
+    }
+
+    private static String getKey(int type, String choice) {
+        return String.format("%d:%s", type, choice);
+    }
+}
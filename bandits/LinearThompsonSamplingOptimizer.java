@@ -1,6 +1,10 @@
 package bandits;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.Math;
+import java.nio.DoubleBuffer;
 import java.util.List;
 import java.util.Random;
 
@@ -11,11 +15,11 @@ import org.la4j.Vector;
 import org.la4j.inversion.MatrixInverter;
 import org.la4j.inversion.GaussJordanInverter;
 
-import utils.Utils;
-
 
 public class LinearThompsonSamplingOptimizer extends BanditOptimizer {
 
+    private static final int NUM_PROPENSITY_SAMPLES = 200;  // Posterior samples to estimate the probability of each arm
+
     private double r;
     private double delta;
     private int d;
@@ -36,6 +40,79 @@ public class LinearThompsonSamplingOptimizer extends BanditOptimizer {
         this.rand = new Random();
     }
 
+    public int getNumFeatures() {
+        return this.d;
+    }
+
+    public double getDelta() {
+        return this.delta;
+    }
+
+    public double getR() {
+        return this.r;
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        double[][] B = new double[this.B.rows()][this.B.columns()];
+        for (int i = 0; i < B.length; i++) {
+            for (int j = 0; j < B[i].length; j++) {
+                B[i][j] = this.B.get(i, j);
+            }
+        }
+        OptimizerSnapshot.writeDoubleMatrix(out, B);
+
+        double[] mu = new double[this.unnormalizedMu.length()];
+        for (int i = 0; i < mu.length; i++) {
+            mu[i] = this.unnormalizedMu.get(i);
+        }
+        OptimizerSnapshot.writeDoubles(out, mu);
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        super.readState(in, version);
+        this.B = Matrix.from2DArray(OptimizerSnapshot.readDoubleMatrix(in));
+        this.unnormalizedMu = Vector.fromArray(OptimizerSnapshot.readDoubles(in));
+    }
+
+    @Override
+    public int getNumStatistics() {
+        return super.getNumStatistics() + this.d * this.d + this.d;
+    }
+
+    @Override
+    public void writeStatistics(DoubleBuffer out) {
+        // B starts as the identity in every optimizer, so only the outer products are shared
+        super.writeStatistics(out);
+        for (int i = 0; i < this.d; i++) {
+            for (int j = 0; j < this.d; j++) {
+                out.put(i == j ? this.B.get(i, j) - 1.0 : this.B.get(i, j));
+            }
+        }
+        for (int i = 0; i < this.d; i++) {
+            out.put(this.unnormalizedMu.get(i));
+        }
+    }
+
+    @Override
+    public void mergeStatistics(DoubleBuffer delta) {
+        super.mergeStatistics(delta);
+        Matrix BDelta = DenseMatrix.zero(this.d, this.d);
+        for (int i = 0; i < this.d; i++) {
+            for (int j = 0; j < this.d; j++) {
+                BDelta.set(i, j, delta.get());
+            }
+        }
+        Vector muDelta = Vector.zero(this.d);
+        for (int i = 0; i < this.d; i++) {
+            muDelta.set(i, delta.get());
+        }
+        this.B = this.B.add(BDelta);
+        this.unnormalizedMu = this.unnormalizedMu.add(muDelta);
+    }
+
     private double getVariance(int time) {
         return r * Math.sqrt(9 * ((double) d) * Math.log(((double) time) / delta));
     }
@@ -44,22 +121,51 @@ public class LinearThompsonSamplingOptimizer extends BanditOptimizer {
         return BInv.multiply(this.unnormalizedMu);
     }
 
+    private static double[][] getCovariance(Matrix BInv, double var) {
+        // The inverse is only symmetric up to rounding, which the multivariate normal distribution rejects
+        double[][] covMatrix = new double[BInv.rows()][BInv.columns()];
+        for (int i = 0; i < BInv.rows(); i++) {
+            for (int j = 0; j < BInv.columns(); j++) {
+                covMatrix[i][j] = 0.5 * (BInv.get(i, j) + BInv.get(j, i)) * var * var;
+            }
+        }
+        return covMatrix;
+    }
+
+    private static int getGreedyArm(Vector mu, List<Vector> contexts) {
+        // The arm with the highest expected reward under the posterior mean
+        int maxArm = 0;
+        double maxValue = -Double.MAX_VALUE;
+        for (int i = 0; i < contexts.size(); i++) {
+            double value = contexts.get(i).innerProduct(mu);
+            if (value > maxValue) {
+                maxArm = i;
+                maxValue = value;
+            }
+        }
+        return maxArm;
+    }
+
     @Override
     public void update(int arm, int type, double reward, List<Vector> contexts) {
-        Vector context = contexts.get(arm);
-
         if (super.shouldUpdate(arm, type)){
             double normalizedReward = super.normalizeReward(reward, type);
             
             System.out.printf("Raw Reward: %s\n", reward);
             System.out.printf("Normalized Reward: %s\n", normalizedReward);
             
-            this.unnormalizedMu = this.unnormalizedMu.add(context.multiply(normalizedReward));
-            this.B = this.B.add(context.outerProduct(context));
+            this.fit(arm, type, normalizedReward, contexts);
         }
         super.recordSample(reward, arm, type);
     }
 
+    @Override
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
+        Vector context = contexts.get(arm);
+        this.unnormalizedMu = this.unnormalizedMu.add(context.multiply(normalizedReward));
+        this.B = this.B.add(context.outerProduct(context));
+    }
+
     @Override
     public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
         // Copy mu and B into array form
@@ -67,13 +173,7 @@ public class LinearThompsonSamplingOptimizer extends BanditOptimizer {
         MatrixInverter inverter = new GaussJordanInverter(this.B);
         Matrix BInv = inverter.inverse();
 
-        Matrix cov = BInv.multiply(var * var);
-        double[][] covMatrix = new double[cov.rows()][cov.columns()];
-        for (int i = 0; i < cov.rows(); i++) {
-            for (int j = 0; j < cov.columns(); j++) {
-                covMatrix[i][j] = cov.get(i, j);
-            }
-        }
+        double[][] covMatrix = getCovariance(BInv, var);
 
         Vector mu = this.getMu(BInv);
         double[] muArray = new double[mu.length()];
@@ -82,7 +182,7 @@ public class LinearThompsonSamplingOptimizer extends BanditOptimizer {
         }
 
         if (shouldExploit || super.shouldActGreedy()) {
-            return Utils.argMax(mu);
+            return getGreedyArm(mu, contexts);
         }
 
         // Sample the distribution
@@ -105,4 +205,59 @@ public class LinearThompsonSamplingOptimizer extends BanditOptimizer {
         return maxArm;
     }
 
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        /**
+         * Estimates the probability of each arm as the fraction of posterior samples under which it has the
+         * highest reward, since the probabilities of Thompson sampling have no closed form. The estimate is
+         * independent of the sample getArm plays, so an arm may be played although no estimation sample chose
+         * it. Each arm's count is therefore floored at half a sample (and renormalized), which keeps every arm's
+         * propensity positive and its inverse propensity weight below about 2 NUM_PROPENSITY_SAMPLES divided by
+         * the probability of sampling.
+         */
+        double[] probabilities = new double[this.getNumArms()];
+        MatrixInverter inverter = new GaussJordanInverter(this.B);
+        Matrix BInv = inverter.inverse();
+        Vector mu = this.getMu(BInv);
+
+        double greedyProbability = shouldExploit ? 1.0 : super.getGreedyProbability();
+        probabilities[getGreedyArm(mu, contexts)] += greedyProbability;
+        if (greedyProbability >= 1.0) {
+            return probabilities;
+        }
+
+        double var = this.getVariance(time);
+        double[][] covMatrix = getCovariance(BInv, var);
+        double[] muArray = new double[mu.length()];
+        for (int i = 0; i < mu.length(); i++) {
+            muArray[i] = mu.get(i);
+        }
+
+        MultivariateNormalDistribution dist = new MultivariateNormalDistribution(muArray, covMatrix);
+        double[] wins = new double[this.getNumArms()];
+        for (int s = 0; s < NUM_PROPENSITY_SAMPLES; s++) {
+            Vector sampleMu = Vector.fromArray(dist.sample());
+
+            int maxArm = 0;
+            double maxValue = -Double.MAX_VALUE;
+            for (int i = 0; i < contexts.size(); i++) {
+                double dotProd = contexts.get(i).innerProduct(sampleMu);
+                if (dotProd > maxValue) {
+                    maxArm = i;
+                    maxValue = dotProd;
+                }
+            }
+            wins[maxArm] += 1.0;
+        }
+
+        double total = 0.0;
+        for (int a = 0; a < contexts.size(); a++) {
+            wins[a] = Math.max(wins[a], 0.5);
+            total += wins[a];
+        }
+        for (int a = 0; a < contexts.size(); a++) {
+            probabilities[a] += (1.0 - greedyProbability) * wins[a] / total;
+        }
+        return probabilities;
+    }
 }
@@ -1,7 +1,11 @@
 package bandits;
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.Math;
+import java.nio.DoubleBuffer;
 import java.util.Random;
 import java.util.List;
 
@@ -37,6 +41,62 @@ public class LinearUCBOptimizer extends BanditOptimizer {
         }
     }
 
+    public int getNumFeatures() {
+        return this.numFeatures;
+    }
+
+    public double getAlpha() {
+        return this.alpha;
+    }
+
+    public double getLambda() {
+        return this.lambda;
+    }
+
+    @Override
+    public void writeState(DataOutputStream out) throws IOException {
+        super.writeState(out);
+        OptimizerSnapshot.writeDoubleMatrix(out, this.A);
+        OptimizerSnapshot.writeDoubles(out, this.b);
+    }
+
+    @Override
+    public void readState(DataInputStream in, int version) throws IOException {
+        super.readState(in, version);
+        this.A = OptimizerSnapshot.readDoubleMatrix(in);
+        this.b = OptimizerSnapshot.readDoubles(in);
+    }
+
+    @Override
+    public int getNumStatistics() {
+        return super.getNumStatistics() + this.numFeatures * this.numFeatures + this.numFeatures;
+    }
+
+    @Override
+    public void writeStatistics(DoubleBuffer out) {
+        // The regularization of A belongs to every optimizer, so only the outer products are shared
+        super.writeStatistics(out);
+        for (int i = 0; i < this.numFeatures; i++) {
+            for (int j = 0; j < this.numFeatures; j++) {
+                out.put(i == j ? this.A[i][j] - this.lambda : this.A[i][j]);
+            }
+        }
+        out.put(this.b);
+    }
+
+    @Override
+    public void mergeStatistics(DoubleBuffer delta) {
+        super.mergeStatistics(delta);
+        for (int i = 0; i < this.numFeatures; i++) {
+            for (int j = 0; j < this.numFeatures; j++) {
+                this.A[i][j] += delta.get();
+            }
+        }
+        for (int i = 0; i < this.numFeatures; i++) {
+            this.b[i] += delta.get();
+        }
+    }
+
     @Override
     public void update(int arm, int type, double reward, List<Vector> contexts) {
         super.recordSample(reward, arm, type);
@@ -46,8 +106,11 @@ public class LinearUCBOptimizer extends BanditOptimizer {
         }
 
         // Normalize reward based on the query type (add one to bring into range [0, 1])
-        double normalizedReward = super.normalizeReward(reward, type);
-        
+        this.fit(arm, type, super.normalizeReward(reward, type), contexts);
+    }
+
+    @Override
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
         // Stack contexts into (K x D) matrix and normalize columns
         Matrix contextMatrix = Utils.stackContexts(contexts);
         Utils.normalizeColumns(contextMatrix);
@@ -72,7 +135,22 @@ public class LinearUCBOptimizer extends BanditOptimizer {
         if (!shouldExploit && super.shouldActRandom(type)) {
             return this.rand.nextInt(this.getNumArms());
         }
+        return Utils.argMax(this.getScores(contexts));
+    }
+
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        // Each arm is explored uniformly with the random probability, otherwise the arm with the highest bound is chosen
+        double randomProbability = shouldExploit ? 0.0 : super.getRandomProbability(type);
+        double[] probabilities = new double[this.getNumArms()];
+        for (int a = 0; a < this.getNumArms(); a++) {
+            probabilities[a] = randomProbability / this.getNumArms();
+        }
+        probabilities[Utils.argMax(this.getScores(contexts))] += 1.0 - randomProbability;
+        return probabilities;
+    }
 
+    private Vector getScores(List<Vector> contexts) {
         // Stack contexts into (K x D) matrix and normalize columns
         Matrix contextMatrix = Utils.stackContexts(contexts);
         Utils.normalizeColumns(contextMatrix);
@@ -91,9 +169,7 @@ public class LinearUCBOptimizer extends BanditOptimizer {
             double contextA = contextVector.innerProduct(AInv.multiply(contextVector));
             s.set(a, contextTheta + this.alpha * Math.sqrt(contextA));
         }
-
-        int arm = Utils.argMax(s);
-        return arm;
+        return s;
     }
 
     @Override
@@ -0,0 +1,211 @@
+package bandits;
+
+import java.util.List;
+import java.util.HashMap;
+
+import utils.DecisionLog;
+
+
+public class OffPolicyEvaluator {
+
+    private List<DecisionLog.Decision> decisions;
+    private HashMap<String, double[]> armRewards;  // (type, arm) -> { count, sum of logged rewards }
+    private HashMap<Integer, double[]> typeRewards;  // Type -> { count, sum of logged rewards }
+
+    public OffPolicyEvaluator(List<DecisionLog.Decision> decisions) {
+        /**
+         * Scores optimizers on logged decisions (see DecisionLog) without executing any queries. The reward model
+         * of the doubly-robust estimate is the mean logged reward of each arm within each type (falling back to
+         * the mean reward of the type), fit on the whole log.
+         */
+        this.decisions = decisions;
+        this.armRewards = new HashMap<String, double[]>();
+        this.typeRewards = new HashMap<Integer, double[]>();
+
+        for (DecisionLog.Decision decision : decisions) {
+            addSample(this.armRewards, getKey(decision.getQueryType(), decision.getArm()), decision.getReward());
+            addSample(this.typeRewards, decision.getQueryType(), decision.getReward());
+        }
+    }
+
+    public int getNumArms() {
+        int numArms = 0;
+        for (DecisionLog.Decision decision : this.decisions) {
+            numArms = Math.max(numArms, decision.getContexts().size());
+        }
+        return numArms;
+    }
+
+    public int getNumTypes() {
+        int numTypes = 0;
+        for (DecisionLog.Decision decision : this.decisions) {
+            numTypes = Math.max(numTypes, decision.getQueryType() + 1);
+        }
+        return numTypes;
+    }
+
+    public Estimate evaluate(BanditOptimizer optimizer, boolean shouldUpdate) {
+        /**
+         * Replays the log through the given optimizer in order. At each decision, the optimizer's probability of
+         * the logged arm is divided by the logged propensity to weight the logged reward (inverse propensity
+         * scoring), and the doubly-robust estimate adds the reward model's value of the optimizer's distribution.
+         * The optimizer then learns from the logged reward, so a learning optimizer is scored on how it would
+         * have behaved had it observed the same feedback.
+         *
+         * Decisions with a zero logged propensity carry no information about other arms and are skipped.
+         * Logged propensities of sampling optimizers (e.g. Thompson sampling) are themselves Monte Carlo
+         * estimates, which adds to the variance of the weights. The estimate reports the standard errors of IPS
+         * and DR and the effective sample size, so estimates from few effective decisions can be told apart.
+         *
+         * @param optimizer: Optimizer to score, with the arms and types of the log
+         * @param shouldUpdate: Whether the optimizer learns from the logged rewards (false scores a fixed policy)
+         * @return The estimated mean reward of the optimizer
+         */
+        double ipsSum = 0.0;
+        double ipsSquaredSum = 0.0;
+        double weightSum = 0.0;
+        double squaredWeightSum = 0.0;
+        double drSum = 0.0;
+        double drSquaredSum = 0.0;
+        double loggedSum = 0.0;
+        int numUsed = 0;
+
+        for (DecisionLog.Decision decision : this.decisions) {
+            int type = decision.getQueryType();
+            int arm = decision.getArm();
+            double propensity = decision.getPropensity();
+            if (propensity <= 0) {
+                continue;
+            }
+
+            double[] probabilities = optimizer.getArmProbabilities(decision.getTime(), type, decision.getContexts(), !shouldUpdate);
+            optimizer.getArm(decision.getTime(), type, decision.getContexts(), !shouldUpdate);  // Advances any exploration schedule
+
+            double weight = arm < probabilities.length ? probabilities[arm] / propensity : 0.0;
+            double modelValue = 0.0;
+            for (int a = 0; a < probabilities.length; a++) {
+                modelValue += probabilities[a] * this.getModelReward(type, a);
+            }
+
+            double ipsTerm = weight * decision.getReward();
+            double drTerm = modelValue + weight * (decision.getReward() - this.getModelReward(type, arm));
+            ipsSum += ipsTerm;
+            ipsSquaredSum += ipsTerm * ipsTerm;
+            weightSum += weight;
+            squaredWeightSum += weight * weight;
+            drSum += drTerm;
+            drSquaredSum += drTerm * drTerm;
+            loggedSum += decision.getReward();
+            numUsed += 1;
+
+            // Optimizers with fewer arms (e.g. without a conservative baseline) cannot learn from the extra arms
+            if (shouldUpdate && arm < optimizer.getNumArms()) {
+                if (decision.isCensored()) {
+                    optimizer.updateCensored(arm, type, decision.getReward(), decision.getContexts());
+                } else {
+                    optimizer.update(arm, type, decision.getReward(), decision.getContexts());
+                }
+            }
+        }
+
+        if (numUsed == 0) {
+            return new Estimate(optimizer.getName(), 0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+        }
+
+        double snips = weightSum > 0 ? ipsSum / weightSum : 0.0;
+        double effectiveSize = squaredWeightSum > 0 ? (weightSum * weightSum) / squaredWeightSum : 0.0;
+        double ipsError = getStandardError(ipsSum, ipsSquaredSum, numUsed);
+        double drError = getStandardError(drSum, drSquaredSum, numUsed);
+        return new Estimate(optimizer.getName(), numUsed, ipsSum / numUsed, snips, drSum / numUsed, loggedSum / numUsed, effectiveSize, ipsError, drError);
+    }
+
+    private double getModelReward(int type, int arm) {
+        double[] stats = this.armRewards.get(getKey(type, arm));
+        if (stats == null) {
+            stats = this.typeRewards.get(type);
+        }
+        return stats != null ? stats[1] / stats[0] : 0.0;
+    }
+
+    private static double getStandardError(double sum, double squaredSum, int count) {
+        // Standard error of the mean of the per-decision terms
+        if (count < 2) {
+            return 0.0;
+        }
+        double mean = sum / count;
+        double variance = Math.max((squaredSum - count * mean * mean) / (count - 1), 0.0);
+        return Math.sqrt(variance / count);
+    }
+
+    private static <K> void addSample(HashMap<K, double[]> samples, K key, double reward) {
+        double[] stats = samples.get(key);
+        if (stats == null) {
+            stats = new double[2];
+            samples.put(key, stats);
+        }
+        stats[0] += 1;
+        stats[1] += reward;
+    }
+
+    private static String getKey(int type, int arm) {
+        return String.format("%d:%d", type, arm);
+    }
+
+    public static class Estimate {
+
+        private String name;
+        private int numDecisions;
+        private double ips;  // Inverse propensity scoring
+        private double snips;  // Self-normalized inverse propensity scoring
+        private double doublyRobust;
+        private double logged;  // Mean reward of the logging optimizer
+        private double effectiveSize;  // Effective number of decisions after weighting
+        private double ipsError;  // Standard errors of the IPS and DR estimates
+        private double doublyRobustError;
+
+        public Estimate(String name, int numDecisions, double ips, double snips, double doublyRobust, double logged, double effectiveSize, double ipsError, double doublyRobustError) {
+            this.name = name;
+            this.numDecisions = numDecisions;
+            this.ips = ips;
+            this.snips = snips;
+            this.doublyRobust = doublyRobust;
+            this.logged = logged;
+            this.effectiveSize = effectiveSize;
+            this.ipsError = ipsError;
+            this.doublyRobustError = doublyRobustError;
+        }
+
+        public double getIps() {
+            return this.ips;
+        }
+
+        public double getSnips() {
+            return this.snips;
+        }
+
+        public double getDoublyRobust() {
+            return this.doublyRobust;
+        }
+
+        public double getLogged() {
+            return this.logged;
+        }
+
+        public double getEffectiveSize() {
+            return this.effectiveSize;
+        }
+
+        public double getIpsError() {
+            return this.ipsError;
+        }
+
+        public double getDoublyRobustError() {
+            return this.doublyRobustError;
+        }
+
+        public String toString() {
+            // Rewards are negative latencies, so report latencies
+            return String.format("%s: estimated mean latency IPS %.3f (+/- %.3f), SNIPS %.3f, DR %.3f (+/- %.3f) (logged %.3f), effective sample size %.1f of %d", this.name, -1 * this.ips, this.ipsError, -1 * this.snips, -1 * this.doublyRobust, this.doublyRobustError, -1 * this.logged, this.effectiveSize, this.numDecisions);
+        }
+    }
+}
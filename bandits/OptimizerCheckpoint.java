@@ -0,0 +1,143 @@
+package bandits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.la4j.Vector;
+
+
+public class OptimizerCheckpoint {
+
+    private String snapshotPath;
+    private UpdateLog log;
+    private int interval;
+    private int numSinceSnapshot;
+
+    public OptimizerCheckpoint(String folder, BanditOptimizer optimizer, int interval) throws IOException {
+        /**
+         * Makes the updates of the given optimizer durable: its current state is saved as a snapshot in the
+         * folder (see OptimizerSnapshot), each update is appended to a write-ahead log (see UpdateLog) before it
+         * is applied, and a new snapshot replaces the logged updates after every interval updates.
+         *
+         * @param folder: Folder of the snapshot (<name>.snap) and the log (<name>.wal/)
+         * @param interval: Number of updates between snapshots
+         */
+        this.snapshotPath = getSnapshotPath(folder, optimizer.getName());
+        this.log = new UpdateLog(getLogPath(folder, optimizer.getName()), UpdateLog.DEFAULT_SEGMENT_BYTES, UpdateLog.DEFAULT_GROUP_SIZE, UpdateLog.DEFAULT_GROUP_MILLIS);
+        this.interval = Math.max(interval, 1);
+
+        // Logged updates are numbered after those included in the last snapshot
+        long snapshotSequence = OptimizerSnapshot.getSequence(this.snapshotPath);
+        this.log.advanceTo(snapshotSequence);
+        this.checkpoint(optimizer);
+    }
+
+    public static BanditOptimizer recover(String folder, BanditOptimizer optimizer) {
+        /**
+         * Restores the optimizer with the name of the given one from its last snapshot in the folder and replays
+         * the updates logged after it. Without a snapshot, the logged updates are replayed onto the given
+         * optimizer.
+         *
+         * @return The recovered optimizer, or the given one if nothing was saved
+         */
+        String snapshotPath = getSnapshotPath(folder, optimizer.getName());
+        String logPath = getLogPath(folder, optimizer.getName());
+
+        long sequence = 0;
+        BanditOptimizer recovered = optimizer;
+        if (new File(snapshotPath).exists()) {
+            BanditOptimizer loaded = OptimizerSnapshot.load(snapshotPath);
+            if (loaded != null) {
+                recovered = loaded;
+                sequence = OptimizerSnapshot.getSequence(snapshotPath);
+            }
+        }
+
+        int numReplayed = 0;
+        if (new File(logPath).isDirectory()) {
+            try {
+                UpdateLog log = new UpdateLog(logPath, UpdateLog.DEFAULT_SEGMENT_BYTES, UpdateLog.DEFAULT_GROUP_SIZE, UpdateLog.DEFAULT_GROUP_MILLIS);
+                numReplayed = log.replay(recovered, sequence);
+                log.close();
+            } catch (IOException ex) {
+                System.out.printf("Could not replay the update log of %s: %s\n", optimizer.getName(), ex.getMessage());
+            }
+        }
+
+        if (recovered != optimizer || numReplayed > 0) {
+            System.out.printf("Recovered %s from %s (%d updates after the snapshot)\n", recovered.getName(), recovered != optimizer ? "its snapshot" : "scratch", numReplayed);
+        }
+        return recovered;
+    }
+
+    public static boolean exists(String folder, BanditOptimizer optimizer) {
+        /**
+         * Returns whether the folder holds a snapshot or log of the optimizer with the name of the given one. The
+         * first snapshot is taken after any warm start, so the state recover restores already includes it.
+         */
+        return new File(getSnapshotPath(folder, optimizer.getName())).exists() || new File(getLogPath(folder, optimizer.getName())).isDirectory();
+    }
+
+    public void update(BanditOptimizer optimizer, int arm, int type, double reward, boolean isCensored, List<Vector> contexts) {
+        /**
+         * Logs an update and then applies it to the optimizer. If the update cannot be logged, it is still applied
+         * but the remaining updates are no longer logged.
+         */
+        if (this.log != null) {
+            try {
+                this.log.append(arm, type, reward, isCensored, contexts);
+            } catch (IOException ex) {
+                System.out.printf("Could not log the update of %s, so later updates are not durable: %s\n", optimizer.getName(), ex.getMessage());
+                this.log = null;
+            }
+        }
+
+        if (isCensored) {
+            optimizer.updateCensored(arm, type, reward, contexts);
+        } else {
+            optimizer.update(arm, type, reward, contexts);
+        }
+
+        this.numSinceSnapshot += 1;
+        if (this.log != null && this.numSinceSnapshot >= this.interval) {
+            this.checkpoint(optimizer);
+        }
+    }
+
+    public void checkpoint(BanditOptimizer optimizer) {
+        /**
+         * Saves a snapshot including all logged updates and deletes the log segments it covers.
+         */
+        if (this.log == null) {
+            return;
+        }
+
+        long sequence = this.log.getLastSequence();
+        this.log.sync();
+        if (OptimizerSnapshot.save(optimizer, this.snapshotPath, sequence)) {
+            try {
+                this.log.compact(sequence);
+            } catch (IOException ex) {
+                System.out.printf("Could not compact the update log of %s: %s\n", optimizer.getName(), ex.getMessage());
+            }
+            this.numSinceSnapshot = 0;
+        }
+    }
+
+    public void close(BanditOptimizer optimizer) {
+        this.checkpoint(optimizer);
+        if (this.log != null) {
+            this.log.close();
+            this.log = null;
+        }
+    }
+
+    private static String getSnapshotPath(String folder, String name) {
+        return String.format("%s/%s%s", folder, name, OptimizerSnapshot.EXTENSION);
+    }
+
+    private static String getLogPath(String folder, String name) {
+        return String.format("%s/%s.wal", folder, name);
+    }
+}
@@ -11,6 +11,8 @@ public class OptimizerFactory {
             return new EpsilonGreedyOptimizer(epsilon, numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold);
         } else if (name.equals("ucb")) {
             return new UCBOptimizer(numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold);
+        } else if (name.equals("factored_ucb")) {
+            return new FactoredOptimizer(numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold);
         } else if (name.equals("random")) {
             return new RandomOptimizer(numArms, numTypes);
         } else if (name.equals("linear_thompson")) {
@@ -31,24 +33,4 @@ public class OptimizerFactory {
         return null;
     }
 
-    public static BanditOptimizer loadBandit(Object serialized, String fileName) {
-        fileName = fileName.toLowerCase();
-
-        if (fileName.startsWith("epsilongreedy")) {
-            return (EpsilonGreedyOptimizer) serialized;
-        } else if (fileName.startsWith("ucb")) {
-            return (UCBOptimizer) serialized;
-        } else if (fileName.startsWith("random")) {
-            return (RandomOptimizer) serialized;
-        } else if (fileName.startsWith("exp4")) {
-            return (EXP4Optimizer) serialized;
-        } else if (fileName.startsWith("linucb")) {
-            return (LinearUCBOptimizer) serialized;
-        }
-
-        System.out.printf("Could not parse optimizer from file: %s\n", fileName);
-        return null;
-    }
-
-
 }
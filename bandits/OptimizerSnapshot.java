@@ -0,0 +1,294 @@
+package bandits;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+public class OptimizerSnapshot {
+
+    public static final String EXTENSION = ".snap";
+
+    private static final int MAGIC = 0x424e4453;  // "BNDS"
+    private static final int VERSION = 3;  // Increment whenever the layout of any optimizer changes, and read older versions as before
+
+    // Optimizer types, named as in OptimizerFactory.banditFactory
+    private static final String UCB = "ucb";
+    private static final String EPSILON_GREEDY = "epsilon_greedy";
+    private static final String RANDOM = "random";
+    private static final String LINUCB = "linucb";
+    private static final String LINEAR_THOMPSON = "linear_thompson";
+    private static final String EXP4 = "exp4";
+    private static final String FACTORED_UCB = "factored_ucb";
+    private static final String ELIMINATION = "elimination";
+    private static final String CONSERVATIVE = "conservative";
+
+    public static boolean save(BanditOptimizer optimizer, String path) {
+        return save(optimizer, path, 0L);
+    }
+
+    public static boolean save(BanditOptimizer optimizer, String path, long sequence) {
+        /**
+         * Writes a snapshot of the given optimizer to the given path. The snapshot is written to a temporary
+         * file which then replaces the path, so a crash never leaves a partially written snapshot behind.
+         *
+         * Snapshots are laid out explicitly (a header with the format version, the optimizer type and its
+         * parameters, followed by its sufficient statistics) rather than by the class layout, so they remain
+         * readable after the optimizer classes change.
+         *
+         * @param sequence: Sequence number of the last logged update included in the snapshot (see UpdateLog)
+         * @return Whether the snapshot was written
+         */
+        File file = new File(path);
+        File tempFile = new File(path + ".tmp");
+
+        try (FileOutputStream fileStream = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sequence);
+            write(out, optimizer);
+            out.flush();
+            fileStream.getFD().sync();
+        } catch (IOException ex) {
+            System.out.printf("Could not write snapshot of %s to %s: %s\n", optimizer.getName(), path, ex.getMessage());
+            tempFile.delete();
+            return false;
+        }
+
+        try {
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            System.out.printf("Could not replace snapshot %s: %s\n", path, ex.getMessage());
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    public static BanditOptimizer load(String path) {
+        /**
+         * Reads the snapshot at the given path (see save).
+         *
+         * @return The optimizer, or null if the file is not a snapshot of a supported version
+         */
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                System.out.printf("%s is not an optimizer snapshot\n", path);
+                return null;
+            }
+
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                System.out.printf("Snapshot %s has version %d, but only versions up to %d are supported\n", path, version, VERSION);
+                return null;
+            }
+            if (version >= 2) {
+                in.readLong();  // Sequence number
+            }
+            return read(in, version);
+        } catch (IOException ex) {
+            System.out.printf("Could not read snapshot %s: %s\n", path, ex.getMessage());
+            return null;
+        }
+    }
+
+    public static long getSequence(String path) {
+        /**
+         * Returns the sequence number of the last logged update included in the snapshot at the given path,
+         * which is 0 for snapshots written before updates were logged, or -1 if the file is not a snapshot.
+         */
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                return -1;
+            }
+            int version = in.readInt();
+            return version >= 2 ? in.readLong() : 0L;
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    public static void write(DataOutputStream out, BanditOptimizer optimizer) throws IOException {
+        /**
+         * Writes the type, parameters and state of the given optimizer, including any optimizer it wraps.
+         */
+        out.writeUTF(getType(optimizer));
+        out.writeInt(optimizer.getNumArms());
+        out.writeInt(optimizer.getNumTypes());
+        out.writeDouble(optimizer.getInitialRewardEpsilon());
+        out.writeDouble(optimizer.getRewardAnneal());
+        out.writeInt(optimizer.getUpdateThreshold());
+
+        if (optimizer instanceof LinearUCBOptimizer) {
+            LinearUCBOptimizer linUCB = (LinearUCBOptimizer) optimizer;
+            out.writeInt(linUCB.getNumFeatures());
+            out.writeDouble(linUCB.getAlpha());
+            out.writeDouble(linUCB.getLambda());
+        } else if (optimizer instanceof LinearThompsonSamplingOptimizer) {
+            LinearThompsonSamplingOptimizer thompson = (LinearThompsonSamplingOptimizer) optimizer;
+            out.writeInt(thompson.getNumFeatures());
+            out.writeDouble(thompson.getDelta());
+            out.writeDouble(thompson.getR());
+        } else if (optimizer instanceof EXP4Optimizer) {
+            EXP4Optimizer exp4 = (EXP4Optimizer) optimizer;
+            out.writeInt(exp4.getNumExperts());
+            out.writeDouble(exp4.getNu());
+            out.writeDouble(exp4.getGamma());
+        } else if (optimizer instanceof EliminationOptimizer) {
+            EliminationOptimizer elimination = (EliminationOptimizer) optimizer;
+            out.writeDouble(elimination.getConfidence());
+            write(out, elimination.getOptimizer());
+        } else if (optimizer instanceof ConservativeOptimizer) {
+            ConservativeOptimizer conservative = (ConservativeOptimizer) optimizer;
+            out.writeDouble(conservative.getAlpha());
+            write(out, conservative.getOptimizer());
+        }
+
+        optimizer.writeState(out);
+    }
+
+    public static BanditOptimizer read(DataInputStream in, int version) throws IOException {
+        /**
+         * Reads an optimizer written by write in the given snapshot version.
+         */
+        String type = in.readUTF();
+        int numArms = in.readInt();
+        int numTypes = in.readInt();
+        double rewardEpsilon = in.readDouble();
+        double rewardAnneal = in.readDouble();
+        int updateThreshold = in.readInt();
+
+        BanditOptimizer optimizer;
+        if (type.equals(UCB)) {
+            optimizer = new UCBOptimizer(numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold);
+        } else if (type.equals(EPSILON_GREEDY)) {
+            optimizer = new EpsilonGreedyOptimizer(0.0, numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold);  // Epsilon is part of the state
+        } else if (type.equals(RANDOM)) {
+            optimizer = new RandomOptimizer(numArms, numTypes);
+        } else if (type.equals(FACTORED_UCB)) {
+            optimizer = new FactoredOptimizer(numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold);
+        } else if (type.equals(LINUCB)) {
+            int numFeatures = in.readInt();
+            double alpha = in.readDouble();
+            double lambda = in.readDouble();
+            optimizer = new LinearUCBOptimizer(numArms, numTypes, numFeatures, rewardEpsilon, rewardAnneal, updateThreshold, alpha, lambda);
+        } else if (type.equals(LINEAR_THOMPSON)) {
+            int d = in.readInt();
+            double delta = in.readDouble();
+            double r = in.readDouble();
+            optimizer = new LinearThompsonSamplingOptimizer(numArms, numTypes, rewardEpsilon, rewardAnneal, updateThreshold, d, delta, r);
+        } else if (type.equals(EXP4)) {
+            int numExperts = in.readInt();
+            double nu = in.readDouble();
+            double gamma = in.readDouble();
+            optimizer = new EXP4Optimizer(numArms, numTypes, numExperts, rewardEpsilon, rewardAnneal, updateThreshold, nu, gamma);
+        } else if (type.equals(ELIMINATION)) {
+            double confidence = in.readDouble();
+            optimizer = new EliminationOptimizer(read(in, version), confidence);
+        } else if (type.equals(CONSERVATIVE)) {
+            double alpha = in.readDouble();
+            optimizer = new ConservativeOptimizer(read(in, version), alpha);
+        } else {
+            throw new IOException(String.format("Unknown optimizer type %s", type));
+        }
+
+        optimizer.readState(in, version);
+        return optimizer;
+    }
+
+    public static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    public static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    public static void writeDoubleMatrix(DataOutputStream out, double[][] values) throws IOException {
+        out.writeInt(values.length);
+        for (double[] row : values) {
+            writeDoubles(out, row);
+        }
+    }
+
+    public static double[][] readDoubleMatrix(DataInputStream in) throws IOException {
+        double[][] values = new double[in.readInt()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readDoubles(in);
+        }
+        return values;
+    }
+
+    public static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    public static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    public static void writeIntMatrix(DataOutputStream out, int[][] values) throws IOException {
+        out.writeInt(values.length);
+        for (int[] row : values) {
+            writeInts(out, row);
+        }
+    }
+
+    public static int[][] readIntMatrix(DataInputStream in) throws IOException {
+        int[][] values = new int[in.readInt()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readInts(in);
+        }
+        return values;
+    }
+
+    private static String getType(BanditOptimizer optimizer) throws IOException {
+        if (optimizer instanceof UCBOptimizer) {
+            return UCB;
+        } else if (optimizer instanceof EpsilonGreedyOptimizer) {
+            return EPSILON_GREEDY;
+        } else if (optimizer instanceof RandomOptimizer) {
+            return RANDOM;
+        } else if (optimizer instanceof FactoredOptimizer) {
+            return FACTORED_UCB;
+        } else if (optimizer instanceof LinearUCBOptimizer) {
+            return LINUCB;
+        } else if (optimizer instanceof LinearThompsonSamplingOptimizer) {
+            return LINEAR_THOMPSON;
+        } else if (optimizer instanceof EXP4Optimizer) {
+            return EXP4;
+        } else if (optimizer instanceof EliminationOptimizer) {
+            return ELIMINATION;
+        } else if (optimizer instanceof ConservativeOptimizer) {
+            return CONSERVATIVE;
+        }
+        throw new IOException(String.format("No snapshot format for %s", optimizer.getClass().getName()));
+    }
+}
@@ -18,6 +18,15 @@ public class RandomOptimizer extends BanditOptimizer {
     public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
         return this.rand.nextInt(super.getNumArms());
     }
+
+    @Override
+    public double[] getArmProbabilities(int time, int type, List<Vector> contexts, boolean shouldExploit) {
+        double[] probabilities = new double[this.getNumArms()];
+        for (int a = 0; a < this.getNumArms(); a++) {
+            probabilities[a] = 1.0 / this.getNumArms();
+        }
+        return probabilities;
+    }
 }
 
 
@@ -1,13 +1,15 @@
 package bandits;
 
-import java.io.Serializable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.Math;
+import java.nio.DoubleBuffer;
 import java.util.Random;
-import java.util.ArrayList;
 import org.apache.commons.math3.distribution.NormalDistribution;
 
 
-public class RewardDistribution implements Serializable {
+public class RewardDistribution {
 
     private static final double DEFAULT_MEAN = 0.0;
     private static final double DEFAULT_VAR = 0.01;
@@ -16,7 +18,9 @@ public class RewardDistribution implements Serializable {
     private int warmUpPeriod;
     private int numArms;
 
-    private ArrayList<Double>[] samples;
+    private int[] counts;  // Number, sum and sum of squares of the samples of each arm
+    private double[] sums;
+    private double[] squaredSums;
     private Random rand;
 
     public RewardDistribution(int numArms, int warmUpPeriod) {
@@ -24,15 +28,59 @@ public class RewardDistribution implements Serializable {
         this.numArms = numArms;
         this.rand = new Random();
 
-        // Initialize array of sample lists
-        this.samples = new ArrayList[numArms];
-        for (int i = 0; i < numArms; i++) {
-            this.samples[i] = new ArrayList<Double>();
-        }
+        // The mean and variance of each arm only need the sums of its samples
+        this.counts = new int[numArms];
+        this.sums = new double[numArms];
+        this.squaredSums = new double[numArms];
     }
 
     public void addSample(double x, int arm) {
-        this.samples[arm].add(x);
+        this.counts[arm] += 1;
+        this.sums[arm] += x;
+        this.squaredSums[arm] += x * x;
+    }
+
+    public void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(this.warmUpPeriod);
+        out.writeInt(this.numArms);
+        for (int a = 0; a < this.numArms; a++) {
+            out.writeInt(this.counts[a]);
+            out.writeDouble(this.sums[a]);
+            out.writeDouble(this.squaredSums[a]);
+        }
+    }
+
+    public static RewardDistribution readState(DataInputStream in) throws IOException {
+        int warmUpPeriod = in.readInt();
+        int numArms = in.readInt();
+
+        RewardDistribution distribution = new RewardDistribution(numArms, warmUpPeriod);
+        for (int a = 0; a < numArms; a++) {
+            distribution.counts[a] = in.readInt();
+            distribution.sums[a] = in.readDouble();
+            distribution.squaredSums[a] = in.readDouble();
+        }
+        return distribution;
+    }
+
+    public static int getNumStatistics(int numArms) {
+        return 3 * numArms;
+    }
+
+    public void writeStatistics(DoubleBuffer out) {
+        for (int a = 0; a < this.numArms; a++) {
+            out.put(this.counts[a]);
+            out.put(this.sums[a]);
+            out.put(this.squaredSums[a]);
+        }
+    }
+
+    public void mergeStatistics(DoubleBuffer delta) {
+        for (int a = 0; a < this.numArms; a++) {
+            this.counts[a] += (int) Math.round(delta.get());
+            this.sums[a] += delta.get();
+            this.squaredSums[a] += delta.get();
+        }
     }
 
     public int getWarmUpPeriod() {
@@ -40,7 +88,7 @@ public class RewardDistribution implements Serializable {
     }
 
     public boolean shouldUpdate(int arm) {
-        return this.samples[arm].size() >= this.getWarmUpPeriod();
+        return this.counts[arm] >= this.getWarmUpPeriod();
     }
 
     public int getNumArms() {
@@ -48,7 +96,7 @@ public class RewardDistribution implements Serializable {
     }
 
     public boolean hasSeen(int arm) {
-        return this.samples[arm].size() > 0;
+        return this.counts[arm] > 0;
     }
 
     public int countSeen() {
@@ -92,12 +140,12 @@ public class RewardDistribution implements Serializable {
         // Get total number of accrued samples
         double totalCount = 0.0;
         for (int a = 0; a < this.getNumArms(); a++) {
-            totalCount += (double) this.samples[a].size();
+            totalCount += (double) this.counts[a];
         }
         
         // Set mixture probabilities using the smoothing factor
         for (int a = 0; a < this.getNumArms(); a++) {
-            mixtureProbs[a] = (((double) this.samples[a].size()) + SMOOTHING_FACTOR) / (totalCount + SMOOTHING_FACTOR);
+            mixtureProbs[a] = (((double) this.counts[a]) + SMOOTHING_FACTOR) / (totalCount + SMOOTHING_FACTOR);
         }
         
         return mixtureProbs;
@@ -120,34 +168,17 @@ public class RewardDistribution implements Serializable {
     }
 
     private double getMean(int arm) {
-        ArrayList<Double> samples = this.samples[arm];
-
-        if (samples.size() <= 0) {
+        if (this.counts[arm] <= 0) {
             return DEFAULT_MEAN;
         }
-        
-        double sum = 0.0;
-        for (double x : samples) {
-            sum += x;
-        }
-
-        return sum / ((double) samples.size());
+        return this.sums[arm] / ((double) this.counts[arm]);
     }
 
     private double getVariance(int arm, double mean) {
-        ArrayList<Double> samples = this.samples[arm];
-
-        if (samples.size() <= 0) {
+        if (this.counts[arm] <= 0) {
             return DEFAULT_VAR;
         }
-
-        double diff = 0.0;
-        for (double x : samples) {
-            double d = (x - mean);
-            diff += d * d;
-        }
-
-        return diff / ((double) samples.size());
+        return Math.max(this.squaredSums[arm] / ((double) this.counts[arm]) - mean * mean, 0.0);
     }
 
 }
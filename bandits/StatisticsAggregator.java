@@ -0,0 +1,126 @@
+package bandits;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class StatisticsAggregator {
+
+    private ServerSocket serverSocket;
+    private HashMap<String, double[]> models;  // Model key (see getKey) -> sum of all deltas of its optimizers
+    private HashMap<String, Long> sequences;  // Model key and worker -> sequence number of the last delta added
+    private ExecutorService connections;
+
+    public StatisticsAggregator(int port) throws IOException {
+        /**
+         * Merges the statistics of optimizers in several processes (see BanditOptimizer.writeStatistics). Each
+         * worker (see StatisticsClient) sends what its optimizer learned since its last exchange as a delta, and
+         * receives the merged statistics of all workers of that model in reply. The aggregator only adds vectors,
+         * so it needs no knowledge of the optimizers and keeps no state beyond one vector per model and the
+         * sequence number of each worker's last delta, which keeps a resent delta from being added twice.
+         *
+         * Listens on the loopback interface only.
+         */
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.models = new HashMap<String, double[]>();
+        this.sequences = new HashMap<String, Long>();
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "statistics-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static String getKey(BanditOptimizer optimizer) {
+        // Optimizers only merge with those of the same name and layout (e.g. the same number of types and features)
+        return String.format("%s/%d", optimizer.getName(), optimizer.getNumStatistics());
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public void run() {
+        /**
+         * Serves workers until the server socket is closed.
+         */
+        System.out.printf("Aggregating optimizer statistics on port %d\n", this.getPort());
+        while (!this.serverSocket.isClosed()) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.connections.submit(() -> this.serve(socket));
+            } catch (IOException ex) {
+                if (!this.serverSocket.isClosed()) {
+                    System.out.printf("Could not accept worker: %s\n", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    public double[] merge(String key, long worker, long sequence, double[] delta) {
+        /**
+         * Adds the delta to the merged statistics of the given model, unless the worker's delta with this
+         * sequence number was already added (its reply was lost and the worker resent it).
+         *
+         * @return A copy of the merged statistics, including the delta
+         */
+        synchronized (this.models) {
+            double[] merged = this.models.get(key);
+            if (merged == null || merged.length != delta.length) {
+                merged = new double[delta.length];
+                this.models.put(key, merged);
+            }
+
+            String workerKey = String.format("%s/%d", key, worker);
+            Long lastSequence = this.sequences.get(workerKey);
+            if (lastSequence == null || sequence > lastSequence) {
+                for (int i = 0; i < delta.length; i++) {
+                    merged[i] += delta[i];
+                }
+                this.sequences.put(workerKey, sequence);
+            }
+            return merged.clone();
+        }
+    }
+
+    public void close() {
+        try {
+            this.serverSocket.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        this.connections.shutdownNow();
+    }
+
+    private void serve(Socket socket) {
+        // Each request is a model key, worker, sequence number and delta, answered by the merged statistics of the model
+        String worker = socket.getRemoteSocketAddress().toString();
+        System.out.printf("Worker %s connected\n", worker);
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            while (true) {
+                String key = in.readUTF();
+                long workerId = in.readLong();
+                long sequence = in.readLong();
+                double[] delta = OptimizerSnapshot.readDoubles(in);
+                OptimizerSnapshot.writeDoubles(out, this.merge(key, workerId, sequence, delta));
+                out.flush();
+            }
+        } catch (EOFException ex) {
+            System.out.printf("Worker %s disconnected\n", worker);
+        } catch (IOException ex) {
+            System.out.printf("Worker %s failed: %s\n", worker, ex.getMessage());
+        }
+    }
+}
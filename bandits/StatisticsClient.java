@@ -0,0 +1,203 @@
+package bandits;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class StatisticsClient {
+
+    private int port;
+    private int interval;
+    private ExecutorService sender;
+
+    private long workerId;  // Identifies this worker's exchanges to the aggregator
+    private long sequence;  // Sequence number of the latest delta
+    private String key;  // Model key of the optimizer (see StatisticsAggregator.getKey)
+    private double[] base;  // Statistics of the optimizer, excluding what it learned since its last exchange
+    private double[] merged;  // Merged statistics of all workers as of the last exchange
+    private double[] delta;  // Statistics sent by the pending (or last failed) exchange, null once acknowledged
+    private Future<double[]> pending;
+    private int numSinceExchange;
+
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    public StatisticsClient(BanditOptimizer optimizer, int port, int interval) {
+        /**
+         * Exchanges the statistics of an optimizer with a StatisticsAggregator on the given local port every
+         * interval updates. Exchanges run on a background thread, so choosing arms never waits for the
+         * aggregator: the merged statistics are applied at the first update after they arrive.
+         *
+         * Only what the optimizer learns while exchanging is shared. The state it starts with (e.g. a warm start
+         * or a snapshot) stays local, since it may already contain the statistics of other workers.
+         *
+         * Each delta carries a sequence number. A delta whose reply was lost is resent unchanged under the same
+         * number, and the aggregator only adds it once, so no update is counted twice across workers.
+         */
+        this.port = port;
+        this.workerId = new Random().nextLong();
+        this.sequence = 0;
+        this.interval = Math.max(interval, 1);
+        this.sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "statistics-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.numSinceExchange = 0;
+        this.start(optimizer);
+    }
+
+    public void exchange(BanditOptimizer optimizer) {
+        /**
+         * Applies the reply of a finished exchange and starts the next exchange once interval updates passed
+         * since the last. Call it after each update of the optimizer.
+         */
+        this.apply(optimizer);
+
+        this.numSinceExchange += 1;
+        if (this.pending == null && this.numSinceExchange >= this.interval) {
+            this.send(optimizer);
+        }
+    }
+
+    public void close(BanditOptimizer optimizer) {
+        /**
+         * Shares the remaining updates of the optimizer and closes the connection.
+         */
+        this.await(optimizer);
+        boolean isRetry = this.delta != null;
+        this.send(optimizer);
+        this.await(optimizer);
+        if (isRetry && this.delta == null) {
+            // The retried delta did not include the latest updates
+            this.send(optimizer);
+            this.await(optimizer);
+        }
+
+        this.sender.shutdown();
+        this.disconnect();
+    }
+
+    private void send(BanditOptimizer optimizer) {
+        double[] statistics = optimizer.getStatistics();
+        String key = StatisticsAggregator.getKey(optimizer);
+        if (!key.equals(this.key)) {
+            // A new model (e.g. after query types were added), whose statistics so far stay local
+            this.start(optimizer);
+            statistics = this.base;
+        }
+
+        // The aggregator may have applied a delta whose reply was lost, so it is resent as is
+        if (this.delta == null) {
+            double[] delta = new double[statistics.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = statistics[i] - this.base[i];
+            }
+            this.delta = delta;
+            this.sequence += 1;
+        }
+
+        double[] delta = this.delta;
+        long sequence = this.sequence;
+        this.numSinceExchange = 0;
+        this.pending = this.sender.submit(() -> this.request(key, sequence, delta));
+    }
+
+    private void start(BanditOptimizer optimizer) {
+        this.key = StatisticsAggregator.getKey(optimizer);
+        this.base = optimizer.getStatistics();
+        this.merged = new double[this.base.length];
+        this.delta = null;
+    }
+
+    private void apply(BanditOptimizer optimizer) {
+        if (this.pending == null || !this.pending.isDone()) {
+            return;
+        }
+
+        double[] merged = null;
+        try {
+            merged = this.pending.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            System.out.printf("Could not exchange statistics of %s: %s\n", optimizer.getName(), ex.getMessage());
+        }
+        this.pending = null;
+
+        // A failed exchange is retried with the same delta
+        if (merged == null || merged.length != this.merged.length || !this.key.equals(StatisticsAggregator.getKey(optimizer))) {
+            return;
+        }
+
+        // Add what the other workers learned, which is the merged growth beyond this optimizer's own delta
+        double[] others = new double[merged.length];
+        for (int i = 0; i < merged.length; i++) {
+            others[i] = merged[i] - this.merged[i] - this.delta[i];
+            this.base[i] += merged[i] - this.merged[i];
+        }
+        optimizer.mergeStatistics(others);
+        this.merged = merged;
+        this.delta = null;
+    }
+
+    private void await(BanditOptimizer optimizer) {
+        if (this.pending == null) {
+            return;
+        }
+
+        try {
+            this.pending.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            // Reported by apply
+        }
+        this.apply(optimizer);
+    }
+
+    private double[] request(String key, long sequence, double[] delta) {
+        // Runs on the sender thread, reconnecting after failures
+        try {
+            if (this.socket == null) {
+                this.socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+                this.socket.setTcpNoDelay(true);
+                this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+                this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+            }
+
+            this.out.writeUTF(key);
+            this.out.writeLong(this.workerId);
+            this.out.writeLong(sequence);
+            OptimizerSnapshot.writeDoubles(this.out, delta);
+            this.out.flush();
+            return OptimizerSnapshot.readDoubles(this.in);
+        } catch (IOException ex) {
+            System.out.printf("Could not reach the statistics aggregator on port %d: %s\n", this.port, ex.getMessage());
+            this.disconnect();
+            return null;
+        }
+    }
+
+    private void disconnect() {
+        if (this.socket == null) {
+            return;
+        }
+
+        try {
+            this.socket.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        this.socket = null;
+        this.in = null;
+        this.out = null;
+    }
+}
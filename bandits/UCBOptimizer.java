@@ -20,21 +20,25 @@ public class UCBOptimizer extends BanditOptimizer {
         super.recordSample(reward, arm, type);
 
         if (super.shouldUpdate(arm, type)) {
-            double normalizedReward = super.normalizeReward(reward, type);
-            super.addReward(arm, normalizedReward);
-            super.incrementCount(arm);
+            this.fit(arm, type, super.normalizeReward(reward, type), contexts);
         }
     }
 
+    @Override
+    public void fit(int arm, int type, double normalizedReward, List<Vector> contexts) {
+        super.addReward(arm, type, normalizedReward);
+        super.incrementCount(arm, type);
+    }
+
     @Override
     public int getArm(int time, int type, List<Vector> contexts, boolean shouldExploit) {
         int maxArm = -1;
         double maxScore = -Double.MAX_VALUE;
 
         for (int a = 0; a < this.getNumArms(); a++) {
-            double count = ((double) super.getCount(a)) + 1e-7;
+            double count = ((double) super.getCount(a, type)) + 1e-7;
             double radius = Math.sqrt(((double) 2 * time) / count);
-            double avg = super.getReward(a) / count;
+            double avg = super.getMeanReward(a, type);
             double score = avg + radius;
 
             if (score > maxScore) {
@@ -0,0 +1,298 @@
+package bandits;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.la4j.Vector;
+
+
+public class UpdateLog {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_GROUP_SIZE = 32;
+    public static final long DEFAULT_GROUP_MILLIS = 100;
+
+    private static final String SEGMENT_EXTENSION = ".wal";
+    private static final int HEADER_BYTES = 4 + 8 + 4;  // Payload length, sequence number and checksum of each record
+    private static final byte UPDATE = 1;
+    private static final byte CENSORED = 2;
+
+    private File directory;
+    private int segmentBytes;
+    private int groupSize;
+    private long groupMillis;
+
+    private MappedByteBuffer segment;  // Segment which is appended to
+    private long lastSequence;
+    private int numUnsynced;
+    private long lastSyncMillis;
+
+    public UpdateLog(String directory, int segmentBytes, int groupSize, long groupMillis) throws IOException {
+        /**
+         * Opens (or creates) a write-ahead log of optimizer updates in the given directory. Records are appended
+         * to memory-mapped segment files of a fixed size, named by the sequence number of their first record,
+         * and a new segment is started whenever a record does not fit.
+         *
+         * Appended records survive a crash of the JVM as soon as they are written into the mapping. They are only
+         * forced to disk once groupSize records are pending or groupMillis passed since the last force (group
+         * commit), so an operating system crash may lose the last group.
+         *
+         * @param segmentBytes: Size of each segment file
+         * @param groupSize: Number of records forced to disk together
+         * @param groupMillis: Maximum time between forcing pending records to disk
+         */
+        this.directory = new File(directory);
+        this.segmentBytes = segmentBytes;
+        this.groupSize = groupSize;
+        this.groupMillis = groupMillis;
+        this.numUnsynced = 0;
+        this.lastSyncMillis = System.currentTimeMillis();
+
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IOException(String.format("Could not create %s", directory));
+        }
+
+        // Continue after the last intact record of the last segment, overwriting any torn record
+        this.segment = null;
+        this.lastSequence = 0;
+        List<File> segments = this.getSegments();
+        if (!segments.isEmpty()) {
+            File last = segments.get(segments.size() - 1);
+            this.segment = map(last, (int) last.length());
+            this.lastSequence = getStart(last) - 1;
+            while (readRecord(this.segment, this.lastSequence + 1) != null) {
+                this.lastSequence += 1;
+            }
+        }
+    }
+
+    public long getLastSequence() {
+        return this.lastSequence;
+    }
+
+    public void advanceTo(long sequence) throws IOException {
+        /**
+         * Continues numbering after the given sequence number, e.g. that of a snapshot newer than the log.
+         */
+        if (sequence > this.lastSequence) {
+            this.rotate(sequence + 1, 0);
+            this.lastSequence = sequence;
+        }
+    }
+
+    public long append(int arm, int type, double reward, boolean isCensored, List<Vector> contexts) throws IOException {
+        /**
+         * Appends an update of an optimizer, which should be applied only after this returns.
+         *
+         * @return The sequence number of the record
+         */
+        byte[] payload = encode(arm, type, reward, isCensored, contexts);
+        long sequence = this.lastSequence + 1;
+
+        if (this.segment == null || this.segment.remaining() < HEADER_BYTES + payload.length) {
+            this.rotate(sequence, HEADER_BYTES + payload.length);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        this.segment.putInt(payload.length);
+        this.segment.putLong(sequence);
+        this.segment.putInt((int) crc.getValue());
+        this.segment.put(payload);
+        this.lastSequence = sequence;
+
+        this.numUnsynced += 1;
+        if (this.numUnsynced >= this.groupSize || System.currentTimeMillis() - this.lastSyncMillis >= this.groupMillis) {
+            this.sync();
+        }
+        return sequence;
+    }
+
+    public void sync() {
+        if (this.segment != null && this.numUnsynced > 0) {
+            this.segment.force();
+        }
+        this.numUnsynced = 0;
+        this.lastSyncMillis = System.currentTimeMillis();
+    }
+
+    public int replay(BanditOptimizer optimizer, long afterSequence) throws IOException {
+        /**
+         * Applies all logged updates after the given sequence number to the optimizer, in order. Replay stops
+         * at the first record which is torn or corrupt, also when later segments are intact, since applying them
+         * would skip the missing updates.
+         *
+         * @return The number of applied updates
+         */
+        int numApplied = 0;
+        List<File> segments = this.getSegments();
+        for (int s = 0; s < segments.size(); s++) {
+            File file = segments.get(s);
+            MappedByteBuffer buffer = map(file, (int) file.length());
+            long sequence = getStart(file);
+
+            Update update;
+            while ((update = readRecord(buffer, sequence)) != null) {
+                if (sequence > afterSequence) {
+                    if (update.isCensored) {
+                        optimizer.updateCensored(update.arm, update.type, update.reward, update.contexts);
+                    } else {
+                        optimizer.update(update.arm, update.type, update.reward, update.contexts);
+                    }
+                    numApplied += 1;
+                }
+                sequence += 1;
+            }
+
+            // A segment ends early if the next one starts later, unless the snapshot covers the gap (see advanceTo)
+            if (s + 1 < segments.size()) {
+                long nextStart = getStart(segments.get(s + 1));
+                if (sequence < nextStart && nextStart - 1 > afterSequence) {
+                    System.out.printf("Update log %s is torn or corrupt at update %d, so updates %d to %d are lost and replay stops\n", file.getName(), sequence, Math.max(sequence, afterSequence + 1), nextStart - 1);
+                    return numApplied;
+                }
+            }
+        }
+        return numApplied;
+    }
+
+    public int compact(long sequence) throws IOException {
+        /**
+         * Deletes the segments which only contain records up to the given sequence number (e.g. those included
+         * in a snapshot). If the current segment is entirely covered, an empty segment is started first, whose
+         * name carries the sequence numbers on.
+         *
+         * @return The number of deleted segments
+         */
+        if (this.lastSequence <= sequence && this.segment != null && this.segment.position() > 0) {
+            this.rotate(this.lastSequence + 1, 0);
+        }
+
+        List<File> segments = this.getSegments();
+        int numDeleted = 0;
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            long end = getStart(segments.get(i + 1)) - 1;
+            if (end <= sequence && segments.get(i).delete()) {
+                numDeleted += 1;
+            }
+        }
+        return numDeleted;
+    }
+
+    public void close() {
+        this.sync();
+        this.segment = null;
+    }
+
+    private void rotate(long sequence, int recordBytes) throws IOException {
+        this.sync();
+
+        File file = new File(this.directory, String.format("%020d%s", sequence, SEGMENT_EXTENSION));
+        this.segment = map(file, Math.max(this.segmentBytes, recordBytes));
+    }
+
+    private List<File> getSegments() {
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+
+        // Zero-padded names sort by sequence number
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    private static long getStart(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static byte[] encode(int arm, int type, double reward, boolean isCensored, List<Vector> contexts) {
+        int numFeatures = contexts.isEmpty() ? 0 : contexts.get(0).length();
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 4 + 8 + 4 + 4 + 8 * contexts.size() * numFeatures);
+        buffer.put(isCensored ? CENSORED : UPDATE);
+        buffer.putInt(arm);
+        buffer.putInt(type);
+        buffer.putDouble(reward);
+        buffer.putInt(contexts.size());
+        buffer.putInt(numFeatures);
+        for (Vector context : contexts) {
+            for (int i = 0; i < numFeatures; i++) {
+                buffer.putDouble(context.get(i));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static Update readRecord(MappedByteBuffer buffer, long sequence) {
+        /**
+         * Reads the record with the given sequence number at the position of the buffer, and leaves the position
+         * at its start if there is none.
+         *
+         * @return The update, or null at the end of the log or at a torn record
+         */
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_BYTES) {
+            return null;
+        }
+
+        int length = buffer.getInt();
+        long recordSequence = buffer.getLong();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() || recordSequence != sequence) {
+            buffer.position(start);
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            buffer.position(start);
+            return null;
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        Update update = new Update();
+        update.isCensored = record.get() == CENSORED;
+        update.arm = record.getInt();
+        update.type = record.getInt();
+        update.reward = record.getDouble();
+        int numContexts = record.getInt();
+        int numFeatures = record.getInt();
+
+        update.contexts = new ArrayList<Vector>();
+        for (int c = 0; c < numContexts; c++) {
+            double[] context = new double[numFeatures];
+            for (int i = 0; i < numFeatures; i++) {
+                context[i] = record.getDouble();
+            }
+            update.contexts.add(Vector.fromArray(context));
+        }
+        return update;
+    }
+
+    private static class Update {
+
+        private int arm;
+        private int type;
+        private double reward;
+        private boolean isCensored;
+        private List<Vector> contexts;
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.la4j.Vector;
+
+import database.Statistics;
+import utils.Utils;
+
+
+public class BenchmarkData {
+
+    // Approximate IMDB (JOB) table sizes so that selectivities and contexts have realistic magnitudes
+    private static final String[] TABLES = { "title", "movie_companies", "company_type", "company_name", "movie_info", "movie_info_idx", "info_type", "movie_keyword", "keyword" };
+    private static final int[] TABLE_ROWS = { 2528312, 2609129, 4, 234997, 14835720, 1380035, 113, 4523930, 134170 };
+
+    private static final String[][] COLUMNS = {
+        { "id", "title", "production_year" },
+        { "movie_id", "company_id", "company_type_id", "note" },
+        { "id", "kind" },
+        { "id", "name", "country_code" },
+        { "movie_id", "info" },
+        { "movie_id", "info_type_id", "info" },
+        { "id", "info" },
+        { "movie_id", "keyword_id" },
+        { "id", "keyword" }
+    };
+
+    private static final int[][] DISTINCT_COUNTS = {
+        { 2528312, 1542734, 133 },
+        { 1087236, 234997, 2, 132 },
+        { 4, 4 },
+        { 234997, 187136, 217 },
+        { 2468825, 2720930 },
+        { 459925, 5, 10060 },
+        { 113, 113 },
+        { 476794, 134170 },
+        { 134170, 134170 }
+    };
+
+    public static HashMap<String, HashMap<String, Statistics>> getTableStats() {
+        /**
+         * Builds synthetic statistics for every IMDB table and column referenced by the benchmark queries.
+         */
+        HashMap<String, HashMap<String, Statistics>> tableStats = new HashMap<String, HashMap<String, Statistics>>();
+
+        for (int t = 0; t < TABLES.length; t++) {
+            HashMap<String, Statistics> columnStats = new HashMap<String, Statistics>();
+            for (int c = 0; c < COLUMNS[t].length; c++) {
+                Statistics stats = new Statistics(TABLES[t], COLUMNS[t][c], TABLE_ROWS[t], DISTINCT_COUNTS[t][c]);
+
+                if (COLUMNS[t][c].endsWith("id") || COLUMNS[t][c].equals("production_year")) {
+                    stats.setRange(0, DISTINCT_COUNTS[t][c]);
+                } else {
+                    stats.setAvgLength(16.0);
+                }
+
+                columnStats.put(COLUMNS[t][c], stats);
+            }
+            tableStats.put(TABLES[t], columnStats);
+        }
+
+        return tableStats;
+    }
+
+    public static List<List<String>> getQueries(String queryFolder) {
+        /**
+         * Reads every query file in the given folder. Each entry holds the table orderings for one query type.
+         */
+        List<List<String>> queries = new ArrayList<List<String>>();
+        for (String path : Utils.getFiles(queryFolder, ".sql")) {
+            queries.add(Utils.readQueries(path));
+        }
+        return queries;
+    }
+
+    public static List<Vector> getContexts(int numArms, int numFeatures, Random rand) {
+        /**
+         * Creates positive random contexts (one per arm) with magnitudes similar to table statistics.
+         */
+        List<Vector> contexts = new ArrayList<Vector>();
+        for (int a = 0; a < numArms; a++) {
+            double[] features = new double[numFeatures];
+            for (int i = 0; i < numFeatures; i++) {
+                features[i] = 1.0 + rand.nextDouble() * 1e6;
+            }
+            contexts.add(Vector.fromArray(features));
+        }
+        return contexts;
+    }
+}
@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.la4j.Vector;
+import org.openjdk.jmh.annotations.*;
+
+import bandits.BanditOptimizer;
+import bandits.OptimizerFactory;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerBenchmark {
+
+    private static final int NUM_TYPES = 4;
+    private static final double REWARD_EPSILON = 0.1;
+    private static final double REWARD_ANNEAL = 0.99;
+    private static final int UPDATE_THRESHOLD = 1;
+
+    // Every optimizer built by OptimizerFactory.banditFactory
+    @Param({ "epsilon_greedy", "ucb", "random", "linear_thompson", "exp4", "linucb" })
+    public String optimizerName;
+
+    // 3-table queries use 4 join columns (8 features), 5-table queries use 8 join columns (16 features)
+    @Param({ "8", "16" })
+    public int numFeatures;
+
+    @Param({ "6" })
+    public int numArms;
+
+    private BanditOptimizer optimizer;
+    private List<Vector> contexts;
+    private Random rand;
+    private int time;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        this.rand = new Random(42);
+        this.optimizer = OptimizerFactory.banditFactory(this.optimizerName, this.numArms, NUM_TYPES, this.numFeatures, REWARD_EPSILON, REWARD_ANNEAL, UPDATE_THRESHOLD, getArgs(this.optimizerName, this.numFeatures));
+        this.contexts = BenchmarkData.getContexts(this.numArms, this.numFeatures, this.rand);
+        this.time = 1;
+
+        // Seed every arm of every type so reward normalization is well defined
+        for (int type = 0; type < NUM_TYPES; type++) {
+            for (int arm = 0; arm < this.numArms; arm++) {
+                this.optimizer.update(arm, type, -100.0 * (arm + 1), this.contexts);
+            }
+        }
+    }
+
+    private static double[] getArgs(String name, int numFeatures) {
+        if (name.equals("epsilon_greedy")) {
+            return new double[] { 0.1 };
+        } else if (name.equals("linear_thompson")) {
+            return new double[] { numFeatures, 0.1, 0.1 };
+        } else if (name.equals("exp4")) {
+            return new double[] { 0.1, 0.1 };
+        } else if (name.equals("linucb")) {
+            return new double[] { 0.5, 1.0 };
+        }
+        return new double[0];
+    }
+
+    @Benchmark
+    public int getArm() {
+        this.time += 1;
+        return this.optimizer.getArm(this.time, this.time % NUM_TYPES, this.contexts, false);
+    }
+
+    @Benchmark
+    public void update() {
+        this.time += 1;
+        int arm = this.time % this.numArms;
+        this.optimizer.update(arm, this.time % NUM_TYPES, -100.0 * (arm + 1) - this.rand.nextDouble(), this.contexts);
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import database.Statistics;
+import parsing.SQLParser;
+import parsing.TableColumn;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "queries/imdb-3-table/train_args", "queries/imdb-5-table/train_args" })
+    public String queryFolder;
+
+    private SQLParser parser;
+    private List<String> queries;
+    private HashMap<String, HashMap<String, Statistics>> tableStats;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.parser = new SQLParser();
+        this.tableStats = BenchmarkData.getTableStats();
+
+        // Flatten all orderings of all query types; the context loop parses every one of them per trial
+        this.queries = new ArrayList<String>();
+        for (List<String> orders : BenchmarkData.getQueries(this.queryFolder)) {
+            this.queries.addAll(orders);
+        }
+    }
+
+    @Benchmark
+    public void getColumnOrder(Blackhole bh) {
+        for (String query : this.queries) {
+            List<TableColumn> columnOrder = this.parser.getColumnOrder(query);
+            bh.consume(columnOrder);
+        }
+    }
+
+    @Benchmark
+    public void getWhereSelectivity(Blackhole bh) {
+        for (String query : this.queries) {
+            HashMap<String, Double> selectivity = this.parser.getWhereSelectivity(query, this.tableStats);
+            bh.consume(selectivity);
+        }
+    }
+}
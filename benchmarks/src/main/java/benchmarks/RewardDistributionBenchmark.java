@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import bandits.RewardDistribution;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewardDistributionBenchmark {
+
+    private static final int NUM_ARMS = 6;
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int numSamples;
+
+    private RewardDistribution distribution;
+    private double latency;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rand = new Random(42);
+        this.distribution = new RewardDistribution(NUM_ARMS, 1);
+
+        // Spread the samples over all arms, each with its own latency scale
+        for (int i = 0; i < this.numSamples; i++) {
+            int arm = i % NUM_ARMS;
+            this.distribution.addSample(-1.0 * (100.0 * (arm + 1) + 10.0 * rand.nextGaussian()), arm);
+        }
+
+        this.latency = -250.0;
+    }
+
+    @Benchmark
+    public double getReward() {
+        return this.distribution.getReward(this.latency);
+    }
+}
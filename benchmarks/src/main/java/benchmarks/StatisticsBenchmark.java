@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.la4j.Vector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import database.Statistics;
+import parsing.SQLParser;
+import parsing.TableColumn;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+    @Param({ "queries/imdb-3-table/train_args", "queries/imdb-5-table/train_args" })
+    public String queryFolder;
+
+    private List<List<Statistics>> statsLists;
+    private List<HashMap<String, Double>> selectivities;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SQLParser parser = new SQLParser();
+        HashMap<String, HashMap<String, Statistics>> tableStats = BenchmarkData.getTableStats();
+
+        // Resolve the column statistics up front so the benchmark only measures the combination step
+        this.statsLists = new ArrayList<List<Statistics>>();
+        this.selectivities = new ArrayList<HashMap<String, Double>>();
+        for (List<String> orders : BenchmarkData.getQueries(this.queryFolder)) {
+            for (String query : orders) {
+                List<Statistics> statsList = new ArrayList<Statistics>();
+                for (TableColumn column : parser.getColumnOrder(query)) {
+                    statsList.add(tableStats.get(column.getTableName()).get(column.getColumnName()));
+                }
+
+                this.statsLists.add(statsList);
+                this.selectivities.add(parser.getWhereSelectivity(query, tableStats));
+            }
+        }
+    }
+
+    @Benchmark
+    public void combineStatistics(Blackhole bh) {
+        for (int i = 0; i < this.statsLists.size(); i++) {
+            Vector context = Statistics.combineStatistics(this.statsLists.get(i), this.selectivities.get(i));
+            bh.consume(context);
+        }
+    }
+}
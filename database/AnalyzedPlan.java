@@ -0,0 +1,126 @@
+package database;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+public class AnalyzedPlan {
+
+    private static final String NODE_MARKER = "\u2022 ";
+    private static final Pattern ACTUAL_ROWS = Pattern.compile("actual row count:\\s*([0-9,]+)");
+
+    private List<double[]> joins;  // {left input rows, right input rows, output rows} of each join, innermost first
+
+    public AnalyzedPlan() {
+        this.joins = new ArrayList<double[]>();
+    }
+
+    public void addJoin(double leftRows, double rightRows, double outputRows) {
+        this.joins.add(new double[] { leftRows, rightRows, outputRows });
+    }
+
+    public int getNumJoins() {
+        return this.joins.size();
+    }
+
+    public double getLeftRows(int join) {
+        return this.joins.get(join)[0];
+    }
+
+    public double getRightRows(int join) {
+        return this.joins.get(join)[1];
+    }
+
+    public double getOutputRows(int join) {
+        return this.joins.get(join)[2];
+    }
+
+    public static AnalyzedPlan fromExplainAnalyze(List<String> lines) {
+        /**
+         * Parses the output of CockroachDB's EXPLAIN ANALYZE. Operators are lines of the form "<bullet> hash join",
+         * nested by indentation, and their properties (e.g. "actual row count: 1,505") follow on the lines below.
+         * Joins are collected bottom up, so they match the left-deep join order of the query.
+         *
+         * @param lines: Lines of the plan
+         * @return The actual rows of each join, or null if the plan does not report them
+         */
+        List<PlanNode> roots = new ArrayList<PlanNode>();
+        List<PlanNode> stack = new ArrayList<PlanNode>();
+
+        for (String line : lines) {
+            int column = line.indexOf(NODE_MARKER);
+            if (column >= 0) {
+                PlanNode node = new PlanNode(line.substring(column + NODE_MARKER.length()).trim(), column);
+                while (!stack.isEmpty() && stack.get(stack.size() - 1).column >= column) {
+                    stack.remove(stack.size() - 1);
+                }
+
+                if (stack.isEmpty()) {
+                    roots.add(node);
+                } else {
+                    stack.get(stack.size() - 1).children.add(node);
+                }
+                stack.add(node);
+                continue;
+            }
+
+            Matcher rowsMatcher = ACTUAL_ROWS.matcher(line);
+            if (rowsMatcher.find() && !stack.isEmpty()) {
+                stack.get(stack.size() - 1).actualRows = Double.parseDouble(rowsMatcher.group(1).replace(",", ""));
+            }
+        }
+
+        AnalyzedPlan plan = new AnalyzedPlan();
+        for (PlanNode root : roots) {
+            if (!collectJoins(root, plan)) {
+                return null;
+            }
+        }
+
+        return plan.getNumJoins() > 0 ? plan : null;
+    }
+
+    private static boolean collectJoins(PlanNode node, AnalyzedPlan plan) {
+        for (PlanNode child : node.children) {
+            if (!collectJoins(child, plan)) {
+                return false;
+            }
+        }
+
+        if (node.name.contains("join")) {
+            if (node.actualRows < 0 || node.children.isEmpty() || node.children.get(0).actualRows < 0) {
+                return false;
+            }
+
+            // Lookup joins read the right side from an index, so only their left input is a child
+            double rightRows = node.children.size() > 1 ? node.children.get(1).actualRows : -1.0;
+            plan.addJoin(node.children.get(0).actualRows, rightRows, node.actualRows);
+        }
+        return true;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < this.getNumJoins(); j++) {
+            builder.append(String.format("Join %d: %.0f x %.0f -> %.0f\n", j, this.getLeftRows(j), this.getRightRows(j), this.getOutputRows(j)));
+        }
+        return builder.toString();
+    }
+
+    private static class PlanNode {
+
+        private String name;
+        private int column;
+        private double actualRows;
+        private List<PlanNode> children;
+
+        public PlanNode(String name, int column) {
+            this.name = name;
+            this.column = column;
+            this.actualRows = -1.0;
+            this.children = new ArrayList<PlanNode>();
+        }
+    }
+}
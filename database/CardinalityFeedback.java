@@ -0,0 +1,158 @@
+package database;
+
+import java.util.List;
+import java.util.HashMap;
+import java.util.Random;
+
+import parsing.TableColumn;
+
+
+public class CardinalityFeedback {
+
+    private QueryExecutor executor;
+    private double sampleRate;
+    private Random rand;
+    private long statsEpoch;
+
+    private HashMap<String, Double> joinSelectivity;  // Edge signature -> observed join selectivity
+    private HashMap<String, Double> filterSelectivity;  // Table signature -> observed fraction of rows kept
+
+    public CardinalityFeedback(QueryExecutor executor, double sampleRate) {
+        this.executor = executor;
+        this.sampleRate = sampleRate;
+        this.rand = new Random();
+        this.statsEpoch = executor.getStatsEpoch();
+        this.joinSelectivity = new HashMap<String, Double>();
+        this.filterSelectivity = new HashMap<String, Double>();
+    }
+
+    public int size() {
+        return this.joinSelectivity.size() + this.filterSelectivity.size();
+    }
+
+    public boolean shouldSample() {
+        return this.rand.nextDouble() < this.sampleRate;
+    }
+
+    public void record(AnalyzedPlan plan, List<String> tableOrder, List<TableColumn> columnOrder, HashMap<String, String> tableFilters) {
+        /**
+         * Stores the selectivities observed in an analyzed execution of a left-deep query.
+         *
+         * @param plan: Actual rows of each join
+         * @param tableOrder: Tables in join order
+         * @param columnOrder: Join columns (two per join, in join order)
+         * @param tableFilters: Canonical single-table filters of the query, keyed by table name
+         */
+        this.expireIfStale();
+
+        int numJoins = columnOrder.size() / 2;
+        if (plan.getNumJoins() != numJoins || tableOrder.size() != numJoins + 1) {
+            return;
+        }
+
+        for (int j = 0; j < numJoins; j++) {
+            double leftRows = plan.getLeftRows(j);
+            double rightRows = plan.getRightRows(j);
+            if (leftRows <= 0 || rightRows <= 0) {
+                continue;
+            }
+
+            // An empty output says the selectivity is below 1 / (left x right), so use half of that bound
+            double outputRows = Math.max(plan.getOutputRows(j), 0.5);
+            String signature = edgeSignature(columnOrder.get(2 * j), columnOrder.get(2 * j + 1), tableFilters);
+            this.joinSelectivity.put(signature, outputRows / (leftRows * rightRows));
+
+            // The right input (and the left input of the first join) is a filtered base table
+            this.recordFilter(tableOrder.get(j + 1), rightRows, tableFilters);
+            if (j == 0) {
+                this.recordFilter(tableOrder.get(0), leftRows, tableFilters);
+            }
+        }
+    }
+
+    public void correctWhereSelectivity(HashMap<String, Double> whereSelectivity, HashMap<String, String> tableFilters) {
+        /**
+         * Replaces the estimated WHERE selectivity of each filtered table with the observed one, if known.
+         */
+        this.expireIfStale();
+
+        for (String tableName : tableFilters.keySet()) {
+            Double observed = this.filterSelectivity.get(tableSignature(tableName, tableFilters));
+            if (observed != null) {
+                whereSelectivity.put(tableName, observed);
+            }
+        }
+    }
+
+    public HashMap<String, Double> getJoinSelectivity(List<TableColumn> columnOrder, HashMap<String, String> tableFilters) {
+        /**
+         * Returns the observed selectivity of each join of the query, keyed by Statistics.joinKey. Joins
+         * without feedback are omitted.
+         */
+        this.expireIfStale();
+
+        HashMap<String, Double> result = new HashMap<String, Double>();
+        for (int i = 0; i + 1 < columnOrder.size(); i += 2) {
+            TableColumn left = columnOrder.get(i);
+            TableColumn right = columnOrder.get(i + 1);
+
+            Double observed = this.joinSelectivity.get(edgeSignature(left, right, tableFilters));
+            if (observed != null) {
+                result.put(Statistics.joinKey(columnName(left), columnName(right)), observed);
+            }
+        }
+        return result;
+    }
+
+    private void recordFilter(String tableName, double rows, HashMap<String, String> tableFilters) {
+        if (!tableFilters.containsKey(tableName)) {
+            return;
+        }
+
+        HashMap<String, Statistics> columnStats = this.executor.getTableStats().get(tableName);
+        if (columnStats == null || columnStats.isEmpty()) {
+            return;
+        }
+
+        double tableRows = columnStats.values().iterator().next().getTableRows();
+        if (tableRows > 0) {
+            this.filterSelectivity.put(tableSignature(tableName, tableFilters), Math.min(Math.max(rows, 0.5) / tableRows, 1.0));
+        }
+    }
+
+    private void expireIfStale() {
+        // Feedback corrects the current statistics, so it is discarded whenever they are refreshed
+        long epoch = this.executor.getStatsEpoch();
+        if (epoch != this.statsEpoch) {
+            this.joinSelectivity.clear();
+            this.filterSelectivity.clear();
+            this.statsEpoch = epoch;
+        }
+    }
+
+    private static String edgeSignature(TableColumn left, TableColumn right, HashMap<String, String> tableFilters) {
+        /**
+         * The join predicate together with the filters on both of its tables, which change its selectivity.
+         */
+        String first = columnName(left);
+        String second = columnName(right);
+        if (first.compareTo(second) > 0) {
+            String tmp = first;
+            first = second;
+            second = tmp;
+        }
+
+        String firstTable = first.substring(0, first.indexOf('.'));
+        String secondTable = second.substring(0, second.indexOf('.'));
+        return String.format("%s=%s|%s|%s", first, second, tableSignature(firstTable, tableFilters), tableSignature(secondTable, tableFilters));
+    }
+
+    private static String tableSignature(String tableName, HashMap<String, String> tableFilters) {
+        String filter = tableFilters.get(tableName);
+        return String.format("%s[%s]", tableName, filter != null ? filter : "");
+    }
+
+    private static String columnName(TableColumn column) {
+        return String.format("%s.%s", column.getTableName(), column.getColumnName());
+    }
+}
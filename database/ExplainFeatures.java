@@ -0,0 +1,108 @@
+package database;
+
+import java.util.HashMap;
+
+import org.la4j.Vector;
+
+
+public class ExplainFeatures {
+
+    public static final int NUM_POOLED_FEATURES = 3;  // Features appended by appendPooled for any number of joins
+
+    private QueryExecutor executor;
+    private HashMap<String, PlanEstimate> cache;
+    private long statsEpoch;
+    private int numHits;
+    private int numMisses;
+
+    public ExplainFeatures(QueryExecutor executor) {
+        this.executor = executor;
+        this.cache = new HashMap<String, PlanEstimate>();
+        this.statsEpoch = executor.getStatsEpoch();
+        this.numHits = 0;
+        this.numMisses = 0;
+    }
+
+    public int getNumHits() {
+        return this.numHits;
+    }
+
+    public int getNumMisses() {
+        return this.numMisses;
+    }
+
+    public PlanEstimate getEstimate(String sql) {
+        /**
+         * Returns the optimizer's estimate for the given (hinted) query. Estimates only change when the
+         * statistics do, so they are cached until the next statistics refresh.
+         */
+        long epoch = this.executor.getStatsEpoch();
+        if (epoch != this.statsEpoch) {
+            this.cache.clear();
+            this.statsEpoch = epoch;
+        }
+
+        if (this.cache.containsKey(sql)) {
+            this.numHits += 1;
+            return this.cache.get(sql);
+        }
+
+        this.numMisses += 1;
+        PlanEstimate estimate = this.executor.explain(sql);
+        this.cache.put(sql, estimate);  // Also cache failures to avoid repeating them every trial
+        return estimate;
+    }
+
+    public Vector append(Vector context, String sql, int numJoins) {
+        /**
+         * Appends the log of the estimated rows of each join and the log of the total cost to the given context.
+         *
+         * @param context: Context vector built from the table statistics
+         * @param sql: Hinted query of the arm
+         * @param numJoins: Number of joins in the query, which fixes the number of appended features
+         * @return A context with numJoins + 1 additional features (zeros if there is no usable estimate)
+         */
+        Vector result = context.copyOfLength(context.length() + numJoins + 1);
+
+        PlanEstimate estimate = this.getEstimate(sql);
+        if (estimate == null || estimate.getNumJoins() != numJoins) {
+            return result;
+        }
+
+        int offset = context.length();
+        for (int j = 0; j < numJoins; j++) {
+            result.set(offset + j, Math.log1p(estimate.getJoinRows().get(j)));
+        }
+        result.set(offset + numJoins, Math.log1p(estimate.getCost()));
+
+        return result;
+    }
+
+    public Vector appendPooled(Vector context, String sql, int numJoins) {
+        /**
+         * Appends the log of the summed and of the largest estimated rows of the joins and the log of the total
+         * cost to the given context, i.e. NUM_POOLED_FEATURES features for any number of joins (as needed by
+         * JoinTreeFeaturizer.TREE contexts).
+         */
+        Vector result = context.copyOfLength(context.length() + NUM_POOLED_FEATURES);
+
+        PlanEstimate estimate = this.getEstimate(sql);
+        if (estimate == null || estimate.getNumJoins() != numJoins) {
+            return result;
+        }
+
+        double sumRows = 0.0;
+        double maxRows = 0.0;
+        for (double rows : estimate.getJoinRows()) {
+            sumRows += rows;
+            maxRows = Math.max(maxRows, rows);
+        }
+
+        int offset = context.length();
+        result.set(offset, Math.log1p(sumRows));
+        result.set(offset + 1, Math.log1p(maxRows));
+        result.set(offset + 2, Math.log1p(estimate.getCost()));
+
+        return result;
+    }
+}
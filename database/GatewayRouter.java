@@ -0,0 +1,421 @@
+package database;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+import org.postgresql.PGStatement;
+import org.postgresql.ds.PGSimpleDataSource;
+
+
+public class GatewayRouter implements DataSource {
+
+    public static final int DEFAULT_PORT = 26257;
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final long DEFAULT_HEALTH_CHECK_MILLIS = 1000;
+
+    private static final double LATENCY_WEIGHT = 0.3;  // Weight of the newest probe in the moving average
+    private static final int PROBE_TIMEOUT_SECONDS = 2;
+    private static final int MAX_STATEMENTS_PER_CONNECTION = 64;
+
+    private List<Gateway> gateways;
+    private ScheduledExecutorService healthChecker;
+
+    public GatewayRouter(List<String> endpoints, String dbName, String userName, int poolSize, long healthCheckMillis) {
+        /**
+         * Routes queries across the gateway nodes of a cluster (e.g. several CockroachDB nodes, or independent
+         * single-node instances holding the same data). Each gateway keeps a pool of idle connections, and a
+         * background health check probes every gateway with a trivial query, marking it down when the probe
+         * fails and up again once a probe succeeds.
+         *
+         * Gateways are ranked by the moving average of their probe latency, scaled by the number of queries
+         * in flight on them. Query latencies depend on the plan of each query, so they would not compare the
+         * gateways themselves.
+         *
+         * @param endpoints: Gateways as host:port (the port defaults to 26257)
+         * @param poolSize: Maximum number of idle connections kept per gateway
+         * @param healthCheckMillis: Time between health checks
+         */
+        this.gateways = new ArrayList<Gateway>();
+        for (String endpoint : endpoints) {
+            this.gateways.add(new Gateway(endpoint, dbName, userName, poolSize));
+        }
+
+        // Rank the gateways once before the first query
+        this.checkHealth();
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gateway-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static List<String> parseEndpoints(String endpoints) {
+        /**
+         * Parses a comma-separated list of gateways (e.g. "localhost:26257,localhost:26258").
+         */
+        List<String> result = new ArrayList<String>();
+        for (String endpoint : endpoints.split(",")) {
+            endpoint = endpoint.trim();
+            if (!endpoint.isEmpty()) {
+                result.add(endpoint.contains(":") ? endpoint : String.format("%s:%d", endpoint, DEFAULT_PORT));
+            }
+        }
+        return result;
+    }
+
+    public static String getHost(String endpoint) {
+        return endpoint.substring(0, endpoint.lastIndexOf(':'));
+    }
+
+    public static int getPort(String endpoint) {
+        return Integer.parseInt(endpoint.substring(endpoint.lastIndexOf(':') + 1));
+    }
+
+    public List<Gateway> getRoute() {
+        /**
+         * Returns the gateways in the order a query should try them: healthy gateways by their score (see
+         * Gateway.getScore), followed by those which are down, in case they recovered since their last probe.
+         */
+        List<Gateway> healthy = new ArrayList<Gateway>();
+        List<Gateway> down = new ArrayList<Gateway>();
+        for (Gateway gateway : this.gateways) {
+            if (gateway.isHealthy()) {
+                healthy.add(gateway);
+            } else {
+                down.add(gateway);
+            }
+        }
+
+        Collections.sort(healthy, (g1, g2) -> Double.compare(g1.getScore(), g2.getScore()));
+        healthy.addAll(down);
+        return healthy;
+    }
+
+    public void checkHealth() {
+        for (Gateway gateway : this.gateways) {
+            gateway.probe();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        /**
+         * Opens an unpooled connection to the best reachable gateway, e.g. for statistics and imports.
+         */
+        SQLException lastException = null;
+        for (Gateway gateway : this.getRoute()) {
+            try {
+                return gateway.connect();
+            } catch (SQLException ex) {
+                gateway.markDown(ex.getMessage());
+                lastException = ex;
+            }
+        }
+        throw lastException != null ? lastException : new SQLException("No gateways");
+    }
+
+    @Override
+    public Connection getConnection(String userName, String password) throws SQLException {
+        return this.getConnection();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter writer) { }
+
+    @Override
+    public void setLoginTimeout(int seconds) { }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException(String.format("Not a wrapper for %s", iface.getName()));
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return false;
+    }
+
+    public void close() {
+        this.healthChecker.shutdownNow();
+        for (Gateway gateway : this.gateways) {
+            gateway.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Gateway gateway : this.getRoute()) {
+            builder.append(gateway);
+            builder.append("\n");
+        }
+        return builder.toString().trim();
+    }
+
+    public static class Gateway {
+
+        private String endpoint;
+        private PGSimpleDataSource ds;
+        private PGSimpleDataSource probeDs;  // Same gateway, but with a socket timeout so probes cannot hang
+        private Connection probeConnection;
+        private ArrayDeque<Connection> idle;
+        private HashMap<Connection, LinkedHashMap<String, PreparedStatement>> statements;  // Pooled connection -> prepared templates, least recently used first
+        private int poolSize;
+        private int numInFlight;
+        private boolean isHealthy;
+        private double latency;  // Moving average of the probe latency (ms), NaN before the first probe
+        private int numQueries;
+        private int numFailures;
+
+        public Gateway(String endpoint, String dbName, String userName, int poolSize) {
+            this.endpoint = endpoint;
+            this.ds = getDataSource(endpoint, dbName, userName);
+            this.probeDs = getDataSource(endpoint, dbName, userName);
+            this.probeDs.setSocketTimeout(PROBE_TIMEOUT_SECONDS);
+            this.probeConnection = null;
+            this.idle = new ArrayDeque<Connection>();
+            this.statements = new HashMap<Connection, LinkedHashMap<String, PreparedStatement>>();
+            this.poolSize = poolSize;
+            this.numInFlight = 0;
+            this.isHealthy = true;
+            this.latency = Double.NaN;
+            this.numQueries = 0;
+            this.numFailures = 0;
+        }
+
+        public String getEndpoint() {
+            return this.endpoint;
+        }
+
+        public synchronized boolean isHealthy() {
+            return this.isHealthy;
+        }
+
+        public synchronized double getScore() {
+            // Unprobed gateways are tried first, so that every gateway gets a latency
+            double latency = Double.isNaN(this.latency) ? 0.0 : this.latency;
+            return latency * (1 + this.numInFlight);
+        }
+
+        public Connection acquire() throws SQLException {
+            /**
+             * Takes an idle connection of the pool, or opens a new one. Pass it to release (or discard, if it
+             * failed) when done.
+             */
+            Connection connection;
+            synchronized (this) {
+                this.numInFlight += 1;
+                this.numQueries += 1;
+                connection = this.idle.poll();
+            }
+
+            if (connection == null) {
+                try {
+                    connection = this.connect();
+                } catch (SQLException ex) {
+                    synchronized (this) {
+                        this.numInFlight -= 1;
+                    }
+                    throw ex;
+                }
+            }
+            return connection;
+        }
+
+        public PreparedStatement prepare(Connection connection, String template) throws SQLException {
+            /**
+             * Returns the statement of the given template on an acquired connection of this gateway. Statements
+             * stay open while their connection is pooled, so the server keeps them prepared across executions.
+             */
+            LinkedHashMap<String, PreparedStatement> cached;
+            synchronized (this) {
+                cached = this.statements.get(connection);
+                if (cached == null) {
+                    cached = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+                    this.statements.put(connection, cached);
+                }
+            }
+
+            // Only the thread which acquired the connection uses its statements
+            PreparedStatement pstmt = cached.get(template);
+            if (pstmt != null) {
+                return pstmt;
+            }
+
+            pstmt = connection.prepareStatement(template);
+            if (pstmt.isWrapperFor(PGStatement.class)) {
+                // The driver only switches to a server-side statement after five executions by default
+                pstmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+            }
+
+            if (cached.size() >= MAX_STATEMENTS_PER_CONNECTION) {
+                String eldest = cached.keySet().iterator().next();
+                closeQuietly(cached.remove(eldest));
+            }
+            cached.put(template, pstmt);
+            return pstmt;
+        }
+
+        public void release(Connection connection) {
+            synchronized (this) {
+                this.numInFlight -= 1;
+                if (this.isHealthy && this.idle.size() < this.poolSize) {
+                    this.idle.push(connection);
+                    return;
+                }
+            }
+            this.close(connection);
+        }
+
+        public void discard(Connection connection) {
+            synchronized (this) {
+                this.numInFlight -= 1;
+            }
+            this.close(connection);
+        }
+
+        public Connection connect() throws SQLException {
+            return this.ds.getConnection();
+        }
+
+        public void markDown(String reason) {
+            /**
+             * Stops routing to this gateway until a probe succeeds, closing its idle connections.
+             */
+            List<Connection> connections;
+            synchronized (this) {
+                this.numFailures += 1;
+                if (this.isHealthy) {
+                    System.out.printf("Gateway %s is down: %s\n", this.endpoint, reason);
+                }
+                this.isHealthy = false;
+                connections = new ArrayList<Connection>(this.idle);
+                this.idle.clear();
+            }
+
+            for (Connection connection : connections) {
+                this.close(connection);
+            }
+        }
+
+        public void probe() {
+            long start = System.nanoTime();
+            try {
+                if (this.probeConnection == null) {
+                    this.probeConnection = this.probeDs.getConnection();
+                }
+                try (PreparedStatement pstmt = this.probeConnection.prepareStatement("SELECT 1")) {
+                    pstmt.execute();
+                }
+            } catch (SQLException ex) {
+                closeQuietly(this.probeConnection);
+                this.probeConnection = null;
+                this.markDown(ex.getMessage());
+                return;
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e6;
+            synchronized (this) {
+                if (!this.isHealthy) {
+                    System.out.printf("Gateway %s is up\n", this.endpoint);
+                }
+                this.isHealthy = true;
+                this.latency = Double.isNaN(this.latency) ? elapsed : (1.0 - LATENCY_WEIGHT) * this.latency + LATENCY_WEIGHT * elapsed;
+            }
+        }
+
+        public void close() {
+            List<Connection> connections;
+            synchronized (this) {
+                connections = new ArrayList<Connection>(this.idle);
+                this.idle.clear();
+            }
+            for (Connection connection : connections) {
+                this.close(connection);
+            }
+            closeQuietly(this.probeConnection);
+            this.probeConnection = null;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %s, probe latency %.3f ms, %d in flight, %d idle, %d queries, %d failures", this.endpoint, this.isHealthy ? "up" : "down", this.latency, this.numInFlight, this.idle.size(), this.numQueries, this.numFailures);
+        }
+
+        private static PGSimpleDataSource getDataSource(String endpoint, String dbName, String userName) {
+            PGSimpleDataSource ds = new PGSimpleDataSource();
+            ds.setServerNames(new String[]{ getHost(endpoint) });
+            ds.setPortNumbers(new int[]{ getPort(endpoint) });
+            ds.setDatabaseName(dbName);
+            ds.setUser(userName);
+            ds.setPassword(null);
+            ds.setSsl(false);
+            ds.setConnectTimeout(PROBE_TIMEOUT_SECONDS);
+            return ds;
+        }
+
+        private void close(Connection connection) {
+            // Closes a pooled connection along with its prepared statements
+            LinkedHashMap<String, PreparedStatement> cached;
+            synchronized (this) {
+                cached = this.statements.remove(connection);
+            }
+            if (cached != null) {
+                for (PreparedStatement pstmt : cached.values()) {
+                    closeQuietly(pstmt);
+                }
+            }
+            closeQuietly(connection);
+        }
+
+        private static void closeQuietly(Connection connection) {
+            if (connection == null) {
+                return;
+            }
+
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                // Already broken
+            }
+        }
+
+        private static void closeQuietly(PreparedStatement pstmt) {
+            try {
+                pstmt.close();
+            } catch (SQLException ex) {
+                // Closed with its connection
+            }
+        }
+    }
+}
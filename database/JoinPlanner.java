@@ -0,0 +1,117 @@
+package database;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import bandits.FactoredOptimizer;
+import parsing.SQLParser;
+
+
+public class JoinPlanner {
+
+    private FactoredOptimizer optimizer;
+    private SQLParser parser;
+
+    public JoinPlanner(FactoredOptimizer optimizer) {
+        this.optimizer = optimizer;
+        this.parser = new SQLParser();
+    }
+
+    public JoinPlan plan(String sql, int type, HashMap<String, HashMap<String, String>> tableIndexes, boolean shouldExploit) {
+        /**
+         * Builds a hinted left-deep plan for the given query one decision at a time: first the table at each
+         * position of the join order (among the tables connected to those already joined, so there are no
+         * cross products), then the algorithm of each join. Lookup joins are only offered for joins whose
+         * inner table has an index led by one of its join columns.
+         *
+         * @param tableIndexes: Indexes by leading column (see SQLDatabase.getTableIndexes)
+         * @return The plan, or null if the query cannot be reordered
+         */
+        boolean[][] isConnected = this.parser.getJoinGraph(sql);
+        if (isConnected == null) {
+            return null;
+        }
+
+        List<String> choices = new ArrayList<String>();
+        int numTables = isConnected.length;
+        int[] order = new int[numTables];
+        boolean[] isJoined = new boolean[numTables];
+        for (int i = 0; i < numTables; i++) {
+            List<String> options = new ArrayList<String>();
+            for (int t = 0; t < numTables; t++) {
+                if (!isJoined[t] && (i == 0 || isAdjacent(t, isJoined, isConnected))) {
+                    options.add(String.valueOf(t));
+                }
+            }
+            if (options.isEmpty()) {
+                return null;  // Disconnected join graph
+            }
+
+            String decision = String.format("position %d", i);
+            String option = options.get(this.optimizer.choose(type, decision, options, shouldExploit));
+            order[i] = Integer.parseInt(option);
+            isJoined[order[i]] = true;
+            choices.add(FactoredOptimizer.toChoice(decision, option));
+        }
+
+        String query = this.parser.toJoinOrder(sql, order);
+        if (query == null) {
+            return null;
+        }
+
+        List<String> lookupHints = tableIndexes != null ? this.parser.getLookupHints(query, tableIndexes) : null;
+        List<String> hints = new ArrayList<String>();
+        for (int j = 0; j < numTables - 1; j++) {
+            List<String> options = new ArrayList<String>();
+            options.add(SQLParser.HASH_HINT);
+            options.add(SQLParser.MERGE_HINT);
+            if (lookupHints != null && lookupHints.get(j).startsWith(SQLParser.LOOKUP_HINT)) {
+                options.add(SQLParser.LOOKUP_HINT);
+            }
+
+            String decision = String.format("join %d", j + 1);
+            String option = options.get(this.optimizer.choose(type, decision, options, shouldExploit));
+            hints.add(option.equals(SQLParser.LOOKUP_HINT) ? lookupHints.get(j) : option);
+            choices.add(FactoredOptimizer.toChoice(decision, option));
+        }
+
+        return new JoinPlan(this.parser.applyJoinHints(query, hints), choices);
+    }
+
+    public void update(int type, JoinPlan plan, double reward) {
+        this.optimizer.updateChoices(type, plan.getChoices(), reward);
+    }
+
+    private static boolean isAdjacent(int table, boolean[] isJoined, boolean[][] isConnected) {
+        for (int t = 0; t < isJoined.length; t++) {
+            if (isJoined[t] && isConnected[t][table]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class JoinPlan {
+
+        private String sql;  // Query rewritten into the chosen join order, with the chosen join hints
+        private List<String> choices;
+
+        public JoinPlan(String sql, List<String> choices) {
+            this.sql = sql;
+            this.choices = choices;
+        }
+
+        public String getSql() {
+            return this.sql;
+        }
+
+        public List<String> getChoices() {
+            return this.choices;
+        }
+
+        public String toString() {
+            return String.format("%s: %s", this.choices, this.sql);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package database;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.la4j.Vector;
+
+
+public class JoinTreeFeaturizer {
+
+    // Context layouts (see SQLDatabase.setContextFeatures)
+    public static final String PAIRS = "pairs";
+    public static final String TREE = "tree";
+
+    private static final int DEPTH_BUCKETS = 4;  // Estimated cardinality at each quarter of the join sequence
+    private static final double[] TABLE_SIZE_BOUNDS = { 1e2, 1e4, 1e6 };  // Upper bounds of all but the last table size bucket
+    public static final int NUM_FEATURES = DEPTH_BUCKETS + 1 + 3 + (TABLE_SIZE_BOUNDS.length + 1) + 1;
+    public static final int NUM_INDEX_FEATURES = 1;  // Fraction of joins with an index on the inner table (see SQLDatabase.setIndexFeatures)
+
+    public static boolean isValidLayout(String layout) {
+        return PAIRS.equals(layout) || TREE.equals(layout);
+    }
+
+    public static Vector featurize(List<Statistics> statsList, HashMap<String, Double> whereSelectivity, HashMap<String, Double> joinSelectivity, List<String> joinKeys) {
+        /**
+         * Encodes a join tree of any size into NUM_FEATURES features, so query types with different numbers of
+         * joins can share one optimizer:
+         *
+         *     - the log estimated rows after the joins in each quarter of the join sequence (DEPTH_BUCKETS)
+         *     - the log of the summed intermediate rows, i.e. the C_out cost of the tree
+         *     - the mean and max log distinct count and the mean log rows per value of the join columns
+         *     - the fraction of tables in each (filtered) size bucket
+         *     - the log number of joins
+         *
+         * Joins are taken in order and each merges the sub-trees containing its two tables, so left-deep and
+         * bushy trees are estimated alike. A join between tables of the same sub-tree acts as a filter.
+         *
+         * @param statsList: Statistics of the left and right column of each join, in join order (as for
+         *                   Statistics.combineStatistics)
+         * @param whereSelectivity: Fractions of each table kept by the WHERE clause
+         * @param joinSelectivity: Observed selectivity of joins keyed by Statistics.joinKey (null if there is no feedback)
+         * @param joinKeys: Key of each join in joinSelectivity, as for Statistics.combineStatistics
+         */
+        double[] result = new double[NUM_FEATURES];
+        if (whereSelectivity == null) {
+            whereSelectivity = new HashMap<String, Double>();
+        }
+
+        HashMap<String, Integer> tableTrees = new HashMap<String, Integer>();  // Table name -> sub-tree
+        List<Double> treeRows = new ArrayList<Double>();  // Estimated rows of each sub-tree
+        List<Double> joinRows = new ArrayList<Double>();  // Estimated rows after each join
+
+        double sumLogDistinct = 0.0;
+        double maxLogDistinct = 0.0;
+        double sumLogRowsPerValue = 0.0;
+        for (Statistics stats : statsList) {
+            String tableName = stats.getTableName();
+            double tableRows = Statistics.applyTableSelectivity(tableName, stats.getTableRows(), whereSelectivity);
+            if (!tableTrees.containsKey(tableName)) {
+                tableTrees.put(tableName, treeRows.size());
+                treeRows.add(tableRows);
+            }
+
+            double distinct = Statistics.applyColumnSelectivity(tableName, stats.getTableRows(), stats.getTableDistinct(), whereSelectivity);
+            sumLogDistinct += Math.log1p(distinct);
+            maxLogDistinct = Math.max(maxLogDistinct, Math.log1p(distinct));
+            sumLogRowsPerValue += Math.log1p(tableRows / Math.max(distinct, 1.0));
+        }
+
+        for (int i = 0; i + 1 < statsList.size(); i += 2) {
+            Statistics first = statsList.get(i);
+            Statistics second = statsList.get(i+1);
+
+            double selectivity;
+            String joinKey = joinKeys != null ? joinKeys.get(i / 2) : Statistics.joinKey(String.format("%s.%s", first.getTableName(), first.getColumnName()), String.format("%s.%s", second.getTableName(), second.getColumnName()));
+            if (joinSelectivity != null && joinSelectivity.containsKey(joinKey)) {
+                selectivity = joinSelectivity.get(joinKey);
+            } else {
+                double firstDistinct = Statistics.applyColumnSelectivity(first.getTableName(), first.getTableRows(), first.getTableDistinct(), whereSelectivity);
+                double secondDistinct = Statistics.applyColumnSelectivity(second.getTableName(), second.getTableRows(), second.getTableDistinct(), whereSelectivity);
+                selectivity = 1.0 / Math.max(Math.max(firstDistinct, secondDistinct), 1.0);
+            }
+
+            int firstTree = tableTrees.get(first.getTableName());
+            int secondTree = tableTrees.get(second.getTableName());
+            double rows;
+            if (firstTree == secondTree) {
+                rows = treeRows.get(firstTree) * selectivity;
+            } else {
+                rows = treeRows.get(firstTree) * treeRows.get(secondTree) * selectivity;
+                for (String tableName : tableTrees.keySet()) {
+                    if (tableTrees.get(tableName) == secondTree) {
+                        tableTrees.put(tableName, firstTree);
+                    }
+                }
+            }
+            treeRows.set(firstTree, rows);
+            joinRows.add(rows);
+        }
+
+        int numJoins = joinRows.size();
+        int offset = 0;
+        if (numJoins > 0) {
+            // Bucket b averages the joins in the b-th quarter of the sequence, or the nearest join if there are fewer joins than buckets
+            for (int b = 0; b < DEPTH_BUCKETS; b++) {
+                int start = (b * numJoins) / DEPTH_BUCKETS;
+                int end = Math.max(start, (int) Math.ceil(((double) (b + 1) * numJoins) / DEPTH_BUCKETS) - 1);
+
+                double sum = 0.0;
+                for (int j = start; j <= end; j++) {
+                    sum += Math.log1p(joinRows.get(j));
+                }
+                result[offset + b] = sum / (end - start + 1);
+            }
+        }
+        offset += DEPTH_BUCKETS;
+
+        double totalRows = 0.0;
+        for (double rows : joinRows) {
+            totalRows += rows;
+        }
+        result[offset] = Math.log1p(totalRows);
+        offset += 1;
+
+        if (!statsList.isEmpty()) {
+            result[offset] = sumLogDistinct / statsList.size();
+            result[offset + 1] = maxLogDistinct;
+            result[offset + 2] = sumLogRowsPerValue / statsList.size();
+        }
+        offset += 3;
+
+        List<String> tableNames = new ArrayList<String>();
+        for (Statistics stats : statsList) {
+            if (!tableNames.contains(stats.getTableName())) {
+                tableNames.add(stats.getTableName());
+
+                double tableRows = Statistics.applyTableSelectivity(stats.getTableName(), stats.getTableRows(), whereSelectivity);
+                int bucket = 0;
+                while (bucket < TABLE_SIZE_BOUNDS.length && tableRows >= TABLE_SIZE_BOUNDS[bucket]) {
+                    bucket += 1;
+                }
+                result[offset + bucket] += 1.0;
+            }
+        }
+        for (int b = 0; b <= TABLE_SIZE_BOUNDS.length && !tableNames.isEmpty(); b++) {
+            result[offset + b] /= tableNames.size();
+        }
+        offset += TABLE_SIZE_BOUNDS.length + 1;
+
+        result[offset] = Math.log1p(numJoins);
+
+        return Vector.fromArray(result);
+    }
+}
@@ -0,0 +1,85 @@
+package database;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+public class PlanEstimate {
+
+    private static final Pattern TREE_PREFIX = Pattern.compile("^[\\s\\u2502\\u251c\\u2514\\u2500]*");
+    private static final Pattern PROPERTY = Pattern.compile("^[a-z][a-z_-]*(\\([^)]*\\))?:");
+    private static final Pattern ROWS = Pattern.compile("rows=([0-9.eE+-]+)");
+    private static final Pattern COST = Pattern.compile("^cost:\\s*([0-9.eE+-]+)");
+
+    private List<Double> joinRows;  // Estimated output rows of each join, innermost join first
+    private double cost;
+
+    public PlanEstimate(List<Double> joinRows, double cost) {
+        this.joinRows = joinRows;
+        this.cost = cost;
+    }
+
+    public List<Double> getJoinRows() {
+        return this.joinRows;
+    }
+
+    public int getNumJoins() {
+        return this.joinRows.size();
+    }
+
+    public double getCost() {
+        return this.cost;
+    }
+
+    public static PlanEstimate fromOptTree(List<String> lines) {
+        /**
+         * Parses the output of CockroachDB's EXPLAIN (OPT, VERBOSE). Every operator line is followed by its
+         * properties (e.g. "stats: [rows=123, ...]" and "cost: 456.7"). Joins are listed outermost first, so
+         * the join estimates are reversed to match the left-deep join order of the query.
+         *
+         * @param lines: Lines of the optimizer tree
+         * @return The estimated rows of each join and the total cost, or null if the tree has no cost
+         */
+        List<Double> joinRows = new ArrayList<Double>();
+        double cost = -1.0;
+        String operator = "";
+
+        for (String line : lines) {
+            String content = TREE_PREFIX.matcher(line).replaceFirst("");
+            if (content.isEmpty()) {
+                continue;
+            }
+
+            if (!PROPERTY.matcher(content).find()) {
+                operator = content;
+                continue;
+            }
+
+            // The first cost belongs to the root and therefore covers the entire plan
+            Matcher costMatcher = COST.matcher(content);
+            if (costMatcher.find() && cost < 0) {
+                cost = Double.parseDouble(costMatcher.group(1));
+            }
+
+            Matcher rowsMatcher = ROWS.matcher(content);
+            if (content.startsWith("stats:") && operator.contains("-join") && rowsMatcher.find()) {
+                joinRows.add(Double.parseDouble(rowsMatcher.group(1)));
+                operator = "";  // Only take the first stats line of each join
+            }
+        }
+
+        if (cost < 0) {
+            return null;
+        }
+
+        Collections.reverse(joinRows);
+        return new PlanEstimate(joinRows, cost);
+    }
+
+    public String toString() {
+        return String.format("Join Rows: %s, Cost: %.3f", this.joinRows, this.cost);
+    }
+}
@@ -0,0 +1,53 @@
+package database;
+
+import java.util.HashMap;
+
+
+public interface QueryExecutor {
+
+    /**
+     * Executes the given SQL statement.
+     *
+     * @param sql: SQL statement to execute
+     * @param shouldPrint: Whether to print the resulting rows
+     * @param args: Positional arguments for the statement
+     * @return Whether the statement produced a result set
+     */
+    boolean select(String sql, boolean shouldPrint, String... args);
+
+    /**
+     * Executes the given query, reads every row of the result and cancels the query once it runs
+     * longer than the timeout.
+     *
+     * @param sql: SQL query to execute
+     * @param timeoutMillis: Latency budget in milliseconds (non-positive for no budget)
+     * @return The timings and size of the result, or null if the query failed
+     */
+    QueryResult selectAndDrain(String sql, long timeoutMillis);
+
+    /**
+     * Returns the optimizer's estimates for the given query without executing it.
+     *
+     * @param sql: SQL query to explain
+     * @return The estimated rows of each join and the total cost, or null if the query cannot be explained
+     */
+    PlanEstimate explain(String sql);
+
+    /**
+     * Executes the given query and returns the actual rows flowing into and out of each join.
+     *
+     * @param sql: SQL query to analyze
+     * @return The actual rows of each join, or null if the query failed or reports no row counts
+     */
+    AnalyzedPlan explainAnalyze(String sql);
+
+    /**
+     * Returns the statistics for each table, keyed by table name and then column name.
+     */
+    HashMap<String, HashMap<String, Statistics>> getTableStats();
+
+    /**
+     * Returns a counter which changes whenever the table statistics are refreshed.
+     */
+    long getStatsEpoch();
+}
@@ -0,0 +1,74 @@
+package database;
+
+
+public class QueryResult {
+
+    // Latencies which can be used as the reward in runJoinQuery
+    public static final String EXECUTE = "execute";
+    public static final String FIRST_ROW = "first_row";
+    public static final String DRAIN = "drain";
+
+    private double executeTime;  // Time until the statement returned, in ms
+    private double firstRowTime;  // Time until the first row was read, in ms
+    private double drainTime;  // Time until all rows were read, in ms
+    private long rowCount;
+    private long numBytes;
+    private boolean isCancelled;
+
+    public QueryResult(double executeTime, double firstRowTime, double drainTime, long rowCount, long numBytes, boolean isCancelled) {
+        this.executeTime = executeTime;
+        this.firstRowTime = firstRowTime;
+        this.drainTime = drainTime;
+        this.rowCount = rowCount;
+        this.numBytes = numBytes;
+        this.isCancelled = isCancelled;
+    }
+
+    public static QueryResult cancelled(double elapsed) {
+        return new QueryResult(elapsed, elapsed, elapsed, 0, 0, true);
+    }
+
+    public static boolean isValidMetric(String metric) {
+        return metric.equals(EXECUTE) || metric.equals(FIRST_ROW) || metric.equals(DRAIN);
+    }
+
+    public double getExecuteTime() {
+        return this.executeTime;
+    }
+
+    public double getFirstRowTime() {
+        return this.firstRowTime;
+    }
+
+    public double getDrainTime() {
+        return this.drainTime;
+    }
+
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    public long getNumBytes() {
+        return this.numBytes;
+    }
+
+    public boolean isCancelled() {
+        return this.isCancelled;
+    }
+
+    public double getLatency(String metric) {
+        /**
+         * Returns the latency (ms) for the given metric (EXECUTE, FIRST_ROW or DRAIN).
+         */
+        if (metric.equals(EXECUTE)) {
+            return this.getExecuteTime();
+        } else if (metric.equals(FIRST_ROW)) {
+            return this.getFirstRowTime();
+        }
+        return this.getDrainTime();
+    }
+
+    public String toString() {
+        return String.format("Execute: %.3f ms, First Row: %.3f ms, Drain: %.3f ms, # Rows: %d, # Bytes: %d, Cancelled: %s", this.getExecuteTime(), this.getFirstRowTime(), this.getDrainTime(), this.getRowCount(), this.getNumBytes(), this.isCancelled());
+    }
+}
@@ -0,0 +1,242 @@
+package database;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import parsing.SQLParser;
+
+
+public class ResultCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern WRITE_TABLE = Pattern.compile("\\b(?:TABLE|INTO|UPDATE|FROM)\\s+(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?\"?(\\w+)\"?", Pattern.CASE_INSENSITIVE);
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+    private static final long VALUE_OVERHEAD_BYTES = 16;
+
+    private SQLParser parser;
+    private LinkedHashMap<String, CachedResult> entries;  // In access order, so the first entry is least recently used
+    private HashMap<String, HashSet<String>> tableKeys;  // Table name -> keys of the entries which read it
+    private long maxBytes;
+    private long numBytes;
+
+    private long numHits;
+    private long numMisses;
+    private long numEvictions;
+    private long numInvalidations;
+
+    public ResultCache(long maxBytes) {
+        this.parser = new SQLParser();
+        this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+        this.tableKeys = new HashMap<String, HashSet<String>>();
+        this.maxBytes = maxBytes;
+        this.numBytes = 0;
+        this.numHits = 0;
+        this.numMisses = 0;
+        this.numEvictions = 0;
+        this.numInvalidations = 0;
+    }
+
+    public static String getKey(String sql, String... args) {
+        /**
+         * Normalizes the given query (collapsed whitespace, no trailing semicolon) and appends its arguments.
+         */
+        String normalized = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        while (normalized.endsWith(";")) {
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        }
+
+        StringBuilder builder = new StringBuilder(normalized);
+        for (String arg : args) {
+            builder.append('\u0000');
+            builder.append(arg);
+        }
+        return builder.toString();
+    }
+
+    public CachedResult get(String key) {
+        CachedResult result = this.entries.get(key);
+        if (result == null) {
+            this.numMisses += 1;
+        } else {
+            this.numHits += 1;
+        }
+        return result;
+    }
+
+    public void put(String key, String sql, List<String> columnNames, List<String[]> rows) {
+        /**
+         * Caches the rows of the given query, evicting the least recently used entries to stay within the byte
+         * budget. Queries whose tables cannot be determined or whose result exceeds the budget are not cached.
+         */
+        List<String> tables = this.parser.getReadTables(sql);
+        if (tables == null || tables.isEmpty()) {
+            return;
+        }
+
+        CachedResult result = new CachedResult(columnNames, rows, tables);
+        if (result.getNumBytes() > this.maxBytes) {
+            return;
+        }
+
+        this.remove(key);
+        while (!this.entries.isEmpty() && this.numBytes + result.getNumBytes() > this.maxBytes) {
+            String eldest = this.entries.keySet().iterator().next();
+            this.remove(eldest);
+            this.numEvictions += 1;
+        }
+
+        this.entries.put(key, result);
+        this.numBytes += result.getNumBytes();
+        for (String table : tables) {
+            if (!this.tableKeys.containsKey(table)) {
+                this.tableKeys.put(table, new HashSet<String>());
+            }
+            this.tableKeys.get(table).add(key);
+        }
+    }
+
+    public void invalidateTable(String tableName) {
+        HashSet<String> keys = this.tableKeys.remove(tableName.toLowerCase());
+        if (keys == null) {
+            return;
+        }
+
+        for (String key : keys) {
+            if (this.remove(key)) {
+                this.numInvalidations += 1;
+            }
+        }
+    }
+
+    public void invalidateStatement(String sql) {
+        /**
+         * Invalidates every table the given (DDL or DML) statement writes to. If these cannot be determined,
+         * the whole cache is cleared.
+         */
+        List<String> tables = getTables(sql, WRITE_TABLE);
+        if (tables.isEmpty()) {
+            this.numInvalidations += this.entries.size();
+            this.clear();
+            return;
+        }
+
+        for (String table : tables) {
+            this.invalidateTable(table);
+        }
+    }
+
+    public void clear() {
+        this.entries.clear();
+        this.tableKeys.clear();
+        this.numBytes = 0;
+    }
+
+    public long getNumHits() {
+        return this.numHits;
+    }
+
+    public long getNumMisses() {
+        return this.numMisses;
+    }
+
+    public long getNumEvictions() {
+        return this.numEvictions;
+    }
+
+    public long getNumInvalidations() {
+        return this.numInvalidations;
+    }
+
+    public long getNumBytes() {
+        return this.numBytes;
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public double getHitRate() {
+        long numLookups = this.numHits + this.numMisses;
+        return numLookups > 0 ? ((double) this.numHits) / numLookups : 0.0;
+    }
+
+    public String toString() {
+        return String.format("Entries: %d, Bytes: %d / %d, Hits: %d, Misses: %d, Hit Rate: %.3f, Evictions: %d, Invalidations: %d", this.size(), this.getNumBytes(), this.maxBytes, this.getNumHits(), this.getNumMisses(), this.getHitRate(), this.getNumEvictions(), this.getNumInvalidations());
+    }
+
+    private boolean remove(String key) {
+        CachedResult result = this.entries.remove(key);
+        if (result == null) {
+            return false;
+        }
+
+        this.numBytes -= result.getNumBytes();
+        for (String table : result.getTables()) {
+            HashSet<String> keys = this.tableKeys.get(table);
+            if (keys != null) {
+                keys.remove(key);
+            }
+        }
+        return true;
+    }
+
+    private static List<String> getTables(String sql, Pattern pattern) {
+        List<String> tables = new ArrayList<String>();
+        Matcher matcher = pattern.matcher(sql);
+        while (matcher.find()) {
+            String table = matcher.group(1).toLowerCase();
+            if (!tables.contains(table)) {
+                tables.add(table);
+            }
+        }
+        return tables;
+    }
+
+    public static class CachedResult {
+
+        private List<String> columnNames;
+        private List<String[]> rows;
+        private List<String> tables;
+        private long numBytes;
+
+        public CachedResult(List<String> columnNames, List<String[]> rows, List<String> tables) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+            this.tables = tables;
+
+            // Approximate heap footprint: two bytes per character plus per-value and per-entry overheads
+            long bytes = ENTRY_OVERHEAD_BYTES;
+            for (String name : columnNames) {
+                bytes += VALUE_OVERHEAD_BYTES + 2 * name.length();
+            }
+            for (String[] row : rows) {
+                bytes += VALUE_OVERHEAD_BYTES;
+                for (String value : row) {
+                    bytes += VALUE_OVERHEAD_BYTES + (value != null ? 2 * value.length() : 0);
+                }
+            }
+            this.numBytes = bytes;
+        }
+
+        public List<String> getColumnNames() {
+            return this.columnNames;
+        }
+
+        public List<String[]> getRows() {
+            return this.rows;
+        }
+
+        public List<String> getTables() {
+            return this.tables;
+        }
+
+        public long getNumBytes() {
+            return this.numBytes;
+        }
+    }
+}
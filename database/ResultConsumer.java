@@ -0,0 +1,121 @@
+package database;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+
+
+public class ResultConsumer {
+
+    private boolean shouldPrint;
+    private boolean shouldCollect;
+    private List<String> columnNames;
+    private List<String[]> rows;
+
+    public ResultConsumer(boolean shouldPrint) {
+        this(shouldPrint, false);
+    }
+
+    public ResultConsumer(boolean shouldPrint, boolean shouldCollect) {
+        this.shouldPrint = shouldPrint;
+        this.shouldCollect = shouldCollect;
+        this.columnNames = new ArrayList<String>();
+        this.rows = new ArrayList<String[]>();
+    }
+
+    public List<String> getColumnNames() {
+        return this.columnNames;
+    }
+
+    public List<String[]> getRows() {
+        /**
+         * Returns the rows read by consume (only populated when collecting rows).
+         */
+        return this.rows;
+    }
+
+    public QueryResult consume(ResultSet rs, long startNanos, long executeNanos) throws SQLException {
+        /**
+         * Reads the entire result set using column indices and records the time to the first row, the time to
+         * drain all rows, the number of rows and the number of bytes transferred.
+         *
+         * @param rs: Result set to drain
+         * @param startNanos: System.nanoTime() at which the statement was sent
+         * @param executeNanos: System.nanoTime() at which the statement returned
+         * @return The timing and size of the result
+         */
+        // A consumer keeps the rows of the last result it read (e.g. after a retry)
+        this.columnNames.clear();
+        this.rows.clear();
+
+        ResultSetMetaData meta = rs.getMetaData();
+        int numColumns = meta.getColumnCount();
+
+        // Resolve column names and types once instead of for every row
+        String[] names = new String[numColumns + 1];
+        boolean[] isInteger = new boolean[numColumns + 1];
+        for (int i = 1; i <= numColumns; i++) {
+            names[i] = meta.getColumnName(i);
+            isInteger[i] = meta.getColumnTypeName(i).equals("int8");
+            this.columnNames.add(names[i]);
+        }
+
+        long firstRowNanos = -1;
+        long rowCount = 0;
+        long numBytes = 0;
+        while (rs.next()) {
+            if (rowCount == 0) {
+                firstRowNanos = System.nanoTime();
+            }
+
+            String[] values = this.shouldCollect ? new String[numColumns] : null;
+            for (int i = 1; i <= numColumns; i++) {
+                if (this.shouldPrint || this.shouldCollect) {
+                    String str = isInteger[i] ? Integer.toString(rs.getInt(i)) : rs.getString(i);
+                    if (this.shouldPrint) {
+                        printValue(names[i], str);
+                    }
+                    if (this.shouldCollect) {
+                        values[i - 1] = str;
+                    }
+                }
+
+                // Raw bytes avoid decoding values we do not need
+                byte[] raw = rs.getBytes(i);
+                if (raw != null) {
+                    numBytes += raw.length;
+                }
+            }
+
+            if (this.shouldCollect) {
+                this.rows.add(values);
+            }
+            rowCount += 1;
+        }
+
+        long endNanos = System.nanoTime();
+        if (firstRowNanos < 0) {
+            firstRowNanos = endNanos;
+        }
+
+        return new QueryResult(toMillis(executeNanos - startNanos), toMillis(firstRowNanos - startNanos), toMillis(endNanos - startNanos), rowCount, numBytes, false);
+    }
+
+    public static void printRows(List<String> columnNames, List<String[]> rows) {
+        for (String[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                printValue(columnNames.get(i), row[i]);
+            }
+        }
+    }
+
+    private static void printValue(String name, String value) {
+        System.out.printf("    %-8s -> %10s\n", name, value);
+    }
+
+    public static double toMillis(long nanos) {
+        return ((double) nanos) / 1e6;
+    }
+}
@@ -4,39 +4,88 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.Types;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.postgresql.PGStatement;
 import org.postgresql.ds.PGSimpleDataSource;
 import org.la4j.Vector;
 import utils.Utils;
 import utils.OutputStats;
+import utils.PhaseTrace;
+import utils.DecisionLog;
 import parsing.SQLParser;
 import parsing.TableColumn;
+import parsing.ParameterizedQuery;
+import parsing.SelectivityEstimator;
 import bandits.BanditOptimizer;
+import bandits.ConservativeOptimizer;
+import bandits.EliminationOptimizer;
+import bandits.FactoredOptimizer;
+import bandits.OptimizerCheckpoint;
+import bandits.StatisticsClient;
 
 
-public class SQLDatabase {
+public class SQLDatabase implements QueryExecutor {
 
     private DataSource ds;
+    private GatewayRouter router;  // Routes arm queries across the gateways of a cluster, null for a single gateway
     private boolean debug = false;
     private String server;
     private int port;
     private String dbName;
     private String userName;
     private HashMap<String, HashMap<String, Statistics>> tableStats;
-    private HashMap<String, List<String>> tableIndexes;
+    private HashMap<String, HashMap<String, String>> tableIndexes;  // Table name -> leading column -> index name
     private Connection connection;
+    private QueryExecutor executor;
+    private double timeoutFactor;
+    private int fetchSize;
+    private String rewardMetric;
+    private boolean isEndToEndReward;
+    private ExplainFeatures explainFeatures;
+    private CardinalityFeedback feedback;
+    private ResultCache resultCache;
+    private TemplateRegistry templates;
+    private LinkedHashMap<String, PreparedStatement> preparedStatements;  // Template -> statement on the current connection, least recently used first
+    private boolean shouldPrepareArms;
+    private String selectivityMode;
+    private boolean shouldUseIndexFeatures;
+    private boolean shouldAddLookupArms;
+    private String contextFeatures;
+    private List<HashMap<String, List<Double>>> baselineRuntimes;  // Profiled latencies of the unhinted queries of each type
+    private DecisionLog decisionLog;
+    private int warmStartCount;  // Profiled latencies per arm which warm-start cold query types, 0 to start cold
+    private String checkpointFolder;  // Folder of the snapshots and update logs of optimizers, null to not log updates
+    private int checkpointInterval;
+    private int aggregatorPort;  // Local port of the StatisticsAggregator which merges optimizers across processes, -1 to learn alone
+    private int aggregatorInterval;
+    private long statsEpoch;
+    private ScheduledExecutorService cancelTimer;
 
     private static final int BATCH_SIZE = 1000;
+    private static final int MAX_PREPARED_STATEMENTS = 256;
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+    private static final int DEFAULT_AGGREGATOR_INTERVAL = 10;
+    private static final long MIN_TIMEOUT_MILLIS = 10;
+    private static final String QUERY_CANCELED_STATE = "57014";
 
     public SQLDatabase(String server, int port, String dbName, String userName) {
         this.server = server;
@@ -53,10 +102,83 @@ public class SQLDatabase {
         ds.setPassword(null);
         ds.setSsl(false);
         this.ds = ds;
+        this.router = null;
  
         this.tableStats = new HashMap<String, HashMap<String, Statistics>>();
-        this.tableIndexes = new HashMap<String, List<String>>();
+        this.tableIndexes = new HashMap<String, HashMap<String, String>>();
+        this.connection = null;
+        this.executor = this;
+        this.timeoutFactor = -1.0;
+        this.fetchSize = 0;
+        this.rewardMetric = QueryResult.DRAIN;
+        this.isEndToEndReward = false;
+        this.explainFeatures = null;
+        this.feedback = null;
+        this.resultCache = null;
+        this.templates = null;
+        this.preparedStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+        this.shouldPrepareArms = true;
+        this.selectivityMode = SelectivityEstimator.INDEPENDENT;
+        this.shouldUseIndexFeatures = false;
+        this.shouldAddLookupArms = false;
+        this.contextFeatures = JoinTreeFeaturizer.PAIRS;
+        this.baselineRuntimes = null;
+        this.decisionLog = null;
+        this.warmStartCount = 0;
+        this.checkpointFolder = null;
+        this.checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        this.aggregatorPort = -1;
+        this.aggregatorInterval = DEFAULT_AGGREGATOR_INTERVAL;
+        this.statsEpoch = 0;
+    }
+
+    public SQLDatabase(List<String> endpoints, String dbName, String userName) {
+        /**
+         * Creates a database on several gateways (host:port, see GatewayRouter). Arm queries are routed to
+         * the gateway with the lowest recent latency and fail over to the next gateway when one is down, like
+         * SELECTs. Statistics, EXPLAIN and other statements share a session connection to the best gateway,
+         * which moves to the next reachable gateway once it is lost.
+         */
+        this(GatewayRouter.getHost(endpoints.get(0)), GatewayRouter.getPort(endpoints.get(0)), dbName, userName);
+        if (endpoints.size() > 1) {
+            this.router = new GatewayRouter(endpoints, dbName, userName, GatewayRouter.DEFAULT_POOL_SIZE, GatewayRouter.DEFAULT_HEALTH_CHECK_MILLIS);
+            this.ds = this.router;
+        }
+    }
+
+    public SQLDatabase(QueryExecutor executor) {
+        /**
+         * Creates a database which runs all queries on the given executor (e.g. the in-process engine)
+         * instead of a CockroachDB connection.
+         */
+        this.ds = null;
+        this.router = null;
+        this.tableStats = new HashMap<String, HashMap<String, Statistics>>();
+        this.tableIndexes = new HashMap<String, HashMap<String, String>>();
         this.connection = null;
+        this.executor = executor;
+        this.timeoutFactor = -1.0;
+        this.fetchSize = 0;
+        this.rewardMetric = QueryResult.DRAIN;
+        this.isEndToEndReward = false;
+        this.explainFeatures = null;
+        this.feedback = null;
+        this.resultCache = null;
+        this.templates = null;
+        this.preparedStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+        this.shouldPrepareArms = true;
+        this.selectivityMode = SelectivityEstimator.INDEPENDENT;
+        this.shouldUseIndexFeatures = false;
+        this.shouldAddLookupArms = false;
+        this.contextFeatures = JoinTreeFeaturizer.PAIRS;
+        this.baselineRuntimes = null;
+        this.decisionLog = null;
+        this.warmStartCount = 0;
+        this.checkpointFolder = null;
+        this.checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        this.aggregatorPort = -1;
+        this.aggregatorInterval = DEFAULT_AGGREGATOR_INTERVAL;
+        this.statsEpoch = 0;
     }
 
     public void refreshStats(boolean shouldCreate) {
@@ -78,16 +200,326 @@ public class SQLDatabase {
             this.addColumnRange(table, columnStats);
             this.tableIndexes.put(table, this.getTableIndexes(table));
         }
+
+        this.statsEpoch += 1;
     }
 
     public void setDebug(boolean d) {
         this.debug = d;
     }
 
+    public void setExecutor(QueryExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void setTimeoutFactor(double factor) {
+        /**
+         * Sets the latency budget for arm queries in runJoinQuery as a multiple of the best known latency
+         * for the query type. Queries exceeding the budget are cancelled. Non-positive values disable the budget.
+         */
+        this.timeoutFactor = factor;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        /**
+         * Sets the number of rows fetched per round trip when draining results. Zero uses the driver
+         * default, which fetches the entire result at once.
+         */
+        this.fetchSize = fetchSize;
+    }
+
+    public void setRewardMetric(String metric) {
+        /**
+         * Sets which latency of an executed arm query is used as the reward: QueryResult.EXECUTE,
+         * QueryResult.FIRST_ROW or QueryResult.DRAIN (default).
+         */
+        if (!QueryResult.isValidMetric(metric)) {
+            System.out.printf("Unknown reward metric %s\n", metric);
+            return;
+        }
+        this.rewardMetric = metric;
+    }
+
+    public void setEndToEndReward(boolean isEndToEndReward) {
+        /**
+         * Sets whether the reward includes the optimizer overhead (parsing, context building, arm selection
+         * and rewriting) on top of the database latency.
+         */
+        this.isEndToEndReward = isEndToEndReward;
+    }
+
+    public void setExplainFeatures(boolean shouldExplain) {
+        /**
+         * Sets whether contexts include the optimizer's estimated rows for each join and total cost of each arm.
+         * This adds (number of joins + 1) features to each context, so numFeatures must account for them. With
+         * JoinTreeFeaturizer.TREE contexts the estimates are pooled into ExplainFeatures.NUM_POOLED_FEATURES.
+         */
+        this.explainFeatures = shouldExplain ? new ExplainFeatures(this) : null;
+    }
+
+    public void setFeedbackRate(double rate) {
+        /**
+         * Sets the fraction of executed arm queries which are re-run under EXPLAIN ANALYZE to correct the
+         * selectivities of later contexts with the actual join cardinalities. Zero disables the feedback.
+         */
+        this.feedback = rate > 0 ? new CardinalityFeedback(this, rate) : null;
+    }
+
+    public void setResultCacheBytes(long maxBytes) {
+        /**
+         * Enables a result cache of the given size for select (zero disables it). Arm queries executed through
+         * selectAndDrain are never cached, since their latency is what we measure.
+         */
+        this.resultCache = maxBytes > 0 ? new ResultCache(maxBytes) : null;
+    }
+
+    public void setPrepareArms(boolean shouldPrepare) {
+        /**
+         * Sets whether arm queries run as prepared statements of their template with the literals bound as
+         * parameters (default), so repeated executions of an arm skip parsing and planning on the server.
+         */
+        this.shouldPrepareArms = shouldPrepare;
+    }
+
+    public void setSelectivityMode(String mode) {
+        /**
+         * Sets how the WHERE predicates on one table are combined into its selectivity:
+         * SelectivityEstimator.INDEPENDENT (default) multiplies them, CORRELATED applies exponential backoff.
+         */
+        if (!SelectivityEstimator.isValidMode(mode)) {
+            System.out.printf("Unknown selectivity mode %s\n", mode);
+            return;
+        }
+        this.selectivityMode = mode;
+    }
+
+    public void setIndexFeatures(boolean shouldUseIndexes) {
+        /**
+         * Sets whether contexts flag, for each join, whether the inner table has an index led by its join column.
+         * This adds (number of joins) features to each context, so numFeatures must account for them. With
+         * JoinTreeFeaturizer.TREE contexts the flags are pooled into JoinTreeFeaturizer.NUM_INDEX_FEATURES.
+         */
+        this.shouldUseIndexFeatures = shouldUseIndexes;
+    }
+
+    public void setLookupArms(boolean shouldAddLookups) {
+        /**
+         * Sets whether the online optimizer also considers each join order with index lookup joins (into the
+         * index led by the join column) in place of hash joins, for the joins where such an index exists.
+         * Since the number of arms is fixed, fewer distinct join orders fit into the arms of each template.
+         */
+        this.shouldAddLookupArms = shouldAddLookups;
+    }
+
+    public void setContextFeatures(String layout) {
+        /**
+         * Sets how the join column statistics become a context: JoinTreeFeaturizer.PAIRS (default) gives four
+         * features per join, JoinTreeFeaturizer.TREE gives JoinTreeFeaturizer.NUM_FEATURES features for any
+         * number of joins, so query types with different numbers of joins can share one optimizer. Index and
+         * EXPLAIN features are then pooled over the joins as well, so the width stays fixed.
+         */
+        if (!JoinTreeFeaturizer.isValidLayout(layout)) {
+            System.out.printf("Unknown context features %s\n", layout);
+            return;
+        }
+        this.contextFeatures = layout;
+    }
+
+    public void setBaselineRuntimes(List<HashMap<String, List<Double>>> runtimes) {
+        /**
+         * Sets the profiles of the unhinted queries (see profileQueries with fixOrderings=false), which seed the
+         * baseline of a ConservativeOptimizer and simulate its baseline arm. Null clears them.
+         */
+        this.baselineRuntimes = runtimes;
+    }
+
+    public List<Double> getBaselineRuntimes(int type, String query) {
+        /**
+         * Returns the profiled latencies of the unhinted query of the given type (see setBaselineRuntimes), or null.
+         */
+        if (this.baselineRuntimes == null || type >= this.baselineRuntimes.size()) {
+            return null;
+        }
+        return this.baselineRuntimes.get(type).get(query);
+    }
+
+    public void setWarmStart(int pseudoCount) {
+        /**
+         * Sets how many profiled latencies of each arm fit an optimizer before runJoinQuery, for each query type
+         * the optimizer has no feedback on yet (see BanditOptimizer.warmStart). Zero starts optimizers cold.
+         */
+        this.warmStartCount = Math.max(pseudoCount, 0);
+    }
+
+    public void setDecisionLog(String path) {
+        /**
+         * Appends every decision of runJoinQuery and selectOnline, with the probability of the chosen arm, to
+         * the given file (see DecisionLog) for off-policy evaluation. Null stops logging.
+         */
+        if (this.decisionLog != null) {
+            this.decisionLog.close();
+        }
+        this.decisionLog = path != null ? new DecisionLog(path) : null;
+    }
+
+    public void setCheckpointFolder(String folder) {
+        /**
+         * Logs every update of runJoinQuery to a write-ahead log in the given folder and snapshots the optimizer
+         * there periodically (see OptimizerCheckpoint), so recoverOptimizer can restore it after a crash. Null
+         * stops logging.
+         */
+        this.checkpointFolder = folder;
+    }
+
+    public void setCheckpointInterval(int interval) {
+        /**
+         * Sets the number of logged updates between snapshots.
+         */
+        this.checkpointInterval = Math.max(interval, 1);
+    }
+
+    public void setAggregator(int port) {
+        /**
+         * Merges the statistics learned by runJoinQuery with those of other processes through the aggregator on
+         * the given local port (see StatisticsClient). A negative port learns alone.
+         */
+        this.aggregatorPort = port;
+    }
+
+    public void setAggregatorInterval(int interval) {
+        /**
+         * Sets the number of updates between exchanges with the aggregator.
+         */
+        this.aggregatorInterval = Math.max(interval, 1);
+    }
+
+    public BanditOptimizer recoverOptimizer(BanditOptimizer optimizer) {
+        /**
+         * Restores the given optimizer from the checkpoint folder, if any (see OptimizerCheckpoint.recover).
+         */
+        if (this.checkpointFolder == null) {
+            return optimizer;
+        }
+        return OptimizerCheckpoint.recover(this.checkpointFolder, optimizer);
+    }
+
+    public List<Vector> getContexts(List<String> queryOrders) {
+        /**
+         * Returns the current context of each join order of a query type, as runJoinQuery builds them.
+         */
+        SQLParser parser = new SQLParser();
+        PhaseTrace trace = new PhaseTrace();  // Not reported
+        List<Vector> contexts = new ArrayList<Vector>();
+        for (String query : queryOrders) {
+            contexts.add(this.getContext(parser, query, trace));
+        }
+        return contexts;
+    }
+
+    public Connection openConnection() throws SQLException {
+        /**
+         * Opens a connection of its own, separate from the connection of this database (e.g. one per thread).
+         */
+        if (this.ds == null) {
+            throw new SQLException("Queries run on an executor without connections");
+        }
+        return this.ds.getConnection();
+    }
+
+    public GatewayRouter getRouter() {
+        return this.router;
+    }
+
+    public ResultCache getResultCache() {
+        return this.resultCache;
+    }
+
+    public void setOnlineOptimizer(BanditOptimizer optimizer, int numFeatures) {
+        /**
+         * Routes ad-hoc SELECTs through the given optimizer (see selectOnline), which learns a join order for
+         * each query template. Null disables online optimization.
+         */
+        this.templates = optimizer != null ? new TemplateRegistry(optimizer, numFeatures) : null;
+    }
+
+    public TemplateRegistry getTemplates() {
+        return this.templates;
+    }
+
+    private long getLatencyBudget(double bestLatency) {
+        /**
+         * Returns the latency budget (ms) for a query type with the given best known latency, or -1 if disabled.
+         */
+        if (this.timeoutFactor <= 0.0 || Double.isNaN(bestLatency) || Double.isInfinite(bestLatency) || bestLatency >= Double.MAX_VALUE) {
+            return -1;
+        }
+        return Math.max((long) Math.ceil(bestLatency * this.timeoutFactor), MIN_TIMEOUT_MILLIS);
+    }
+
+    @Override
     public HashMap<String, HashMap<String, Statistics>> getTableStats() {
+        if (this.executor != this) {
+            return this.executor.getTableStats();
+        }
         return this.tableStats;
     }
 
+    @Override
+    public long getStatsEpoch() {
+        if (this.executor != this) {
+            return this.executor.getStatsEpoch();
+        }
+        return this.statsEpoch;
+    }
+
+    @Override
+    public PlanEstimate explain(String sql) {
+        /**
+         * Runs EXPLAIN (OPT, VERBOSE) on the given query and parses the estimated rows of each join and the
+         * total cost from the optimizer tree.
+         */
+        if (this.executor != this) {
+            return this.executor.explain(sql);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(String.format("EXPLAIN (OPT, VERBOSE) %s", sql))) {
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                for (String line : rs.getString(1).split("\n")) {
+                    lines.add(line);
+                }
+            }
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+            return null;
+        }
+
+        return PlanEstimate.fromOptTree(lines);
+    }
+
+    @Override
+    public AnalyzedPlan explainAnalyze(String sql) {
+        if (this.executor != this) {
+            return this.executor.explainAnalyze(sql);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(String.format("EXPLAIN ANALYZE %s", sql))) {
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                for (String line : rs.getString(1).split("\n")) {
+                    lines.add(line);
+                }
+            }
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+            return null;
+        }
+
+        return AnalyzedPlan.fromExplainAnalyze(lines);
+    }
+
     public void open() {
         /**
          * Open the database connection
@@ -103,12 +535,21 @@ public class SQLDatabase {
         /**
          * Close the database connection
          */
-        try {
-            this.connection.close();
-            this.connection = null;
-        } catch (SQLException ex) {
-            Utils.printSQLException(ex);
+        if (this.cancelTimer != null) {
+            this.cancelTimer.shutdownNow();
+            this.cancelTimer = null;
+        }
+
+        if (this.decisionLog != null) {
+            this.decisionLog.close();
+            this.decisionLog = null;
+        }
+
+        if (this.router != null) {
+            this.router.close();
         }
+
+        this.closeConnection();
     }
 
     public HashMap<String, Statistics> getColumnStats(String tableName) {
@@ -116,14 +557,14 @@ public class SQLDatabase {
          * Fetch statistics for all columns in the given table.
          *
          * @param tableName: Name of table to fetch stats for
-         * @return Map from column name to set of statistics
+         * @return Map from column name (or group key, for multi-column statistics) to set of statistics
          */
         HashMap<String, Statistics> result = new HashMap<String, Statistics>();
 
         // We should use a prepared statement to avoid injection, but for some reason Cockroach complains about them
         String query = String.format("SHOW STATISTICS FOR TABLE %s;", tableName);
         
-        try (PreparedStatement pstmt = this.connection.prepareStatement(query)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(query)) {
             // Execute query
             ResultSet rs = pstmt.executeQuery();
 
@@ -137,10 +578,20 @@ public class SQLDatabase {
                 int rowCount = rs.getInt("row_count");
                 int distinctCount = rs.getInt("distinct_count");
                
+                // Column names are given as an array, e.g. {movie_id,company_type_id} for a column group
                 colName = colName.substring(1, colName.length() - 1);
+                List<String> groupColumns = new ArrayList<String>();
+                for (String column : colName.split(",")) {
+                    groupColumns.add(column.trim().replace("\"", ""));
+                }
 
-                Statistics stats = new Statistics(tableName, colName, rowCount, distinctCount);
-                result.put(colName, stats);
+                Statistics stats;
+                if (groupColumns.size() > 1) {
+                    stats = new Statistics(tableName, groupColumns, rowCount, distinctCount);
+                } else {
+                    stats = new Statistics(tableName, groupColumns.get(0), rowCount, distinctCount);
+                }
+                result.put(Statistics.groupKey(groupColumns), stats);
             }
         } catch (SQLException ex) {
              Utils.printSQLException(ex);
@@ -158,7 +609,7 @@ public class SQLDatabase {
 
         // 1) Get columns with given types
         String query = String.format("SHOW COLUMNS FROM %s;", tableName);
-        try (PreparedStatement pstmt = this.connection.prepareStatement(query)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(query)) {
             ResultSet rs = pstmt.executeQuery();
 
             while (rs.next()) {
@@ -184,7 +635,7 @@ public class SQLDatabase {
        
         int index;
         query = queryBuilder.toString();
-        try (PreparedStatement pstmt = this.connection.prepareStatement(query)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(query)) {
             
             boolean res = pstmt.execute();
 
@@ -218,7 +669,7 @@ public class SQLDatabase {
         }
 
         query = queryBuilder.toString();
-        try (PreparedStatement pstmt = this.connection.prepareStatement(query)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(query)) {
             boolean res = pstmt.execute();
 
             index = 0;
@@ -250,29 +701,30 @@ public class SQLDatabase {
          */
         String query = String.format("CREATE STATISTICS %s FROM %s;", table, table);
 
-        try (PreparedStatement pstmt = this.connection.prepareStatement(query)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(query)) {
             pstmt.executeQuery();
         } catch (SQLException ex) {
             Utils.printSQLException(ex);
         }
     }
 
-    public List<String> getTableIndexes(String tableName) {
+    public HashMap<String, String> getTableIndexes(String tableName) {
         /**
-         * Fetch columns which are indexed.
+         * Fetch the indexes of the given table by their leading column, since only the leading column can be
+         * probed by a lookup join on a single key. Columns leading several indexes keep the first (primary) one.
          */
         String query = String.format("SHOW INDEX FROM %s;", tableName);
-        List<String> indexes = new ArrayList<String>();
+        HashMap<String, String> indexes = new HashMap<String, String>();
 
-        try (PreparedStatement pstmt = this.connection.prepareStatement(query)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(query)) {
             ResultSet rs = pstmt.executeQuery();
 
-            ResultSetMetaData meta = rs.getMetaData();
-
             String columnName;
             while (rs.next()) {
                 columnName = rs.getString("column_name");
-                indexes.add(columnName);
+                if (rs.getInt("seq_in_index") == 1 && !indexes.containsKey(columnName)) {
+                    indexes.put(columnName, rs.getString("index_name"));
+                }
             }
         } catch (SQLException ex) {
             Utils.printSQLException(ex);
@@ -281,12 +733,14 @@ public class SQLDatabase {
         return indexes;
     }
 
-    private Vector getStats(List<TableColumn> colOrder, HashMap<String, Double> whereSelectivity) {
+    private Vector getStats(List<TableColumn> colOrder, HashMap<String, Double> whereSelectivity, HashMap<String, Double> joinSelectivity, List<List<TableColumn>> keyGroups) {
         /**
          * Return statistics for a given column order and where clause selectivity
          * 
          * @param colOrder Order of columns in the join ordering
          * @param whereSelectivity: Map of table names to where clause selectivity. Null if no where clauses.
+         * @param joinSelectivity: Observed join selectivities from cardinality feedback. Null if there is no feedback.
+         * @param keyGroups: All key columns of each join (see SQLParser.getJoinKeyGroups). Null if there are no column group statistics.
          * @return A vector containing the statistics for this column order
          */
         ArrayList<Statistics> statsList = new ArrayList<Statistics>();
@@ -296,11 +750,147 @@ public class SQLDatabase {
             String tableName = column.getTableName();
             String columnName = column.getColumnName();
 
-            Statistics colStats = this.tableStats.get(tableName).get(columnName);
+            Statistics colStats = this.getTableStats().get(tableName).get(columnName);
             statsList.add(colStats);
         }
 
-        return Statistics.combineStatistics(statsList, whereSelectivity);
+        // Feedback is keyed by the join columns of the column order, which column group statistics do not name
+        List<String> joinKeys = new ArrayList<String>();
+        for (int j = 0; j + 1 < colOrder.size(); j += 2) {
+            TableColumn left = colOrder.get(j);
+            TableColumn right = colOrder.get(j + 1);
+            joinKeys.add(Statistics.joinKey(String.format("%s.%s", left.getTableName(), left.getColumnName()), String.format("%s.%s", right.getTableName(), right.getColumnName())));
+        }
+
+        // Composite join keys are correlated, so use the distinct count of their column group where one was collected
+        if (keyGroups != null) {
+            for (int j = 0; j < keyGroups.size() && 2 * j + 1 < statsList.size(); j++) {
+                List<TableColumn> keys = keyGroups.get(j);
+                if (keys.size() <= 2) {
+                    continue;
+                }
+
+                for (int side = 0; side < 2; side++) {
+                    List<String> groupColumns = new ArrayList<String>();
+                    for (int k = side; k < keys.size(); k += 2) {
+                        groupColumns.add(keys.get(k).getColumnName());
+                    }
+
+                    String tableName = keys.get(side).getTableName();
+                    Statistics groupStats = Statistics.getGroupStats(this.getTableStats().get(tableName), groupColumns);
+                    if (groupStats != null) {
+                        statsList.set(2 * j + side, groupStats);
+                    }
+                }
+            }
+        }
+
+        if (this.contextFeatures.equals(JoinTreeFeaturizer.TREE)) {
+            return JoinTreeFeaturizer.featurize(statsList, whereSelectivity, joinSelectivity, joinKeys);
+        }
+        return Statistics.combineStatistics(statsList, whereSelectivity, joinSelectivity, joinKeys);
+    }
+
+    private boolean hasColumnGroups() {
+        for (HashMap<String, Statistics> columnStats : this.getTableStats().values()) {
+            for (Statistics stats : columnStats.values()) {
+                if (stats.isColumnGroup()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private ParameterizedQuery prepareArm(SQLParser parser, String query, HashMap<String, ParameterizedQuery> preparedArms) {
+        /**
+         * Returns the hash join version of the given arm query (keeping any lookup joins the arm is hinted with),
+         * split into its template and parameters unless arms are not prepared. Arms are only parsed once per run.
+         */
+        ParameterizedQuery prepared = preparedArms.get(query);
+        if (prepared != null) {
+            return prepared;
+        }
+
+        String hashJoin = parser.toHashJoin(query);
+        ParameterizedQuery parameterized = this.shouldPrepareArms ? parser.parameterize(parser.stripJoinHints(query)) : null;
+        if (parameterized != null) {
+            // Join hints cannot be parsed, so they are added to the template after parameterizing
+            String template = parser.applyJoinHints(parameterized.getTemplate(), parser.getJoinHints(query));
+            prepared = new ParameterizedQuery(template, parameterized.getParameters(), hashJoin);
+        } else {
+            prepared = new ParameterizedQuery(hashJoin, new ArrayList<Object>(), hashJoin);
+        }
+
+        preparedArms.put(query, prepared);
+        return prepared;
+    }
+
+    private Vector getContext(SQLParser parser, String query, PhaseTrace trace) {
+        /**
+         * Builds the context of a single arm query from the statistics of its join columns, corrected by
+         * cardinality feedback and extended with index flags and EXPLAIN estimates when these are enabled.
+         */
+        String hintedQuery = query;
+        query = parser.stripJoinHints(query);
+        List<TableColumn> columnOrder = parser.getColumnOrder(query);
+        trace.mark(PhaseTrace.PARSE);
+
+        HashMap<String, Double> whereSelectivity = parser.getWhereSelectivity(query, this.getTableStats(), this.selectivityMode);
+        HashMap<String, Double> joinSelectivity = null;
+        if (this.feedback != null) {
+            HashMap<String, String> tableFilters = parser.getTableFilters(query);
+            this.feedback.correctWhereSelectivity(whereSelectivity, tableFilters);
+            joinSelectivity = this.feedback.getJoinSelectivity(columnOrder, tableFilters);
+        }
+
+        List<List<TableColumn>> keyGroups = this.hasColumnGroups() ? parser.getJoinKeyGroups(query) : null;
+        Vector s = this.getStats(columnOrder, whereSelectivity, joinSelectivity, keyGroups);
+
+        // Each join contributes two columns to the column order
+        int numJoins = columnOrder.size() / 2;
+        boolean shouldPool = this.contextFeatures.equals(JoinTreeFeaturizer.TREE);
+        if (this.shouldUseIndexFeatures) {
+            s = this.appendIndexFeatures(s, parser.getInnerJoinColumns(query), numJoins, shouldPool);
+        }
+        if (this.explainFeatures != null) {
+            String hashJoin = parser.toHashJoin(hintedQuery);
+            s = shouldPool ? this.explainFeatures.appendPooled(s, hashJoin, numJoins) : this.explainFeatures.append(s, hashJoin, numJoins);
+        }
+        trace.mark(PhaseTrace.CONTEXT);
+        return s;
+    }
+
+    private Vector appendIndexFeatures(Vector context, List<List<TableColumn>> innerColumns, int numJoins, boolean shouldPool) {
+        /**
+         * Appends, for each join, 1 if an index of the inner table is led by one of its join columns (so the
+         * join could run as an index lookup join) and 0 otherwise. Pooled, appends the fraction of such joins
+         * instead (JoinTreeFeaturizer.NUM_INDEX_FEATURES features).
+         */
+        double[] flags = new double[numJoins];
+        double numIndexed = 0.0;
+        for (int j = 0; j < Math.min(numJoins, innerColumns.size()); j++) {
+            for (TableColumn column : innerColumns.get(j)) {
+                HashMap<String, String> indexes = this.tableIndexes.get(column.getTableName());
+                if (indexes != null && indexes.containsKey(column.getColumnName())) {
+                    flags[j] = 1.0;
+                    numIndexed += 1.0;
+                    break;
+                }
+            }
+        }
+
+        if (shouldPool) {
+            Vector result = context.copyOfLength(context.length() + JoinTreeFeaturizer.NUM_INDEX_FEATURES);
+            result.set(context.length(), numJoins > 0 ? numIndexed / numJoins : 0.0);
+            return result;
+        }
+
+        Vector result = context.copyOfLength(context.length() + numJoins);
+        for (int j = 0; j < numJoins; j++) {
+            result.set(context.length() + j, flags[j]);
+        }
+        return result;
     }
 
     public void profileQueries(List<String> queries, int numTrials, String outputPath, boolean fixOrderings) {
@@ -327,33 +917,35 @@ public class SQLDatabase {
         }
 
         SQLParser parser = new SQLParser();
+        List<PhaseTrace> traces = new ArrayList<PhaseTrace>();
+        HashMap<String, ParameterizedQuery> preparedArms = new HashMap<String, ParameterizedQuery>();
 
         for (int i = 0; i <= numTrials; i++) {
             for (String query : queries) {
+                PhaseTrace trace = new PhaseTrace();
                 
                 // Convert to hash joins to control query ordering
-                String joinQuery = query;
+                QueryResult result;
                 if (fixOrderings) {
-                    joinQuery = parser.toHashJoin(query);
+                    ParameterizedQuery joinQuery = this.prepareArm(parser, query, preparedArms);
+                    trace.mark(PhaseTrace.REWRITE);
+                    result = this.selectAndDrain(joinQuery, -1);
+                } else {
+                    trace.mark(PhaseTrace.REWRITE);
+                    result = this.selectAndDrain(query, -1);
                 }
+                trace.mark(PhaseTrace.EXECUTE);
 
-                try (PreparedStatement pstmt = this.connection.prepareStatement(joinQuery)) {
-                    long start = System.currentTimeMillis();
-                    pstmt.executeQuery();
-                    long end = System.currentTimeMillis();
-
-                    // Omit first round due to variance in caching
-                    if (i > 0) {
-                        results.get(query).add((double) (end - start));
-                    }
-                
-                } catch (SQLException ex) {
-                    Utils.printSQLException(ex);
+                // Omit first round due to variance in caching
+                if (i > 0 && result != null) {
+                    results.get(query).add(result.getLatency(this.rewardMetric));
+                    traces.add(trace);
                 }
             }
         }
 
         Utils.saveResultsAsJson(results, outputPath);
+        PhaseTrace.printSummary(outputPath, traces);
     }
 
 
@@ -402,16 +994,52 @@ public class SQLDatabase {
             averageRuntimes.add(averages);
         }
 
+        // Best latency seen so far for each type, used to derive the latency budget of each arm query
+        double[] bestKnown = bestAverages.clone();
+
+        // The native plan of each type is the baseline of a conservative optimizer
+        ConservativeOptimizer conservative = optimizer instanceof ConservativeOptimizer ? (ConservativeOptimizer) optimizer : null;
+        double[] baselineAverages = new double[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            List<Double> latencies = this.getBaselineRuntimes(i, queries.get(i).get(0));
+            baselineAverages[i] = latencies != null ? Utils.average(latencies) : Double.NaN;
+            if (conservative != null && latencies != null) {
+                conservative.setBaselineLatency(i, baselineAverages[i]);
+            }
+        }
+        if (conservative != null && shouldSimulate && this.baselineRuntimes == null) {
+            System.out.println("No baseline profiles, so the baseline is simulated with the first join order.");
+        }
+
+        // A checkpointed optimizer was warm-started before its first snapshot, so recovering it restored the warm start
+        boolean isCheckpointed = this.checkpointFolder != null && OptimizerCheckpoint.exists(this.checkpointFolder, optimizer);
+        if (this.warmStartCount > 0 && shouldUpdate && !isCheckpointed) {
+            this.warmStart(parser, queries, optimizer, queryRuntimes);
+        }
+
+        // Log updates ahead of applying them, starting from a snapshot of the (warm-started) optimizer
+        OptimizerCheckpoint checkpoint = null;
+        if (this.checkpointFolder != null && shouldUpdate) {
+            try {
+                checkpoint = new OptimizerCheckpoint(this.checkpointFolder, optimizer, this.checkpointInterval);
+            } catch (IOException ex) {
+                System.out.printf("Could not open the update log of %s, so updates are not durable: %s\n", optimizer.getName(), ex.getMessage());
+            }
+        }
+        StatisticsClient aggregator = (this.aggregatorPort > 0 && shouldUpdate) ? new StatisticsClient(optimizer, this.aggregatorPort, this.aggregatorInterval) : null;
+
         // Run queries
         ArrayList<Vector> stats;
         Random rand = new Random();
         OutputStats[] outputStats = new OutputStats[numTrials];
+        List<PhaseTrace> traces = new ArrayList<PhaseTrace>();
+        HashMap<String, ParameterizedQuery> preparedArms = new HashMap<String, ParameterizedQuery>();
         double elapsed;
         boolean shouldExploit = !shouldUpdate;  // Exploit when we are in test mode
         for (int i = 0; i <= numTrials; i++) {
 
-            // Start time to include all required preprocessing
-            long start = System.currentTimeMillis();
+            // Trace each phase, starting here to include all required preprocessing
+            PhaseTrace trace = new PhaseTrace();
 
             // Select random query to run
             int queryType = queryTypes[i];
@@ -420,57 +1048,273 @@ public class SQLDatabase {
             // Create context from database statistics
             stats = new ArrayList<Vector>();
             for (String query : queryOrders) {
-                List<TableColumn> columnOrder = parser.getColumnOrder(query);
-                HashMap<String, Double> whereSelectivity = parser.getWhereSelectivity(query, this.tableStats);
-                Vector s = this.getStats(columnOrder, whereSelectivity);
-                stats.add(s);
+                stats.add(this.getContext(parser, query, trace));
             }
 
-            // Select query using the context for each statistics ordering
+            // Select query using the context for each statistics ordering (taking the propensities first, as choosing may change them)
+            this.observeStatsEpoch(optimizer);
+            double[] probabilities = this.decisionLog != null ? optimizer.getArmProbabilities(i + 1, queryType, stats, shouldExploit) : null;
             int arm = optimizer.getArm(i + 1, queryType, stats, shouldExploit); 
-            String chosenQuery = queryOrders.get(arm);
-
-            // Turn query into a Hash Join to prevent later reordering
-            String hashJoin = parser.toHashJoin(chosenQuery);
-
-            // Execute query
+            boolean isBaseline = conservative != null && arm == conservative.getBaselineArm();
+            String chosenQuery = queryOrders.get(isBaseline ? 0 : arm);
+            trace.mark(PhaseTrace.CHOOSE);
+
+            // Turn query into a Hash Join to prevent later reordering, unless the database should plan it itself
+            String hashJoin = isBaseline ? chosenQuery : parser.toHashJoin(chosenQuery);
+            ParameterizedQuery preparedJoin = (shouldSimulate || isBaseline) ? null : this.prepareArm(parser, chosenQuery, preparedArms);
+            trace.mark(PhaseTrace.REWRITE);
+
+            // Execute query, cancelling it if it exceeds the latency budget of this query type (the baseline is never cancelled)
+            long budget = isBaseline ? -1 : this.getLatencyBudget(bestKnown[queryType]);
+            boolean isCensored = false;
+            double queryLatency;
             if (shouldSimulate) {
                 // Simulates request using profiling results
-                List<Double> latencies = queryRuntimes.get(queryType).get(chosenQuery);
+                List<Double> latencies = isBaseline ? this.getBaselineRuntimes(queryType, chosenQuery) : null;
+                if (latencies == null) {
+                    latencies = queryRuntimes.get(queryType).get(chosenQuery);
+                }
                 int timeIndex = rand.nextInt(latencies.size());
-                long end = System.currentTimeMillis();
-                elapsed = latencies.get(timeIndex) + ((double) (end - start));
+                queryLatency = latencies.get(timeIndex);
+
+                if (budget > 0 && queryLatency > budget) {
+                    queryLatency = (double) budget;
+                    isCensored = true;
+                }
             } else {
-                // Execute request against the database
-                this.select(hashJoin, false);
-                long end = System.currentTimeMillis();
-                elapsed = (double) (end - start);
+                // Execute request against the database and read the entire result
+                long queryStart = System.currentTimeMillis();
+                QueryResult result = isBaseline ? this.selectAndDrain(chosenQuery, budget) : this.selectAndDrain(preparedJoin, budget);
+
+                if (result != null) {
+                    isCensored = result.isCancelled();
+                    queryLatency = result.getLatency(this.rewardMetric);
+                } else {
+                    queryLatency = (double) (System.currentTimeMillis() - queryStart);
+                }
             }
+            trace.mark(PhaseTrace.EXECUTE);
+
+            // The (simulated) database latency plus the measured optimizer overhead
+            elapsed = queryLatency + trace.getOverheadMillis();
 
             // Don't record first trial to avoid outliers from caching
             if (i > 0) {
-                double reward = -1 * elapsed;
+                double reward = -1 * (this.isEndToEndReward ? elapsed : queryLatency);
                 
-                if (shouldUpdate) {
-                    optimizer.update(arm, queryType, reward, stats);
+                if (checkpoint != null) {
+                    checkpoint.update(optimizer, arm, queryType, reward, isCensored, stats);
+                } else if (shouldUpdate) {
+                    if (isCensored) {
+                        // The true latency is unknown, only that it exceeds the budget
+                        optimizer.updateCensored(arm, queryType, reward, stats);
+                    } else {
+                        optimizer.update(arm, queryType, reward, stats);
+                    }
+                }
+                if (aggregator != null) {
+                    aggregator.exchange(optimizer);
+                }
+                trace.mark(PhaseTrace.UPDATE);
+
+                if (this.decisionLog != null) {
+                    this.decisionLog.log(new DecisionLog.Decision(optimizer.getName(), i + 1, queryType, stats, probabilities, arm, reward, isCensored));
+                }
+
+                if (!isCensored) {
+                    bestKnown[queryType] = Math.min(bestKnown[queryType], queryLatency);
                 }
 
                 double normalizedReward = optimizer.normalizeReward(reward, queryType);
-                double regret = (averageRuntimes.get(queryType).get(chosenQuery) - bestAverages[queryType]) / (worstAverages[queryType] - bestAverages[queryType]);
+                double chosenAverage = (isBaseline && !Double.isNaN(baselineAverages[queryType])) ? baselineAverages[queryType] : averageRuntimes.get(queryType).get(chosenQuery);
+                double regret = (chosenAverage - bestAverages[queryType]) / (worstAverages[queryType] - bestAverages[queryType]);
                 outputStats[i-1] = new OutputStats(elapsed, normalizedReward, regret, arm, queryType, bestArms[queryType], bestAverages[queryType]);
+                outputStats[i-1].setCensored(isCensored);
+                outputStats[i-1].setTrace(trace);
+                traces.add(trace);
+            }
+
+            // Re-run a sample of completed arm queries under EXPLAIN ANALYZE, outside of the measured latency
+            if (this.feedback != null && !shouldSimulate && !isCensored && !isBaseline && this.feedback.shouldSample()) {
+                AnalyzedPlan analyzed = this.explainAnalyze(hashJoin);
+                if (analyzed != null) {
+                    String plainQuery = parser.stripJoinHints(chosenQuery);
+                    this.feedback.record(analyzed, parser.getTableOrder(plainQuery), parser.getColumnOrder(plainQuery), parser.getTableFilters(plainQuery));
+                }
+                trace.mark(PhaseTrace.FEEDBACK);
             }
         }
 
+        if (aggregator != null) {
+            aggregator.close(optimizer);
+        }
+        if (checkpoint != null) {
+            checkpoint.close(optimizer);
+        }
+
+        PhaseTrace.printSummary(optimizer.getName(), traces);
+        if (conservative != null) {
+            System.out.println(conservative);
+        }
         return outputStats;
     }
 
+    private void warmStart(SQLParser parser, List<List<String>> queries, BanditOptimizer optimizer, List<HashMap<String, List<Double>>> queryRuntimes) {
+        /**
+         * Fits the optimizer to the profiled latencies of each query type it has no feedback on yet, using the
+         * current contexts of the type's join orders.
+         */
+        PhaseTrace trace = new PhaseTrace();  // Not reported
+        int numWarmed = 0;
+        for (int type = 0; type < queries.size() && type < optimizer.getNumTypes(); type++) {
+            if (optimizer.hasSamples(type)) {
+                continue;
+            }
+
+            List<Vector> contexts = new ArrayList<Vector>();
+            List<List<Double>> armRewards = new ArrayList<List<Double>>();
+            for (String query : queries.get(type)) {
+                contexts.add(this.getContext(parser, query, trace));
+
+                List<Double> rewards = new ArrayList<Double>();
+                List<Double> latencies = queryRuntimes.get(type).get(query);
+                if (latencies != null) {
+                    for (double latency : latencies) {
+                        rewards.add(-1 * latency);
+                    }
+                }
+                armRewards.add(rewards);
+            }
+
+            optimizer.warmStart(type, armRewards, contexts, this.warmStartCount);
+            numWarmed += 1;
+        }
+        System.out.printf("Warm-started %s on %d query types with up to %d profiled latencies per arm\n", optimizer.getName(), numWarmed, this.warmStartCount);
+    }
+
+    private void observeStatsEpoch(BanditOptimizer optimizer) {
+        /**
+         * Lets an elimination layer (possibly below a conservative one) restore its arms after a statistics refresh.
+         */
+        if (optimizer instanceof ConservativeOptimizer) {
+            optimizer = ((ConservativeOptimizer) optimizer).getOptimizer();
+        }
+        if (optimizer instanceof EliminationOptimizer) {
+            ((EliminationOptimizer) optimizer).observeStatsEpoch(this.getStatsEpoch());
+        }
+    }
+
+    public boolean selectOnline(String sql, boolean shouldPrint) {
+        /**
+         * Executes an ad-hoc SELECT in the join order chosen by the online optimizer and updates the optimizer
+         * with the observed latency. Queries are grouped into query types by their template, so all queries
+         * which only differ in their literals share their arm statistics. A FactoredOptimizer builds the plan
+         * (join order and join algorithms) decision by decision instead of choosing among whole join orders.
+         * Queries which cannot be reordered (or when online optimization is disabled) are executed as given.
+         */
+        if (this.templates == null) {
+            return this.select(sql, shouldPrint);
+        }
+
+        SQLParser parser = new SQLParser();
+        PhaseTrace trace = new PhaseTrace();
+
+        int queryType = this.templates.getType(sql, this.shouldAddLookupArms ? this.tableIndexes : null);
+        if (queryType < 0) {
+            return this.select(sql, shouldPrint);
+        }
+
+        BanditOptimizer optimizer = this.templates.getOptimizer();
+        JoinPlanner planner = null;
+        JoinPlanner.JoinPlan plan = null;
+        List<Vector> stats = null;
+        double[] probabilities = null;
+        int time = 0;
+        int arm = -1;
+        String hashJoin;
+        if (optimizer instanceof FactoredOptimizer) {
+            planner = new JoinPlanner((FactoredOptimizer) optimizer);
+            plan = planner.plan(sql, queryType, this.tableIndexes, false);
+            if (plan == null) {
+                return this.select(sql, shouldPrint);
+            }
+            hashJoin = plan.getSql();
+        } else {
+            List<String> arms = this.templates.getArms(sql, queryType);
+            if (arms == null) {
+                return this.select(sql, shouldPrint);
+            }
+
+            stats = new ArrayList<Vector>();
+            for (String armQuery : arms) {
+                stats.add(this.templates.fitContext(this.getContext(parser, armQuery, trace)));
+            }
+
+            this.observeStatsEpoch(optimizer);
+            time = this.templates.nextTime();
+            probabilities = this.decisionLog != null ? optimizer.getArmProbabilities(time, queryType, stats, false) : null;
+            arm = optimizer.getArm(time, queryType, stats, false);
+            if (optimizer instanceof ConservativeOptimizer && arm == ((ConservativeOptimizer) optimizer).getBaselineArm()) {
+                hashJoin = sql;  // The database plans the baseline itself
+            } else {
+                hashJoin = parser.toHashJoin(arms.get(arm));
+            }
+        }
+        trace.mark(PhaseTrace.CHOOSE);
+
+        // Results served from the cache say nothing about the join order, so they are not learned from
+        String cacheKey = (this.executor == this && this.resultCache != null) ? ResultCache.getKey(hashJoin) : null;
+        if (cacheKey != null && this.resultCache.get(cacheKey) != null) {
+            return this.select(hashJoin, shouldPrint);
+        }
+
+        // The reward is the drained latency (as in runJoinQuery), so rows are only printed once it is measured
+        ResultConsumer consumer = new ResultConsumer(false, shouldPrint || cacheKey != null);
+        QueryResult result = this.drainOnline(hashJoin, consumer);
+        trace.mark(PhaseTrace.EXECUTE);
+        if (result == null) {
+            return false;
+        }
+
+        double queryLatency = result.getLatency(this.rewardMetric);
+        if (!result.isCancelled()) {
+            double elapsed = queryLatency + trace.getOverheadMillis();
+            double reward = -1 * (this.isEndToEndReward ? elapsed : queryLatency);
+            if (plan != null) {
+                planner.update(queryType, plan, reward);
+            } else {
+                optimizer.update(arm, queryType, reward, stats);
+                if (this.decisionLog != null) {
+                    this.decisionLog.log(new DecisionLog.Decision(optimizer.getName(), time, queryType, stats, probabilities, arm, reward, false));
+                }
+            }
+        }
+
+        if (this.debug) {
+            String choice = plan != null ? plan.getChoices().toString() : String.format("Arm %d", arm);
+            System.out.printf("Type %d, %s, Latency %.3f ms: %s\n", queryType, choice, queryLatency, hashJoin);
+        }
+
+        if (this.executor != this) {
+            // Other executors do not hand out their rows, so the query runs again to print them
+            return !shouldPrint || this.executor.select(hashJoin, true);
+        }
+        if (shouldPrint) {
+            ResultConsumer.printRows(consumer.getColumnNames(), consumer.getRows());
+        }
+        if (cacheKey != null) {
+            this.resultCache.put(cacheKey, hashJoin, consumer.getColumnNames(), consumer.getRows());
+        }
+        return true;
+    }
+
     public ArrayList<String> getTables() {
         /**
          * Fetches a list of all tables in the database
          */
         ArrayList<String> tables = new ArrayList<String>();
 
-        try (PreparedStatement pstmt = this.connection.prepareStatement("SHOW TABLES")) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement("SHOW TABLES")) {
             ResultSet rs = pstmt.executeQuery();
 
             ResultSetMetaData meta = rs.getMetaData();
@@ -487,9 +1331,31 @@ public class SQLDatabase {
         return tables;
     }
 
+    @Override
     public boolean select(String sql, boolean shouldPrint, String... args) {
+        if (this.executor != this) {
+            return this.executor.select(sql, shouldPrint, args);
+        }
+
+        // Serve repeated queries from the cache while none of their tables changed
+        String cacheKey = null;
+        if (this.resultCache != null) {
+            cacheKey = ResultCache.getKey(sql, args);
+            ResultCache.CachedResult cached = this.resultCache.get(cacheKey);
+            if (cached != null) {
+                if (shouldPrint) {
+                    ResultConsumer.printRows(cached.getColumnNames(), cached.getRows());
+                }
+                return true;
+            }
+        }
+
+        if (this.router != null) {
+            return this.routeSelect(sql, shouldPrint, cacheKey, args);
+        }
+
         boolean returnVal = false;
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(sql)) {
 
             // Load arguments into the SQL Statement
             for (int i = 0; i < args.length; i++) {
@@ -501,34 +1367,384 @@ public class SQLDatabase {
                 }
             }
         
+            long start = System.nanoTime();
             returnVal = pstmt.execute();
+            long executed = System.nanoTime();
 
-            if (returnVal && shouldPrint) {
-                ResultSet rs = pstmt.getResultSet();
-                ResultSetMetaData meta = rs.getMetaData();
-                int numColumns = meta.getColumnCount();
+            if (returnVal && (shouldPrint || cacheKey != null)) {
+                ResultConsumer consumer = new ResultConsumer(shouldPrint, cacheKey != null);
+                consumer.consume(pstmt.getResultSet(), start, executed);
 
-                // Iterate through the result set
-                while (rs.next()) {
-                    for (int i = 1; i <= numColumns; i++) {
-                        String name = meta.getColumnName(i);
-                        String type = meta.getColumnTypeName(i);
+                if (cacheKey != null) {
+                    this.resultCache.put(cacheKey, sql, consumer.getColumnNames(), consumer.getRows());
+                }
+            }
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+        }
 
-                        if (type.equals("int8")) {
-                            int val = rs.getInt(name);
-                            System.out.printf("    %-8s -> %10s\n", name, val);
-                        } else {
-                            String str = rs.getString(name);
-                            System.out.printf("    %-8s -> %10s\n", name, str);
-                        }
+        return returnVal;
+    }
+
+    @Override
+    public QueryResult selectAndDrain(String sql, long timeoutMillis) {
+        /**
+         * Executes the given query and reads every row using the configured fetch size. If a timeout is given,
+         * the query is cancelled (via Statement.cancel) once it runs longer than the timeout. JDBC's
+         * setQueryTimeout only has second granularity, which is too coarse for most arm queries.
+         *
+         * @return The result timings, a cancelled result if the timeout was hit, or null on errors
+         */
+        if (this.executor != this) {
+            return this.executor.selectAndDrain(sql, timeoutMillis);
+        }
+        if (this.router != null) {
+            return this.routeAndDrain(sql, null, timeoutMillis);
+        }
+
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(sql)) {
+            return this.drain(pstmt, timeoutMillis);
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+        }
+        return null;
+    }
+
+    public QueryResult selectAndDrain(Connection connection, String sql, long timeoutMillis) {
+        /**
+         * Executes a query like selectAndDrain on the given connection (see openConnection), so several threads
+         * can run queries at once on connections of their own.
+         */
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            return this.drain(pstmt, timeoutMillis);
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+        }
+        return null;
+    }
+
+    public QueryResult selectAndDrain(ParameterizedQuery query, long timeoutMillis) {
+        /**
+         * Executes the given query like selectAndDrain, using the prepared statement of its template on this
+         * connection. Statements are prepared on the server from their first execution, so later executions
+         * with the same template (and any parameters) skip parsing and planning.
+         */
+        if (this.executor != this || query.getTemplate().equals(query.getSql())) {
+            return this.selectAndDrain(query.getSql(), timeoutMillis);
+        }
+        if (this.router != null) {
+            return this.routeAndDrain(query.getTemplate(), query.getParameters(), timeoutMillis);
+        }
+
+        try {
+            PreparedStatement pstmt = this.getPreparedStatement(query.getTemplate());
+            setParameters(pstmt, query.getParameters());
+            return this.drain(pstmt, timeoutMillis);
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+        }
+        return null;
+    }
+
+    private QueryResult routeAndDrain(String sql, List<Object> parameters, long timeoutMillis) {
+        return this.routeAndDrain(sql, parameters, timeoutMillis, new ResultConsumer(false));
+    }
+
+    private QueryResult routeAndDrain(String sql, List<Object> parameters, long timeoutMillis, ResultConsumer consumer) {
+        /**
+         * Executes a query like selectAndDrain on a pooled connection of the best gateway (see GatewayRouter),
+         * retrying it on the next gateway if the connection turns out to be broken. Templates stay prepared
+         * on each pooled connection (see Gateway.prepare), so the server plans them only once per connection.
+         */
+        for (GatewayRouter.Gateway gateway : this.router.getRoute()) {
+            Connection connection;
+            try {
+                connection = gateway.acquire();
+            } catch (SQLException ex) {
+                gateway.markDown(ex.getMessage());
+                continue;
+            }
+
+            QueryResult result = null;
+            try {
+                if (parameters != null) {
+                    PreparedStatement pstmt = gateway.prepare(connection, sql);
+                    setParameters(pstmt, parameters);
+                    result = this.drain(pstmt, timeoutMillis, consumer);
+                } else {
+                    try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                        result = this.drain(pstmt, timeoutMillis, consumer);
                     }
                 }
-            }    
+            } catch (SQLException ex) {
+                Utils.printSQLException(ex);
+            }
+
+            // Errors of the query itself would fail on every gateway, so only lost connections fail over
+            if (result == null && !isValid(connection)) {
+                gateway.discard(connection);
+                gateway.markDown("connection lost during a query");
+                continue;
+            }
+            gateway.release(connection);
+            return result;
+        }
+
+        System.out.println("No gateway is reachable.");
+        return null;
+    }
+
+    private boolean routeSelect(String sql, boolean shouldPrint, String cacheKey, String... args) {
+        // Runs a select like the arm queries, so it fails over to the next gateway when its gateway is lost
+        List<Object> parameters = null;
+        if (args.length > 0) {
+            parameters = new ArrayList<Object>();
+            for (String arg : args) {
+                try {
+                    parameters.add(Long.parseLong(arg));
+                } catch (NumberFormatException e) {
+                    parameters.add(arg);
+                }
+            }
+        }
+
+        ResultConsumer consumer = new ResultConsumer(false, shouldPrint || cacheKey != null);
+        if (this.routeAndDrain(sql, parameters, -1, consumer) == null) {
+            return false;
+        }
+
+        if (shouldPrint) {
+            ResultConsumer.printRows(consumer.getColumnNames(), consumer.getRows());
+        }
+        if (cacheKey != null) {
+            this.resultCache.put(cacheKey, sql, consumer.getColumnNames(), consumer.getRows());
+        }
+        return true;
+    }
+
+    private QueryResult drainOnline(String sql, ResultConsumer consumer) {
+        // Drains an online query like selectAndDrain, keeping its rows in the consumer
+        if (this.executor != this) {
+            return this.executor.selectAndDrain(sql, -1);
+        }
+        if (this.router != null) {
+            return this.routeAndDrain(sql, null, -1, consumer);
+        }
+
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(sql)) {
+            return this.drain(pstmt, -1, consumer);
         } catch (SQLException ex) {
             Utils.printSQLException(ex);
         }
+        return null;
+    }
 
-        return returnVal;
+    private PreparedStatement getPreparedStatement(String template) throws SQLException {
+        PreparedStatement pstmt = this.preparedStatements.get(template);
+        if (pstmt != null) {
+            return pstmt;
+        }
+
+        pstmt = this.getSessionConnection().prepareStatement(template);
+        if (pstmt.isWrapperFor(PGStatement.class)) {
+            // The driver only switches to a server-side statement after five executions by default
+            pstmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+        }
+
+        if (this.preparedStatements.size() >= MAX_PREPARED_STATEMENTS) {
+            String eldest = this.preparedStatements.keySet().iterator().next();
+            this.preparedStatements.remove(eldest).close();
+        }
+        this.preparedStatements.put(template, pstmt);
+        return pstmt;
+    }
+
+    private QueryResult drain(PreparedStatement pstmt, long timeoutMillis) {
+        return this.drain(pstmt, timeoutMillis, new ResultConsumer(false));
+    }
+
+    private QueryResult drain(PreparedStatement pstmt, long timeoutMillis, ResultConsumer consumer) {
+        /**
+         * Executes the given statement and reads every row with the consumer, cancelling it after the timeout
+         * (if positive). A cancel never outlives the call, so it cannot hit the next statement of the session
+         * (often the same prepared statement).
+         */
+        long start = System.nanoTime();
+        boolean restoreAutoCommit = false;
+        boolean hasCancelled = false;
+
+        try {
+            // Postgres drivers only stream results in fetch-size batches inside a transaction
+            if (this.fetchSize > 0) {
+                pstmt.setFetchSize(this.fetchSize);
+                if (pstmt.getConnection().getAutoCommit()) {
+                    pstmt.getConnection().setAutoCommit(false);
+                    restoreAutoCommit = true;
+                }
+            }
+
+            // Whichever of the timer and the statement finishes first claims isFinished, so the timer only
+            // cancels a running statement and the statement waits for a cancel which is already being sent
+            AtomicBoolean isFinished = new AtomicBoolean(false);
+            CountDownLatch cancelSent = new CountDownLatch(1);
+            ScheduledFuture<?> cancelTask = null;
+            if (timeoutMillis > 0) {
+                cancelTask = this.getCancelTimer().schedule(() -> {
+                    if (!isFinished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    try {
+                        pstmt.cancel();
+                    } catch (SQLException ex) {
+                        Utils.printSQLException(ex);
+                    } finally {
+                        cancelSent.countDown();
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            try {
+                boolean hasResults = pstmt.execute();
+                long executed = System.nanoTime();
+
+                if (!hasResults) {
+                    double elapsed = ResultConsumer.toMillis(executed - start);
+                    return new QueryResult(elapsed, elapsed, elapsed, 0, 0, false);
+                }
+
+                return consumer.consume(pstmt.getResultSet(), start, executed);
+            } finally {
+                if (cancelTask != null) {
+                    cancelTask.cancel(false);
+                    if (!isFinished.compareAndSet(false, true)) {
+                        hasCancelled = true;
+                        awaitCancel(cancelSent);
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            if (QUERY_CANCELED_STATE.equals(ex.getSQLState())) {
+                return QueryResult.cancelled(ResultConsumer.toMillis(System.nanoTime() - start));
+            }
+            Utils.printSQLException(ex);
+        } finally {
+            if (restoreAutoCommit) {
+                try {
+                    pstmt.getConnection().rollback();  // Read-only, so there is nothing to commit
+                    pstmt.getConnection().setAutoCommit(true);
+                } catch (SQLException ex) {
+                    Utils.printSQLException(ex);
+                }
+            }
+            if (hasCancelled) {
+                clearCancel(pstmt);
+            }
+        }
+
+        return null;
+    }
+
+    private static void awaitCancel(CountDownLatch cancelSent) {
+        try {
+            cancelSent.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void clearCancel(PreparedStatement pstmt) {
+        /**
+         * The server handles a cancel asynchronously, so one sent as the statement finished can still arrive
+         * afterwards. Run a trivial statement to absorb it before the connection (or statement) is reused.
+         */
+        try (Statement stmt = pstmt.getConnection().createStatement()) {
+            stmt.execute("SELECT 1;");
+        } catch (SQLException ex) {
+            if (!QUERY_CANCELED_STATE.equals(ex.getSQLState())) {
+                Utils.printSQLException(ex);
+            }
+            try {
+                if (!pstmt.getConnection().getAutoCommit()) {
+                    pstmt.getConnection().rollback();
+                }
+            } catch (SQLException rollbackEx) {
+                Utils.printSQLException(rollbackEx);
+            }
+        }
+    }
+
+    private static void setParameters(PreparedStatement pstmt, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            if (value instanceof Long) {
+                pstmt.setLong(i + 1, (Long) value);
+            } else if (value instanceof Double) {
+                pstmt.setDouble(i + 1, (Double) value);
+            } else {
+                // Untyped, so the server infers the type (e.g. DATE) from the column it is compared to
+                pstmt.setObject(i + 1, value, Types.OTHER);
+            }
+        }
+    }
+
+    private Connection getSessionConnection() throws SQLException {
+        /**
+         * Returns the connection of statements which are not routed per query (e.g. statistics and EXPLAIN).
+         * With several gateways, a lost connection is replaced by one to the best reachable gateway.
+         */
+        if (this.router != null && (this.connection == null || !isValid(this.connection))) {
+            if (this.connection != null) {
+                System.out.println("Lost the session connection, reconnecting to the next gateway.");
+                this.closeConnection();
+            }
+            this.connection = this.router.getConnection();
+        }
+        if (this.connection == null) {
+            throw new SQLException("Not connected");
+        }
+        return this.connection;
+    }
+
+    private void closeConnection() {
+        if (this.connection == null) {
+            return;
+        }
+
+        // Prepared statements belong to the connection
+        for (PreparedStatement pstmt : this.preparedStatements.values()) {
+            try {
+                pstmt.close();
+            } catch (SQLException ex) {
+                Utils.printSQLException(ex);
+            }
+        }
+        this.preparedStatements.clear();
+
+        try {
+            this.connection.close();
+        } catch (SQLException ex) {
+            Utils.printSQLException(ex);
+        }
+        this.connection = null;
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(1);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private ScheduledExecutorService getCancelTimer() {
+        if (this.cancelTimer == null) {
+            this.cancelTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "query-cancel-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.cancelTimer;
     }
 
     public int createTables(String path) {
@@ -576,6 +1792,10 @@ public class SQLDatabase {
         int insertCount = 0;
         String headers = null;
 
+        if (this.resultCache != null) {
+            this.resultCache.invalidateTable(tableName);
+        }
+
         // Derive number of headers from given data types
         int numHeaders = -1;
         if (dataTypes != null && dataTypes.length > 0) {
@@ -723,7 +1943,11 @@ public class SQLDatabase {
     }
 
     private boolean execute(String sql) {
-        try (PreparedStatement pstmt = this.connection.prepareStatement(sql)) {
+        if (this.resultCache != null) {
+            this.resultCache.invalidateStatement(sql);
+        }
+
+        try (PreparedStatement pstmt = this.getSessionConnection().prepareStatement(sql)) {
             pstmt.execute();
             return true;
         } catch (SQLException ex) {
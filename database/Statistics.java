@@ -2,7 +2,9 @@ package database;
 
 import java.lang.Math;
 import java.lang.Iterable;
+import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.HashMap;
 import java.util.Random;
@@ -15,6 +17,7 @@ public class Statistics {
 
     private String tableName;
     private String columnName;
+    private List<String> columnNames;  // Sorted columns of a multi-column statistic, or just columnName
     private double tableRows;
     private double tableDistinct;
     private double rowCount;
@@ -24,6 +27,8 @@ public class Statistics {
     public Statistics(String tableName, String columnName, int numRows, int numDistinct) {
         this.tableName = tableName;
         this.columnName = columnName;
+        this.columnNames = new ArrayList<String>();
+        this.columnNames.add(columnName);
         this.tableRows = (double) numRows;
         this.tableDistinct = (double) numDistinct;
         this.avgLength = -1;
@@ -35,6 +40,37 @@ public class Statistics {
         this.range = null;
     }
 
+    public Statistics(String tableName, List<String> columnNames, int numRows, int numDistinct) {
+        /**
+         * Statistics of a group of columns, whose distinct count is the number of distinct value combinations.
+         * Groups are stored next to the single columns under their group key (see groupKey).
+         */
+        this(tableName, groupKey(columnNames), numRows, numDistinct);
+
+        this.columnNames = new ArrayList<String>(columnNames);
+        Collections.sort(this.columnNames);
+    }
+
+    public static String groupKey(List<String> columnNames) {
+        /**
+         * Returns the order-independent key of the given columns (e.g. "company_type_id,movie_id"). Single
+         * columns are their own key.
+         */
+        List<String> sorted = new ArrayList<String>(columnNames);
+        Collections.sort(sorted);
+        return String.join(",", sorted);
+    }
+
+    public static Statistics getGroupStats(HashMap<String, Statistics> columnStats, List<String> columnNames) {
+        /**
+         * Returns the statistics of exactly the given group of columns, or null if none were collected.
+         */
+        if (columnStats == null || columnNames.size() < 2) {
+            return null;
+        }
+        return columnStats.get(groupKey(columnNames));
+    }
+
     public String getTableName() {
         return this.tableName;
     }
@@ -43,6 +79,14 @@ public class Statistics {
         return this.columnName;
     }
 
+    public List<String> getColumnNames() {
+        return this.columnNames;
+    }
+
+    public boolean isColumnGroup() {
+        return this.columnNames.size() > 1;
+    }
+
     public double getTableRows() {
         return this.tableRows;
     }
@@ -72,11 +116,11 @@ public class Statistics {
     }
 
     public String toString() {
-        return String.format("Table: %s, Column: %s, # Rows: %d, # Distinct: %d, # Rows per Value: %s", this.tableName, this.columnName, this.getTableRows(), this.getTableDistinct(), this.getRowCount());
+        return String.format("Table: %s, Column: %s, # Rows: %.0f, # Distinct: %.0f, # Rows per Value: %s", this.tableName, this.columnName, this.getTableRows(), this.getTableDistinct(), this.getRowCount());
     }
 
 
-    private static double applyColumnSelectivity(String tableName, double tableCount, double distinctCount, HashMap<String, Double> whereSelectivity) {
+    static double applyColumnSelectivity(String tableName, double tableCount, double distinctCount, HashMap<String, Double> whereSelectivity) {
         /**
          * Applies a given selectivity to a table column with the given number of distinct entries if the table is present
          * in the given map.
@@ -90,7 +134,7 @@ public class Statistics {
         return distinctCount * (1.0 - removeProb);
     }
 
-    private static double applyTableSelectivity(String tableName, double tableCount, HashMap<String, Double> whereSelectivity) {
+    static double applyTableSelectivity(String tableName, double tableCount, HashMap<String, Double> whereSelectivity) {
         /**
          * Applies a given selectivity to table with the given number of rows if this table has a selectivity
          * present in the provided map.
@@ -102,12 +146,33 @@ public class Statistics {
         return tableCount * whereSelectivity.get(tableName);
     }
 
+    public static String joinKey(String firstColumn, String secondColumn) {
+        /**
+         * Returns an order-independent key for the join of the two given (table.column) columns.
+         */
+        if (firstColumn.compareTo(secondColumn) > 0) {
+            return String.format("%s=%s", secondColumn, firstColumn);
+        }
+        return String.format("%s=%s", firstColumn, secondColumn);
+    }
+
     public static Vector combineStatistics(Iterable<Statistics> statsIter, HashMap<String, Double> whereSelectivity) {
+        return combineStatistics(statsIter, whereSelectivity, null);
+    }
+
+    public static Vector combineStatistics(Iterable<Statistics> statsIter, HashMap<String, Double> whereSelectivity, HashMap<String, Double> joinSelectivity) {
+        return combineStatistics(statsIter, whereSelectivity, joinSelectivity, null);
+    }
+
+    public static Vector combineStatistics(Iterable<Statistics> statsIter, HashMap<String, Double> whereSelectivity, HashMap<String, Double> joinSelectivity, List<String> joinKeys) {
         /**
          * Packages the given statistics into a single context vector.
          * 
          * @param statsIter: Sequence of statistics from involved relations and columns
          * @param whereSelectivity: Fractions to keep based on where selectivity
+         * @param joinSelectivity: Observed selectivity of joins keyed by joinKey (null if there is no feedback)
+         * @param joinKeys: Key of each join in joinSelectivity, null to derive them from the statistics (which
+         *                  is wrong for column group statistics, named after all of their columns)
          * @return A vector containing the statistics
          */
         ArrayList<Double> tableStats = new ArrayList<Double>();
@@ -139,6 +204,15 @@ public class Statistics {
             firstColumnCount = applyColumnSelectivity(tableNames.get(i), tableStats.get(i), columnStats.get(i), whereSelectivity);
             secondColumnCount = applyColumnSelectivity(tableNames.get(i+1), tableStats.get(i+1), columnStats.get(i+1), whereSelectivity);
 
+            // Scale the distinct counts so the implied join selectivity (1 / max distinct) matches the observed one
+            String joinKey = joinKeys != null ? joinKeys.get(i / 2) : joinKey(columnNames.get(i), columnNames.get(i+1));
+            if (joinSelectivity != null && joinSelectivity.containsKey(joinKey)) {
+                double maxDistinct = Math.max(Math.max(firstColumnCount, secondColumnCount), 1.0);
+                double scale = (1.0 / joinSelectivity.get(joinKey)) / maxDistinct;
+                firstColumnCount *= scale;
+                secondColumnCount *= scale;
+            }
+
             if (firstTableCount > secondTableCount) {
                 result[i] = firstTableCount;
                 result[i+1] = secondTableCount;
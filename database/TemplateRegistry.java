@@ -0,0 +1,164 @@
+package database;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.la4j.Vector;
+
+import bandits.BanditOptimizer;
+import bandits.ConservativeOptimizer;
+import parsing.SQLParser;
+
+
+public class TemplateRegistry {
+
+    private BanditOptimizer optimizer;
+    private int numFeatures;
+    private int time;
+    private SQLParser parser;
+
+    private HashMap<String, Integer> templateTypes;  // Fingerprint -> query type of the optimizer
+    private List<List<int[]>> typeOrders;  // Join orders (arms) of each query type
+    private List<List<List<String>>> typeHints;  // Join hints of each arm of each query type, null for hash joins
+    private List<String> templates;
+
+    public TemplateRegistry(BanditOptimizer optimizer, int numFeatures) {
+        this.optimizer = optimizer;
+        this.numFeatures = numFeatures;
+        this.time = 0;
+        this.parser = new SQLParser();
+        this.templateTypes = new HashMap<String, Integer>();
+        this.typeOrders = new ArrayList<List<int[]>>();
+        this.typeHints = new ArrayList<List<List<String>>>();
+        this.templates = new ArrayList<String>();
+    }
+
+    public BanditOptimizer getOptimizer() {
+        return this.optimizer;
+    }
+
+    public int nextTime() {
+        this.time += 1;
+        return this.time;
+    }
+
+    public int size() {
+        return this.templates.size();
+    }
+
+    public int getType(String sql, HashMap<String, HashMap<String, String>> tableIndexes) {
+        /**
+         * Returns the query type of the template of the given query. Unseen templates are registered as a new
+         * query type of the optimizer, with the connected left-deep join orders of the query as its arms.
+         *
+         * @param tableIndexes: Indexes by leading column (see SQLDatabase.getTableIndexes). If given, each join
+         *                      order which can use an index is followed by its lookup join variant.
+         * @return The query type, or -1 if the query cannot be reordered
+         */
+        String template = this.parser.fingerprint(sql);
+        Integer type = this.templateTypes.get(template);
+        if (type != null) {
+            return type;
+        }
+
+        List<int[]> orders = this.parser.getJoinOrders(sql, this.getNumOrders());
+        if (orders.isEmpty()) {
+            this.templateTypes.put(template, -1);
+            return -1;
+        }
+
+        List<List<String>> hints = new ArrayList<List<String>>();
+        for (int i = 0; i < orders.size(); i++) {
+            hints.add(null);
+        }
+
+        if (tableIndexes != null) {
+            List<int[]> hashOrders = orders;
+            orders = new ArrayList<int[]>();
+            hints = new ArrayList<List<String>>();
+            for (int i = 0; i < hashOrders.size() && orders.size() < this.getNumOrders(); i++) {
+                orders.add(hashOrders.get(i));
+                hints.add(null);
+
+                String arm = this.parser.toJoinOrder(sql, hashOrders.get(i));
+                List<String> lookupHints = arm != null ? this.parser.getLookupHints(arm, tableIndexes) : null;
+                if (lookupHints != null && orders.size() < this.getNumOrders()) {
+                    orders.add(hashOrders.get(i));
+                    hints.add(lookupHints);
+                }
+            }
+        }
+
+        // The optimizer has a fixed number of arms, so templates with fewer arms repeat them
+        int numOrders = orders.size();
+        while (orders.size() < this.getNumOrders()) {
+            orders.add(orders.get(orders.size() % numOrders));
+            hints.add(hints.get(hints.size() % numOrders));
+        }
+
+        type = this.optimizer.getNumTypes();
+        this.optimizer.addQueryTypes(1);
+        this.templateTypes.put(template, type);
+        this.typeOrders.add(orders);
+        this.typeHints.add(hints);
+        this.templates.add(template);
+        return type;
+    }
+
+    public List<String> getArms(String sql, int type) {
+        /**
+         * Instantiates the join orders of the given type with the literals of the given query. Lookup join arms
+         * carry their join hints, which SQLParser.stripJoinHints removes before parsing.
+         *
+         * @return The arm queries, or null if the query does not match the join orders of its type
+         */
+        List<String> arms = new ArrayList<String>();
+        List<int[]> orders = this.typeOrders.get(type);
+        for (int i = 0; i < orders.size(); i++) {
+            String arm = this.parser.toJoinOrder(sql, orders.get(i));
+            if (arm == null) {
+                return null;
+            }
+
+            List<String> hints = this.typeHints.get(type).get(i);
+            arms.add(hints != null ? this.parser.applyJoinHints(arm, hints) : arm);
+        }
+        return arms;
+    }
+
+    public Vector fitContext(Vector context) {
+        /**
+         * Pads (with zeros) or truncates the context to the width of the optimizer, since templates with
+         * different numbers of joins share one optimizer.
+         */
+        if (this.numFeatures <= 0 || context.length() == this.numFeatures) {
+            return context;
+        }
+
+        Vector result = Vector.zero(this.numFeatures);
+        for (int i = 0; i < Math.min(context.length(), this.numFeatures); i++) {
+            result.set(i, context.get(i));
+        }
+        return result;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Optimizer: %s, Templates: %d\n", this.optimizer.getName(), this.size()));
+        for (int type = 0; type < this.templates.size(); type++) {
+            builder.append(String.format("    Type %d: %s\n", type, this.templates.get(type)));
+        }
+        return builder.toString();
+    }
+
+    private int getNumOrders() {
+        /**
+         * Returns the number of arms which are join orders, i.e. all arms but the baseline of a conservative optimizer.
+         */
+        if (this.optimizer instanceof ConservativeOptimizer) {
+            return ((ConservativeOptimizer) this.optimizer).getBaselineArm();
+        }
+        return this.optimizer.getNumArms();
+    }
+}
@@ -0,0 +1,419 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.la4j.Vector;
+
+import bandits.BanditOptimizer;
+import bandits.ConservativeOptimizer;
+import parsing.SQLParser;
+import utils.Utils;
+
+
+public class WorkloadDriver {
+
+    private static final long MAX_SHUTDOWN_SECONDS = 60;  // Time to wait for queries in flight at the end of a run
+
+    private SQLDatabase db;
+    private List<List<String>> queries;
+    private List<HashMap<String, List<Double>>> queryRuntimes;
+    private boolean shouldSimulate;
+
+    private int numClients;
+    private long durationMillis;
+    private double thinkMillis;  // Mean think time of closed-loop clients, 0 for none
+    private double arrivalRate;  // Arrivals per second of the open-loop workload, 0 for closed-loop clients
+    private int poolSize;
+    private double[] mix;  // Cumulative probability of each query type
+
+    public WorkloadDriver(SQLDatabase db, List<List<String>> queries, List<HashMap<String, List<Double>>> queryRuntimes, boolean shouldSimulate) {
+        /**
+         * Runs the join queries of several query types concurrently, each client choosing the join order of its
+         * queries with a shared optimizer. Queries run on a pool of poolSize connections, so clients queue for a
+         * connection once more queries are in flight. Simulated queries hold a connection for a latency sampled
+         * from the profiles, so they model the queueing but not the contention inside the database.
+         *
+         * Clients are closed-loop by default: each waits for its query and a random think time before issuing
+         * the next. With an arrival rate, queries instead arrive open-loop (as a Poisson process) regardless of
+         * how many are in flight, and their response time counts from the time they should have been issued,
+         * which corrects for coordinated omission when the driver itself falls behind.
+         *
+         * Clients run on virtual threads where the runtime has them (Java 21 and later), so thousands of clients
+         * cost little more than the queries they wait on.
+         *
+         * @param queries: Join orders of each query type, as for runJoinQuery
+         * @param queryRuntimes: Profiled latencies of each join order, used to simulate queries
+         * @param shouldSimulate: Whether to simulate queries instead of executing them on the database
+         */
+        this.db = db;
+        this.queries = queries;
+        this.queryRuntimes = queryRuntimes;
+        this.shouldSimulate = shouldSimulate;
+        this.numClients = 1;
+        this.durationMillis = 10000;
+        this.thinkMillis = 0.0;
+        this.arrivalRate = 0.0;
+        this.poolSize = 8;
+        this.setMix(null);
+    }
+
+    public void setClients(int numClients) {
+        this.numClients = Math.max(numClients, 1);
+    }
+
+    public void setDuration(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public void setThinkTime(double thinkMillis) {
+        this.thinkMillis = Math.max(thinkMillis, 0.0);
+    }
+
+    public void setArrivalRate(double arrivalsPerSecond) {
+        this.arrivalRate = Math.max(arrivalsPerSecond, 0.0);
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = Math.max(poolSize, 1);
+    }
+
+    public void setMix(double[] weights) {
+        /**
+         * Sets the relative frequency of each query type. Types beyond the given weights never run, and null
+         * runs all types equally often.
+         */
+        int numTypes = this.queries.size();
+        double[] cumulative = new double[numTypes];
+        double total = 0.0;
+        for (int t = 0; t < numTypes; t++) {
+            total += weights == null ? 1.0 : (t < weights.length ? Math.max(weights[t], 0.0) : 0.0);
+            cumulative[t] = total;
+        }
+
+        if (total <= 0) {
+            System.out.println("The query mix has no positive weights, so all types run equally often.");
+            this.setMix(null);
+            return;
+        }
+        for (int t = 0; t < numTypes; t++) {
+            cumulative[t] /= total;
+        }
+        this.mix = cumulative;
+    }
+
+    public Report run(BanditOptimizer optimizer, boolean shouldUpdate) {
+        /**
+         * Drives the workload for the configured duration with the given optimizer, which is shared by all
+         * clients (and locked while it chooses or learns).
+         *
+         * @param shouldUpdate: Whether the optimizer learns from the observed latencies (otherwise it exploits)
+         */
+        // Contexts and rewritten join orders stay fixed during a run, so they are built once up front
+        SQLParser parser = new SQLParser();
+        List<List<Vector>> contexts = new ArrayList<List<Vector>>();
+        List<List<String>> hashJoins = new ArrayList<List<String>>();
+        for (List<String> queryOrders : this.queries) {
+            contexts.add(this.db.getContexts(queryOrders));
+
+            List<String> joins = new ArrayList<String>();
+            for (String query : queryOrders) {
+                joins.add(this.shouldSimulate ? query : parser.toHashJoin(query));
+            }
+            hashJoins.add(joins);
+        }
+
+        // The native plan of each type is the baseline of a conservative optimizer, as in runJoinQuery
+        ConservativeOptimizer conservative = optimizer instanceof ConservativeOptimizer ? (ConservativeOptimizer) optimizer : null;
+        if (conservative != null) {
+            for (int t = 0; t < this.queries.size(); t++) {
+                List<Double> latencies = this.db.getBaselineRuntimes(t, this.queries.get(t).get(0));
+                if (latencies != null) {
+                    conservative.setBaselineLatency(t, Utils.average(latencies));
+                }
+            }
+        }
+
+        ConcurrentLinkedQueue<Connection> connections = new ConcurrentLinkedQueue<Connection>();
+        if (!this.shouldSimulate) {
+            try {
+                for (int i = 0; i < this.poolSize; i++) {
+                    connections.add(this.db.openConnection());
+                }
+            } catch (SQLException ex) {
+                Utils.printSQLException(ex);
+                closeAll(connections);
+                return null;
+            }
+        }
+
+        Report report = new Report(optimizer.getName(), this.getDescription());
+        Semaphore pool = new Semaphore(this.poolSize, true);
+        ReentrantLock optimizerLock = new ReentrantLock();  // Unlike a monitor, virtual threads waiting on it release their carrier
+        AtomicInteger time = new AtomicInteger(0);
+        ExecutorService clients = newClientExecutor();
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.durationMillis);
+        Random arrivals = new Random();
+
+        if (this.arrivalRate > 0) {
+            // Open loop: issue each query at its scheduled arrival, however many are still in flight
+            double meanGapNanos = 1e9 / this.arrivalRate;
+            long arrival = start;
+            while (true) {
+                arrival += (long) (-Math.log(1.0 - arrivals.nextDouble()) * meanGapNanos);
+                if (arrival >= deadline) {
+                    break;
+                }
+                sleepUntil(arrival);
+
+                long intended = arrival;
+                clients.submit(() -> this.request(optimizer, shouldUpdate, new Random(), intended, contexts, hashJoins, connections, pool, optimizerLock, time, report));
+            }
+        } else {
+            // Closed loop: each client issues its next query after its previous query and a think time
+            for (int c = 0; c < this.numClients; c++) {
+                clients.submit(() -> {
+                    Random rand = new Random();
+                    while (true) {
+                        if (this.thinkMillis > 0) {
+                            sleepUntil(System.nanoTime() + (long) (-Math.log(1.0 - rand.nextDouble()) * this.thinkMillis * 1e6));
+                        }
+                        long intended = System.nanoTime();
+                        if (intended >= deadline) {
+                            break;
+                        }
+                        this.request(optimizer, shouldUpdate, rand, intended, contexts, hashJoins, connections, pool, optimizerLock, time, report);
+                    }
+                });
+            }
+        }
+
+        clients.shutdown();
+        try {
+            if (!clients.awaitTermination(this.durationMillis + TimeUnit.SECONDS.toMillis(MAX_SHUTDOWN_SECONDS), TimeUnit.MILLISECONDS)) {
+                System.out.println("Some queries were still running at the end of the run.");
+                clients.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            clients.shutdownNow();
+        }
+
+        report.setElapsed((System.nanoTime() - start) / 1e9);
+        closeAll(connections);
+        return report;
+    }
+
+    private void request(BanditOptimizer optimizer, boolean shouldUpdate, Random rand, long intended, List<List<Vector>> contexts, List<List<String>> hashJoins, ConcurrentLinkedQueue<Connection> connections, Semaphore pool, ReentrantLock optimizerLock, AtomicInteger time, Report report) {
+        // Failures count as errors of the run instead of ending the client unseen
+        try {
+            this.execute(optimizer, shouldUpdate, rand, intended, contexts, hashJoins, connections, pool, optimizerLock, time, report);
+        } catch (RuntimeException ex) {
+            report.addError(ex);
+        }
+    }
+
+    private void execute(BanditOptimizer optimizer, boolean shouldUpdate, Random rand, long intended, List<List<Vector>> contexts, List<List<String>> hashJoins, ConcurrentLinkedQueue<Connection> connections, Semaphore pool, ReentrantLock optimizerLock, AtomicInteger time, Report report) {
+        int type = this.getType(rand);
+        List<Vector> typeContexts = contexts.get(type);
+
+        int arm;
+        optimizerLock.lock();
+        try {
+            arm = optimizer.getArm(time.incrementAndGet(), type, typeContexts, !shouldUpdate);
+        } finally {
+            optimizerLock.unlock();
+        }
+
+        // The baseline arm of a conservative optimizer runs the first join order without hints
+        boolean isBaseline = optimizer instanceof ConservativeOptimizer && arm == ((ConservativeOptimizer) optimizer).getBaselineArm();
+        String chosenQuery = this.queries.get(type).get(isBaseline ? 0 : arm);
+
+        long queued = System.nanoTime();
+        double latency = Double.NaN;
+        long finished;
+        pool.acquireUninterruptibly();
+        long started = System.nanoTime();
+        try {
+            if (this.shouldSimulate) {
+                List<Double> latencies = isBaseline ? this.db.getBaselineRuntimes(type, chosenQuery) : null;
+                if (latencies == null) {
+                    latencies = this.queryRuntimes.get(type).get(chosenQuery);
+                }
+                latency = latencies.get(rand.nextInt(latencies.size()));
+                sleepUntil(started + (long) (latency * 1e6));
+            } else {
+                // The pool has a connection for each permit
+                Connection connection = connections.poll();
+                try {
+                    QueryResult result = this.db.selectAndDrain(connection, isBaseline ? chosenQuery : hashJoins.get(type).get(arm), -1);
+                    if (result != null) {
+                        latency = result.getLatency(QueryResult.DRAIN);
+                    }
+                } finally {
+                    connections.add(connection);
+                }
+            }
+        } finally {
+            finished = System.nanoTime();
+            pool.release();
+        }
+
+        if (Double.isNaN(latency)) {
+            report.addError();
+            return;
+        }
+
+        if (shouldUpdate) {
+            optimizerLock.lock();
+            try {
+                optimizer.update(arm, type, -1 * latency, typeContexts);
+            } finally {
+                optimizerLock.unlock();
+            }
+        }
+        report.add((finished - intended) / 1e6, (finished - started) / 1e6, (started - queued) / 1e6);
+    }
+
+    private int getType(Random rand) {
+        double sample = rand.nextDouble();
+        for (int t = 0; t < this.mix.length; t++) {
+            if (sample < this.mix[t]) {
+                return t;
+            }
+        }
+        return this.mix.length - 1;
+    }
+
+    private String getDescription() {
+        if (this.arrivalRate > 0) {
+            return String.format("open loop, %.1f arrivals/s, pool %d", this.arrivalRate, this.poolSize);
+        }
+        return String.format("closed loop, %d clients, think %.1f ms, pool %d", this.numClients, this.thinkMillis, this.poolSize);
+    }
+
+    private static ExecutorService newClientExecutor() {
+        // Virtual threads are only part of Java 21 and later, while the build targets Java 17
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "workload-client");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void closeAll(ConcurrentLinkedQueue<Connection> connections) {
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                Utils.printSQLException(ex);
+            }
+        }
+        connections.clear();
+    }
+
+    public static class Report {
+
+        private String name;
+        private String description;
+        private List<Double> responseMillis;  // From the intended start of each query until it finished
+        private List<Double> serviceMillis;  // From acquiring a connection until the query finished
+        private List<Double> waitMillis;  // Waiting for a connection
+        private int numErrors;
+        private RuntimeException firstFailure;  // First exception of a failed client, if any
+        private double elapsedSeconds;
+
+        public Report(String name, String description) {
+            this.name = name;
+            this.description = description;
+            this.responseMillis = new ArrayList<Double>();
+            this.serviceMillis = new ArrayList<Double>();
+            this.waitMillis = new ArrayList<Double>();
+            this.numErrors = 0;
+            this.firstFailure = null;
+            this.elapsedSeconds = 0.0;
+        }
+
+        public synchronized void add(double response, double service, double wait) {
+            this.responseMillis.add(response);
+            this.serviceMillis.add(service);
+            this.waitMillis.add(wait);
+        }
+
+        public synchronized void addError() {
+            this.numErrors += 1;
+        }
+
+        public synchronized void addError(RuntimeException ex) {
+            if (this.firstFailure == null) {
+                this.firstFailure = ex;
+                ex.printStackTrace();
+            }
+            this.numErrors += 1;
+        }
+
+        public void setElapsed(double seconds) {
+            this.elapsedSeconds = seconds;
+        }
+
+        public synchronized int getNumCompleted() {
+            return this.responseMillis.size();
+        }
+
+        public synchronized double getThroughput() {
+            return this.elapsedSeconds > 0 ? this.responseMillis.size() / this.elapsedSeconds : 0.0;
+        }
+
+        public synchronized void print() {
+            System.out.printf("Workload summary for %s (%s)\n", this.name, this.description);
+            System.out.printf("    %d queries (%d errors) in %.1f s, throughput %.1f queries/s\n", this.responseMillis.size(), this.numErrors, this.elapsedSeconds, this.getThroughput());
+            if (this.firstFailure != null) {
+                System.out.printf("    First failure: %s\n", this.firstFailure);
+            }
+            if (this.responseMillis.isEmpty()) {
+                return;
+            }
+
+            System.out.printf("    %-8s %10s %10s %10s %10s %10s %10s\n", "latency", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+            printRow("response", this.responseMillis);
+            printRow("service", this.serviceMillis);
+            printRow("wait", this.waitMillis);
+        }
+
+        private static void printRow(String label, List<Double> millis) {
+            List<Double> sorted = new ArrayList<Double>(millis);
+            Collections.sort(sorted);
+            System.out.printf("    %-8s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f\n", label, Utils.average(sorted), percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999), sorted.get(sorted.size() - 1));
+        }
+
+        private static double percentile(List<Double> sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+    }
+}
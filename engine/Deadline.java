@@ -0,0 +1,42 @@
+package engine;
+
+
+public class Deadline {
+
+    private static final Deadline NONE = new Deadline(false, 0);
+
+    private boolean isActive;
+    private long expiresAt;  // System.nanoTime() value at which execution must stop
+
+    private Deadline(boolean isActive, long expiresAt) {
+        this.isActive = isActive;
+        this.expiresAt = expiresAt;
+    }
+
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public static Deadline afterMillis(long timeoutMillis) {
+        return new Deadline(true, System.nanoTime() + timeoutMillis * 1000000L);
+    }
+
+    public void check() {
+        /**
+         * Aborts the running query if the deadline has passed. Operators call this periodically
+         * from their inner loops.
+         */
+        if (this.isActive && System.nanoTime() - this.expiresAt > 0) {
+            throw new QueryTimeoutException();
+        }
+    }
+
+    public static class QueryTimeoutException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public QueryTimeoutException() {
+            super("Query exceeded its deadline");
+        }
+    }
+}
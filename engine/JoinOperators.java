@@ -0,0 +1,227 @@
+package engine;
+
+import java.util.Arrays;
+
+
+// Joins operate on row-id relations: rows[k][i] is the row of the k-th joined table that contributes
+// to the i-th output tuple. Each join appends one table to the right of the relation (left-deep).
+public class JoinOperators {
+
+    private static final int DEADLINE_CHECK_MASK = 1023;  // Check the deadline every 1024 outer rows
+
+    public static int[][] hashJoin(int[][] left, int leftPos, LocalColumn leftKey, int[] rightRows, LocalColumn rightKey, Deadline deadline) {
+        /**
+         * Equi-joins the relation with the filtered rows of a new table by building a hash table on the new table
+         * and probing it with the relation.
+         *
+         * @param left: Row-id relation built so far
+         * @param leftPos: Index of the relation table that holds the left join key
+         * @param leftKey: Left join column
+         * @param rightRows: Filtered rows of the new table
+         * @param rightKey: Right join column
+         * @param deadline: Deadline after which the join is aborted
+         * @return The joined relation with the new table appended
+         */
+        boolean asString = leftKey.isInteger() != rightKey.isInteger();
+
+        // Build chained hash table over the non-null build keys
+        int capacity = Integer.highestOneBit(Math.max(2 * rightRows.length, 2) - 1) << 1;
+        int mask = capacity - 1;
+        int[] heads = new int[capacity];
+        int[] next = new int[rightRows.length];
+        Arrays.fill(heads, -1);
+
+        for (int i = 0; i < rightRows.length; i++) {
+            int row = rightRows[i];
+            if (rightKey.isNull(row)) {
+                continue;
+            }
+
+            int bucket = (int) (rightKey.hashAt(row, asString) & mask);
+            next[i] = heads[bucket];
+            heads[bucket] = i;
+        }
+
+        // Probe with the relation
+        int numLeft = left.length;
+        int leftSize = numLeft > 0 ? left[0].length : 0;
+        IntBuffer leftMatches = new IntBuffer(leftSize);
+        IntBuffer rightMatches = new IntBuffer(leftSize);
+        int[] probeRows = left[leftPos];
+
+        for (int i = 0; i < leftSize; i++) {
+            if ((i & DEADLINE_CHECK_MASK) == 0) {
+                deadline.check();
+            }
+
+            int row = probeRows[i];
+            if (leftKey.isNull(row)) {
+                continue;
+            }
+
+            int bucket = (int) (leftKey.hashAt(row, asString) & mask);
+            for (int j = heads[bucket]; j != -1; j = next[j]) {
+                if (leftKey.equalsAt(row, rightKey, rightRows[j])) {
+                    leftMatches.add(i);
+                    rightMatches.add(rightRows[j]);
+                }
+            }
+        }
+
+        return gather(left, leftMatches, rightMatches);
+    }
+
+    public static int[][] mergeJoin(int[][] left, int leftPos, LocalColumn leftKey, int[] rightRows, LocalColumn rightKey, Deadline deadline) {
+        /**
+         * Equi-joins the relation with the filtered rows of a new table by sorting both inputs on the join key
+         * and merging them. Arguments match hashJoin.
+         */
+        if (leftKey.isInteger() != rightKey.isInteger()) {
+            // Numeric and string orders disagree, so mismatched key types are joined by hashing the string form
+            return hashJoin(left, leftPos, leftKey, rightRows, rightKey, deadline);
+        }
+
+        int leftSize = left.length > 0 ? left[0].length : 0;
+
+        // Sort tuple positions of the relation by their key value
+        int[] leftOrder = nonNullPositions(left[leftPos], leftSize, leftKey);
+        sortByKey(leftOrder, left[leftPos], leftKey);
+
+        int[] rightOrder = nonNullPositions(rightRows, rightRows.length, rightKey);
+        sortByKey(rightOrder, rightRows, rightKey);
+        deadline.check();
+
+        IntBuffer leftMatches = new IntBuffer(leftSize);
+        IntBuffer rightMatches = new IntBuffer(leftSize);
+
+        int i = 0;
+        int j = 0;
+        while (i < leftOrder.length && j < rightOrder.length) {
+            int leftRow = left[leftPos][leftOrder[i]];
+            int rightRow = rightRows[rightOrder[j]];
+            int cmp = leftKey.compareAt(leftRow, rightKey, rightRow);
+
+            if (cmp < 0) {
+                i += 1;
+            } else if (cmp > 0) {
+                j += 1;
+            } else {
+                // Find the run of equal keys on the right, then emit it for every equal key on the left
+                int runEnd = j;
+                while (runEnd < rightOrder.length && leftKey.compareAt(leftRow, rightKey, rightRows[rightOrder[runEnd]]) == 0) {
+                    runEnd += 1;
+                }
+
+                while (i < leftOrder.length && leftKey.compareAt(left[leftPos][leftOrder[i]], rightKey, rightRow) == 0) {
+                    if ((i & DEADLINE_CHECK_MASK) == 0) {
+                        deadline.check();
+                    }
+
+                    for (int k = j; k < runEnd; k++) {
+                        leftMatches.add(leftOrder[i]);
+                        rightMatches.add(rightRows[rightOrder[k]]);
+                    }
+                    i += 1;
+                }
+                j = runEnd;
+            }
+        }
+
+        return gather(left, leftMatches, rightMatches);
+    }
+
+    private static int[] nonNullPositions(int[] rows, int size, LocalColumn key) {
+        IntBuffer positions = new IntBuffer(size);
+        for (int i = 0; i < size; i++) {
+            if (!key.isNull(rows[i])) {
+                positions.add(i);
+            }
+        }
+        return positions.toArray();
+    }
+
+    private static void sortByKey(int[] positions, int[] rows, LocalColumn key) {
+        /**
+         * Sorts the given positions (indices into rows) by the key value of their row. Uses an in-place
+         * quicksort on primitives to avoid boxing the (potentially large) position arrays.
+         */
+        quickSort(positions, 0, positions.length - 1, rows, key);
+    }
+
+    private static void quickSort(int[] positions, int lo, int hi, int[] rows, LocalColumn key) {
+        while (lo < hi) {
+            int pivot = rows[positions[lo + (hi - lo) / 2]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key.compareAt(rows[positions[i]], key, pivot) < 0) {
+                    i += 1;
+                }
+                while (key.compareAt(rows[positions[j]], key, pivot) > 0) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int tmp = positions[i];
+                    positions[i] = positions[j];
+                    positions[j] = tmp;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+
+            // Recurse on the smaller half to bound the stack depth
+            if (j - lo < hi - i) {
+                quickSort(positions, lo, j, rows, key);
+                lo = i;
+            } else {
+                quickSort(positions, i, hi, rows, key);
+                hi = j;
+            }
+        }
+    }
+
+    private static int[][] gather(int[][] left, IntBuffer leftMatches, IntBuffer rightMatches) {
+        int numLeft = left.length;
+        int size = leftMatches.size();
+        int[][] result = new int[numLeft + 1][];
+
+        int[] matches = leftMatches.toArray();
+        for (int k = 0; k < numLeft; k++) {
+            int[] rows = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = left[k][matches[i]];
+            }
+            result[k] = rows;
+        }
+        result[numLeft] = rightMatches.toArray();
+
+        return result;
+    }
+
+    public static class IntBuffer {
+
+        private int[] values;
+        private int size;
+
+        public IntBuffer(int capacity) {
+            this.values = new int[Math.max(capacity, 16)];
+            this.size = 0;
+        }
+
+        public void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.values.length * 2);
+            }
+            this.values[this.size] = value;
+            this.size += 1;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+}
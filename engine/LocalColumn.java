@@ -0,0 +1,181 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+
+public class LocalColumn {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String name;
+    private boolean isInteger;
+    private long[] longs;
+    private String[] strings;
+    private boolean[] nulls;
+    private int size;
+
+    public LocalColumn(String name, boolean isInteger) {
+        this.name = name;
+        this.isInteger = isInteger;
+        this.size = 0;
+        this.nulls = new boolean[INITIAL_CAPACITY];
+
+        if (isInteger) {
+            this.longs = new long[INITIAL_CAPACITY];
+        } else {
+            this.strings = new String[INITIAL_CAPACITY];
+        }
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isInteger() {
+        return this.isInteger;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void append(String token) {
+        /**
+         * Appends the given CSV token. Empty tokens and integers which fail to parse are stored as NULL.
+         */
+        this.ensureCapacity(this.size + 1);
+
+        if (token == null || token.length() == 0) {
+            this.nulls[this.size] = true;
+        } else if (this.isInteger) {
+            try {
+                this.longs[this.size] = Long.parseLong(token.trim());
+            } catch (NumberFormatException ex) {
+                this.nulls[this.size] = true;
+            }
+        } else {
+            this.strings[this.size] = token;
+        }
+
+        this.size += 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.nulls.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, this.nulls.length * 2);
+        this.nulls = Arrays.copyOf(this.nulls, newCapacity);
+        if (this.isInteger) {
+            this.longs = Arrays.copyOf(this.longs, newCapacity);
+        } else {
+            this.strings = Arrays.copyOf(this.strings, newCapacity);
+        }
+    }
+
+    public boolean isNull(int row) {
+        return this.nulls[row];
+    }
+
+    public long getLong(int row) {
+        return this.longs[row];
+    }
+
+    public String getString(int row) {
+        if (this.nulls[row]) {
+            return null;
+        }
+
+        if (this.isInteger) {
+            return Long.toString(this.longs[row]);
+        }
+        return this.strings[row];
+    }
+
+    public long hashAt(int row, boolean asString) {
+        /**
+         * Hashes the non-null value at the given row.
+         *
+         * @param row: Row to hash
+         * @param asString: Whether to hash the string form, used when joining integer and string columns
+         */
+        long h = (this.isInteger && !asString) ? this.longs[row] : this.getString(row).hashCode();
+
+        // Murmur3 finalizer to spread sequential keys over the buckets
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    public int compareAt(int row, LocalColumn other, int otherRow) {
+        /**
+         * Compares two non-null values, possibly from different columns.
+         */
+        if (this.isInteger && other.isInteger) {
+            return Long.compare(this.longs[row], other.longs[otherRow]);
+        }
+        return this.getString(row).compareTo(other.getString(otherRow));
+    }
+
+    public boolean equalsAt(int row, LocalColumn other, int otherRow) {
+        if (this.nulls[row] || other.nulls[otherRow]) {
+            return false;
+        }
+
+        if (this.isInteger && other.isInteger) {
+            return this.longs[row] == other.longs[otherRow];
+        }
+        return this.getString(row).equals(other.getString(otherRow));
+    }
+
+    public int countDistinct() {
+        HashSet<Object> values = new HashSet<Object>();
+        for (int i = 0; i < this.size; i++) {
+            if (!this.nulls[i]) {
+                values.add(this.isInteger ? (Object) this.longs[i] : (Object) this.strings[i]);
+            }
+        }
+        return values.size();
+    }
+
+    public long getMin() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            if (!this.nulls[i] && this.longs[i] < min) {
+                min = this.longs[i];
+            }
+        }
+        return min;
+    }
+
+    public long getMax() {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < this.size; i++) {
+            if (!this.nulls[i] && this.longs[i] > max) {
+                max = this.longs[i];
+            }
+        }
+        return max;
+    }
+
+    public double getAvgLength() {
+        double total = 0.0;
+        double count = 0.0;
+        for (int i = 0; i < this.size; i++) {
+            if (!this.nulls[i]) {
+                total += this.strings[i].length();
+                count += 1.0;
+            }
+        }
+
+        if (count == 0.0) {
+            return 0.0;
+        }
+        return total / count;
+    }
+}
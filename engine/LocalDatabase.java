@@ -0,0 +1,907 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.IsNullExpression;
+import net.sf.jsqlparser.parser.CCJSqlParserManager;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectExpressionItem;
+
+import database.AnalyzedPlan;
+import database.PlanEstimate;
+import database.QueryExecutor;
+import database.QueryResult;
+import database.ResultConsumer;
+import database.Statistics;
+
+
+public class LocalDatabase implements QueryExecutor {
+
+    private static final Pattern JOIN_HINT = Pattern.compile("INNER\\s+(HASH|MERGE|LOOKUP)\\s+JOIN(\\s+\"?\\w+\"?)(?:@\\w+)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_TABLE = Pattern.compile("CREATE\\s+TABLE\\s+(IF\\s+NOT\\s+EXISTS\\s+)?\"?(\\w+)\"?\\s*\\((.*)\\)\\s*;?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final String[] CONSTRAINT_KEYWORDS = { "PRIMARY", "INDEX", "UNIQUE", "CONSTRAINT", "FOREIGN", "FAMILY", "CHECK" };
+    private static final int DEADLINE_CHECK_MASK = 1023;
+    private static final int SAMPLE_SIZE = 1024;  // Rows sampled per table to estimate filter selectivity
+
+    private HashMap<String, LocalTable> tables;
+    private HashMap<String, HashMap<String, Statistics>> tableStats;
+    private long statsEpoch;
+
+    public LocalDatabase() {
+        this.tables = new HashMap<String, LocalTable>();
+        this.tableStats = new HashMap<String, HashMap<String, Statistics>>();
+        this.statsEpoch = 0;
+    }
+
+    public LocalTable getTable(String tableName) {
+        return this.tables.get(tableName);
+    }
+
+    @Override
+    public HashMap<String, HashMap<String, Statistics>> getTableStats() {
+        return this.tableStats;
+    }
+
+    @Override
+    public long getStatsEpoch() {
+        return this.statsEpoch;
+    }
+
+    public void refreshStats() {
+        /**
+         * Recomputes statistics for all loaded tables.
+         */
+        for (LocalTable table : this.tables.values()) {
+            this.tableStats.put(table.getName(), table.getColumnStats());
+        }
+        this.statsEpoch += 1;
+    }
+
+    public int createTables(String path) {
+        /**
+         * Create tables using the CREATE TABLE definitions in the file at the given path. Only column names
+         * and whether each column is an integer are kept; constraints and indexes are ignored.
+         */
+        int numCreated = 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            StringBuilder cmd = new StringBuilder();
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                cmd.append(line);
+                cmd.append(" ");
+                if (line.endsWith(";")) {
+                    numCreated += this.createTable(cmd.toString()) ? 1 : 0;
+                    cmd = new StringBuilder();
+                }
+                line = reader.readLine();
+            }
+        } catch (IOException ex) {
+            System.out.printf("Caught IO Exception: %s\n", ex.getMessage());
+        }
+
+        return numCreated;
+    }
+
+    private boolean createTable(String sql) {
+        Matcher matcher = CREATE_TABLE.matcher(sql.trim());
+        if (!matcher.matches()) {
+            System.out.printf("Could not parse table definition: %s\n", sql);
+            return false;
+        }
+
+        LocalTable table = new LocalTable(matcher.group(2));
+
+        for (String definition : splitTopLevel(matcher.group(3))) {
+            String[] tokens = definition.trim().split("\\s+");
+            if (tokens.length < 2 || isConstraint(tokens[0])) {
+                continue;
+            }
+
+            String columnName = tokens[0].replace("\"", "");
+            String dataType = tokens[1].toUpperCase();
+            boolean isInteger = dataType.startsWith("INT") || dataType.startsWith("BIGINT") || dataType.startsWith("SMALLINT") || dataType.startsWith("SERIAL");
+            table.addColumn(columnName, isInteger);
+        }
+
+        this.tables.put(table.getName(), table);
+        return true;
+    }
+
+    private static boolean isConstraint(String token) {
+        for (String keyword : CONSTRAINT_KEYWORDS) {
+            if (token.equalsIgnoreCase(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> splitTopLevel(String body) {
+        /**
+         * Splits a comma-separated list while ignoring commas nested in parentheses, e.g. VARCHAR(10, 2).
+         */
+        List<String> parts = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+            } else if (c == ',' && depth == 0) {
+                parts.add(body.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(body.substring(start));
+        return parts;
+    }
+
+    public int importCsv(String tableName, String filePath, boolean useHeaders, String[] dataTypes) {
+        /**
+         * Loads all rows of the given CSV file into the provided table. Accepts the same arguments as
+         * SQLDatabase.importCsv so the same CSV files can be used.
+         *
+         * @param tableName: Name of the table to store data into
+         * @param filePath: Path of CSV file containing data
+         * @param useHeaders: Whether the first line contains the column names
+         * @param dataTypes: Provided data types (can be null). Used only when the table does not exist yet.
+         * @return The number of loaded rows
+         */
+        LocalTable table = this.tables.get(tableName);
+        int insertCount = 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            String[] headers = null;
+            if (useHeaders) {
+                headers = LocalTable.splitCsvLine(reader.readLine().trim());
+            }
+
+            List<String[]> buffered = null;
+            if (table == null) {
+                if (headers == null) {
+                    System.out.printf("Unknown table %s. Create it or import with headers.\n", tableName);
+                    return 0;
+                }
+
+                // Without a schema, buffer the rows so the column types can be inferred
+                buffered = new ArrayList<String[]>();
+            }
+
+            String line = reader.readLine();
+            while (line != null) {
+                String[] tokens = LocalTable.splitCsvLine(line);
+                if (buffered != null) {
+                    buffered.add(tokens);
+                } else {
+                    table.appendRow(tokens);
+                }
+
+                insertCount += 1;
+                line = reader.readLine();
+            }
+
+            if (buffered != null) {
+                table = new LocalTable(tableName);
+                for (int i = 0; i < headers.length; i++) {
+                    boolean isInteger;
+                    if (dataTypes != null && i < dataTypes.length) {
+                        isInteger = dataTypes[i].equals("int");
+                    } else {
+                        isInteger = isIntegerColumn(buffered, i);
+                    }
+                    table.addColumn(headers[i].trim(), isInteger);
+                }
+
+                for (String[] tokens : buffered) {
+                    table.appendRow(tokens);
+                }
+                this.tables.put(tableName, table);
+            }
+        } catch (IOException ex) {
+            System.out.printf("Caught IO Exception: %s\n", ex.getMessage());
+        }
+
+        return insertCount;
+    }
+
+    private static boolean isIntegerColumn(List<String[]> rows, int index) {
+        for (String[] tokens : rows) {
+            if (index < tokens.length && tokens[index].length() > 0) {
+                try {
+                    Long.parseLong(tokens[index].trim());
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean select(String sql, boolean shouldPrint, String... args) {
+        return this.run(sql, shouldPrint, Deadline.none(), args) != null;
+    }
+
+    @Override
+    public QueryResult selectAndDrain(String sql, long timeoutMillis) {
+        long start = System.nanoTime();
+        Deadline deadline = timeoutMillis > 0 ? Deadline.afterMillis(timeoutMillis) : Deadline.none();
+
+        try {
+            return this.run(sql, false, deadline);
+        } catch (Deadline.QueryTimeoutException ex) {
+            return QueryResult.cancelled(ResultConsumer.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private QueryResult run(String sql, boolean shouldPrint, Deadline deadline, String... args) {
+        /**
+         * Executes the given SELECT in-process. The join order is the left-deep order of the FROM clause and
+         * INNER HASH / MERGE JOIN hints choose the join algorithm. Unhinted joins use hash joins and lookup
+         * joins are executed as hash joins. Throws a QueryTimeoutException once the deadline passes.
+         *
+         * @return The timings and size of the result, or null if the query failed
+         */
+        long start = System.nanoTime();
+        try {
+            sql = bindArguments(sql, args);
+
+            List<String> algorithms = new ArrayList<String>();
+            PlainSelect plainSelect = parseSelect(sql, algorithms);
+            if (plainSelect == null) {
+                return null;
+            }
+
+            int[][] relation = this.execute(plainSelect, algorithms, deadline, null);
+            long executed = System.nanoTime();
+
+            return this.drainResults(plainSelect, relation, shouldPrint, deadline, start, executed);
+        } catch (JSQLParserException ex) {
+            System.out.printf("Local Execution ERROR: could not parse %s\n", sql);
+        } catch (Deadline.QueryTimeoutException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            System.out.printf("Local Execution ERROR: %s\n", ex.getMessage());
+        }
+
+        return null;
+    }
+
+    @Override
+    public PlanEstimate explain(String sql) {
+        /**
+         * Estimates the rows of each join and the cost of the given query without executing the joins. Filter
+         * selectivities are estimated on a sample of each table and join sizes use the distinct counts of the
+         * join keys (assuming containment). The cost sums the rows read, built, sorted and produced.
+         */
+        try {
+            List<String> algorithms = new ArrayList<String>();
+            PlainSelect plainSelect = parseSelect(sql, algorithms);
+            if (plainSelect == null) {
+                return null;
+            }
+
+            return this.estimate(plainSelect, algorithms);
+        } catch (JSQLParserException ex) {
+            System.out.printf("Local Execution ERROR: could not parse %s\n", sql);
+        } catch (RuntimeException ex) {
+            System.out.printf("Local Execution ERROR: %s\n", ex.getMessage());
+        }
+
+        return null;
+    }
+
+    @Override
+    public AnalyzedPlan explainAnalyze(String sql) {
+        /**
+         * Executes the joins of the given query (without producing its output) and records the actual rows
+         * flowing into and out of each join.
+         */
+        try {
+            List<String> algorithms = new ArrayList<String>();
+            PlainSelect plainSelect = parseSelect(sql, algorithms);
+            if (plainSelect == null) {
+                return null;
+            }
+
+            AnalyzedPlan analyzed = new AnalyzedPlan();
+            this.execute(plainSelect, algorithms, Deadline.none(), analyzed);
+            return analyzed;
+        } catch (JSQLParserException ex) {
+            System.out.printf("Local Execution ERROR: could not parse %s\n", sql);
+        } catch (RuntimeException ex) {
+            System.out.printf("Local Execution ERROR: %s\n", ex.getMessage());
+        }
+
+        return null;
+    }
+
+    private static PlainSelect parseSelect(String sql, List<String> algorithms) throws JSQLParserException {
+        /**
+         * Parses the given SELECT after removing the join hints (which the parser does not understand). The hinted
+         * algorithms are added to the given list in order.
+         */
+        Matcher hintMatcher = JOIN_HINT.matcher(sql);
+        while (hintMatcher.find()) {
+            algorithms.add(hintMatcher.group(1).toUpperCase());
+        }
+        String plainSql = JOIN_HINT.matcher(sql).replaceAll("INNER JOIN$2");
+
+        CCJSqlParserManager pm = new CCJSqlParserManager();
+        Statement statement = pm.parse(new StringReader(plainSql));
+        if (!(statement instanceof Select) || !(((Select) statement).getSelectBody() instanceof PlainSelect)) {
+            System.out.printf("Local Execution ERROR: only plain SELECT statements are supported\n");
+            return null;
+        }
+
+        return (PlainSelect) ((Select) statement).getSelectBody();
+    }
+
+    private static String bindArguments(String sql, String[] args) {
+        /**
+         * Substitutes positional (?) parameters, inferring integers the same way SQLDatabase.select does.
+         */
+        StringBuilder builder = new StringBuilder();
+        int argIndex = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?' && argIndex < args.length) {
+                String arg = args[argIndex];
+                try {
+                    Integer.parseInt(arg);
+                    builder.append(arg);
+                } catch (NumberFormatException ex) {
+                    builder.append(String.format("'%s'", arg.replace("'", "''")));
+                }
+                argIndex += 1;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private int[][] execute(PlainSelect plainSelect, List<String> algorithms, Deadline deadline, AnalyzedPlan analyzed) {
+        /**
+         * Executes the FROM and WHERE clauses and returns the resulting row-id relation. Entry k of the
+         * relation holds the rows of the k-th table in join order. If given, the input and output rows of each
+         * join are added to the analyzed plan.
+         */
+        List<String> aliases = new ArrayList<String>();
+        HashMap<String, LocalTable> aliasTables = new HashMap<String, LocalTable>();
+        this.addTable((Table) plainSelect.getFromItem(), aliases, aliasTables);
+
+        List<Join> joins = new ArrayList<Join>();
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                Join join = (Join) joinObj;
+                this.addTable((Table) join.getRightItem(), aliases, aliasTables);
+                joins.add(join);
+            }
+        }
+
+        HashMap<String, List<Expression>> tableFilters = new HashMap<String, List<Expression>>();
+        List<EqualsTo> crossFilters = new ArrayList<EqualsTo>();
+        splitWhere(plainSelect, aliases, aliasTables, tableFilters, crossFilters);
+
+        // Scan and filter the first table, then join the remaining tables in order
+        int[][] relation = new int[][] { this.scan(aliases.get(0), aliasTables, tableFilters, deadline) };
+
+        for (int j = 0; j < joins.size(); j++) {
+            String rightAlias = aliases.get(j + 1);
+            int[] rightRows = this.scan(rightAlias, aliasTables, tableFilters, deadline);
+
+            Column[] keys = getJoinKeys(joins.get(j), j + 1, aliases, aliasTables, crossFilters);
+            String leftAlias = resolveAlias(keys[0], aliases, aliasTables);
+            LocalColumn leftKey = getColumn(aliasTables.get(leftAlias), keys[0]);
+            LocalColumn rightKey = getColumn(aliasTables.get(rightAlias), keys[1]);
+            int leftPos = aliases.indexOf(leftAlias);
+
+            int leftSize = relation[0].length;
+            String algorithm = j < algorithms.size() ? algorithms.get(j) : "HASH";
+            if (algorithm.equals("MERGE")) {
+                relation = JoinOperators.mergeJoin(relation, leftPos, leftKey, rightRows, rightKey, deadline);
+            } else {
+                relation = JoinOperators.hashJoin(relation, leftPos, leftKey, rightRows, rightKey, deadline);
+            }
+
+            // Apply any remaining equalities whose tables are now all joined
+            relation = this.applyCrossFilters(relation, crossFilters, aliases.subList(0, j + 2), aliases, aliasTables);
+
+            if (analyzed != null) {
+                analyzed.addJoin(leftSize, rightRows.length, relation[0].length);
+            }
+        }
+
+        return relation;
+    }
+
+    private PlanEstimate estimate(PlainSelect plainSelect, List<String> algorithms) {
+        /**
+         * Estimates the join sizes and cost of the given SELECT (see explain).
+         */
+        List<String> aliases = new ArrayList<String>();
+        HashMap<String, LocalTable> aliasTables = new HashMap<String, LocalTable>();
+        this.addTable((Table) plainSelect.getFromItem(), aliases, aliasTables);
+
+        List<Join> joins = new ArrayList<Join>();
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                Join join = (Join) joinObj;
+                this.addTable((Table) join.getRightItem(), aliases, aliasTables);
+                joins.add(join);
+            }
+        }
+
+        HashMap<String, List<Expression>> tableFilters = new HashMap<String, List<Expression>>();
+        List<EqualsTo> crossFilters = new ArrayList<EqualsTo>();
+        splitWhere(plainSelect, aliases, aliasTables, tableFilters, crossFilters);
+
+        LocalTable first = aliasTables.get(aliases.get(0));
+        double leftRows = first.getNumRows() * estimateSelectivity(first, tableFilters.get(aliases.get(0)));
+        double cost = first.getNumRows();
+        List<Double> joinRows = new ArrayList<Double>();
+
+        for (int j = 0; j < joins.size(); j++) {
+            String rightAlias = aliases.get(j + 1);
+            LocalTable right = aliasTables.get(rightAlias);
+            double rightRows = right.getNumRows() * estimateSelectivity(right, tableFilters.get(rightAlias));
+            cost += right.getNumRows();
+
+            Column[] keys = getJoinKeys(joins.get(j), j + 1, aliases, aliasTables, crossFilters);
+            String leftAlias = resolveAlias(keys[0], aliases, aliasTables);
+            double leftDistinct = Math.min(this.getDistinct(aliasTables.get(leftAlias), keys[0]), leftRows);
+            double rightDistinct = Math.min(this.getDistinct(right, keys[1]), rightRows);
+
+            double outputRows = leftRows * rightRows / Math.max(Math.max(leftDistinct, rightDistinct), 1.0);
+
+            String algorithm = j < algorithms.size() ? algorithms.get(j) : "HASH";
+            if (algorithm.equals("MERGE")) {
+                cost += leftRows * log2(leftRows) + rightRows * log2(rightRows);
+            }
+            cost += leftRows + rightRows + outputRows;
+
+            joinRows.add(outputRows);
+            leftRows = outputRows;
+        }
+
+        return new PlanEstimate(joinRows, cost);
+    }
+
+    private double getDistinct(LocalTable table, Column column) {
+        HashMap<String, Statistics> columnStats = this.tableStats.get(table.getName());
+        if (columnStats != null && columnStats.containsKey(column.getColumnName())) {
+            return columnStats.get(column.getColumnName()).getTableDistinct();
+        }
+        return getColumn(table, column).countDistinct();
+    }
+
+    private static double estimateSelectivity(LocalTable table, List<Expression> filters) {
+        /**
+         * Returns the fraction of (up to SAMPLE_SIZE evenly spaced) rows which pass all filters.
+         */
+        int numRows = table.getNumRows();
+        if (filters == null || filters.isEmpty() || numRows == 0) {
+            return 1.0;
+        }
+
+        LocalPredicate[] predicates = new LocalPredicate[filters.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            predicates[i] = LocalPredicate.compile(filters.get(i), table);
+        }
+
+        int stride = Math.max(numRows / SAMPLE_SIZE, 1);
+        int numSampled = 0;
+        int numKept = 0;
+        for (int row = 0; row < numRows; row += stride) {
+            boolean keep = true;
+            for (int p = 0; p < predicates.length && keep; p++) {
+                keep = predicates[p].test(row);
+            }
+
+            numKept += keep ? 1 : 0;
+            numSampled += 1;
+        }
+
+        // Never estimate an empty input, since the filtered rows may simply have been missed
+        return Math.max((double) numKept, 0.5) / numSampled;
+    }
+
+    private static double log2(double value) {
+        return value > 1.0 ? Math.log(value) / Math.log(2.0) : 0.0;
+    }
+
+    private static void splitWhere(PlainSelect plainSelect, List<String> aliases, HashMap<String, LocalTable> aliasTables, HashMap<String, List<Expression>> tableFilters, List<EqualsTo> crossFilters) {
+        /**
+         * Splits the WHERE clause into single-table filters (keyed by alias) and cross-table equalities.
+         */
+        List<Expression> conjuncts = new ArrayList<Expression>();
+        if (plainSelect.getWhere() != null) {
+            splitConjuncts(plainSelect.getWhere(), conjuncts);
+        }
+
+        for (Expression conjunct : conjuncts) {
+            List<Column> columns = new ArrayList<Column>();
+            collectColumns(conjunct, columns);
+
+            List<String> referenced = new ArrayList<String>();
+            for (Column column : columns) {
+                String alias = resolveAlias(column, aliases, aliasTables);
+                if (!referenced.contains(alias)) {
+                    referenced.add(alias);
+                }
+            }
+
+            if (referenced.size() == 1) {
+                if (!tableFilters.containsKey(referenced.get(0))) {
+                    tableFilters.put(referenced.get(0), new ArrayList<Expression>());
+                }
+                tableFilters.get(referenced.get(0)).add(conjunct);
+            } else if (referenced.size() == 2 && isColumnEquality(conjunct)) {
+                crossFilters.add((EqualsTo) conjunct);
+            } else {
+                throw new UnsupportedOperationException(String.format("Unsupported predicate: %s", conjunct));
+            }
+        }
+    }
+
+    private static Column[] getJoinKeys(Join join, int rightPos, List<String> aliases, HashMap<String, LocalTable> aliasTables, List<EqualsTo> crossFilters) {
+        /**
+         * Picks the first ON equality between the table at rightPos and a previously joined table as the join key.
+         * Any other ON equalities are added to the cross-table filters.
+         *
+         * @return The left (joined) and right (new) key columns
+         */
+        String rightAlias = aliases.get(rightPos);
+        List<String> joined = aliases.subList(0, rightPos);
+
+        List<Expression> onConjuncts = new ArrayList<Expression>();
+        if (join.getOnExpression() != null) {
+            splitConjuncts(join.getOnExpression(), onConjuncts);
+        }
+
+        Column leftColumn = null;
+        Column rightColumn = null;
+        for (Expression conjunct : onConjuncts) {
+            if (!isColumnEquality(conjunct)) {
+                throw new UnsupportedOperationException(String.format("Unsupported join condition: %s", conjunct));
+            }
+
+            Column first = (Column) ((EqualsTo) conjunct).getLeftExpression();
+            Column second = (Column) ((EqualsTo) conjunct).getRightExpression();
+            String firstAlias = resolveAlias(first, aliases, aliasTables);
+            String secondAlias = resolveAlias(second, aliases, aliasTables);
+
+            if (leftColumn == null && secondAlias.equals(rightAlias) && joined.contains(firstAlias)) {
+                leftColumn = first;
+                rightColumn = second;
+            } else if (leftColumn == null && firstAlias.equals(rightAlias) && joined.contains(secondAlias)) {
+                leftColumn = second;
+                rightColumn = first;
+            } else {
+                crossFilters.add((EqualsTo) conjunct);
+            }
+        }
+
+        if (leftColumn == null) {
+            throw new UnsupportedOperationException(String.format("No equi-join condition between %s and %s", joined, rightAlias));
+        }
+
+        return new Column[] { leftColumn, rightColumn };
+    }
+
+    private void addTable(Table table, List<String> aliases, HashMap<String, LocalTable> aliasTables) {
+        LocalTable localTable = this.tables.get(table.getWholeTableName());
+        if (localTable == null) {
+            throw new IllegalArgumentException(String.format("Unknown table %s", table.getWholeTableName()));
+        }
+
+        String alias = table.getAlias() != null ? table.getAlias() : table.getWholeTableName();
+        aliases.add(alias);
+        aliasTables.put(alias, localTable);
+    }
+
+    private int[] scan(String alias, HashMap<String, LocalTable> aliasTables, HashMap<String, List<Expression>> tableFilters, Deadline deadline) {
+        /**
+         * Returns the rows of the given table which pass all of its single-table filters.
+         */
+        LocalTable table = aliasTables.get(alias);
+        List<Expression> filters = tableFilters.get(alias);
+
+        if (filters == null || filters.isEmpty()) {
+            int[] rows = new int[table.getNumRows()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = i;
+            }
+            return rows;
+        }
+
+        LocalPredicate[] predicates = new LocalPredicate[filters.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            predicates[i] = LocalPredicate.compile(filters.get(i), table);
+        }
+
+        JoinOperators.IntBuffer rows = new JoinOperators.IntBuffer(table.getNumRows());
+        for (int row = 0; row < table.getNumRows(); row++) {
+            if ((row & DEADLINE_CHECK_MASK) == 0) {
+                deadline.check();
+            }
+
+            boolean keep = true;
+            for (int p = 0; p < predicates.length && keep; p++) {
+                keep = predicates[p].test(row);
+            }
+
+            if (keep) {
+                rows.add(row);
+            }
+        }
+
+        return rows.toArray();
+    }
+
+    private int[][] applyCrossFilters(int[][] relation, List<EqualsTo> crossFilters, List<String> joined, List<String> aliases, HashMap<String, LocalTable> aliasTables) {
+        List<EqualsTo> remaining = new ArrayList<EqualsTo>();
+
+        for (EqualsTo filter : crossFilters) {
+            Column first = (Column) filter.getLeftExpression();
+            Column second = (Column) filter.getRightExpression();
+            String firstAlias = resolveAlias(first, aliases, aliasTables);
+            String secondAlias = resolveAlias(second, aliases, aliasTables);
+
+            if (!joined.contains(firstAlias) || !joined.contains(secondAlias)) {
+                remaining.add(filter);
+                continue;
+            }
+
+            int firstPos = aliases.indexOf(firstAlias);
+            int secondPos = aliases.indexOf(secondAlias);
+            LocalColumn firstColumn = getColumn(aliasTables.get(firstAlias), first);
+            LocalColumn secondColumn = getColumn(aliasTables.get(secondAlias), second);
+
+            JoinOperators.IntBuffer keep = new JoinOperators.IntBuffer(relation[0].length);
+            for (int i = 0; i < relation[0].length; i++) {
+                if (firstColumn.equalsAt(relation[firstPos][i], secondColumn, relation[secondPos][i])) {
+                    keep.add(i);
+                }
+            }
+
+            int[] positions = keep.toArray();
+            int[][] filtered = new int[relation.length][];
+            for (int k = 0; k < relation.length; k++) {
+                filtered[k] = new int[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    filtered[k][i] = relation[k][positions[i]];
+                }
+            }
+            relation = filtered;
+        }
+
+        crossFilters.clear();
+        crossFilters.addAll(remaining);
+        return relation;
+    }
+
+    private QueryResult drainResults(PlainSelect plainSelect, int[][] relation, boolean shouldPrint, Deadline deadline, long startNanos, long executeNanos) {
+        /**
+         * Materializes the select list row by row (optionally printing it using the same layout as
+         * SQLDatabase.select) and records the same timings as ResultConsumer. Supports plain columns and
+         * MIN / MAX / COUNT aggregates (which produce a single row).
+         */
+        List<String> aliases = new ArrayList<String>();
+        HashMap<String, LocalTable> aliasTables = new HashMap<String, LocalTable>();
+        this.addTable((Table) plainSelect.getFromItem(), aliases, aliasTables);
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                this.addTable((Table) ((Join) joinObj).getRightItem(), aliases, aliasTables);
+            }
+        }
+
+        List<String> names = new ArrayList<String>();
+        List<Expression> expressions = new ArrayList<Expression>();
+        boolean isAggregate = false;
+        for (Object itemObj : plainSelect.getSelectItems()) {
+            if (itemObj instanceof AllColumns) {
+                for (String alias : aliases) {
+                    for (LocalColumn column : aliasTables.get(alias).getColumns()) {
+                        names.add(column.getName());
+                        expressions.add(new Column(new Table(null, alias), column.getName()));
+                    }
+                }
+            } else if (itemObj instanceof SelectExpressionItem) {
+                SelectExpressionItem item = (SelectExpressionItem) itemObj;
+                Expression expr = item.getExpression();
+                isAggregate = isAggregate || (expr instanceof Function);
+
+                String name = item.getAlias();
+                if (name == null) {
+                    name = (expr instanceof Function) ? ((Function) expr).getName().toLowerCase() : ((Column) expr).getColumnName();
+                }
+                names.add(name);
+                expressions.add(expr);
+            } else {
+                throw new UnsupportedOperationException(String.format("Unsupported select item: %s", itemObj));
+            }
+        }
+
+        long firstRowNanos;
+        long rowCount = 0;
+        long numBytes = 0;
+
+        if (isAggregate) {
+            firstRowNanos = System.nanoTime();
+            for (int e = 0; e < expressions.size(); e++) {
+                String value = this.aggregate(expressions.get(e), relation, aliases, aliasTables);
+                numBytes += value != null ? value.length() : 0;
+                if (shouldPrint) {
+                    System.out.printf("    %-8s -> %10s\n", names.get(e), value);
+                }
+            }
+            rowCount = 1;
+        } else {
+            // Resolve the output columns once instead of for every row
+            int numColumns = expressions.size();
+            LocalColumn[] columns = new LocalColumn[numColumns];
+            int[][] columnRows = new int[numColumns][];
+            for (int e = 0; e < numColumns; e++) {
+                Column column = (Column) expressions.get(e);
+                String alias = resolveAlias(column, aliases, aliasTables);
+                columns[e] = getColumn(aliasTables.get(alias), column);
+                columnRows[e] = relation[aliases.indexOf(alias)];
+            }
+
+            firstRowNanos = System.nanoTime();
+            int numRows = relation[0].length;
+            for (int i = 0; i < numRows; i++) {
+                if ((i & DEADLINE_CHECK_MASK) == 0) {
+                    deadline.check();
+                }
+
+                for (int e = 0; e < numColumns; e++) {
+                    String value = columns[e].getString(columnRows[e][i]);
+                    numBytes += value != null ? value.length() : 0;
+                    if (shouldPrint) {
+                        System.out.printf("    %-8s -> %10s\n", names.get(e), value);
+                    }
+                }
+                rowCount += 1;
+            }
+        }
+
+        long endNanos = System.nanoTime();
+        return new QueryResult(ResultConsumer.toMillis(executeNanos - startNanos), ResultConsumer.toMillis(firstRowNanos - startNanos), ResultConsumer.toMillis(endNanos - startNanos), rowCount, numBytes, false);
+    }
+
+    private String aggregate(Expression expr, int[][] relation, List<String> aliases, HashMap<String, LocalTable> aliasTables) {
+        if (!(expr instanceof Function)) {
+            throw new UnsupportedOperationException(String.format("Column %s must appear in an aggregate", expr));
+        }
+
+        Function function = (Function) expr;
+        String name = function.getName().toUpperCase();
+        int numRows = relation[0].length;
+
+        if (name.equals("COUNT") && function.isAllColumns()) {
+            return Integer.toString(numRows);
+        }
+
+        Column column = (Column) function.getParameters().getExpressions().get(0);
+        String alias = resolveAlias(column, aliases, aliasTables);
+        LocalColumn localColumn = getColumn(aliasTables.get(alias), column);
+        int[] rows = relation[aliases.indexOf(alias)];
+
+        int count = 0;
+        int best = -1;
+        for (int i = 0; i < numRows; i++) {
+            int row = rows[i];
+            if (localColumn.isNull(row)) {
+                continue;
+            }
+
+            count += 1;
+            if (best == -1) {
+                best = row;
+            } else if (name.equals("MIN") && localColumn.compareAt(row, localColumn, best) < 0) {
+                best = row;
+            } else if (name.equals("MAX") && localColumn.compareAt(row, localColumn, best) > 0) {
+                best = row;
+            }
+        }
+
+        if (name.equals("COUNT")) {
+            return Integer.toString(count);
+        } else if (name.equals("MIN") || name.equals("MAX")) {
+            return best == -1 ? null : localColumn.getString(best);
+        }
+        throw new UnsupportedOperationException(String.format("Unsupported aggregate: %s", name));
+    }
+
+    private static LocalColumn getColumn(LocalTable table, Column column) {
+        LocalColumn localColumn = table.getColumn(column.getColumnName());
+        if (localColumn == null) {
+            throw new IllegalArgumentException(String.format("Unknown column %s in table %s", column.getColumnName(), table.getName()));
+        }
+        return localColumn;
+    }
+
+    private static String resolveAlias(Column column, List<String> aliases, HashMap<String, LocalTable> aliasTables) {
+        /**
+         * Returns the alias of the table a column belongs to. Unqualified columns are matched by name.
+         */
+        String qualifier = column.getTable() != null ? column.getTable().getWholeTableName() : null;
+        if (qualifier != null && aliasTables.containsKey(qualifier)) {
+            return qualifier;
+        }
+
+        for (String alias : aliases) {
+            if (aliasTables.get(alias).getColumn(column.getColumnName()) != null) {
+                return alias;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown column %s", column.getWholeColumnName()));
+    }
+
+    private static boolean isColumnEquality(Expression expr) {
+        if (!(expr instanceof EqualsTo)) {
+            return false;
+        }
+        EqualsTo equalsTo = (EqualsTo) expr;
+        return equalsTo.getLeftExpression() instanceof Column && equalsTo.getRightExpression() instanceof Column;
+    }
+
+    private static void splitConjuncts(Expression expr, List<Expression> conjuncts) {
+        if (expr instanceof AndExpression) {
+            AndExpression and = (AndExpression) expr;
+            splitConjuncts(and.getLeftExpression(), conjuncts);
+            splitConjuncts(and.getRightExpression(), conjuncts);
+        } else if (expr instanceof Parenthesis && !((Parenthesis) expr).isNot() && ((Parenthesis) expr).getExpression() instanceof AndExpression) {
+            splitConjuncts(((Parenthesis) expr).getExpression(), conjuncts);
+        } else {
+            conjuncts.add(expr);
+        }
+    }
+
+    private static void collectColumns(Expression expr, List<Column> columns) {
+        if (expr instanceof Column) {
+            columns.add((Column) expr);
+        } else if (expr instanceof Parenthesis) {
+            collectColumns(((Parenthesis) expr).getExpression(), columns);
+        } else if (expr instanceof BinaryExpression) {
+            collectColumns(((BinaryExpression) expr).getLeftExpression(), columns);
+            collectColumns(((BinaryExpression) expr).getRightExpression(), columns);
+        } else if (expr instanceof Between) {
+            collectColumns(((Between) expr).getLeftExpression(), columns);
+        } else if (expr instanceof InExpression) {
+            collectColumns(((InExpression) expr).getLeftExpression(), columns);
+        } else if (expr instanceof IsNullExpression) {
+            collectColumns(((IsNullExpression) expr).getLeftExpression(), columns);
+        }
+    }
+}
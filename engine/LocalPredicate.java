@@ -0,0 +1,324 @@
+package engine;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+import java.util.regex.Matcher;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.*;
+import net.sf.jsqlparser.schema.Column;
+
+
+public abstract class LocalPredicate {
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    public abstract boolean test(int row);
+
+    public static LocalPredicate compile(Expression expr, LocalTable table) {
+        /**
+         * Compiles a single-table filter expression into a predicate over the rows of the given table.
+         *
+         * @param expr: Filter expression (all columns must belong to the given table)
+         * @param table: The table the filter applies to
+         * @return The compiled predicate
+         */
+        if (expr instanceof Parenthesis) {
+            Parenthesis parenthesis = (Parenthesis) expr;
+            LocalPredicate inner = compile(parenthesis.getExpression(), table);
+            return parenthesis.isNot() ? new Not(inner) : inner;
+        } else if (expr instanceof AndExpression) {
+            AndExpression and = (AndExpression) expr;
+            List<LocalPredicate> children = new ArrayList<LocalPredicate>();
+            children.add(compile(and.getLeftExpression(), table));
+            children.add(compile(and.getRightExpression(), table));
+            return new And(children);
+        } else if (expr instanceof OrExpression) {
+            OrExpression or = (OrExpression) expr;
+            return new Or(compile(or.getLeftExpression(), table), compile(or.getRightExpression(), table));
+        } else if (expr instanceof LikeExpression) {
+            LikeExpression like = (LikeExpression) expr;
+            LocalColumn column = getColumn(like.getLeftExpression(), table);
+            return new Like(column, getLiteral(like.getRightExpression()), like.isNot());
+        } else if (expr instanceof InExpression) {
+            InExpression in = (InExpression) expr;
+            LocalColumn column = getColumn(in.getLeftExpression(), table);
+
+            HashSet<String> values = new HashSet<String>();
+            for (Object item : ((ExpressionList) in.getItemsList()).getExpressions()) {
+                values.add(getLiteral((Expression) item));
+            }
+            return new In(column, values, in.isNot());
+        } else if (expr instanceof Between) {
+            Between between = (Between) expr;
+            LocalColumn column = getColumn(between.getLeftExpression(), table);
+
+            List<LocalPredicate> children = new ArrayList<LocalPredicate>();
+            children.add(new Compare(column, GE, getLiteral(between.getBetweenExpressionStart())));
+            children.add(new Compare(column, LE, getLiteral(between.getBetweenExpressionEnd())));
+
+            LocalPredicate range = new And(children);
+            return between.isNot() ? new Not(range) : range;
+        } else if (expr instanceof IsNullExpression) {
+            IsNullExpression isNull = (IsNullExpression) expr;
+            return new IsNull(getColumn(isNull.getLeftExpression(), table), isNull.isNot());
+        } else if (expr instanceof BinaryExpression) {
+            BinaryExpression binary = (BinaryExpression) expr;
+            int op = getOperator(binary);
+            Expression left = binary.getLeftExpression();
+            Expression right = binary.getRightExpression();
+
+            // Normalize to <column> <op> <literal>
+            LocalPredicate compare;
+            if (left instanceof Column) {
+                compare = new Compare(getColumn(left, table), op, getLiteral(right));
+            } else {
+                compare = new Compare(getColumn(right, table), flip(op), getLiteral(left));
+            }
+            return binary.isNot() ? new Not(compare) : compare;
+        }
+
+        throw new UnsupportedOperationException(String.format("Unsupported filter: %s", expr));
+    }
+
+    private static LocalColumn getColumn(Expression expr, LocalTable table) {
+        if (!(expr instanceof Column)) {
+            throw new UnsupportedOperationException(String.format("Expected a column but found %s", expr));
+        }
+
+        String columnName = ((Column) expr).getColumnName();
+        LocalColumn column = table.getColumn(columnName);
+        if (column == null) {
+            throw new IllegalArgumentException(String.format("Unknown column %s in table %s", columnName, table.getName()));
+        }
+        return column;
+    }
+
+    private static String getLiteral(Expression expr) {
+        if (expr instanceof StringValue) {
+            return ((StringValue) expr).getNotExcapedValue();
+        } else if (expr instanceof LongValue) {
+            return Long.toString(((LongValue) expr).getValue());
+        } else if (expr instanceof DoubleValue) {
+            return Double.toString(((DoubleValue) expr).getValue());
+        }
+        throw new UnsupportedOperationException(String.format("Expected a literal but found %s", expr));
+    }
+
+    private static int getOperator(BinaryExpression expr) {
+        if (expr instanceof EqualsTo) {
+            return EQ;
+        } else if (expr instanceof NotEqualsTo) {
+            return NE;
+        } else if (expr instanceof MinorThan) {
+            return LT;
+        } else if (expr instanceof MinorThanEquals) {
+            return LE;
+        } else if (expr instanceof GreaterThan) {
+            return GT;
+        } else if (expr instanceof GreaterThanEquals) {
+            return GE;
+        }
+        throw new UnsupportedOperationException(String.format("Unsupported operator: %s", expr));
+    }
+
+    private static int flip(int op) {
+        switch (op) {
+            case LT: return GT;
+            case LE: return GE;
+            case GT: return LT;
+            case GE: return LE;
+            default: return op;
+        }
+    }
+
+    private static class Compare extends LocalPredicate {
+
+        private LocalColumn column;
+        private int op;
+        private String literal;
+        private long longLiteral;
+        private boolean isNumeric;
+
+        public Compare(LocalColumn column, int op, String literal) {
+            this.column = column;
+            this.op = op;
+            this.literal = literal;
+
+            // Integer columns compare numerically whenever the literal is an integer
+            this.isNumeric = false;
+            if (column.isInteger()) {
+                try {
+                    this.longLiteral = Long.parseLong(literal);
+                    this.isNumeric = true;
+                } catch (NumberFormatException ex) {
+                    this.isNumeric = false;
+                }
+            }
+        }
+
+        @Override
+        public boolean test(int row) {
+            if (this.column.isNull(row)) {
+                return false;
+            }
+
+            int cmp;
+            if (this.isNumeric) {
+                cmp = Long.compare(this.column.getLong(row), this.longLiteral);
+            } else {
+                cmp = this.column.getString(row).compareTo(this.literal);
+            }
+
+            switch (this.op) {
+                case EQ: return cmp == 0;
+                case NE: return cmp != 0;
+                case LT: return cmp < 0;
+                case LE: return cmp <= 0;
+                case GT: return cmp > 0;
+                default: return cmp >= 0;
+            }
+        }
+    }
+
+    private static class In extends LocalPredicate {
+
+        private LocalColumn column;
+        private HashSet<String> values;
+        private boolean isNot;
+
+        public In(LocalColumn column, HashSet<String> values, boolean isNot) {
+            this.column = column;
+            this.values = values;
+            this.isNot = isNot;
+        }
+
+        @Override
+        public boolean test(int row) {
+            if (this.column.isNull(row)) {
+                return false;
+            }
+            return this.values.contains(this.column.getString(row)) != this.isNot;
+        }
+    }
+
+    private static class Like extends LocalPredicate {
+
+        private LocalColumn column;
+        private Matcher matcher;
+        private boolean isNot;
+
+        public Like(LocalColumn column, String pattern, boolean isNot) {
+            this.column = column;
+            this.isNot = isNot;
+
+            // Translate the SQL wildcards into a regular expression, quoting everything else
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '%' || c == '_') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal = new StringBuilder();
+                    }
+                    regex.append(c == '%' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+
+            this.matcher = Pattern.compile(regex.toString(), Pattern.DOTALL).matcher("");
+        }
+
+        @Override
+        public boolean test(int row) {
+            if (this.column.isNull(row)) {
+                return false;
+            }
+            return this.matcher.reset(this.column.getString(row)).matches() != this.isNot;
+        }
+    }
+
+    private static class IsNull extends LocalPredicate {
+
+        private LocalColumn column;
+        private boolean isNot;
+
+        public IsNull(LocalColumn column, boolean isNot) {
+            this.column = column;
+            this.isNot = isNot;
+        }
+
+        @Override
+        public boolean test(int row) {
+            return this.column.isNull(row) != this.isNot;
+        }
+    }
+
+    private static class And extends LocalPredicate {
+
+        private LocalPredicate[] children;
+
+        public And(List<LocalPredicate> children) {
+            this.children = children.toArray(new LocalPredicate[children.size()]);
+        }
+
+        @Override
+        public boolean test(int row) {
+            for (LocalPredicate child : this.children) {
+                if (!child.test(row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Or extends LocalPredicate {
+
+        private LocalPredicate left;
+        private LocalPredicate right;
+
+        public Or(LocalPredicate left, LocalPredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(int row) {
+            return this.left.test(row) || this.right.test(row);
+        }
+    }
+
+    private static class Not extends LocalPredicate {
+
+        private LocalPredicate inner;
+
+        public Not(LocalPredicate inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean test(int row) {
+            return !this.inner.test(row);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package engine;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import database.Statistics;
+
+
+public class LocalTable {
+
+    private String name;
+    private List<LocalColumn> columns;
+    private HashMap<String, LocalColumn> columnsByName;
+    private int numRows;
+
+    public LocalTable(String name) {
+        this.name = name;
+        this.columns = new ArrayList<LocalColumn>();
+        this.columnsByName = new HashMap<String, LocalColumn>();
+        this.numRows = 0;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getNumRows() {
+        return this.numRows;
+    }
+
+    public List<LocalColumn> getColumns() {
+        return this.columns;
+    }
+
+    public LocalColumn getColumn(String columnName) {
+        return this.columnsByName.get(columnName);
+    }
+
+    public void addColumn(String columnName, boolean isInteger) {
+        LocalColumn column = new LocalColumn(columnName, isInteger);
+        this.columns.add(column);
+        this.columnsByName.put(columnName, column);
+    }
+
+    public void appendRow(String[] tokens) {
+        /**
+         * Appends a single row. Missing trailing values are stored as NULL and extra values are dropped.
+         */
+        for (int i = 0; i < this.columns.size(); i++) {
+            String token = i < tokens.length ? tokens[i] : null;
+            this.columns.get(i).append(token);
+        }
+        this.numRows += 1;
+    }
+
+    public HashMap<String, Statistics> getColumnStats() {
+        /**
+         * Computes the same statistics that SQLDatabase collects from SHOW STATISTICS, including ranges for
+         * integer columns and average lengths for string columns.
+         */
+        HashMap<String, Statistics> result = new HashMap<String, Statistics>();
+
+        for (LocalColumn column : this.columns) {
+            int distinctCount = Math.max(column.countDistinct(), 1);
+            Statistics stats = new Statistics(this.name, column.getName(), this.numRows, distinctCount);
+
+            if (column.isInteger()) {
+                if (this.numRows > 0) {
+                    stats.setRange((int) column.getMin(), (int) column.getMax());
+                }
+            } else {
+                stats.setAvgLength(column.getAvgLength());
+            }
+
+            result.put(column.getName(), stats);
+        }
+
+        return result;
+    }
+
+    public static String[] splitCsvLine(String line) {
+        /**
+         * Splits a CSV line on commas, honoring double-quoted fields with "" escapes.
+         */
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"' && i < line.length() - 1 && line.charAt(i + 1) == '"') {
+                    token.append('"');
+                    i += 1;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == ',') {
+                tokens.add(token.toString());
+                token = new StringBuilder();
+            } else {
+                token.append(c);
+            }
+        }
+        tokens.add(token.toString());
+
+        return tokens.toArray(new String[tokens.size()]);
+    }
+}
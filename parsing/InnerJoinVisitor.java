@@ -14,20 +14,14 @@ import net.sf.jsqlparser.statement.select.*;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.schema.Column;
 
-import database.Range;
 import database.Statistics;
 
 
 public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, ExpressionVisitor, ItemsListVisitor {
-	
-    private static final double LIKE_PERCENTAGE = 0.09;
-    private static final double LIKE_FACTOR = 6;
 
     private List<Table> tables;  // Stores table names
     private List<TableJoin> joins;  // Stores 
-    private HashMap<Column, Integer> equalityCounts = null;  // Maps columns to number of equality predicates
-    private HashMap<Column, Range> rangeValues = null;  // Maps columns to range predicate
-    private HashMap<Column, Boolean> likeColumns = null;  // Maps columns to LIKE/NOT LIKE predicates
+    private List<Object> parameters = null;  // Literals replaced by JDBC parameters, in order of appearance
 
 	public List<Table> getTableList(Select select) {
 		tables = new ArrayList<Table>();
@@ -43,54 +37,39 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
         return joins;
     }
 
-    public HashMap<String, Double> getWhereSelectivity(Select select, HashMap<String, HashMap<String, Statistics>> tableStats) {
+    public List<Object> extractParameters(Select select) {
+        /**
+         * Replaces the literals of the join conditions and the WHERE clause by JDBC parameters (?), modifying
+         * the given statement, and returns their values (Long, Double or String) in the order of the
+         * parameters. Literals elsewhere (e.g. in the SELECT list or in function arguments) are kept.
+         */
         tables = new ArrayList<Table>();
         joins = new ArrayList<TableJoin>();
-        equalityCounts = new HashMap<Column, Integer>();
-        rangeValues = new HashMap<Column, Range>();
-        likeColumns = new HashMap<Column, Boolean>();
+        parameters = new ArrayList<Object>();
 
-        // Parse the SQL
         select.getSelectBody().accept(this);
 
-        HashMap<String, Double> tableSelectivity = new HashMap<String, Double>();
-        
-        // Integrate selectivity from predicates
-        Statistics stats;
-        double keepFrac;
-        double count;
-        for (Column col : equalityCounts.keySet()) {
-            for (Table table : tables) {
-                if (col.getTable().getWholeTableName().equals(table.getAlias())) {
-                    TableColumn tableCol = new TableColumn(table.getWholeTableName(), col.getColumnName());
-                    stats = tableStats.get(table.getWholeTableName()).get(col.getColumnName());
-
-                    count = (double) equalityCounts.get(col);
-                    keepFrac = count / stats.getTableDistinct();
-                    tableSelectivity.put(table.getWholeTableName(), keepFrac);
-                }
-            }
-        }
+        List<Object> result = parameters;
+        parameters = null;
+        return result;
+    }
 
-        Range selectionRange;
-        int intersection;
-        for (Column col : rangeValues.keySet()) {
-            for (Table table : tables) {
-                 if (col.getTable().getWholeTableName().equals(table.getAlias())) {
-                    TableColumn tableCol = new TableColumn(table.getWholeTableName(), col.getColumnName());
-                    stats = tableStats.get(table.getWholeTableName()).get(col.getColumnName());
-                    selectionRange = rangeValues.get(col);
-
-                    intersection = selectionRange.intersect(stats.getRange());
- 
-                    keepFrac = ((double) intersection) / stats.getTableDistinct();
-                    tableSelectivity.put(table.getWholeTableName(), keepFrac);
-                }
+    public HashMap<String, Double> getWhereSelectivity(Select select, HashMap<String, HashMap<String, Statistics>> tableStats, String mode) {
+        /**
+         * Estimates the fraction of rows of each table kept by the WHERE clause (see SelectivityEstimator).
+         */
+        tables = new ArrayList<Table>();
+        joins = new ArrayList<TableJoin>();
 
-            }
+        // Parse the SQL
+        select.getSelectBody().accept(this);
+
+        if (!(select.getSelectBody() instanceof PlainSelect)) {
+            return new HashMap<String, Double>();
         }
 
-        return tableSelectivity;
+        SelectivityEstimator estimator = new SelectivityEstimator(tables, tableStats, mode);
+        return estimator.estimate(((PlainSelect) select.getSelectBody()).getWhere());
     }
 
     @Override
@@ -104,16 +83,25 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
                 
                 Expression joinOn = join.getOnExpression();
                 if (joinOn != null) {
-                    if (joinOn instanceof EqualsTo) {
-                        EqualsTo equiJoin = (EqualsTo) joinOn;
-                        Expression left = equiJoin.getLeftExpression();
-                        Expression right = equiJoin.getRightExpression();
-
-		                if (left instanceof Column && right instanceof Column) {
-                            TableJoin joinColumns = new TableJoin((Column) left, (Column) right);
-                            joins.add(joinColumns);
+                    // Composite join keys (a.x = b.x AND a.y = b.y) are recorded by their first column pair
+                    List<Expression> conjuncts = new ArrayList<Expression>();
+                    SQLParser.splitConjuncts(joinOn, conjuncts);
+                    for (Expression conjunct : conjuncts) {
+                        if (conjunct instanceof EqualsTo) {
+                            Expression left = ((EqualsTo) conjunct).getLeftExpression();
+                            Expression right = ((EqualsTo) conjunct).getRightExpression();
+
+                            if (left instanceof Column && right instanceof Column) {
+                                TableJoin joinColumns = new TableJoin((Column) left, (Column) right);
+                                joins.add(joinColumns);
+                                break;
+                            }
                         }
                     }
+
+                    if (parameters != null) {
+                        joinOn.accept(this);
+                    }
                 }
 			}
 		}
@@ -159,9 +147,9 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
 
     @Override
 	public void visit(Between between) {
-		between.getLeftExpression().accept(this);
-		between.getBetweenExpressionStart().accept(this);
-		between.getBetweenExpressionEnd().accept(this);
+		between.setLeftExpression(visitOperand(between.getLeftExpression()));
+		between.setBetweenExpressionStart(visitOperand(between.getBetweenExpressionStart()));
+		between.setBetweenExpressionEnd(visitOperand(between.getBetweenExpressionEnd()));
 	}
 
     @Override
@@ -177,12 +165,8 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
 
     @Override
 	public void visit(EqualsTo equalsTo) {
-        Expression left = equalsTo.getLeftExpression();
-        Expression right = equalsTo.getRightExpression();
-
-        if (left instanceof Column && equalityCounts != null) {
-            Column col = (Column) left;
-            equalityCounts.put(col, 1);
+        if (parameters != null) {
+            visitBinaryExpression(equalsTo);
         }
     }
 
@@ -192,43 +176,16 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
     @Override
 	public void visit(GreaterThan greaterThan) {
 		visitBinaryExpression(greaterThan);
-
-        Expression left = greaterThan.getLeftExpression();
-        Expression right = greaterThan.getRightExpression();
-        getRangeFromGreater(left, right, false);
 	}
 
     @Override
 	public void visit(GreaterThanEquals greaterThanEquals) {
 		visitBinaryExpression(greaterThanEquals);
-
-        Expression left = greaterThanEquals.getLeftExpression();
-        Expression right = greaterThanEquals.getRightExpression();
-        getRangeFromGreater(left, right, true);
 	}
 
-    private void getRangeFromGreater(Expression left, Expression right, boolean isEqual) {
-        if (left instanceof Column && right instanceof LongValue && rangeValues != null) {
-            int offset = isEqual ? 0 : 1;
-            int min = ((Long) ((LongValue) right).getValue()).intValue() + offset;
-            int max = Integer.MAX_VALUE;
-            rangeValues.put((Column) left, new Range(min, max));
-        }
-    }
-
 	public void visit(InExpression inExpression) {
 		inExpression.getLeftExpression().accept(this);
 		inExpression.getItemsList().accept(this);
-
-        Column col = (Column) inExpression.getLeftExpression();
-        
-        ExpressionList whereExpr = (ExpressionList) inExpression.getItemsList();
-        int count = whereExpr.getExpressions().size();
-
-        if (equalityCounts != null) {
-            equalityCounts.put(col, count);
-        }
-
 	}
 
     @Override
@@ -245,16 +202,6 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
     @Override
 	public void visit(LikeExpression likeExpression) {
 		visitBinaryExpression(likeExpression);
-
-        Expression left = likeExpression.getLeftExpression();
-        Expression right = likeExpression.getRightExpression();
-
-        if (left instanceof Column && right instanceof StringValue && likeColumns != null) {
-            Column col = (Column) left;
-            if (!likeColumns.containsKey(col)) {
-                likeColumns.put((Column) left, !likeExpression.isNot());
-            }
-        }
 	}
 
     @Override
@@ -334,15 +281,40 @@ public class InnerJoinVisitor implements SelectVisitor, FromItemVisitor, Express
     }
 	
     public void visitBinaryExpression(BinaryExpression binaryExpression) {
-        binaryExpression.getLeftExpression().accept(this);
-		binaryExpression.getRightExpression().accept(this);
+        binaryExpression.setLeftExpression(visitOperand(binaryExpression.getLeftExpression()));
+        binaryExpression.setRightExpression(visitOperand(binaryExpression.getRightExpression()));
 	}
 
+    private Expression visitOperand(Expression expression) {
+        /**
+         * Visits the given operand. When extracting parameters, literal operands are recorded and replaced by
+         * a JDBC parameter, which is returned in their place.
+         */
+        if (parameters != null) {
+            Object value = null;
+            if (expression instanceof LongValue) {
+                value = ((LongValue) expression).getValue();
+            } else if (expression instanceof DoubleValue) {
+                value = ((DoubleValue) expression).getValue();
+            } else if (expression instanceof StringValue) {
+                value = ((StringValue) expression).getNotExcapedValue();
+            }
+
+            if (value != null) {
+                parameters.add(value);
+                return new JdbcParameter();
+            }
+        }
+
+        expression.accept(this);
+        return expression;
+    }
+
     @Override
 	public void visit(ExpressionList expressionList) {
-        for (Iterator iter = expressionList.getExpressions().iterator(); iter.hasNext();) {
-			Expression expression = (Expression) iter.next();
-			expression.accept(this);
+        List expressions = expressionList.getExpressions();
+        for (int i = 0; i < expressions.size(); i++) {
+            expressions.set(i, visitOperand((Expression) expressions.get(i)));
 		}
 	}
 
@@ -0,0 +1,37 @@
+package parsing;
+
+import java.util.List;
+
+
+public class ParameterizedQuery {
+
+    private String template;  // Query with a JDBC parameter (?) in place of each extracted literal
+    private List<Object> parameters;  // Long, Double or String value of each parameter, in order
+    private String sql;  // The original query with its literals inlined
+
+    public ParameterizedQuery(String template, List<Object> parameters, String sql) {
+        this.template = template;
+        this.parameters = parameters;
+        this.sql = sql;
+    }
+
+    public String getTemplate() {
+        return this.template;
+    }
+
+    public List<Object> getParameters() {
+        return this.parameters;
+    }
+
+    public int getNumParameters() {
+        return this.parameters.size();
+    }
+
+    public String getSql() {
+        return this.sql;
+    }
+
+    public String toString() {
+        return String.format("%s %s", this.template, this.parameters);
+    }
+}
@@ -7,19 +7,37 @@ import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Collections;
 
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.parser.CCJSqlParserManager;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.FromItem;
+import net.sf.jsqlparser.statement.select.PlainSelect;
 
 import database.Statistics;
 
 
 public class SQLParser {
 
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE][+-]?\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern SELECT_KEYWORD = Pattern.compile("\\bSELECT\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INNER_JOIN = Pattern.compile("INNER\\s+(?:(HASH|MERGE|LOOKUP)\\s+)?JOIN\\s+(\"?\\w+\"?)(?:@(\\w+))?", Pattern.CASE_INSENSITIVE);
+    public static final String HASH_HINT = "HASH";
+    public static final String MERGE_HINT = "MERGE";
+    public static final String LOOKUP_HINT = "LOOKUP";
+
     private String[] joins;
     private Pattern innerJoinPattern;
 
@@ -45,6 +63,125 @@ public class SQLParser {
         return builder.toString();
     }
 
+    public List<String> getJoinHints(String sql) {
+        /**
+         * Returns the hint of each INNER JOIN in the given query: the algorithm (e.g. LOOKUP), followed by
+         * @index if the joined table has an index hint (e.g. LOOKUP@title_pkey), or null for unhinted joins.
+         */
+        List<String> hints = new ArrayList<String>();
+        Matcher matcher = INNER_JOIN.matcher(sql);
+        while (matcher.find()) {
+            if (matcher.group(1) == null) {
+                hints.add(null);
+            } else {
+                String index = matcher.group(3);
+                hints.add(matcher.group(1).toUpperCase() + (index != null ? "@" + index : ""));
+            }
+        }
+        return hints;
+    }
+
+    public String stripJoinHints(String sql) {
+        /**
+         * Removes join and index hints, which the parser does not understand.
+         */
+        return INNER_JOIN.matcher(sql).replaceAll("INNER JOIN $2");
+    }
+
+    public String applyJoinHints(String sql, List<String> hints) {
+        /**
+         * Hints each INNER JOIN of the given (unhinted) query with the corresponding hint (see getJoinHints).
+         * Joins without a hint become hash joins, so applying no hints is equivalent to toHashJoin.
+         */
+        StringBuffer buffer = new StringBuffer();
+        Matcher matcher = INNER_JOIN.matcher(sql);
+        int j = 0;
+        while (matcher.find()) {
+            String hint = (hints != null && j < hints.size() && hints.get(j) != null) ? hints.get(j) : HASH_HINT;
+            String[] parts = hint.split("@", 2);
+
+            String table = matcher.group(2) + (parts.length > 1 ? "@" + parts[1] : "");
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(String.format("INNER %s JOIN %s", parts[0], table)));
+            j += 1;
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+
+    public List<List<TableColumn>> getInnerJoinColumns(String sql) {
+        /**
+         * Returns, for each join of the given query, the columns of the joined (inner) table which its ON
+         * condition equates with columns of the other tables. These are the columns an index lookup join
+         * would probe.
+         */
+        List<List<TableColumn>> result = new ArrayList<List<TableColumn>>();
+
+        PlainSelect plainSelect = parsePlainSelect(sql);
+        if (plainSelect == null || plainSelect.getJoins() == null) {
+            return result;
+        }
+
+        for (Object joinObj : plainSelect.getJoins()) {
+            Join join = (Join) joinObj;
+            List<TableColumn> columns = new ArrayList<TableColumn>();
+            result.add(columns);
+            if (!(join.getRightItem() instanceof Table) || join.getOnExpression() == null) {
+                continue;
+            }
+
+            Table table = (Table) join.getRightItem();
+            String alias = table.getAlias() != null ? table.getAlias() : table.getWholeTableName();
+
+            List<Expression> conjuncts = new ArrayList<Expression>();
+            splitConjuncts(join.getOnExpression(), conjuncts);
+            for (Expression conjunct : conjuncts) {
+                if (!(conjunct instanceof EqualsTo)) {
+                    continue;
+                }
+
+                Expression left = ((EqualsTo) conjunct).getLeftExpression();
+                Expression right = ((EqualsTo) conjunct).getRightExpression();
+                if (!(left instanceof Column) || !(right instanceof Column)) {
+                    continue;
+                }
+
+                boolean isLeftInner = alias.equals(((Column) left).getTable().getWholeTableName());
+                boolean isRightInner = alias.equals(((Column) right).getTable().getWholeTableName());
+                if (isLeftInner != isRightInner) {
+                    Column inner = (Column) (isLeftInner ? left : right);
+                    columns.add(new TableColumn(table.getWholeTableName(), inner.getColumnName()));
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<String> getLookupHints(String sql, HashMap<String, HashMap<String, String>> tableIndexes) {
+        /**
+         * Returns lookup join hints for the given query: joins whose inner table has an index led by one of its
+         * join columns become lookup joins into that index, all others remain hash joins.
+         *
+         * @param tableIndexes: Table name -> leading column -> index name
+         * @return The hint of each join (see applyJoinHints), or null if no join can use an index
+         */
+        List<String> hints = new ArrayList<String>();
+        boolean hasLookup = false;
+        for (List<TableColumn> columns : this.getInnerJoinColumns(sql)) {
+            String hint = HASH_HINT;
+            for (TableColumn column : columns) {
+                HashMap<String, String> indexes = tableIndexes.get(column.getTableName());
+                String index = indexes != null ? indexes.get(column.getColumnName()) : null;
+                if (index != null) {
+                    hint = LOOKUP_HINT + "@" + index;
+                    hasLookup = true;
+                    break;
+                }
+            }
+            hints.add(hint);
+        }
+        return hasLookup ? hints : null;
+    }
+
     public List<String> getTableOrder(String sql) {
         try {
             CCJSqlParserManager pm = new CCJSqlParserManager();
@@ -68,6 +205,52 @@ public class SQLParser {
         return null;
     }
 
+    public List<String> getReadTables(String sql) {
+        /**
+         * Returns the lower-case names of the tables the given SELECT reads: its FROM item and the right item of
+         * each join, including comma joins. Returns null if these may not be all the tables it reads, e.g. for
+         * subqueries, unions or queries the parser does not understand.
+         */
+        String stripped = this.stripJoinHints(sql.trim());
+        Matcher selects = SELECT_KEYWORD.matcher(stripped);
+        if (!selects.find() || selects.find()) {
+            return null;  // Nested selects may read tables outside the FROM clause
+        }
+
+        PlainSelect plainSelect;
+        try {
+            CCJSqlParserManager pm = new CCJSqlParserManager();
+            Statement statement = pm.parse(new StringReader(stripped));
+            if (!(statement instanceof Select) || !(((Select) statement).getSelectBody() instanceof PlainSelect)) {
+                return null;
+            }
+            plainSelect = (PlainSelect) ((Select) statement).getSelectBody();
+        } catch (JSQLParserException ex) {
+            return null;  // Not worth a stack trace, the caller just cannot rely on the tables
+        }
+
+        List<FromItem> items = new ArrayList<FromItem>();
+        items.add(plainSelect.getFromItem());
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                items.add(((Join) joinObj).getRightItem());
+            }
+        }
+
+        List<String> tables = new ArrayList<String>();
+        for (FromItem item : items) {
+            if (!(item instanceof Table)) {
+                return null;
+            }
+
+            String table = ((Table) item).getName().replace("\"", "").toLowerCase();
+            if (!tables.contains(table)) {
+                tables.add(table);
+            }
+        }
+        return tables;
+    }
+
     public List<TableColumn> getColumnOrder(String sql) {
         try {
             CCJSqlParserManager pm = new CCJSqlParserManager();
@@ -109,7 +292,86 @@ public class SQLParser {
 
     }
 
+    public List<List<TableColumn>> getJoinKeyGroups(String sql) {
+        /**
+         * Returns the join key columns of each join recorded by getColumnOrder, in the same order. Each entry
+         * alternates left and right columns ([left 1, right 1, left 2, right 2, ...]), so joins on composite
+         * keys (ON a.x = b.x AND a.y = b.y) have more than two columns.
+         */
+        List<List<TableColumn>> result = new ArrayList<List<TableColumn>>();
+
+        PlainSelect plainSelect = parsePlainSelect(sql);
+        if (plainSelect == null || plainSelect.getJoins() == null) {
+            return result;
+        }
+
+        HashMap<String, String> aliasTables = new HashMap<String, String>();
+        List<Table> tables = new ArrayList<Table>();
+        if (plainSelect.getFromItem() instanceof Table) {
+            tables.add((Table) plainSelect.getFromItem());
+        }
+        for (Object joinObj : plainSelect.getJoins()) {
+            if (((Join) joinObj).getRightItem() instanceof Table) {
+                tables.add((Table) ((Join) joinObj).getRightItem());
+            }
+        }
+        for (Table table : tables) {
+            aliasTables.put(table.getAlias() != null ? table.getAlias() : table.getWholeTableName(), table.getWholeTableName());
+        }
+
+        for (Object joinObj : plainSelect.getJoins()) {
+            Expression onExpression = ((Join) joinObj).getOnExpression();
+            if (onExpression == null) {
+                continue;
+            }
+
+            List<Expression> conjuncts = new ArrayList<Expression>();
+            splitConjuncts(onExpression, conjuncts);
+
+            List<TableColumn> keys = new ArrayList<TableColumn>();
+            for (Expression conjunct : conjuncts) {
+                if (!(conjunct instanceof EqualsTo)) {
+                    continue;
+                }
+
+                Expression left = ((EqualsTo) conjunct).getLeftExpression();
+                Expression right = ((EqualsTo) conjunct).getRightExpression();
+                if (left instanceof Column && right instanceof Column) {
+                    String leftTable = aliasTables.get(((Column) left).getTable().getWholeTableName());
+                    String rightTable = aliasTables.get(((Column) right).getTable().getWholeTableName());
+                    if (leftTable == null || rightTable == null) {
+                        continue;
+                    }
+
+                    TableColumn leftColumn = new TableColumn(leftTable, ((Column) left).getColumnName());
+                    TableColumn rightColumn = new TableColumn(rightTable, ((Column) right).getColumnName());
+                    if (keys.isEmpty() || (keys.get(0).getTableName().equals(leftTable) && keys.get(1).getTableName().equals(rightTable))) {
+                        keys.add(leftColumn);
+                        keys.add(rightColumn);
+                    } else if (keys.get(0).getTableName().equals(rightTable) && keys.get(1).getTableName().equals(leftTable)) {
+                        keys.add(rightColumn);
+                        keys.add(leftColumn);
+                    }
+                    // Other pairs join different tables and do not belong to the key of this join
+                }
+            }
+
+            if (!keys.isEmpty()) {
+                result.add(keys);
+            }
+        }
+        return result;
+    }
+
     public HashMap<String, Double> getWhereSelectivity(String sql, HashMap<String, HashMap<String, Statistics>> tableStats) {
+        return this.getWhereSelectivity(sql, tableStats, SelectivityEstimator.INDEPENDENT);
+    }
+
+    public HashMap<String, Double> getWhereSelectivity(String sql, HashMap<String, HashMap<String, Statistics>> tableStats, String mode) {
+        /**
+         * Returns the fraction of rows of each table kept by the WHERE clause, combining the predicates on a
+         * table according to the given mode (SelectivityEstimator.INDEPENDENT or CORRELATED).
+         */
          try {
             CCJSqlParserManager pm = new CCJSqlParserManager();
             Statement statement = pm.parse(new StringReader(sql));
@@ -118,16 +380,408 @@ public class SQLParser {
 
                 // Get joined tables and columns
                 InnerJoinVisitor tablesNamesFinder = new InnerJoinVisitor();
-                return tablesNamesFinder.getWhereSelectivity(selectStatement, tableStats);
+                return tablesNamesFinder.getWhereSelectivity(selectStatement, tableStats, mode);
+            }
+        } catch (JSQLParserException ex) {
+            ex.printStackTrace();
+        }
+        return null;
+
+
+    }
+
+
+    public HashMap<String, String> getTableFilters(String sql) {
+        /**
+         * Returns the single-table WHERE conjuncts of the given query in a canonical form (aliases replaced by
+         * table names, conjuncts sorted and joined by AND), keyed by table name.
+         */
+        HashMap<String, String> result = new HashMap<String, String>();
+        try {
+            CCJSqlParserManager pm = new CCJSqlParserManager();
+            Statement statement = pm.parse(new StringReader(sql));
+            if (!(statement instanceof Select) || !(((Select) statement).getSelectBody() instanceof PlainSelect)) {
+                return result;
+            }
+
+            Select selectStatement = (Select) statement;
+            Expression where = ((PlainSelect) selectStatement.getSelectBody()).getWhere();
+            if (where == null) {
+                return result;
+            }
+
+            InnerJoinVisitor tablesNamesFinder = new InnerJoinVisitor();
+            HashMap<String, String> aliasTables = new HashMap<String, String>();
+            for (Table table : tablesNamesFinder.getTableList(selectStatement)) {
+                String alias = table.getAlias() != null ? table.getAlias() : table.getWholeTableName();
+                aliasTables.put(alias, table.getWholeTableName());
+            }
+
+            List<Expression> conjuncts = new ArrayList<Expression>();
+            splitConjuncts(where, conjuncts);
+
+            HashMap<String, List<String>> tableConjuncts = new HashMap<String, List<String>>();
+            Pattern qualifier = Pattern.compile("\\b(\\w+)\\.(\\w+)");
+            for (Expression conjunct : conjuncts) {
+                // Rewrite alias.column to table.column and keep conjuncts which reference a single table
+                Matcher matcher = qualifier.matcher(conjunct.toString());
+                StringBuffer canonical = new StringBuffer();
+                HashSet<String> referenced = new HashSet<String>();
+                while (matcher.find()) {
+                    String tableName = aliasTables.get(matcher.group(1));
+                    if (tableName != null) {
+                        referenced.add(tableName);
+                        matcher.appendReplacement(canonical, Matcher.quoteReplacement(String.format("%s.%s", tableName, matcher.group(2))));
+                    }
+                }
+                matcher.appendTail(canonical);
+
+                if (referenced.size() == 1) {
+                    String tableName = referenced.iterator().next();
+                    if (!tableConjuncts.containsKey(tableName)) {
+                        tableConjuncts.put(tableName, new ArrayList<String>());
+                    }
+                    tableConjuncts.get(tableName).add(canonical.toString());
+                }
+            }
+
+            for (String tableName : tableConjuncts.keySet()) {
+                List<String> filters = tableConjuncts.get(tableName);
+                Collections.sort(filters);
+                result.put(tableName, String.join(" AND ", filters));
+            }
+        } catch (JSQLParserException ex) {
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
+    public String fingerprint(String sql) {
+        /**
+         * Reduces the given query to its template: literals are replaced by ?, IN lists are collapsed, aliases
+         * are renamed after their tables (title, title_2, ...) and whitespace and case are normalized. Queries
+         * which only differ in their literals or alias names share a fingerprint.
+         */
+        String template = STRING_LITERAL.matcher(sql.trim()).replaceAll("?");
+
+        try {
+            CCJSqlParserManager pm = new CCJSqlParserManager();
+            Statement statement = pm.parse(new StringReader(sql));
+            if (statement instanceof Select) {
+                InnerJoinVisitor tablesNamesFinder = new InnerJoinVisitor();
+                List<Table> tableList = tablesNamesFinder.getTableList((Select) statement);
+
+                // Rename every alias after its table, numbering repeated tables in order of appearance
+                HashMap<String, String> canonicalAliases = new HashMap<String, String>();
+                HashMap<String, Integer> tableCounts = new HashMap<String, Integer>();
+                for (Table table : tableList) {
+                    String tableName = table.getWholeTableName().toLowerCase();
+                    int count = tableCounts.containsKey(tableName) ? tableCounts.get(tableName) + 1 : 1;
+                    tableCounts.put(tableName, count);
+
+                    if (table.getAlias() != null) {
+                        canonicalAliases.put(table.getAlias().toLowerCase(), count > 1 ? String.format("%s_%d", tableName, count) : tableName);
+                    }
+                }
+
+                // Replace all aliases in a single pass, since an alias may be the name of another table
+                if (!canonicalAliases.isEmpty()) {
+                    List<String> quoted = new ArrayList<String>();
+                    for (String alias : canonicalAliases.keySet()) {
+                        quoted.add(Pattern.quote(alias));
+                    }
+
+                    Matcher matcher = Pattern.compile(String.format("\\b(%s)\\b", String.join("|", quoted)), Pattern.CASE_INSENSITIVE).matcher(template);
+                    StringBuffer renamed = new StringBuffer();
+                    while (matcher.find()) {
+                        matcher.appendReplacement(renamed, Matcher.quoteReplacement(canonicalAliases.get(matcher.group(1).toLowerCase())));
+                    }
+                    matcher.appendTail(renamed);
+                    template = renamed.toString();
+                }
+            }
+        } catch (JSQLParserException ex) {
+            // Unparseable queries are fingerprinted without alias canonicalization
+        }
+
+        template = NUMBER_LITERAL.matcher(template).replaceAll("?");
+        template = IN_LIST.matcher(template).replaceAll("(?)");
+        template = WHITESPACE.matcher(template).replaceAll(" ").toLowerCase();
+        while (template.endsWith(";")) {
+            template = template.substring(0, template.length() - 1).trim();
+        }
+        return template;
+    }
+
+    public ParameterizedQuery parameterize(String sql) {
+        /**
+         * Splits the given query into a template, in which the literals of the join and WHERE predicates are
+         * JDBC parameters, and the values to bind. Queries which only differ in these literals share a template
+         * and therefore a prepared statement.
+         *
+         * @return The parameterized query, or null if the query cannot be parsed
+         */
+        try {
+            CCJSqlParserManager pm = new CCJSqlParserManager();
+            Statement statement = pm.parse(new StringReader(sql));
+            if (statement instanceof Select) {
+                Select selectStatement = (Select) statement;
+
+                InnerJoinVisitor tablesNamesFinder = new InnerJoinVisitor();
+                List<Object> parameters = tablesNamesFinder.extractParameters(selectStatement);
+                return new ParameterizedQuery(selectStatement.toString(), parameters, sql);
+            }
+        } catch (JSQLParserException ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    public List<int[]> getJoinOrders(String sql, int maxOrders) {
+        /**
+         * Enumerates left-deep join orders of the given query which never introduce a cross product. Orders
+         * are given as positions of the tables in the FROM clause. Queries with outer joins, subqueries in the
+         * FROM clause or a disconnected join graph have no orders.
+         *
+         * @param sql: Query to reorder
+         * @param maxOrders: Maximum number of orders to return
+         * @return Join orders in depth-first order, starting with the order of the query itself
+         */
+        List<int[]> orders = new ArrayList<int[]>();
+
+        boolean[][] isConnected = this.getJoinGraph(sql);
+        if (isConnected == null) {
+            return orders;
+        }
+
+        int[] order = new int[isConnected.length];
+        boolean[] isUsed = new boolean[isConnected.length];
+        for (int first = 0; first < isConnected.length && orders.size() < maxOrders; first++) {
+            order[0] = first;
+            isUsed[first] = true;
+            addJoinOrders(order, 1, isUsed, isConnected, orders, maxOrders);
+            isUsed[first] = false;
+        }
+        return orders;
+    }
+
+    public boolean[][] getJoinGraph(String sql) {
+        /**
+         * Returns the adjacency matrix of the tables in the FROM clause (by position) which are connected by an
+         * equi-join predicate, in an ON condition or the WHERE clause.
+         *
+         * @return The join graph, or null if the query cannot be reordered (see getJoinOrders)
+         */
+        PlainSelect plainSelect = parsePlainSelect(sql);
+        List<String> aliases = getAliases(plainSelect);
+        if (aliases == null || aliases.size() < 2) {
+            return null;
+        }
+
+        List<Expression> conjuncts = getJoinConjuncts(plainSelect);
+        if (plainSelect.getWhere() != null) {
+            splitConjuncts(plainSelect.getWhere(), conjuncts);
+        }
+
+        boolean[][] isConnected = new boolean[aliases.size()][aliases.size()];
+        for (Expression conjunct : conjuncts) {
+            int[] edge = getJoinEdge(conjunct, aliases);
+            if (edge != null) {
+                isConnected[edge[0]][edge[1]] = true;
+                isConnected[edge[1]][edge[0]] = true;
+            }
+        }
+        return isConnected;
+    }
+
+    private static void addJoinOrders(int[] order, int size, boolean[] isUsed, boolean[][] isConnected, List<int[]> orders, int maxOrders) {
+        if (size == order.length) {
+            orders.add(order.clone());
+            return;
+        }
+
+        for (int next = 0; next < order.length && orders.size() < maxOrders; next++) {
+            boolean canJoin = false;
+            for (int i = 0; i < size && !canJoin; i++) {
+                canJoin = isConnected[order[i]][next];
+            }
+
+            if (!isUsed[next] && canJoin) {
+                order[size] = next;
+                isUsed[next] = true;
+                addJoinOrders(order, size + 1, isUsed, isConnected, orders, maxOrders);
+                isUsed[next] = false;
+            }
+        }
+    }
+
+    public String toJoinOrder(String sql, int[] order) {
+        /**
+         * Rewrites the given query into a chain of INNER JOINs over the tables in the given order (positions in
+         * the FROM clause, see getJoinOrders). Each join takes the first equi-join predicate connecting its table
+         * to the tables before it as its ON condition. All other predicates move to the WHERE clause.
+         *
+         * @return The reordered query, or null if the query cannot be reordered
+         */
+        PlainSelect plainSelect = parsePlainSelect(sql);
+        List<String> aliases = getAliases(plainSelect);
+        if (aliases == null || aliases.size() != order.length) {
+            return null;
+        }
+
+        List<Table> tables = new ArrayList<Table>();
+        tables.add((Table) plainSelect.getFromItem());
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                tables.add((Table) ((Join) joinObj).getRightItem());
+            }
+        }
+
+        // Alias every table, since the join columns are resolved through the aliases
+        for (Table table : tables) {
+            if (table.getAlias() == null) {
+                table.setAlias(table.getWholeTableName());
+            }
+        }
+
+        List<Expression> remaining = getJoinConjuncts(plainSelect);
+        if (plainSelect.getWhere() != null) {
+            splitConjuncts(plainSelect.getWhere(), remaining);
+        }
+
+        List<Join> newJoins = new ArrayList<Join>();
+        boolean[] isJoined = new boolean[aliases.size()];
+        isJoined[order[0]] = true;
+        for (int i = 1; i < order.length; i++) {
+            Expression onExpression = null;
+            for (Expression conjunct : remaining) {
+                int[] edge = getJoinEdge(conjunct, aliases);
+                if (edge != null && ((edge[0] == order[i] && isJoined[edge[1]]) || (edge[1] == order[i] && isJoined[edge[0]]))) {
+                    onExpression = conjunct;
+                    break;
+                }
+            }
+
+            if (onExpression == null) {
+                return null;  // Would be a cross product
+            }
+            remaining.remove(onExpression);
+
+            Join join = new Join();
+            join.setInner(true);
+            join.setRightItem(tables.get(order[i]));
+            join.setOnExpression(onExpression);
+            newJoins.add(join);
+            isJoined[order[i]] = true;
+        }
+
+        Expression where = null;
+        for (Expression conjunct : remaining) {
+            where = (where == null) ? conjunct : new AndExpression(where, conjunct);
+        }
+
+        plainSelect.setFromItem(tables.get(order[0]));
+        plainSelect.setJoins(newJoins);
+        plainSelect.setWhere(where);
+        return plainSelect.toString();
+    }
+
+    private static PlainSelect parsePlainSelect(String sql) {
+        try {
+            CCJSqlParserManager pm = new CCJSqlParserManager();
+            Statement statement = pm.parse(new StringReader(sql));
+            if (statement instanceof Select && ((Select) statement).getSelectBody() instanceof PlainSelect) {
+                return (PlainSelect) ((Select) statement).getSelectBody();
             }
         } catch (JSQLParserException ex) {
             ex.printStackTrace();
         }
         return null;
+    }
+
+    private static List<String> getAliases(PlainSelect plainSelect) {
+        /**
+         * Returns the alias (or name) of each table in the FROM clause, or null if the FROM clause contains
+         * anything other than tables combined by inner or comma joins.
+         */
+        if (plainSelect == null || !(plainSelect.getFromItem() instanceof Table)) {
+            return null;
+        }
+
+        List<FromItem> items = new ArrayList<FromItem>();
+        items.add(plainSelect.getFromItem());
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                Join join = (Join) joinObj;
+                if (join.isOuter() || join.isLeft() || join.isRight() || join.isFull() || join.isNatural() || join.getUsingColumns() != null) {
+                    return null;
+                }
+                items.add(join.getRightItem());
+            }
+        }
+
+        List<String> aliases = new ArrayList<String>();
+        for (FromItem item : items) {
+            if (!(item instanceof Table)) {
+                return null;
+            }
+
+            Table table = (Table) item;
+            String alias = table.getAlias() != null ? table.getAlias() : table.getWholeTableName();
+            if (aliases.contains(alias)) {
+                return null;
+            }
+            aliases.add(alias);
+        }
+        return aliases;
+    }
 
+    private static List<Expression> getJoinConjuncts(PlainSelect plainSelect) {
+        List<Expression> conjuncts = new ArrayList<Expression>();
+        if (plainSelect.getJoins() != null) {
+            for (Object joinObj : plainSelect.getJoins()) {
+                Expression onExpression = ((Join) joinObj).getOnExpression();
+                if (onExpression != null) {
+                    splitConjuncts(onExpression, conjuncts);
+                }
+            }
+        }
+        return conjuncts;
+    }
 
+    private static int[] getJoinEdge(Expression conjunct, List<String> aliases) {
+        /**
+         * Returns the positions of the two tables joined by the given conjunct, or null if it is not an
+         * equality between columns of two different tables.
+         */
+        if (!(conjunct instanceof EqualsTo)) {
+            return null;
+        }
+
+        Expression left = ((EqualsTo) conjunct).getLeftExpression();
+        Expression right = ((EqualsTo) conjunct).getRightExpression();
+        if (!(left instanceof Column) || !(right instanceof Column)) {
+            return null;
+        }
+
+        int leftIndex = aliases.indexOf(((Column) left).getTable().getWholeTableName());
+        int rightIndex = aliases.indexOf(((Column) right).getTable().getWholeTableName());
+        if (leftIndex < 0 || rightIndex < 0 || leftIndex == rightIndex) {
+            return null;
+        }
+        return new int[] { leftIndex, rightIndex };
     }
 
+    static void splitConjuncts(Expression expr, List<Expression> conjuncts) {
+        if (expr instanceof AndExpression) {
+            splitConjuncts(((AndExpression) expr).getLeftExpression(), conjuncts);
+            splitConjuncts(((AndExpression) expr).getRightExpression(), conjuncts);
+        } else if (expr instanceof Parenthesis && !((Parenthesis) expr).isNot() && ((Parenthesis) expr).getExpression() instanceof AndExpression) {
+            splitConjuncts(((Parenthesis) expr).getExpression(), conjuncts);
+        } else {
+            conjuncts.add(expr);
+        }
+    }
 
     public String whereToInnerJoin(String sql) {
         try {
@@ -0,0 +1,527 @@
+package parsing;
+
+import java.lang.Math;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.InverseExpression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimeValue;
+import net.sf.jsqlparser.expression.TimestampValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.IsNullExpression;
+import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+
+import database.Range;
+import database.Statistics;
+
+
+public class SelectivityEstimator {
+
+    // Modes for combining the predicates on a single table
+    public static final String INDEPENDENT = "independent";  // Multiply selectivities
+    public static final String CORRELATED = "correlated";  // Exponential backoff, most selective predicate first
+
+    private static final double LIKE_PERCENTAGE = 0.09;  // Fraction of values containing a given substring of LIKE_FACTOR characters
+    private static final double LIKE_FACTOR = 6;
+    private static final double DEFAULT_SELECTIVITY = 1.0 / 3.0;  // Predicates without usable statistics
+    private static final double NULL_FRACTION = 0.01;  // Null counts are not collected
+
+    private HashMap<String, String> aliasTables;  // Alias (or name) -> table name
+    private HashMap<String, HashMap<String, Statistics>> tableStats;
+    private String mode;
+
+    public SelectivityEstimator(List<Table> tables, HashMap<String, HashMap<String, Statistics>> tableStats, String mode) {
+        this.aliasTables = new HashMap<String, String>();
+        for (Table table : tables) {
+            String alias = table.getAlias() != null ? table.getAlias() : table.getWholeTableName();
+            this.aliasTables.put(alias, table.getWholeTableName());
+        }
+
+        this.tableStats = tableStats;
+        this.mode = mode;
+    }
+
+    public static boolean isValidMode(String mode) {
+        return INDEPENDENT.equals(mode) || CORRELATED.equals(mode);
+    }
+
+    public HashMap<String, Double> estimate(Expression where) {
+        /**
+         * Estimates the fraction of rows of each table kept by the single-table predicates of the given WHERE
+         * clause. Range predicates on the same column are intersected first and equalities on a group of
+         * columns with multi-column statistics use the distinct count of the group. Then the selectivities of
+         * the conjuncts of each table are combined according to the mode. Join predicates and predicates
+         * which reference several tables are ignored.
+         *
+         * @param where: WHERE clause (may be null)
+         * @return Map of table names to the fraction of rows kept, for tables with at least one predicate
+         */
+        HashMap<String, Double> result = new HashMap<String, Double>();
+        if (where == null) {
+            return result;
+        }
+
+        List<Expression> conjuncts = new ArrayList<Expression>();
+        SQLParser.splitConjuncts(where, conjuncts);
+
+        HashMap<String, List<Double>> tableSelectivities = new HashMap<String, List<Double>>();
+        HashMap<String, double[]> bounds = new HashMap<String, double[]>();  // table.column -> {lower, upper}, inclusive
+        HashMap<String, Column> boundColumns = new HashMap<String, Column>();
+        HashMap<String, LinkedHashMap<String, Expression>> equalities = new HashMap<String, LinkedHashMap<String, Expression>>();  // Table -> column -> equality with a literal
+
+        for (Expression conjunct : conjuncts) {
+            String tableName = this.getSingleTable(conjunct);
+            if (tableName == null) {
+                continue;
+            }
+
+            Column equalityColumn = getEqualityColumn(conjunct);
+            if (equalityColumn != null && !equalities.containsKey(tableName)) {
+                equalities.put(tableName, new LinkedHashMap<String, Expression>());
+            }
+            if (equalityColumn != null && !equalities.get(tableName).containsKey(equalityColumn.getColumnName())) {
+                equalities.get(tableName).put(equalityColumn.getColumnName(), conjunct);
+                continue;
+            }
+
+            double[] bound = this.getBound(conjunct);
+            if (bound != null) {
+                Column column = this.getBoundColumn(conjunct);
+                String columnName = String.format("%s.%s", tableName, column.getColumnName());
+                double[] current = bounds.get(columnName);
+                if (current == null) {
+                    bounds.put(columnName, bound);
+                    boundColumns.put(columnName, column);
+                } else {
+                    current[0] = Math.max(current[0], bound[0]);
+                    current[1] = Math.min(current[1], bound[1]);
+                }
+                continue;
+            }
+
+            addSelectivity(tableSelectivities, tableName, this.getSelectivity(conjunct));
+        }
+
+        for (String tableName : equalities.keySet()) {
+            this.addEqualitySelectivities(tableSelectivities, tableName, equalities.get(tableName));
+        }
+
+        for (String columnName : bounds.keySet()) {
+            Column column = boundColumns.get(columnName);
+            double[] bound = bounds.get(columnName);
+            addSelectivity(tableSelectivities, this.resolveTable(column), this.getRangeSelectivity(column, bound[0], bound[1]));
+        }
+
+        for (String tableName : tableSelectivities.keySet()) {
+            result.put(tableName, this.combine(tableSelectivities.get(tableName)));
+        }
+        return result;
+    }
+
+    private void addEqualitySelectivities(HashMap<String, List<Double>> tableSelectivities, String tableName, LinkedHashMap<String, Expression> equalities) {
+        /**
+         * Adds the selectivities of the equalities on one table. The values of correlated columns (e.g. movie_id
+         * and company_type_id) are not independent, so the largest column groups with statistics whose
+         * columns are all fixed by the equalities contribute 1 / (distinct combinations) instead.
+         */
+        HashMap<String, Statistics> columnStats = this.tableStats.get(tableName);
+        List<String> remaining = new ArrayList<String>(equalities.keySet());
+
+        while (columnStats != null && remaining.size() > 1) {
+            Statistics best = null;
+            for (Statistics stats : columnStats.values()) {
+                if (stats.isColumnGroup() && remaining.containsAll(stats.getColumnNames()) && stats.getTableDistinct() > 0) {
+                    if (best == null || stats.getColumnNames().size() > best.getColumnNames().size()) {
+                        best = stats;
+                    }
+                }
+            }
+
+            if (best == null) {
+                break;
+            }
+
+            addSelectivity(tableSelectivities, tableName, 1.0 / best.getTableDistinct());
+            remaining.removeAll(best.getColumnNames());
+        }
+
+        for (String columnName : remaining) {
+            addSelectivity(tableSelectivities, tableName, this.getSelectivity(equalities.get(columnName)));
+        }
+    }
+
+    private double combine(List<Double> selectivities) {
+        /**
+         * Combines the selectivities of conjuncts on one table. Independence multiplies them; correlation
+         * applies exponential backoff (s1 * s2^(1/2) * s3^(1/4) * ...) so that later, less selective
+         * predicates add less.
+         */
+        if (!CORRELATED.equals(this.mode)) {
+            double product = 1.0;
+            for (double selectivity : selectivities) {
+                product *= selectivity;
+            }
+            return product;
+        }
+
+        List<Double> sorted = new ArrayList<Double>(selectivities);
+        Collections.sort(sorted);
+
+        double result = 1.0;
+        double exponent = 1.0;
+        for (double selectivity : sorted) {
+            result *= Math.pow(selectivity, exponent);
+            exponent /= 2.0;
+        }
+        return result;
+    }
+
+    private double getSelectivity(Expression expr) {
+        if (expr instanceof AndExpression) {
+            List<Double> selectivities = new ArrayList<Double>();
+            selectivities.add(this.getSelectivity(((AndExpression) expr).getLeftExpression()));
+            selectivities.add(this.getSelectivity(((AndExpression) expr).getRightExpression()));
+            return this.combine(selectivities);
+        } else if (expr instanceof OrExpression) {
+            double left = this.getSelectivity(((OrExpression) expr).getLeftExpression());
+            double right = this.getSelectivity(((OrExpression) expr).getRightExpression());
+
+            // Correlated disjuncts mostly select the same rows
+            return CORRELATED.equals(this.mode) ? Math.max(left, right) : left + right - left * right;
+        } else if (expr instanceof Parenthesis) {
+            double selectivity = this.getSelectivity(((Parenthesis) expr).getExpression());
+            return ((Parenthesis) expr).isNot() ? 1.0 - selectivity : selectivity;
+        } else if (expr instanceof EqualsTo || expr instanceof NotEqualsTo) {
+            double selectivity = this.getEqualitySelectivity((BinaryExpression) expr);
+            return (expr instanceof NotEqualsTo) ? 1.0 - selectivity : selectivity;
+        } else if (expr instanceof InExpression) {
+            InExpression in = (InExpression) expr;
+            double selectivity = DEFAULT_SELECTIVITY;
+            if (in.getLeftExpression() instanceof Column && in.getItemsList() instanceof ExpressionList) {
+                int numValues = ((ExpressionList) in.getItemsList()).getExpressions().size();
+                selectivity = Math.min(numValues * this.getEqualitySelectivity((Column) in.getLeftExpression(), null), 1.0);
+            }
+            return in.isNot() ? 1.0 - selectivity : selectivity;
+        } else if (expr instanceof LikeExpression) {
+            LikeExpression like = (LikeExpression) expr;
+            double selectivity = DEFAULT_SELECTIVITY;
+            if (like.getLeftExpression() instanceof Column && like.getRightExpression() instanceof StringValue) {
+                selectivity = this.getLikeSelectivity((Column) like.getLeftExpression(), ((StringValue) like.getRightExpression()).getNotExcapedValue());
+            }
+            return like.isNot() ? 1.0 - selectivity : selectivity;
+        } else if (expr instanceof IsNullExpression) {
+            return ((IsNullExpression) expr).isNot() ? 1.0 - NULL_FRACTION : NULL_FRACTION;
+        } else if (expr instanceof Between && ((Between) expr).isNot()) {
+            Between between = (Between) expr;
+            if (between.getLeftExpression() instanceof Column) {
+                Double start = getNumber(between.getBetweenExpressionStart());
+                Double end = getNumber(between.getBetweenExpressionEnd());
+                if (start != null && end != null) {
+                    return 1.0 - this.getRangeSelectivity((Column) between.getLeftExpression(), start, end);
+                }
+            }
+            return 1.0 - DEFAULT_SELECTIVITY;
+        }
+
+        // Non-negated ranges are handled by getBound, everything else is unknown
+        double[] bound = this.getBound(expr);
+        if (bound != null) {
+            return this.getRangeSelectivity(this.getBoundColumn(expr), bound[0], bound[1]);
+        }
+        return DEFAULT_SELECTIVITY;
+    }
+
+    private double getEqualitySelectivity(BinaryExpression expr) {
+        Expression left = expr.getLeftExpression();
+        Expression right = expr.getRightExpression();
+
+        if (left instanceof Column && right instanceof Column) {
+            // Two columns of the same table, e.g. t.a = t.b
+            Statistics leftStats = this.getStats((Column) left);
+            Statistics rightStats = this.getStats((Column) right);
+            if (leftStats == null || rightStats == null) {
+                return DEFAULT_SELECTIVITY;
+            }
+            return 1.0 / Math.max(Math.max(leftStats.getTableDistinct(), rightStats.getTableDistinct()), 1.0);
+        } else if (left instanceof Column) {
+            return this.getEqualitySelectivity((Column) left, right);
+        } else if (right instanceof Column) {
+            return this.getEqualitySelectivity((Column) right, left);
+        }
+        return DEFAULT_SELECTIVITY;
+    }
+
+    private double getEqualitySelectivity(Column column, Expression value) {
+        /**
+         * Assumes a uniform distribution over the distinct values, so every value matches 1 / distinct of the
+         * rows. Numeric values outside the column's range match (almost) nothing.
+         */
+        Statistics stats = this.getStats(column);
+        if (stats == null || stats.getTableDistinct() <= 0) {
+            return DEFAULT_SELECTIVITY;
+        }
+
+        Double number = (value != null) ? getNumber(value) : null;
+        Range range = stats.getRange();
+        if (number != null && range != null && (number < range.getMin() || number > range.getMax())) {
+            return 1.0 / Math.max(stats.getTableRows(), 1.0);
+        }
+        return 1.0 / stats.getTableDistinct();
+    }
+
+    private double getRangeSelectivity(Column column, double lower, double upper) {
+        /**
+         * Returns the fraction of the column's [min, max] range covered by the inclusive range [lower, upper].
+         */
+        Statistics stats = this.getStats(column);
+        if (stats == null || stats.getRange() == null) {
+            boolean isBounded = !Double.isInfinite(lower) && !Double.isInfinite(upper);
+            return isBounded ? DEFAULT_SELECTIVITY * DEFAULT_SELECTIVITY : DEFAULT_SELECTIVITY;
+        }
+
+        double min = stats.getRange().getMin();
+        double max = stats.getRange().getMax();
+        double minSelectivity = 1.0 / Math.max(stats.getTableRows(), 1.0);
+
+        double covered = Math.min(upper, max) - Math.max(lower, min);
+        if (covered < 0) {
+            return minSelectivity;
+        }
+
+        // Integer ranges are discrete, so an inclusive range of width w contains w + 1 values
+        double selectivity = (covered + 1.0) / (max - min + 1.0);
+        return Math.min(Math.max(selectivity, minSelectivity), 1.0);
+    }
+
+    private double getLikeSelectivity(Column column, String pattern) {
+        /**
+         * A value contains the fixed characters of the pattern with probability LIKE_PERCENTAGE per LIKE_FACTOR
+         * characters. Patterns without a leading % must match at the start, which is only one of the about
+         * avgLength - fixed + 1 positions at which the characters could occur.
+         */
+        Statistics stats = this.getStats(column);
+        double minSelectivity = (stats != null && stats.getTableDistinct() > 0) ? 1.0 / stats.getTableDistinct() : 0.0;
+
+        int numFixed = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            if (pattern.charAt(i) != '%' && pattern.charAt(i) != '_') {
+                numFixed += 1;
+            }
+        }
+
+        if (pattern.indexOf('%') < 0 && pattern.indexOf('_') < 0) {
+            return this.getEqualitySelectivity(column, null);  // No wildcards, so LIKE is an equality
+        } else if (numFixed == 0) {
+            return 1.0;
+        }
+
+        double selectivity = Math.pow(LIKE_PERCENTAGE, numFixed / LIKE_FACTOR);
+        if (!pattern.startsWith("%") && stats != null && stats.getAvgLength() > 0) {
+            selectivity /= Math.max(stats.getAvgLength() - numFixed + 1.0, 1.0);
+        }
+        return Math.min(Math.max(selectivity, minSelectivity), 1.0);
+    }
+
+    private double[] getBound(Expression expr) {
+        /**
+         * Returns the inclusive {lower, upper} bound of a non-negated range predicate between a column and a
+         * number (<, <=, >, >= in either direction or BETWEEN), or null for any other predicate.
+         */
+        if (expr instanceof Between) {
+            Between between = (Between) expr;
+            Double start = getNumber(between.getBetweenExpressionStart());
+            Double end = getNumber(between.getBetweenExpressionEnd());
+            if (between.isNot() || !(between.getLeftExpression() instanceof Column) || start == null || end == null) {
+                return null;
+            }
+            return new double[] { start, end };
+        }
+
+        boolean isGreater = expr instanceof GreaterThan || expr instanceof GreaterThanEquals;
+        boolean isStrict = expr instanceof GreaterThan || expr instanceof MinorThan;
+        if (!isGreater && !(expr instanceof MinorThan) && !(expr instanceof MinorThanEquals)) {
+            return null;
+        }
+
+        Expression left = ((BinaryExpression) expr).getLeftExpression();
+        Expression right = ((BinaryExpression) expr).getRightExpression();
+        Double value;
+        if (left instanceof Column && getNumber(right) != null) {
+            value = getNumber(right);
+        } else if (right instanceof Column && getNumber(left) != null) {
+            value = getNumber(left);
+            isGreater = !isGreater;  // 5 < t.a is t.a > 5
+        } else {
+            return null;
+        }
+
+        // Strict bounds on integers exclude the value itself
+        double offset = (isStrict && value == Math.rint(value)) ? 1.0 : 0.0;
+        if (isGreater) {
+            return new double[] { value + offset, Double.POSITIVE_INFINITY };
+        }
+        return new double[] { Double.NEGATIVE_INFINITY, value - offset };
+    }
+
+    private Column getBoundColumn(Expression expr) {
+        if (expr instanceof Between) {
+            return (Column) ((Between) expr).getLeftExpression();
+        }
+
+        Expression left = ((BinaryExpression) expr).getLeftExpression();
+        return (Column) ((left instanceof Column) ? left : ((BinaryExpression) expr).getRightExpression());
+    }
+
+    private String getSingleTable(Expression expr) {
+        /**
+         * Returns the table referenced by all columns of the given predicate, or null if it references none,
+         * several or unknown tables, or contains expressions we cannot inspect (e.g. subqueries).
+         */
+        List<Column> columns = new ArrayList<Column>();
+        if (!collectColumns(expr, columns) || columns.isEmpty()) {
+            return null;
+        }
+
+        HashSet<String> tableNames = new HashSet<String>();
+        for (Column column : columns) {
+            String tableName = this.resolveTable(column);
+            if (tableName == null) {
+                return null;
+            }
+            tableNames.add(tableName);
+        }
+        return tableNames.size() == 1 ? tableNames.iterator().next() : null;
+    }
+
+    private String resolveTable(Column column) {
+        String qualifier = column.getTable() != null ? column.getTable().getWholeTableName() : null;
+        if (qualifier != null && !qualifier.isEmpty()) {
+            return this.aliasTables.get(qualifier);
+        }
+
+        // Unqualified columns belong to the only table of the query that has them
+        String result = null;
+        for (String tableName : new HashSet<String>(this.aliasTables.values())) {
+            HashMap<String, Statistics> columnStats = this.tableStats.get(tableName);
+            if (this.aliasTables.size() == 1 || (columnStats != null && columnStats.containsKey(column.getColumnName()))) {
+                if (result != null) {
+                    return null;
+                }
+                result = tableName;
+            }
+        }
+        return result;
+    }
+
+    private Statistics getStats(Column column) {
+        String tableName = this.resolveTable(column);
+        if (tableName == null || !this.tableStats.containsKey(tableName)) {
+            return null;
+        }
+        return this.tableStats.get(tableName).get(column.getColumnName());
+    }
+
+    private static boolean collectColumns(Expression expr, List<Column> columns) {
+        if (expr instanceof Column) {
+            columns.add((Column) expr);
+            return true;
+        } else if (expr instanceof BinaryExpression) {
+            return collectColumns(((BinaryExpression) expr).getLeftExpression(), columns) && collectColumns(((BinaryExpression) expr).getRightExpression(), columns);
+        } else if (expr instanceof Parenthesis) {
+            return collectColumns(((Parenthesis) expr).getExpression(), columns);
+        } else if (expr instanceof InverseExpression) {
+            return collectColumns(((InverseExpression) expr).getExpression(), columns);
+        } else if (expr instanceof Between) {
+            Between between = (Between) expr;
+            return collectColumns(between.getLeftExpression(), columns) && collectColumns(between.getBetweenExpressionStart(), columns) && collectColumns(between.getBetweenExpressionEnd(), columns);
+        } else if (expr instanceof InExpression) {
+            InExpression in = (InExpression) expr;
+            return in.getItemsList() instanceof ExpressionList && collectColumns(in.getLeftExpression(), columns) && collectColumns((ExpressionList) in.getItemsList(), columns);
+        } else if (expr instanceof IsNullExpression) {
+            return collectColumns(((IsNullExpression) expr).getLeftExpression(), columns);
+        } else if (expr instanceof Function) {
+            ExpressionList parameters = ((Function) expr).getParameters();
+            return parameters == null || collectColumns(parameters, columns);
+        }
+
+        // Literals and parameters reference no columns; anything else (e.g. subqueries) cannot be attributed
+        return expr instanceof LongValue || expr instanceof DoubleValue || expr instanceof StringValue || expr instanceof NullValue || expr instanceof DateValue || expr instanceof TimeValue || expr instanceof TimestampValue || expr instanceof JdbcParameter;
+    }
+
+    private static boolean collectColumns(ExpressionList list, List<Column> columns) {
+        for (Object item : list.getExpressions()) {
+            if (!collectColumns((Expression) item, columns)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Column getEqualityColumn(Expression expr) {
+        /**
+         * Returns the column of an equality between a column and a literal, or null for any other predicate.
+         */
+        if (!(expr instanceof EqualsTo)) {
+            return null;
+        }
+
+        Expression left = ((EqualsTo) expr).getLeftExpression();
+        Expression right = ((EqualsTo) expr).getRightExpression();
+        if (left instanceof Column && isLiteral(right)) {
+            return (Column) left;
+        } else if (right instanceof Column && isLiteral(left)) {
+            return (Column) right;
+        }
+        return null;
+    }
+
+    private static boolean isLiteral(Expression expr) {
+        return expr instanceof StringValue || expr instanceof JdbcParameter || getNumber(expr) != null;
+    }
+
+    private static Double getNumber(Expression expr) {
+        if (expr instanceof LongValue) {
+            return (double) ((LongValue) expr).getValue();
+        } else if (expr instanceof DoubleValue) {
+            return ((DoubleValue) expr).getValue();
+        } else if (expr instanceof InverseExpression) {
+            Double value = getNumber(((InverseExpression) expr).getExpression());
+            return value != null ? -value : null;
+        }
+        return null;
+    }
+
+    private static void addSelectivity(HashMap<String, List<Double>> tableSelectivities, String tableName, double selectivity) {
+        if (!tableSelectivities.containsKey(tableName)) {
+            tableSelectivities.put(tableName, new ArrayList<Double>());
+        }
+        tableSelectivities.get(tableName).add(Math.min(Math.max(selectivity, 0.0), 1.0));
+    }
+
+}
@@ -0,0 +1,211 @@
+package utils;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.la4j.Vector;
+
+
+public class DecisionLog {
+
+    private String path;
+    private BufferedWriter writer;
+    private int numLogged;
+
+    public DecisionLog(String path) {
+        /**
+         * Appends each decision of an optimizer (its contexts, the probability of each arm, the chosen arm and
+         * the observed reward) to the given file as one JSON object per line, for off-policy evaluation.
+         */
+        this.path = path;
+        this.numLogged = 0;
+        try {
+            this.writer = new BufferedWriter(new FileWriter(path, true));
+        } catch (IOException ex) {
+            System.out.printf("Could not open decision log %s: %s\n", path, ex.getMessage());
+            this.writer = null;
+        }
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public int getNumLogged() {
+        return this.numLogged;
+    }
+
+    public void log(Decision decision) {
+        if (this.writer == null) {
+            return;
+        }
+
+        try {
+            this.writer.write(decision.toJsonObject().toJSONString());
+            this.writer.newLine();
+            this.writer.flush();
+            this.numLogged += 1;
+        } catch (IOException ex) {
+            System.out.printf("Could not write to decision log %s: %s\n", this.path, ex.getMessage());
+        }
+    }
+
+    public void close() {
+        if (this.writer == null) {
+            return;
+        }
+
+        try {
+            this.writer.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        this.writer = null;
+    }
+
+    public static List<Decision> read(String path) {
+        /**
+         * Reads all decisions of the given log, skipping lines which cannot be parsed (e.g. a line cut off by a crash).
+         */
+        List<Decision> decisions = new ArrayList<Decision>();
+        JSONParser parser = new JSONParser();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber += 1;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                try {
+                    decisions.add(Decision.fromJsonObject((JSONObject) parser.parse(line)));
+                } catch (ParseException ex) {
+                    System.out.printf("Skipping line %d of %s: %s\n", lineNumber, path, ex);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+
+        return decisions;
+    }
+
+    public static class Decision {
+
+        private String policy;  // Name of the optimizer which made the decision
+        private int time;
+        private int queryType;
+        private List<Vector> contexts;
+        private double[] probabilities;  // Probability of each arm under the logging optimizer
+        private int arm;
+        private double reward;
+        private boolean isCensored;
+
+        public Decision(String policy, int time, int queryType, List<Vector> contexts, double[] probabilities, int arm, double reward, boolean isCensored) {
+            this.policy = policy;
+            this.time = time;
+            this.queryType = queryType;
+            this.contexts = contexts;
+            this.probabilities = probabilities;
+            this.arm = arm;
+            this.reward = reward;
+            this.isCensored = isCensored;
+        }
+
+        public String getPolicy() {
+            return this.policy;
+        }
+
+        public int getTime() {
+            return this.time;
+        }
+
+        public int getQueryType() {
+            return this.queryType;
+        }
+
+        public List<Vector> getContexts() {
+            return this.contexts;
+        }
+
+        public double[] getProbabilities() {
+            return this.probabilities;
+        }
+
+        public int getArm() {
+            return this.arm;
+        }
+
+        public double getPropensity() {
+            return this.arm < this.probabilities.length ? this.probabilities[this.arm] : 0.0;
+        }
+
+        public double getReward() {
+            return this.reward;
+        }
+
+        public boolean isCensored() {
+            return this.isCensored;
+        }
+
+        public JSONObject toJsonObject() {
+            JSONObject result = new JSONObject();
+
+            result.put("policy", this.policy);
+            result.put("time", this.time);
+            result.put("query_type", this.queryType);
+            result.put("arm", this.arm);
+            result.put("reward", this.reward);
+            result.put("is_censored", this.isCensored);
+
+            JSONArray probabilityArray = new JSONArray();
+            for (double probability : this.probabilities) {
+                probabilityArray.add(probability);
+            }
+            result.put("probabilities", probabilityArray);
+
+            JSONArray contextArray = new JSONArray();
+            for (Vector context : this.contexts) {
+                JSONArray features = new JSONArray();
+                for (int i = 0; i < context.length(); i++) {
+                    features.add(context.get(i));
+                }
+                contextArray.add(features);
+            }
+            result.put("contexts", contextArray);
+
+            return result;
+        }
+
+        public static Decision fromJsonObject(JSONObject obj) {
+            JSONArray probabilityArray = (JSONArray) obj.get("probabilities");
+            double[] probabilities = new double[probabilityArray.size()];
+            for (int i = 0; i < probabilities.length; i++) {
+                probabilities[i] = ((Number) probabilityArray.get(i)).doubleValue();
+            }
+
+            List<Vector> contexts = new ArrayList<Vector>();
+            for (Object featuresObj : (JSONArray) obj.get("contexts")) {
+                JSONArray features = (JSONArray) featuresObj;
+                double[] context = new double[features.size()];
+                for (int i = 0; i < context.length; i++) {
+                    context[i] = ((Number) features.get(i)).doubleValue();
+                }
+                contexts.add(Vector.fromArray(context));
+            }
+
+            return new Decision((String) obj.get("policy"), ((Number) obj.get("time")).intValue(), ((Number) obj.get("query_type")).intValue(), contexts, probabilities, ((Number) obj.get("arm")).intValue(), ((Number) obj.get("reward")).doubleValue(), (Boolean) obj.get("is_censored"));
+        }
+    }
+}
@@ -11,6 +11,8 @@ public class OutputStats {
     private double bestTime;
     private double elapsedTime;
     private double normalizedReward;
+    private boolean isCensored;
+    private PhaseTrace trace;
 
     public OutputStats(double elapsedTime, double normalizedReward, double regret, int arm, int queryType, int bestArm, double bestTime) {
         this.regret = regret;
@@ -20,6 +22,8 @@ public class OutputStats {
         this.arm = arm;
         this.bestArm = bestArm;
         this.bestTime = bestTime;
+        this.isCensored = false;
+        this.trace = null;
     }
 
     public double getRegret() {
@@ -50,6 +54,22 @@ public class OutputStats {
         return this.bestTime;
     }
 
+    public boolean isCensored() {
+        return this.isCensored;
+    }
+
+    public void setCensored(boolean isCensored) {
+        this.isCensored = isCensored;
+    }
+
+    public PhaseTrace getTrace() {
+        return this.trace;
+    }
+
+    public void setTrace(PhaseTrace trace) {
+        this.trace = trace;
+    }
+
     public JSONObject toJsonObject() {
         JSONObject result = new JSONObject();
 
@@ -60,6 +80,11 @@ public class OutputStats {
         result.put("arm", this.getArm());
         result.put("best_arm", this.getBestArm());
         result.put("best_time", this.getBestTime());
+        result.put("censored", this.isCensored());
+
+        if (this.trace != null) {
+            result.put("phases", this.trace.toJsonObject());
+        }
 
         return result;
     }
@@ -0,0 +1,166 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+
+public class PhaseTrace {
+
+    // Phases of a single trial
+    public static final String PARSE = "parse";
+    public static final String CONTEXT = "context";
+    public static final String CHOOSE = "choose";
+    public static final String REWRITE = "rewrite";
+    public static final String EXECUTE = "execute";
+    public static final String UPDATE = "update";
+    public static final String FEEDBACK = "feedback";
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = getThreadBean();
+
+    private LinkedHashMap<String, Long> phaseNanos;
+    private LinkedHashMap<String, Long> phaseBytes;
+    private long lastNanos;
+    private long lastBytes;
+
+    public PhaseTrace() {
+        this.phaseNanos = new LinkedHashMap<String, Long>();
+        this.phaseBytes = new LinkedHashMap<String, Long>();
+        this.start();
+    }
+
+    public void start() {
+        /**
+         * Starts the span of the next phase without recording the time since the last mark.
+         */
+        this.lastNanos = System.nanoTime();
+        this.lastBytes = allocatedBytes();
+    }
+
+    public void mark(String phase) {
+        /**
+         * Ends the current span and adds its duration and the bytes allocated by this thread to the given
+         * phase. Phases which are marked more than once (e.g. once per arm) accumulate.
+         */
+        long nanos = System.nanoTime();
+        long bytes = allocatedBytes();
+
+        add(this.phaseNanos, phase, nanos - this.lastNanos);
+        add(this.phaseBytes, phase, (bytes >= 0 && this.lastBytes >= 0) ? bytes - this.lastBytes : 0);
+
+        // Start the next span after the (allocating) bookkeeping above
+        this.start();
+    }
+
+    public long getNanos(String phase) {
+        Long nanos = this.phaseNanos.get(phase);
+        return nanos != null ? nanos : 0;
+    }
+
+    public long getBytes(String phase) {
+        Long bytes = this.phaseBytes.get(phase);
+        return bytes != null ? bytes : 0;
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : this.phaseNanos.values()) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    public double getOverheadMillis() {
+        /**
+         * Returns the time (ms) spent outside of query execution.
+         */
+        return ((double) (this.getTotalNanos() - this.getNanos(EXECUTE))) / 1e6;
+    }
+
+    public JSONObject toJsonObject() {
+        JSONObject result = new JSONObject();
+
+        for (String phase : this.phaseNanos.keySet()) {
+            JSONObject span = new JSONObject();
+            span.put("nanos", this.getNanos(phase));
+            span.put("allocated_bytes", this.getBytes(phase));
+            result.put(phase, span);
+        }
+
+        return result;
+    }
+
+    public static void printSummary(String name, List<PhaseTrace> traces) {
+        /**
+         * Prints the mean, median and 95th percentile duration and the mean allocation of each phase.
+         *
+         * @param name: Name of the run (e.g. the optimizer)
+         * @param traces: Traces of the individual trials
+         */
+        if (traces.isEmpty()) {
+            return;
+        }
+
+        List<String> phases = new ArrayList<String>();
+        for (PhaseTrace trace : traces) {
+            for (String phase : trace.phaseNanos.keySet()) {
+                if (!phases.contains(phase)) {
+                    phases.add(phase);
+                }
+            }
+        }
+
+        System.out.printf("Phase summary for %s (%d trials)\n", name, traces.size());
+        System.out.printf("    %-8s %10s %10s %10s %12s\n", "phase", "mean ms", "p50 ms", "p95 ms", "mean KB");
+        for (String phase : phases) {
+            List<Double> millis = new ArrayList<Double>();
+            double totalBytes = 0.0;
+            for (PhaseTrace trace : traces) {
+                millis.add(((double) trace.getNanos(phase)) / 1e6);
+                totalBytes += trace.getBytes(phase);
+            }
+            Collections.sort(millis);
+
+            System.out.printf("    %-8s %10.3f %10.3f %10.3f %12.1f\n", phase, Utils.average(millis), percentile(millis, 0.5), percentile(millis, 0.95), totalBytes / (1024.0 * traces.size()));
+        }
+    }
+
+    private static double percentile(List<Double> sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static void add(Map<String, Long> map, String phase, long value) {
+        Long current = map.get(phase);
+        map.put(phase, current != null ? current + value : value);
+    }
+
+    private static long allocatedBytes() {
+        if (THREAD_BEAN == null) {
+            return -1;
+        }
+        return THREAD_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        // Allocation counters are a HotSpot extension, so fall back to timing only when they are unavailable
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+        if (!hotspotBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        if (!hotspotBean.isThreadAllocatedMemoryEnabled()) {
+            hotspotBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return hotspotBean;
+    }
+}
@@ -10,10 +10,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.ArrayList;
@@ -32,6 +28,9 @@ import org.la4j.matrix.dense.Basic2DMatrix;
 
 import bandits.OptimizerFactory;
 import bandits.BanditOptimizer;
+import bandits.OptimizerSnapshot;
+import bandits.ConservativeOptimizer;
+import bandits.EliminationOptimizer;
 
 public class Utils {
 
@@ -114,6 +113,22 @@ public class Utils {
         return result;
     }
 
+    public static int getNumFeatures(String configPath) {
+        /**
+         * Reads the context width of the optimizers in the given configuration, or -1 if it cannot be read.
+         */
+        JSONParser parser = new JSONParser();
+        try (FileReader reader = new FileReader(configPath)) {
+            JSONObject rawObject = (JSONObject) parser.parse(reader);
+            return ((Long) rawObject.get("numFeatures")).intValue();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (ParseException ex) {
+            ex.printStackTrace();
+        }
+        return -1;
+    }
+
     public static List<BanditOptimizer> getOptimizers(String configPath, int numArms, int numTypes) {
         /**
          * Loads the bandit optimizers as specified by the configuration path.
@@ -148,7 +163,20 @@ public class Utils {
                     argArray[i] = (double) args.get(i);
                 }
 
-                optimizers.add(OptimizerFactory.banditFactory(name, numArms, numTypes, numFeatures, rewardEpsilon, rewardAnneal, updateThreshold, argArray));
+                BanditOptimizer optimizer = OptimizerFactory.banditFactory(name, numArms, numTypes, numFeatures, rewardEpsilon, rewardAnneal, updateThreshold, argArray);
+
+                // Optionally drop arms which are dominated with the given confidence (in standard errors)
+                Object elimination = config.get("elimination");
+                if (optimizer != null && elimination != null) {
+                    optimizer = new EliminationOptimizer(optimizer, ((Number) elimination).doubleValue());
+                }
+
+                // Optionally guarantee (up to the given relative regression) no worse latency than the native plan
+                Object conservative = config.get("conservative");
+                if (optimizer != null && conservative != null) {
+                    optimizer = new ConservativeOptimizer(optimizer, ((Number) conservative).doubleValue());
+                }
+                optimizers.add(optimizer);
             }
         } catch (FileNotFoundException ex) {
             ex.printStackTrace();
@@ -334,10 +362,14 @@ public class Utils {
     public static Vector normalizeVector(Vector v) {
         /**
          * Normalizes the given vector such that the sum
-         * of all entries equals 1.
+         * of all entries equals 1. All-zero vectors (e.g. a
+         * binary feature which is unset for every arm) stay zero.
          */
         double[] normalized = new double[v.length()];
         double sum = v.sum();
+        if (sum == 0.0) {
+            return v.copy();
+        }
         
         for (int i = 0; i < v.length(); i++) {
             normalized[i] = v.get(i) / sum;
@@ -366,56 +398,30 @@ public class Utils {
     }
 
     public static void saveOptimizer(BanditOptimizer opt, String outputFolder) {
-        FileOutputStream outStream = null;
-        ObjectOutputStream objStream = null;
-
-        try {
-            String outputFile = String.format("%s/%s.ser", outputFolder, opt.getName());
-
-            outStream = new FileOutputStream(outputFile);
-            objStream = new ObjectOutputStream(outStream);
-
-            objStream.writeObject(opt);
-
-            objStream.close();
-            outStream.close();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        /**
+         * Saves a snapshot of the optimizer (see OptimizerSnapshot) into the given folder.
+         */
+        String outputFile = String.format("%s/%s%s", outputFolder, opt.getName(), OptimizerSnapshot.EXTENSION);
+        OptimizerSnapshot.save(opt, outputFile);
     }
 
     public static List<BanditOptimizer> loadOptimizers(String folder) {
-        List<String> serializedFiles = Utils.getFiles(folder, ".ser");
-
+        /**
+         * Loads all optimizer snapshots in the given folder.
+         */
         List<BanditOptimizer> optimizers = new ArrayList<BanditOptimizer>();
-
-        String fileName;
-        FileInputStream inStream;
-        ObjectInputStream objStream;
-        for (String filePath : serializedFiles) {
-            
-            fileName = getFileName(filePath);
- 
-            try {
-                inStream = new FileInputStream(filePath);
-                objStream = new ObjectInputStream(inStream);
-
-                Object optimizerObj = objStream.readObject();
-                BanditOptimizer opt = OptimizerFactory.loadBandit(optimizerObj, fileName);
-
-                if (opt != null) {
-                    optimizers.add(opt);
-                }
-
-                objStream.close();
-                inStream.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            } catch (ClassNotFoundException ex) {
-                ex.printStackTrace();
+        for (String filePath : Utils.getFiles(folder, OptimizerSnapshot.EXTENSION)) {
+            BanditOptimizer opt = OptimizerSnapshot.load(filePath);
+            if (opt != null) {
+                optimizers.add(opt);
             }
         }
 
+        // Java serialization broke with every change to the optimizer classes, so it is no longer read
+        for (String filePath : Utils.getFiles(folder, ".ser")) {
+            System.out.printf("Skipping %s, which uses the retired serialized format\n", filePath);
+        }
+
         return optimizers;
     }
 